@@ -0,0 +1,139 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.n52.sensorweb.wdc.columnar.ColumnSegmentReader;
+import org.n52.sensorweb.wdc.columnar.ColumnarSink;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sums the temperature of all records of the given number of days with one
+ * record per minute, once parsed from the CSV files and once from the
+ * segment files of the {@link ColumnarSink}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColumnarScanBenchmark {
+
+	@Param({ "30", "365" })
+	public int days;
+
+	private File folder;
+
+	private String prefix;
+
+	private DateTime start;
+
+	private DateTime end;
+
+	@Setup
+	public void writeData() throws IOException {
+		folder = Files.createTempDirectory("52n-wdc-scan").toFile();
+		prefix = folder.getAbsolutePath() + File.separator + "scan_";
+		start = new DateTime(2014, 1, 1, 0, 0, DateTimeZone.UTC);
+		end = start.plusDays(days).minusMillis(1);
+		final MuensterwetterDataset dataset = CsvSerializationBenchmark.createDataset();
+		try (RollingCsvAppender csv = new RollingCsvAppender(prefix, "yyyy-MM-dd", dataset.getCSVHeader(), Durability.NONE, 1, 0);
+				ColumnarSink columnar = new ColumnarSink(prefix, 1440)) {
+			for (DateTime time = start; time.isBefore(end); time = time.plusMinutes(1)) {
+				dataset.setTime(time);
+				dataset.setTemperature(time.getMinuteOfDay() / 100.0);
+				csv.append(dataset);
+				columnar.append(dataset);
+			}
+		}
+	}
+
+	@TearDown
+	public void deleteData() {
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Benchmark
+	public double scanCsv() throws IOException {
+		double sum = 0;
+		for (DateTime day = start; day.isBefore(end); day = day.plusDays(1)) {
+			final File file = new File(prefix + format(day) + ".csv");
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				// skip header
+				String line = reader.readLine();
+				while ((line = reader.readLine()) != null) {
+					final int from = line.indexOf(',') + 1;
+					sum += Double.parseDouble(line.substring(from, line.indexOf(',', from)));
+				}
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double scanColumn() throws IOException {
+		double sum = 0;
+		for (final File segment : ColumnSegmentReader.findSegments(prefix, start, end)) {
+			try (ColumnSegmentReader reader = new ColumnSegmentReader(segment)) {
+				final DoubleBuffer temperatures = reader.getNumbers("temperature");
+				while (temperatures.hasRemaining()) {
+					sum += temperatures.get();
+				}
+			}
+		}
+		return sum;
+	}
+
+	private static String format(final DateTime day) {
+		return String.format("%04d-%02d-%02d", day.getYear(), day.getMonthOfYear(), day.getDayOfMonth());
+	}
+
+}
@@ -0,0 +1,116 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the former <code>String.format</code> based serialization of a
+ * {@link MuensterwetterDataset} with the current one. Run with
+ * <code>-prof gc</code> to see the allocations per record.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CsvSerializationBenchmark {
+
+	private MuensterwetterDataset dataset;
+
+	private StringBuilder reusedBuilder;
+
+	@Setup
+	public void setUp() {
+		dataset = createDataset();
+		reusedBuilder = new StringBuilder(256);
+	}
+
+	public static MuensterwetterDataset createDataset() {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(new DateTime(2014, 1, 1, 12, 0, DateTimeZone.forOffsetHours(1)));
+		dataset.setTemperature(12.3);
+		dataset.setRelativeHumidity(87.0);
+		dataset.setWindSpeedMperSec(3.4);
+		dataset.setWindSpeedKmh(12.2);
+		dataset.setWindSpeedBft(3.0);
+		dataset.setWindDirectionDegree(225.0);
+		dataset.setWindDirection("SW");
+		dataset.setWindMaxGust(8.9);
+		dataset.setAirPressure(1013.25);
+		dataset.setVisibility(20000.0);
+		dataset.setWeatherCode("61");
+		dataset.setWeatherCodeText("Regen, leicht");
+		dataset.setGlobalRadiation(123.0);
+		return dataset;
+	}
+
+	@Benchmark
+	public String legacyStringFormat() {
+		return String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s",
+				dataset.getTime().toString(),
+				dataset.getTemperature(),
+				dataset.getRelativeHumidity(),
+				dataset.getWindSpeedMperSec(),
+				dataset.getWindSpeedKmh(),
+				dataset.getWindSpeedBft(),
+				dataset.getWindDirectionDegree(),
+				dataset.getWindDirection(),
+				dataset.getWindMaxGust(),
+				dataset.getAirPressure(),
+				dataset.getVisibility(),
+				dataset.getWeatherCode(),
+				dataset.getWeatherCodeText(),
+				dataset.getGlobalRadiation());
+	}
+
+	@Benchmark
+	public String toCSVString() {
+		return dataset.toCSVString();
+	}
+
+	@Benchmark
+	public StringBuilder appendCSV() throws IOException {
+		reusedBuilder.setLength(0);
+		dataset.appendCSV(reusedBuilder);
+		return reusedBuilder;
+	}
+
+}
@@ -0,0 +1,161 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server serving the recorded station files from
+ * <code>fixtures/&lt;station&gt;/</code> on the class path below
+ * <code>/data/</code>. The time file might be advanced by one minute per
+ * request, so that each collection run finds new data.
+ */
+public class FixtureServer {
+
+	private static final String CONTEXT = "/data/";
+
+	static {
+		// avoid delayed ACKs slowing down keep-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final String station;
+
+	private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+	private final AtomicLong minutes = new AtomicLong();
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private volatile String timeFile;
+
+	private volatile DateTime startTime;
+
+	private volatile DateTimeFormatter timeFormatter;
+
+	public FixtureServer(final String stationP) throws IOException {
+		station = stationP;
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				final byte[] content = getContent(exchange.getRequestURI().getPath().substring(CONTEXT.length()));
+				if (content == null) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				exchange.sendResponseHeaders(200, content.length);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write(content);
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Let the given time file return one minute later with each request.
+	 */
+	public void advanceTime(final String fileName, final DateTime start, final String pattern) {
+		startTime = start;
+		timeFormatter = DateTimeFormat.forPattern(pattern).withZone(start.getZone());
+		timeFile = fileName;
+	}
+
+	private byte[] getContent(final String fileName) throws IOException {
+		if (fileName.equals(timeFile)) {
+			final DateTime time = startTime.plusMinutes((int) minutes.getAndIncrement());
+			return timeFormatter.print(time).getBytes(StandardCharsets.UTF_8);
+		}
+		byte[] content = files.get(fileName);
+		if (content == null) {
+			content = load(station + "/" + fileName);
+			if (content != null) {
+				files.put(fileName, content);
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * @return the station configuration stored next to the station files
+	 */
+	public Properties loadConfiguration() throws IOException {
+		final Properties configuration = new Properties();
+		try (InputStream in = FixtureServer.class.getResourceAsStream("/fixtures/" + station + ".properties")) {
+			configuration.load(in);
+		}
+		configuration.setProperty("DATA_URL", getDataUrl());
+		return configuration;
+	}
+
+	static byte[] load(final String resource) throws IOException {
+		try (InputStream in = FixtureServer.class.getResourceAsStream("/fixtures/" + resource)) {
+			if (in == null) {
+				return null;
+			}
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	public String getDataUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + CONTEXT;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+}
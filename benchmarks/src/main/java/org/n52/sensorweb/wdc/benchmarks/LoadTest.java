@@ -0,0 +1,447 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.n52.sensorweb.wdc.AsyncDatasetWriter;
+import org.n52.sensorweb.wdc.DataCollectionTask;
+import org.n52.sensorweb.wdc.DataCollector;
+import org.n52.sensorweb.wdc.ThreadMode;
+import org.n52.sensorweb.wdc.WeatherDataCollector;
+import org.n52.sensorweb.wdc.metrics.Counter;
+import org.n52.sensorweb.wdc.metrics.Histogram;
+import org.n52.sensorweb.wdc.metrics.Metric;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.n52.sensorweb.wdc.ms.MuensterwetterRealTimeCollector;
+
+/**
+ * Runs one {@link MuensterwetterRealTimeCollector} per simulated station of a
+ * {@link SyntheticStationServer} for a while, scheduled and stored like by
+ * the {@link WeatherDataCollector}, and reports the achieved throughput, the
+ * overrun runs, the latency percentiles of the runs and the memory usage.
+ * <p>
+ * Arguments are <code>key=value</code> pairs. Lower case keys configure the
+ * load test (see {@link #DEFAULTS}), upper case keys are passed to every
+ * collector, e.g. <code>FETCH_MODE=concurrent THREAD_MODE=virtual</code>.
+ */
+public final class LoadTest {
+
+	/**
+	 * the options of the load test and their default values
+	 */
+	static final String[][] DEFAULTS = {
+		{ "stations", "100", "number of simulated stations and collectors" },
+		{ "durationSec", "60", "duration of the measurement" },
+		{ "periodMillis", "10000", "interval between two runs of a collector" },
+		{ "updateMillis", "10000", "interval between two records of a station" },
+		{ "latencyMillis", "20", "delay of each response" },
+		{ "jitterMillis", "10", "max. random deviation from latencyMillis" },
+		{ "errorRate", "0", "probability of a 503 response" },
+		{ "schedulerThreads", "", "threads running collectors, default like SCHEDULER_THREADS" },
+		{ "fixture", "muenster", "the recorded station files served for every station" },
+		{ "output", "", "folder of the collected data, default: a temporary folder deleted afterwards" },
+	};
+
+	private static final long MEMORY_SAMPLE_MILLIS = 500;
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private final Properties options;
+
+	private final List<Long> runNanos = new ArrayList<>();
+
+	private final List<Long> startDelayNanos = new ArrayList<>();
+
+	private final AtomicLong overruns = new AtomicLong();
+
+	private final AtomicLong lateRuns = new AtomicLong();
+
+	private final AtomicLong maxHeapUsed = new AtomicLong();
+
+	LoadTest(final Properties optionsP) {
+		options = optionsP;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final Properties options = new Properties();
+		for (final String[] option : DEFAULTS) {
+			options.setProperty(option[0], option[1]);
+		}
+		for (final String arg : args) {
+			final int separator = arg.indexOf('=');
+			if (separator < 1) {
+				printUsage();
+				System.exit(1);
+			}
+			options.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+		new LoadTest(options).run();
+		System.exit(0);
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: LoadTest [key=value]...");
+		for (final String[] option : DEFAULTS) {
+			System.err.printf("  %-18s %s (default: %s)%n", option[0], option[2], option[1]);
+		}
+		System.err.println("  upper case keys are passed to the collectors, e.g. FETCH_MODE=concurrent THREAD_MODE=virtual");
+	}
+
+	void run() throws IOException, InterruptedException {
+		final int stations = getInt("stations");
+		final long periodMillis = getLong("periodMillis");
+		final SyntheticStationServer server = new SyntheticStationServer(options.getProperty("fixture"),
+				stations,
+				getLong("latencyMillis"),
+				getLong("jitterMillis"),
+				Double.parseDouble(options.getProperty("errorRate")),
+				getLong("updateMillis"));
+		final boolean temporary = options.getProperty("output").isEmpty();
+		final File output = temporary?
+				Files.createTempDirectory("52n-wdc-loadtest").toFile() :
+				new File(options.getProperty("output"));
+		final ThreadMode threadMode = ThreadMode.fromString(options.getProperty(WeatherDataCollector.THREAD_MODE, "platform"))
+				.getEffectiveMode();
+		final int schedulerThreads = getSchedulerThreads(stations, threadMode);
+		final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(schedulerThreads,
+				threadMode.newThreadFactory("52n-wdc-scheduler-", false));
+		final ScheduledExecutorService memorySampler = Executors.newSingleThreadScheduledExecutor();
+		final List<DataCollector> collectors = new ArrayList<>(stations);
+		final List<AsyncDatasetWriter> writers = new ArrayList<>(stations);
+		try {
+			final long initStart = System.nanoTime();
+			final List<DataCollectionTask> tasks = new ArrayList<>(stations);
+			for (int i = 0; i < stations; i++) {
+				final String name = "station-" + i;
+				final DataCollector collector = createCollector(server, i, name, output);
+				collectors.add(collector);
+				final AsyncDatasetWriter writer = new AsyncDatasetWriter(name,
+						collector,
+						64,
+						32,
+						AsyncDatasetWriter.OverflowPolicy.BLOCK,
+						1000);
+				writers.add(writer);
+				writer.start();
+				tasks.add(new DataCollectionTask(name, collector, writer));
+			}
+			final long initMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - initStart);
+			System.out.printf(Locale.ROOT, "Initialized %d collectors in %dms, %d scheduler threads (%s), output in '%s'%n",
+					stations,
+					initMillis,
+					schedulerThreads,
+					threadMode,
+					output.getAbsolutePath());
+
+			memorySampler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					sampleMemory();
+				}
+			}, 0, MEMORY_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+			final long gcCountBefore = getGcCount();
+			final long gcMillisBefore = getGcMillis();
+			final long recordsBefore = getRecordCount();
+			final long start = System.nanoTime();
+			for (int i = 0; i < stations; i++) {
+				final long delayNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis) * i / stations;
+				scheduler.scheduleAtFixedRate(new MeasuredRun(tasks.get(i), start + delayNanos, periodMillis),
+						delayNanos,
+						TimeUnit.MILLISECONDS.toNanos(periodMillis),
+						TimeUnit.NANOSECONDS);
+			}
+			Thread.sleep(TimeUnit.SECONDS.toMillis(getLong("durationSec")));
+			final long stop = System.nanoTime();
+			scheduler.shutdown();
+			if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				System.out.println("Running collectors did not finish in time.");
+				scheduler.shutdownNow();
+			}
+			for (final AsyncDatasetWriter writer : writers) {
+				writer.close(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+			}
+			final long drained = System.nanoTime();
+			sampleMemory();
+			report((drained - start) / 1e9,
+					(drained - stop) / 1e9,
+					getRecordCount() - recordsBefore,
+					server,
+					getGcCount() - gcCountBefore,
+					getGcMillis() - gcMillisBefore);
+		} finally {
+			scheduler.shutdownNow();
+			memorySampler.shutdownNow();
+			for (final AsyncDatasetWriter writer : writers) {
+				writer.close(0);
+			}
+			for (final DataCollector collector : collectors) {
+				collector.destroy();
+			}
+			server.stop();
+			if (temporary) {
+				delete(output.toPath());
+			}
+		}
+	}
+
+	private DataCollector createCollector(final SyntheticStationServer server,
+			final int station,
+			final String name,
+			final File output) {
+		final Properties configuration = server.loadConfiguration(station);
+		for (final String key : options.stringPropertyNames()) {
+			if (!key.isEmpty() && Character.isUpperCase(key.charAt(0))) {
+				configuration.setProperty(key, options.getProperty(key));
+			}
+		}
+		configuration.setProperty(WeatherDataCollector.COLLECTOR_NAME, name);
+		configuration.setProperty("OUTPUT_filename", name);
+		configuration.setProperty("OUTPUT_folder", output.getAbsolutePath() + File.separator);
+		configuration.setProperty("LAST_TIME_FILE_folder", output.getAbsolutePath() + File.separator);
+		final MuensterwetterRealTimeCollector collector = new MuensterwetterRealTimeCollector();
+		collector.setProperties(configuration);
+		collector.init();
+		return collector;
+	}
+
+	/**
+	 * Like {@link WeatherDataCollector}: one thread per collector, for
+	 * platform threads limited to the number of cores.
+	 */
+	private int getSchedulerThreads(final int stations, final ThreadMode threadMode) {
+		final String threads = options.getProperty("schedulerThreads").trim();
+		if (!threads.isEmpty()) {
+			return Integer.parseInt(threads);
+		}
+		if (threadMode == ThreadMode.VIRTUAL) {
+			return stations;
+		}
+		return Math.min(stations, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param seconds the time from the first run until all datasets were stored
+	 * @param drainSeconds the part of it spent waiting for running runs and
+	 * 		writers after the end of the test
+	 */
+	private void report(final double seconds,
+			final double drainSeconds,
+			final long records,
+			final SyntheticStationServer server,
+			final long gcCount,
+			final long gcMillis) {
+		final long[] runs = toSortedArray(runNanos);
+		final long[] delays = toSortedArray(startDelayNanos);
+		final long mb = 1024 * 1024;
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Stations:          %d, one run every %dms%n", server.getStations(), getLong("periodMillis"));
+		System.out.printf(Locale.ROOT, "Duration:          %.1fs including %.1fs to finish running runs%n",
+				seconds,
+				drainSeconds);
+		System.out.printf(Locale.ROOT, "Records:           %d (%.1f/s)%n", records, records / seconds);
+		System.out.printf(Locale.ROOT, "Runs:              %d (%.1f/s), %d failed%n",
+				runs.length,
+				runs.length / seconds,
+				sumCounters("wdc_run_failures_total"));
+		System.out.printf(Locale.ROOT, "Overruns:          %d runs took longer than the period%n", overruns.get());
+		System.out.printf(Locale.ROOT, "Late runs:         %d runs started more than one period late%n", lateRuns.get());
+		System.out.printf(Locale.ROOT, "Run time [ms]:     %s%n", formatPercentiles(runs));
+		System.out.printf(Locale.ROOT, "Start delay [ms]:  %s%n", formatPercentiles(delays));
+		System.out.printf(Locale.ROOT, "HTTP:              %d requests, %d simulated errors, %d failed downloads%n",
+				server.getRequestCount(),
+				server.getErrorCount(),
+				sumCounters("wdc_http_failures_total"));
+		System.out.printf(Locale.ROOT, "Heap:              max. %dMB used, %dMB committed, %dMB per 1000 stations%n",
+				maxHeapUsed.get() / mb,
+				ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getCommitted() / mb,
+				maxHeapUsed.get() * 1000 / server.getStations() / mb);
+		System.out.printf(Locale.ROOT, "GC:                %d collections, %dms%n", gcCount, gcMillis);
+		System.out.printf(Locale.ROOT, "Threads:           %d peak%n", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+	}
+
+	private static String formatPercentiles(final long[] sortedNanos) {
+		if (sortedNanos.length == 0) {
+			return "-";
+		}
+		return String.format(Locale.ROOT, "p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+				percentile(sortedNanos, 0.5) / 1e6,
+				percentile(sortedNanos, 0.9) / 1e6,
+				percentile(sortedNanos, 0.99) / 1e6,
+				percentile(sortedNanos, 0.999) / 1e6,
+				sortedNanos[sortedNanos.length - 1] / 1e6);
+	}
+
+	/**
+	 * @return the smallest value not exceeded by the given fraction of values
+	 */
+	static long percentile(final long[] sorted, final double fraction) {
+		final int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static long[] toSortedArray(final List<Long> values) {
+		final long[] array;
+		synchronized (values) {
+			array = new long[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+		}
+		Arrays.sort(array);
+		return array;
+	}
+
+	private void sampleMemory() {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		final long used = memory.getHeapMemoryUsage().getUsed();
+		long max;
+		while (used > (max = maxHeapUsed.get()) && !maxHeapUsed.compareAndSet(max, used)) {
+			// retry
+		}
+	}
+
+	/**
+	 * @return the number of datasets stored by all collectors so far
+	 */
+	private static long getRecordCount() {
+		long count = 0;
+		for (final Metric metric : MetricsRegistry.getDefault().getMetrics()) {
+			if (metric.getName().equals("wdc_data_lag_seconds")) {
+				count += ((Histogram) metric).getCount();
+			}
+		}
+		return count;
+	}
+
+	private static long sumCounters(final String name) {
+		long count = 0;
+		for (final Metric metric : MetricsRegistry.getDefault().getMetrics()) {
+			if (metric.getName().equals(name)) {
+				count += ((Counter) metric).getCount();
+			}
+		}
+		return count;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcMillis() {
+		long millis = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private int getInt(final String option) {
+		return Integer.parseInt(options.getProperty(option).trim());
+	}
+
+	private long getLong(final String option) {
+		return Long.parseLong(options.getProperty(option).trim());
+	}
+
+	private static void delete(final Path folder) throws IOException {
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Measures the run time and the delay of the start of each run of a
+	 * collector scheduled at a fixed rate.
+	 */
+	private class MeasuredRun implements Runnable {
+
+		private final DataCollectionTask task;
+
+		private final long periodNanos;
+
+		private long scheduledStart;
+
+		MeasuredRun(final DataCollectionTask taskP, final long firstStartNanos, final long periodMillis) {
+			task = taskP;
+			scheduledStart = firstStartNanos;
+			periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		}
+
+		@Override
+		public void run() {
+			final long start = System.nanoTime();
+			final long startDelay = Math.max(0, start - scheduledStart);
+			scheduledStart += periodNanos;
+			task.run();
+			final long nanos = System.nanoTime() - start;
+			synchronized (runNanos) {
+				runNanos.add(nanos);
+			}
+			synchronized (startDelayNanos) {
+				startDelayNanos.add(startDelay);
+			}
+			if (nanos > periodNanos) {
+				overruns.incrementAndGet();
+			}
+			if (startDelay > periodNanos) {
+				lateRuns.incrementAndGet();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,256 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server simulating many stations, each serving the files of
+ * the recorded station <code>fixtures/&lt;fixture&gt;/</code> below
+ * <code>/stations/&lt;index&gt;/</code>, as configured by the
+ * <code>DATA_FILE_*</code> properties of <code>fixtures/&lt;fixture&gt;.properties</code>.
+ * <p>
+ * Every station publishes a new record, one minute later than the previous
+ * one, each <code>updateIntervalMillis</code>. The updates of the stations are
+ * spread evenly over the interval. Each response is delayed by
+ * <code>latencyMillis</code> plus or minus a random jitter of up to
+ * <code>jitterMillis</code> and fails with <code>503 Service Unavailable</code>
+ * with probability <code>errorRate</code>.
+ */
+public class SyntheticStationServer {
+
+	private static final String CONTEXT = "/stations/";
+
+	private static final String DATA_FILE_PREFIX = "DATA_FILE_";
+
+	private static final String TIME_FILE = "DATA_FILE_time";
+
+	private static final String TIME_FORMAT = "DATE_FORMAT_time_file";
+
+	private static final DateTime START = new DateTime(2014, 1, 1, 12, 0, DateTimeZone.forOffsetHours(1));
+
+	static {
+		// avoid delayed ACKs slowing down keep-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final String fixture;
+
+	private final int stations;
+
+	private final long latencyMillis;
+
+	private final long jitterMillis;
+
+	private final double errorRate;
+
+	private final long updateIntervalMillis;
+
+	private final Properties configuration = new Properties();
+
+	private final Map<String, byte[]> files = new HashMap<>();
+
+	private final String timeFile;
+
+	private final DateTimeFormatter timeFormatter;
+
+	private final long startMillis = System.currentTimeMillis();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	public SyntheticStationServer(final String fixtureP,
+			final int stationsP,
+			final long latencyMillisP,
+			final long jitterMillisP,
+			final double errorRateP,
+			final long updateIntervalMillisP) throws IOException {
+		if (stationsP < 1 || updateIntervalMillisP < 1 || errorRateP < 0 || errorRateP > 1) {
+			throw new IllegalArgumentException("Invalid station simulation: stations=" + stationsP
+					+ ", updateIntervalMillis=" + updateIntervalMillisP
+					+ ", errorRate=" + errorRateP);
+		}
+		fixture = fixtureP;
+		stations = stationsP;
+		latencyMillis = latencyMillisP;
+		jitterMillis = jitterMillisP;
+		errorRate = errorRateP;
+		updateIntervalMillis = updateIntervalMillisP;
+		try (InputStream in = SyntheticStationServer.class.getResourceAsStream("/fixtures/" + fixture + ".properties")) {
+			if (in == null) {
+				throw new IOException("Unknown fixture '" + fixture + "'");
+			}
+			configuration.load(in);
+		}
+		timeFile = configuration.getProperty(TIME_FILE);
+		timeFormatter = DateTimeFormat.forPattern(configuration.getProperty(TIME_FORMAT)).withZone(START.getZone());
+		for (final String key : configuration.stringPropertyNames()) {
+			if (key.startsWith(DATA_FILE_PREFIX) && !key.equals(TIME_FILE)) {
+				final String fileName = configuration.getProperty(key);
+				final byte[] content = FixtureServer.load(fixture + "/" + fileName);
+				if (content != null) {
+					files.put(fileName, content);
+				}
+			}
+		}
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				try {
+					respond(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	private void respond(final HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+		final int separator = path.indexOf('/');
+		final int station = separator > 0? parseStation(path.substring(0, separator)) : -1;
+		if (station < 0) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final long delay = latencyMillis + (jitterMillis > 0? random.nextLong(-jitterMillis, jitterMillis + 1) : 0);
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (errorRate > 0 && random.nextDouble() < errorRate) {
+			errors.incrementAndGet();
+			exchange.sendResponseHeaders(503, -1);
+			return;
+		}
+		final byte[] content = getContent(station, path.substring(separator + 1));
+		if (content == null) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(200, content.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(content);
+		}
+	}
+
+	private int parseStation(final String value) {
+		try {
+			final int station = Integer.parseInt(value);
+			return station < stations? station : -1;
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private byte[] getContent(final int station, final String fileName) {
+		if (fileName.equals(timeFile)) {
+			return timeFormatter.print(getStationTime(station)).getBytes(StandardCharsets.UTF_8);
+		}
+		return files.get(fileName);
+	}
+
+	/**
+	 * @return the time of the latest record published by the station
+	 */
+	DateTime getStationTime(final int station) {
+		final long offset = station * updateIntervalMillis / stations;
+		final long updates = (System.currentTimeMillis() - startMillis + offset) / updateIntervalMillis;
+		return START.plusMinutes((int) updates);
+	}
+
+	/**
+	 * @return the configuration of a collector of the station, without the
+	 * 		output folders
+	 */
+	public Properties loadConfiguration(final int station) {
+		final Properties stationConfiguration = new Properties();
+		stationConfiguration.putAll(configuration);
+		stationConfiguration.setProperty("DATA_URL", getDataUrl(station));
+		return stationConfiguration;
+	}
+
+	public String getDataUrl(final int station) {
+		return "http://localhost:" + server.getAddress().getPort() + CONTEXT + station + "/";
+	}
+
+	public int getStations() {
+		return stations;
+	}
+
+	/**
+	 * @return the number of requests received so far
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of simulated errors sent so far
+	 */
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+}
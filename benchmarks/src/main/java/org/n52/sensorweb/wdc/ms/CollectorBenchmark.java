@@ -0,0 +1,227 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.n52.sensorweb.wdc.benchmarks.FixtureServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Covers the steps of a collection run of the
+ * {@link MuensterwetterRealTimeCollector} against the recorded station files
+ * in <code>fixtures/muenster</code>. Lives in the package of the collector to
+ * reach its parsing and storing steps.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectorBenchmark {
+
+	private FixtureServer server;
+
+	private MuensterwetterRealTimeCollector collector;
+
+	private MuensterwetterDataset dataset;
+
+	private List<MuensterwetterDataset> datasets;
+
+	private DateTimeZone zone;
+
+	private final byte[] decimal = "1013,2".getBytes(StandardCharsets.UTF_8);
+
+	private final byte[] visibility = "<b>10000</b> m".getBytes(StandardCharsets.UTF_8);
+
+	private final byte[] timeZone = "(UTC+1)".getBytes(StandardCharsets.UTF_8);
+
+	private final byte[] timestamp = "01.01.2014 12:00\n".getBytes(StandardCharsets.UTF_8);
+
+	private final TimeZoneResolver timeZoneResolver = new TimeZoneResolver("Etc/GMT%s");
+
+	private final TimestampParser timestampParser = new TimestampParser("dd.MM.yyyy HH:mm");
+
+	private final DateTimeFormatter formatter = DateTimeFormat.forPattern("dd.MM.yyyy HH:mm");
+
+	private File outputFolder;
+
+	@Setup(Level.Trial)
+	public void startServer() throws IOException {
+		server = new FixtureServer("muenster");
+		server.advanceTime("time_de.txt", new DateTime(2014, 1, 1, 12, 0, DateTimeZone.forOffsetHours(1)), "dd.MM.yyyy HH:mm");
+		zone = MuensterwetterRealTimeCollector.parseTimeZone("(UTC+1)", "Etc/GMT%s");
+	}
+
+	/**
+	 * Every iteration writes into a new folder, so the output does not pile up.
+	 */
+	@Setup(Level.Iteration)
+	public void startCollector() throws IOException {
+		outputFolder = Files.createTempDirectory("52n-wdc-benchmark").toFile();
+		final Properties configuration = server.loadConfiguration();
+		configuration.setProperty("OUTPUT_folder", outputFolder.getAbsolutePath() + File.separator);
+		configuration.setProperty("LAST_TIME_FILE_folder", outputFolder.getAbsolutePath() + File.separator);
+		collector = new MuensterwetterRealTimeCollector();
+		collector.setProperties(configuration);
+		collector.init();
+		dataset = collector.getData(new DateTime(0));
+		datasets = Collections.singletonList(dataset);
+	}
+
+	@TearDown(Level.Iteration)
+	public void stopCollector() {
+		collector.destroy();
+		final File[] files = outputFolder.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		outputFolder.delete();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.stop();
+	}
+
+	/**
+	 * The former parsing of the decoded values.
+	 */
+	@Benchmark
+	public double parseDouble() {
+		return parseDecoded("1013,2");
+	}
+
+	/**
+	 * The downloaded bytes parsed without decoding them.
+	 */
+	@Benchmark
+	public double parseDecimalBytes() {
+		return ByteParsers.parseDecimal(decimal, 0, decimal.length);
+	}
+
+	/**
+	 * The former parsing of the visibility: decoding and a regular expression.
+	 */
+	@Benchmark
+	public double parseVisibility() {
+		return parseDecoded(
+				new String(visibility, StandardCharsets.UTF_8).trim().replaceAll("[^\\d]", ""));
+	}
+
+	@Benchmark
+	public double parseVisibilityBytes() {
+		return ByteParsers.parseDigits(visibility, 0, visibility.length);
+	}
+
+	@Benchmark
+	public DateTimeZone parseTimeZone() {
+		return MuensterwetterRealTimeCollector.parseTimeZone("(UTC+1)", "Etc/GMT%s");
+	}
+
+	/**
+	 * The zone of an unchanged time zone file as resolved in each run.
+	 */
+	@Benchmark
+	public DateTimeZone resolveTimeZone() {
+		return timeZoneResolver.resolve(timeZone, 0, timeZone.length);
+	}
+
+	/**
+	 * The former parsing of the time file by a Joda-Time formatter.
+	 */
+	@Benchmark
+	public DateTime parseTimestampFormatted() {
+		return formatter.withZone(zone).parseDateTime("01.01.2014 12:00").toDateTime(DateTimeZone.UTC);
+	}
+
+	@Benchmark
+	public DateTime parseTimestampBytes() {
+		return timestampParser.parse(timestamp, 0, timestamp.length, zone);
+	}
+
+	@Benchmark
+	public String toCSVString() {
+		return dataset.toCSVString();
+	}
+
+	@Benchmark
+	public boolean appendData() {
+		return collector.appendData(datasets);
+	}
+
+	/**
+	 * One complete run: 15 downloads, parsing, appending the record and
+	 * storing the time of the record, all on the calling thread.
+	 */
+	@Benchmark
+	public DateTime collectWeatherData() {
+		final MuensterwetterDataset collected = collector.collectWeatherData();
+		if (collected != null) {
+			collector.store(Collections.singletonList(collected));
+		}
+		return collector.getTimeOfLatestData();
+	}
+
+	/**
+	 * Parses the decoded content of a file like the fields did before
+	 * {@link ByteParsers}.
+	 */
+	private static double parseDecoded(final String value) {
+		if (value.isEmpty()) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(value.replace(",", "."));
+		} catch (final NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a {@link DataCollectionTask} and schedules its next run as calculated
+ * by an {@link AdaptivePollingPolicy} from the timestamp of the newest data of
+ * the collector.
+ */
+public class AdaptiveDataCollectionTask implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveDataCollectionTask.class);
+
+	private final DataCollectionTask task;
+
+	private final AdaptivePollingPolicy policy;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Runnable scheduled;
+
+	public AdaptiveDataCollectionTask(final DataCollectionTask taskP,
+			final AdaptivePollingPolicy policyP,
+			final ScheduledExecutorService schedulerP) {
+		this(taskP, policyP, schedulerP, null);
+	}
+
+	/**
+	 * @param executor runs the task when it is due or <code>null</code> to run
+	 * 		it on the thread of the scheduler
+	 */
+	public AdaptiveDataCollectionTask(final DataCollectionTask taskP,
+			final AdaptivePollingPolicy policyP,
+			final ScheduledExecutorService schedulerP,
+			final Executor executor) {
+		task = taskP;
+		policy = policyP;
+		scheduler = schedulerP;
+		scheduled = executor == null? this : new Runnable() {
+			@Override
+			public void run() {
+				try {
+					executor.execute(AdaptiveDataCollectionTask.this);
+				} catch (final RejectedExecutionException e) {
+					LOG.debug("Not running dataCollector '{}' because the executor is shut down.", task.getName());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Schedules the first run.
+	 */
+	public void start(final long initialDelayMillis) {
+		scheduler.schedule(scheduled, initialDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void run() {
+		task.run();
+		final DateTime latest = task.getDataCollector().getTimeOfLatestData();
+		final long delay = policy.nextDelay(latest == null? Long.MIN_VALUE : latest.getMillis(),
+				System.currentTimeMillis());
+		LOG.info("*** Next run of dataCollector '{}' in {}s. {}", task.getName(), delay / 1000, policy);
+		try {
+			scheduler.schedule(scheduled, delay, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			LOG.debug("Not rescheduling dataCollector '{}' because the scheduler is shut down.", task.getName());
+		}
+	}
+
+	public AdaptivePollingPolicy getPolicy() {
+		return policy;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AdaptiveDataCollectionTask [task=%s, policy=%s]", task, policy);
+	}
+
+}
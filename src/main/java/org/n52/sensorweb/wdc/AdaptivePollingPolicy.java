@@ -0,0 +1,186 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns the publication rhythm of a station from the timestamps of its data
+ * and calculates the delay until the next poll.
+ * <p>
+ * The publication period is estimated by the smallest difference between
+ * successive station timestamps and the publication lag by the smallest
+ * difference between a station timestamp and the time its data was seen first,
+ * both over the last {@value #HISTORY} changes. The next poll is scheduled at
+ * the expected publication time. If the data has not changed by then, the
+ * delay is doubled from the minimum interval up to the maximum interval.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class AdaptivePollingPolicy {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptivePollingPolicy.class);
+
+	private static final int HISTORY = 16;
+
+	private final long minIntervalMillis;
+
+	private final long maxIntervalMillis;
+
+	private final long[] periods = new long[HISTORY];
+
+	private final long[] lags = new long[HISTORY];
+
+	private final long initialPeriodMillis;
+
+	private int changes;
+
+	private int periodSamples;
+
+	private long lastObservationMillis = Long.MIN_VALUE;
+
+	private long backoffMillis;
+
+	private long polls;
+
+	private long pollsWithNewData;
+
+	/**
+	 * @param minIntervalMillisP the minimum delay between two polls
+	 * @param maxIntervalMillisP the maximum delay between two polls
+	 * @param initialPeriodMillisP the publication period assumed until one is learned
+	 */
+	public AdaptivePollingPolicy(final long minIntervalMillisP,
+			final long maxIntervalMillisP,
+			final long initialPeriodMillisP) {
+		if (minIntervalMillisP <= 0 || maxIntervalMillisP < minIntervalMillisP) {
+			throw new IllegalArgumentException(String.format("Invalid interval bounds: min=%sms, max=%sms",
+					minIntervalMillisP,
+					maxIntervalMillisP));
+		}
+		minIntervalMillis = minIntervalMillisP;
+		maxIntervalMillis = maxIntervalMillisP;
+		initialPeriodMillis = initialPeriodMillisP;
+		backoffMillis = minIntervalMillis;
+	}
+
+	/**
+	 * @param observationMillis the newest station timestamp known after the
+	 * 		poll or {@link Long#MIN_VALUE} if none is known
+	 * @param nowMillis the current time
+	 * @return the delay in milliseconds until the next poll
+	 */
+	public long nextDelay(final long observationMillis, final long nowMillis) {
+		polls++;
+		if (observationMillis == Long.MIN_VALUE) {
+			return backoff();
+		}
+		if (observationMillis > lastObservationMillis) {
+			pollsWithNewData++;
+			learn(observationMillis, nowMillis);
+			backoffMillis = minIntervalMillis;
+		}
+		final long expected = getExpectedPublicationMillis();
+		if (expected > nowMillis) {
+			final long delay = clamp(expected - nowMillis);
+			LOG.debug("Next data expected at {}. Next poll in {}ms.", expected, delay);
+			return delay;
+		}
+		return backoff();
+	}
+
+	private void learn(final long observationMillis, final long nowMillis) {
+		if (lastObservationMillis != Long.MIN_VALUE) {
+			periods[periodSamples % HISTORY] = observationMillis - lastObservationMillis;
+			periodSamples++;
+		}
+		lags[changes % HISTORY] = nowMillis - observationMillis;
+		changes++;
+		lastObservationMillis = observationMillis;
+	}
+
+	private long backoff() {
+		final long delay = backoffMillis;
+		backoffMillis = Math.min(maxIntervalMillis, backoffMillis * 2);
+		LOG.debug("No new data. Next poll in {}ms.", delay);
+		return delay;
+	}
+
+	private long clamp(final long delay) {
+		return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, delay));
+	}
+
+	/**
+	 * @return the estimated time the station publishes its next data on our
+	 * 		clock or {@link Long#MIN_VALUE} if no data was seen yet
+	 */
+	public long getExpectedPublicationMillis() {
+		if (lastObservationMillis == Long.MIN_VALUE) {
+			return Long.MIN_VALUE;
+		}
+		return lastObservationMillis + getPeriodMillis() + getLagMillis();
+	}
+
+	/**
+	 * @return the estimated publication period of the station
+	 */
+	public long getPeriodMillis() {
+		if (periodSamples == 0) {
+			return initialPeriodMillis;
+		}
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < Math.min(periodSamples, HISTORY); i++) {
+			min = Math.min(min, periods[i]);
+		}
+		return min;
+	}
+
+	/**
+	 * @return the estimated delay between a station timestamp and its data
+	 * 		being available, including clock differences
+	 */
+	public long getLagMillis() {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < Math.min(changes, HISTORY); i++) {
+			min = Math.min(min, lags[i]);
+		}
+		return changes == 0? 0 : min;
+	}
+
+	public long getPolls() {
+		return polls;
+	}
+
+	public long getPollsWithNewData() {
+		return pollsWithNewData;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AdaptivePollingPolicy [minIntervalMillis=%s, maxIntervalMillis=%s, periodMillis=%s, lagMillis=%s, polls=%s, pollsWithNewData=%s]",
+				minIntervalMillis, maxIntervalMillis, getPeriodMillis(), getLagMillis(), polls, pollsWithNewData);
+	}
+
+}
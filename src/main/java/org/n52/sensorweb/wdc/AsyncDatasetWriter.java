@@ -0,0 +1,381 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.n52.sensorweb.wdc.metrics.Counter;
+import org.n52.sensorweb.wdc.metrics.Gauge;
+import org.n52.sensorweb.wdc.metrics.Histogram;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the datasets of one {@link DataCollector} on a dedicated thread or
+ * on a pool shared by many writers, so slow outputs do not delay the next
+ * collection run. Datasets are handed over by a bounded queue and stored in
+ * batches of everything queued in the meantime by
+ * {@link DataCollector#store(List)}. With a shared pool, at most one batch of
+ * a writer is stored at a time, so the order of its datasets is kept.
+ */
+public class AsyncDatasetWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncDatasetWriter.class);
+
+	private static final long POLL_MILLIS = 100;
+
+	private static final double[] BATCH_SIZE_BUCKETS = { 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+
+	/**
+	 * What to do with a dataset if the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait up to the block timeout for space, then drop the new dataset.
+		 */
+		BLOCK,
+		/**
+		 * Drop the new dataset immediately.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Drop the oldest queued dataset to make space.
+		 */
+		DROP_OLDEST;
+
+		public static OverflowPolicy fromString(final String value) {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+	}
+
+	private final String name;
+
+	private final DataCollector collector;
+
+	private final BlockingQueue<Dataset> queue;
+
+	private final int batchSize;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private final long blockTimeoutMillis;
+
+	private final Thread thread;
+
+	private final Executor executor;
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	private volatile boolean closed;
+
+	private volatile boolean fenced;
+
+	private final Counter dropped;
+
+	private final Counter failedBatches;
+
+	private final Histogram batchSizes;
+
+	private final Histogram storeTime;
+
+	/**
+	 * @param nameP the name of the collector
+	 * @param collectorP the collector storing the datasets
+	 * @param capacity the max. number of queued datasets
+	 * @param batchSizeP the max. number of datasets stored at once
+	 * @param overflowPolicyP what to do if the queue is full
+	 * @param blockTimeoutMillisP only for {@link OverflowPolicy#BLOCK}: the
+	 * 		max. time to wait for space in the queue
+	 */
+	public AsyncDatasetWriter(final String nameP,
+			final DataCollector collectorP,
+			final int capacity,
+			final int batchSizeP,
+			final OverflowPolicy overflowPolicyP,
+			final long blockTimeoutMillisP) {
+		this(nameP, collectorP, capacity, batchSizeP, overflowPolicyP, blockTimeoutMillisP, null);
+	}
+
+	/**
+	 * @param executorP the pool shared with other writers or
+	 * 		<code>null</code> to use a dedicated thread
+	 */
+	public AsyncDatasetWriter(final String nameP,
+			final DataCollector collectorP,
+			final int capacity,
+			final int batchSizeP,
+			final OverflowPolicy overflowPolicyP,
+			final long blockTimeoutMillisP,
+			final Executor executorP) {
+		name = nameP;
+		collector = collectorP;
+		queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+		batchSize = Math.max(1, batchSizeP);
+		overflowPolicy = overflowPolicyP;
+		blockTimeoutMillis = blockTimeoutMillisP;
+		executor = executorP;
+		thread = executor != null? null : new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeUntilClosed();
+			}
+		}, "52n-wdc-writer-" + name);
+		final MetricsRegistry registry = MetricsRegistry.getDefault();
+		registry.gauge("wdc_writer_queue_size", "Datasets waiting to be stored", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return queue.size();
+			}
+		}, "collector", name);
+		dropped = registry.counter("wdc_writer_dropped_total", "Datasets dropped because the queue was full", "collector", name);
+		failedBatches = registry.counter("wdc_writer_failed_batches_total", "Batches not stored in all outputs", "collector", name);
+		batchSizes = registry.histogram("wdc_writer_batch_size", "Datasets stored at once", BATCH_SIZE_BUCKETS, "collector", name);
+		storeTime = registry.histogram("wdc_writer_store_seconds", "Duration of storing one batch", "collector", name);
+	}
+
+	public void start() {
+		if (thread != null) {
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues the dataset for storing, applying the {@link OverflowPolicy} if
+	 * the queue is full.
+	 *
+	 * @return <code>false</code>, if the dataset was dropped
+	 */
+	public boolean submit(final Dataset dataset) {
+		if (closed) {
+			LOG.error("Dropping {} of dataCollector '{}': writer is closed.", dataset, name);
+			dropped.increment();
+			return false;
+		}
+		if (offer(dataset)) {
+			if (executor != null) {
+				schedule();
+			}
+			return true;
+		}
+		dropped.increment();
+		LOG.error("Queue of dataCollector '{}' is full. Dropping {}", name, dataset);
+		return false;
+	}
+
+	private boolean offer(final Dataset dataset) {
+		if (queue.offer(dataset)) {
+			return true;
+		}
+		switch (overflowPolicy) {
+		case DROP_OLDEST:
+			while (!queue.offer(dataset)) {
+				final Dataset oldest = queue.poll();
+				if (oldest != null) {
+					dropped.increment();
+					LOG.error("Queue of dataCollector '{}' is full. Dropping oldest {}", name, oldest);
+				}
+			}
+			return true;
+		case BLOCK:
+			try {
+				return queue.offer(dataset, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Hands one batch to the shared pool, unless a batch of this writer is
+	 * waiting or being stored already.
+	 */
+	private void schedule() {
+		if (!scheduled.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(drainTask);
+		} catch (final RejectedExecutionException e) {
+			scheduled.set(false);
+			LOG.error("Writer pool rejected storing datasets of dataCollector '{}'. {} datasets not stored.",
+					name,
+					queue.size());
+		}
+	}
+
+	/**
+	 * Stores one batch on the shared pool and schedules the next one, if
+	 * further datasets are queued. Other writers get their turn in between.
+	 */
+	private void drain() {
+		final List<Dataset> batch = new ArrayList<>(batchSize);
+		queue.drainTo(batch, batchSize);
+		if (!batch.isEmpty()) {
+			write(batch);
+		}
+		scheduled.set(false);
+		if (!queue.isEmpty()) {
+			schedule();
+		}
+	}
+
+	private void writeUntilClosed() {
+		final List<Dataset> batch = new ArrayList<>(batchSize);
+		while (true) {
+			final Dataset first;
+			try {
+				first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				LOG.warn("Writer of dataCollector '{}' interrupted. {} datasets not stored.", name, queue.size());
+				return;
+			}
+			if (first == null) {
+				if (closed) {
+					return;
+				}
+				continue;
+			}
+			batch.add(first);
+			queue.drainTo(batch, batchSize - 1);
+			write(batch);
+			batch.clear();
+		}
+	}
+
+	private void write(final List<Dataset> batch) {
+		if (fenced) {
+			discard(batch.size());
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			if (!collector.store(batch)) {
+				failedBatches.increment();
+			}
+		} catch (final RuntimeException e) {
+			// do not stop writing the following datasets
+			failedBatches.increment();
+			LOG.error("Storing {} datasets of dataCollector '{}' failed: {}", batch.size(), name, e.getMessage(), e);
+		}
+		storeTime.recordSince(start);
+		batchSizes.record(batch.size());
+	}
+
+	/**
+	 * Stops accepting datasets and waits until all queued datasets are
+	 * stored.
+	 *
+	 * @return <code>true</code>, if all datasets were stored in time
+	 */
+	public boolean close(final long timeoutMillis) {
+		closed = true;
+		if (thread == null) {
+			return awaitDrained(timeoutMillis);
+		}
+		try {
+			thread.join(timeoutMillis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			LOG.warn("Writer of dataCollector '{}' did not finish within {}ms.", name, timeoutMillis);
+			thread.interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	private boolean awaitDrained(final long timeoutMillis) {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (!queue.isEmpty() || scheduled.get()) {
+			if (System.nanoTime() - deadline >= 0) {
+				LOG.warn("Writer of dataCollector '{}' did not finish within {}ms. {} datasets not stored.",
+						name,
+						timeoutMillis,
+						queue.size());
+				return false;
+			}
+			try {
+				Thread.sleep(10);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting and storing datasets and discards all queued ones,
+	 * because another process may be writing the same outputs now. A batch
+	 * being stored is not interrupted.
+	 */
+	public void fence() {
+		fenced = true;
+		closed = true;
+		final List<Dataset> discarded = new ArrayList<>();
+		queue.drainTo(discarded);
+		discard(discarded.size());
+	}
+
+	private void discard(final int count) {
+		if (count > 0) {
+			dropped.add(count);
+			LOG.error("Writer of dataCollector '{}' is fenced. {} datasets not stored.", name, count);
+		}
+	}
+
+	/**
+	 * @return the number of datasets waiting to be stored
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AsyncDatasetWriter [name=%s, capacity=%s, batchSize=%s, overflowPolicy=%s, blockTimeoutMillis=%s]",
+				name, queue.size() + queue.remainingCapacity(), batchSize, overflowPolicy, blockTimeoutMillis);
+	}
+
+}
@@ -24,44 +24,109 @@
 
 package org.n52.sensorweb.wdc;
 
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.n52.sensorweb.wdc.metrics.Counter;
+import org.n52.sensorweb.wdc.metrics.Gauge;
+import org.n52.sensorweb.wdc.metrics.Histogram;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class DataCollectionTask extends TimerTask {
+/**
+ * Runs one {@link DataCollector}. Runs of the same collector never overlap,
+ * while different collectors run concurrently.
+ */
+public class DataCollectionTask implements Runnable {
 
     private static Logger LOG = LoggerFactory.getLogger(DataCollectionTask.class);
 
+    private final String name;
+
     private final DataCollector dataCollector;
-    
-    private static final ReentrantLock oneCollectorLock = new ReentrantLock(true);
 
-    public DataCollectionTask(final DataCollector checkerP) {
+    private final AsyncDatasetWriter writer;
+
+    private final ReentrantLock collectorLock = new ReentrantLock();
+
+    private final Histogram runTime;
+
+    private final Gauge period;
+
+    private final Gauge periodUtilization;
+
+    private final Counter failures;
+
+    /**
+     * Stores the collected datasets on the collecting thread.
+     */
+    public DataCollectionTask(final String nameP, final DataCollector checkerP) {
+    	this(nameP, checkerP, null);
+    }
+
+    /**
+     * @param writerP stores the collected datasets, so the next run is not
+     * 		delayed by slow outputs
+     */
+    public DataCollectionTask(final String nameP, final DataCollector checkerP, final AsyncDatasetWriter writerP) {
+        name = nameP;
         dataCollector = checkerP;
+        writer = writerP;
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        runTime = registry.histogram("wdc_run_seconds", "Duration of collection runs", "collector", name);
+        period = registry.gauge("wdc_run_period_seconds", "Configured period of collection runs", "collector", name);
+        periodUtilization = registry.gauge("wdc_run_period_utilization",
+        		"Duration of the last run divided by the configured period",
+        		"collector", name);
+        failures = registry.counter("wdc_run_failures_total", "Runs failed with an exception", "collector", name);
     }
 
     @Override
     public void run() {
-        LOG.info("*** Run dataCollector {}", dataCollector);
-		 // used to sync access to lastUsedDateFile and to not have more than one collector at a time.
-        oneCollectorLock.lock();
+        LOG.info("*** Run dataCollector '{}': {}", name, dataCollector);
+        // used to not have more than one run of this collector at a time.
+        collectorLock.lock();
 
-        // TODO here we should handle the file writing and appending on a global level
+        final long start = System.nanoTime();
         try {
-        	dataCollector.collectWeatherData();
-        	LOG.info("*** Ran dataCollector. Next run in '{}' minutes.",dataCollector.getParseIntervalMillis()/60000);
-        } 
+        	final Dataset dataset = dataCollector.collectWeatherData();
+        	if (dataset != null) {
+        		if (writer != null) {
+        			writer.submit(dataset);
+        		} else {
+        			dataCollector.store(Collections.singletonList(dataset));
+        		}
+        	}
+        	LOG.info("*** Ran dataCollector '{}'. Next run in '{}' minutes.", name, dataCollector.getParseIntervalMillis()/60000);
+        } catch (final RuntimeException e) {
+        	// do not cancel the following runs
+        	failures.increment();
+        	LOG.error("Run of dataCollector '{}' failed: {}", name, e.getMessage(), e);
+        }
         finally {
-        	oneCollectorLock.unlock();
+        	collectorLock.unlock();
+        	recordRunTime(System.nanoTime() - start);
         }
     }
 
-    @Override
-    public boolean cancel() {
-        LOG.info("Cancelling {}",this);
-        return super.cancel();
+    private void recordRunTime(final long nanos) {
+    	runTime.recordNanos(nanos);
+    	final long periodMillis = dataCollector.getParseIntervalMillis();
+    	period.set(periodMillis / 1000.0);
+    	if (periodMillis > 0) {
+    		periodUtilization.set(TimeUnit.NANOSECONDS.toMillis(nanos) / (double) periodMillis);
+    	}
+    }
+
+    public String getName() {
+    	return name;
+    }
+
+    public DataCollector getDataCollector() {
+    	return dataCollector;
     }
 
     @Override
@@ -73,7 +138,7 @@ public class DataCollectionTask extends TimerTask {
 	@Override
 	public String toString()
 	{
-		return String.format("DataCollectionTask [dataCollector=%s]", dataCollector);
+		return String.format("DataCollectionTask [name=%s, dataCollector=%s]", name, dataCollector);
 	}
 
 }
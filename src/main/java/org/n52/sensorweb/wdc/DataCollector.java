@@ -24,17 +24,73 @@
 
 package org.n52.sensorweb.wdc;
 
+import java.util.List;
 import java.util.Properties;
 
+import org.joda.time.DateTime;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.flow.DatasetPublisher;
+import org.n52.sensorweb.wdc.rollup.RollupEngine;
+
 public interface DataCollector {
     
     /**
-     * Collects the weather data
+     * Collects the weather data without storing it.
+     *
+     * @return the collected dataset, if it is newer than the latest one
+     *         collected before, otherwise <code>null</code>
+     */
+    Dataset collectWeatherData();
+
+    /**
+     * Stores datasets returned by {@link #collectWeatherData()} in all outputs
+     * of this {@link DataCollector}. Is called by one thread at a time, with
+     * the datasets in the order they were collected.
+     *
+     * @return <code>true</code>, if all datasets were stored in all outputs
      */
-	// TODO this should return a Dataset object
-    void collectWeatherData();
+    boolean store(List<? extends Dataset> datasets);
 
     long getParseIntervalMillis();
+
+    /**
+     * @return the timestamp of the newest data provided by the source, as far
+     *         as known by this {@link DataCollector}, or <code>null</code> if
+     *         unknown. Used for adapting the polling to the source.
+     */
+    DateTime getTimeOfLatestData();
+
+    /**
+     * @return the datasets collected most recently, kept in memory for fast
+     *         access
+     */
+    RecentDatasets getRecentDatasets();
+
+    /**
+     * @return the numeric fields of the datasets collected during the last
+     *         days, kept in memory for rolling statistics
+     */
+    ObservationRingBuffer getObservations();
+
+    /**
+     * @return the reader of the CSV files written by this
+     *         {@link DataCollector} or <code>null</code> if it does not write
+     *         CSV files
+     */
+    CsvArchiveReader getArchive();
+
+    /**
+     * @return the hourly and daily aggregates of the collected datasets or
+     *         <code>null</code> if they are not maintained
+     */
+    RollupEngine getRollups();
+
+    /**
+     * @return the publisher of the datasets stored by this
+     *         {@link DataCollector} to subscribers in the same process or
+     *         <code>null</code> if it does not publish them
+     */
+    DatasetPublisher getPublisher();
     
     /**
      * Sets the Configuration properties for this {@link DataCollector} for 
@@ -51,4 +107,10 @@ public interface DataCollector {
      */
     void init();
 
+    /**
+     * Releases all resources held by this {@link DataCollector}. Is called
+     * once when the {@link WeatherDataCollector} shuts down.
+     */
+    void destroy();
+
 }
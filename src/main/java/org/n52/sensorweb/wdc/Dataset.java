@@ -23,12 +23,15 @@
  */
 package org.n52.sensorweb.wdc;
 
+import java.io.IOException;
+
+import org.joda.time.DateTime;
 
 /**
  * A data set contains the measurements of certain values with the same 
  * timestamp. In terms of tables or data bases this represents one row.
  * It can be translated to an easy to append to CSV files 
- * {@link String}. 
+ * {@link String} or streamed to any {@link Appendable}. 
  * 
  */
 public interface Dataset {
@@ -46,6 +49,27 @@ public interface Dataset {
 	 */
 	String toCSVString();
 
+	/**
+	 * Appends the same data as {@link #toCSVString()} to the given
+	 * {@link Appendable} without creating the {@link String}. Text values are
+	 * quoted if required.
+	 * 
+	 * @param out the target, e.g. a reused {@link StringBuilder}
+	 * @throws IOException if the target throws it
+	 */
+	void appendCSV(Appendable out) throws IOException;
+
+	/**
+	 * @return the timestamp of all measurements of this data set
+	 */
+	DateTime getTime();
+
+	/**
+	 * Passes all fields except the timestamp to the visitor, always in the
+	 * same order as in the CSV header.
+	 */
+	void visitFields(DatasetFieldVisitor visitor);
+
 	/**
 	 * Returns the CSV file header for this data set.
 	 * 
@@ -0,0 +1,51 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stores collected {@link Dataset}s, e.g. as CSV records or in binary
+ * columns. Implementations must be safe for use by multiple threads.
+ */
+public interface DatasetSink extends Closeable, Flushable {
+
+	/**
+	 * @param dataset the data to store
+	 * @throws IOException if the dataset could not be stored
+	 */
+	void append(Dataset dataset) throws IOException;
+
+	/**
+	 * Stores the datasets in the given order, if possible with less writes
+	 * than appending them one by one.
+	 *
+	 * @throws IOException if any dataset could not be stored
+	 */
+	void appendAll(List<? extends Dataset> datasets) throws IOException;
+
+}
@@ -0,0 +1,58 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Provides one lock per file for synchronizing collectors which write to the
+ * same files within this JVM.
+ */
+public final class FileLocks {
+
+	private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+	private FileLocks() {}
+
+	/**
+	 * @param file the file to write
+	 * @return the lock shared by all users of the file. Different paths to
+	 * 		the same file result in the same lock as long as they normalize
+	 * 		to the same absolute path.
+	 */
+	public static ReentrantLock forFile(final File file) {
+		final String key = file.getAbsoluteFile().toPath().normalize().toString();
+		final ReentrantLock lock = LOCKS.get(key);
+		if (lock != null) {
+			return lock;
+		}
+		final ReentrantLock created = new ReentrantLock();
+		final ReentrantLock existing = LOCKS.putIfAbsent(key, created);
+		return existing == null? created : existing;
+	}
+
+}
@@ -0,0 +1,218 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the time of the latest dataset stored by each {@link DataCollector}
+ * in memory and in one state file shared by all collectors using the same
+ * file, one <code>name=timestamp</code> line per collector.
+ * <p>
+ * Every update rewrites the whole file to a temporary file, syncs it and
+ * renames it atomically to the state file, so a crash leaves either the old
+ * or the new state but never an empty file.
+ */
+public class LastTimeStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LastTimeStore.class);
+
+	private static final String HEADER = "# time of the latest stored dataset per collector";
+
+	private static final ConcurrentMap<Path, LastTimeStore> STORES = new ConcurrentHashMap<>();
+
+	private final Path file;
+
+	private final Map<String, DateTime> times = new TreeMap<>();
+
+	/**
+	 * guards {@link #times} and the file. A lock instead of a monitor, so
+	 * virtual threads writing the file are not pinned to their carrier.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	LastTimeStore(final Path fileP) {
+		file = fileP;
+		load();
+	}
+
+	/**
+	 * @return the store of the file, loaded on first access
+	 */
+	public static LastTimeStore forFile(final File file) {
+		final Path path = file.toPath().toAbsolutePath().normalize();
+		LastTimeStore store = STORES.get(path);
+		if (store == null) {
+			synchronized (STORES) {
+				store = STORES.get(path);
+				if (store == null) {
+					store = new LastTimeStore(path);
+					STORES.put(path, store);
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * @return the time stored for the collector or <code>null</code>, if
+	 * 		unknown or not readable
+	 */
+	public DateTime get(final String name) {
+		lock.lock();
+		try {
+			return times.get(name);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stores the time in memory and persists all times.
+	 *
+	 * @throws IOException if the file could not be written. The time is kept
+	 * 		in memory anyway.
+	 */
+	public void put(final String name, final DateTime time) throws IOException {
+		lock.lock();
+		try {
+			times.put(name, time.toDateTime(DateTimeZone.UTC));
+			persist();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the times in memory by the times in the file, e.g. after
+	 * another process wrote it.
+	 */
+	public void reload() {
+		lock.lock();
+		try {
+			times.clear();
+			load();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public File getFile() {
+		return file.toFile();
+	}
+
+	private void load() {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int separator = line.lastIndexOf('=');
+				if (line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					if (separator < 1) {
+						throw new IllegalArgumentException("missing '='");
+					}
+					times.put(line.substring(0, separator),
+							new DateTime(line.substring(separator + 1).trim(), DateTimeZone.UTC));
+				} catch (final IllegalArgumentException e) {
+					LOG.error("Ignoring invalid line '{}' of '{}': {}", line, file, e.getMessage());
+				}
+			}
+			LOG.info("Loaded the last times of {} collectors from '{}'", times.size(), file);
+		} catch (final NoSuchFileException e) {
+			LOG.info("File '{}' could not be found. It will be created after storing the first dataset.", file);
+		} catch (final IOException e) {
+			LOG.error("Could not read '{}'. The last times will be recovered. Error message: {}", file, e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+	}
+
+	private void persist() throws IOException {
+		final StringBuilder content = new StringBuilder(HEADER).append('\n');
+		for (final Map.Entry<String, DateTime> entry : times.entrySet()) {
+			content.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			final ByteBuffer bytes = StandardCharsets.UTF_8.encode(content.toString());
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(true);
+		}
+		try {
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		syncFolder();
+	}
+
+	/**
+	 * Makes the rename durable, where the platform supports syncing folders.
+	 */
+	private void syncFolder() {
+		final Path folder = file.getParent();
+		if (folder == null) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (final IOException e) {
+			// not supported, e.g. on Windows
+			LOG.trace("Could not sync folder '{}': {}", folder, e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LastTimeStore [file=%s]", file);
+	}
+
+}
@@ -0,0 +1,445 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.joda.time.DateTime;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.CsvFormat;
+
+/**
+ * Keeps the numeric fields of the most recent datasets of a
+ * {@link DataCollector} in fixed size primitive columns, one slot per
+ * dataset.
+ * <p>
+ * There must be only one thread adding datasets. Any number of threads might
+ * read concurrently without locking: each slot carries the sequence number of
+ * the dataset it holds, which is invalidated before and restored after the
+ * slot is overwritten. Readers retry if a slot changed while they read it.
+ */
+public class ObservationRingBuffer {
+
+	private static final long WRITING = -1;
+
+	private static final int MAX_READ_ATTEMPTS = 8;
+
+	private final int capacity;
+
+	private final List<String> fields;
+
+	private final Map<String, Integer> columnsByField = new HashMap<>();
+
+	/**
+	 * the sequence number of the dataset in each slot
+	 */
+	private final AtomicLongArray sequences;
+
+	private final AtomicLongArray times;
+
+	/**
+	 * the raw long bits of the values of each field
+	 */
+	private final AtomicLongArray[] columns;
+
+	/**
+	 * the number of datasets added so far, only modified by the writer
+	 */
+	private volatile long count;
+
+	private final ColumnWriter columnWriter = new ColumnWriter();
+
+	/**
+	 * @param capacityP the number of datasets kept
+	 * @param fieldsP the names of the numeric fields to keep, see
+	 * 		{@link #getNumberFields(Dataset)}
+	 */
+	public ObservationRingBuffer(final int capacityP, final List<String> fieldsP) {
+		capacity = Math.max(1, capacityP);
+		fields = Collections.unmodifiableList(new ArrayList<>(fieldsP));
+		sequences = new AtomicLongArray(capacity);
+		times = new AtomicLongArray(capacity);
+		columns = new AtomicLongArray[fields.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new AtomicLongArray(capacity);
+			columnsByField.put(fields.get(i), i);
+		}
+		for (int slot = 0; slot < capacity; slot++) {
+			sequences.set(slot, WRITING);
+		}
+	}
+
+	/**
+	 * @return the names of the numeric fields of the dataset
+	 */
+	public static List<String> getNumberFields(final Dataset dataset) {
+		final List<String> numberFields = new ArrayList<>();
+		dataset.visitFields(new DatasetFieldVisitor() {
+			@Override
+			public void visitNumber(final String name, final double value) {
+				numberFields.add(name);
+			}
+
+			@Override
+			public void visitText(final String name, final String value) {}
+		});
+		return numberFields;
+	}
+
+	/**
+	 * Adds the dataset if it is newer than the latest one, overwriting the
+	 * oldest dataset if the capacity is reached. Fields unknown to this buffer
+	 * are ignored, missing ones are kept as {@link Double#NaN}.
+	 * <p>
+	 * Must only be called by one thread.
+	 */
+	public void add(final Dataset dataset) {
+		final long timeMillis = dataset.getTime().getMillis();
+		if (!isNewer(timeMillis)) {
+			return;
+		}
+		final int slot = startWriting(timeMillis);
+		columnWriter.slot = slot;
+		dataset.visitFields(columnWriter);
+		finishWriting(slot);
+	}
+
+	/**
+	 * Adds a record read from a CSV file with the given header.
+	 *
+	 * @see #add(Dataset)
+	 */
+	void add(final long timeMillis, final List<String> header, final List<String> values) {
+		if (!isNewer(timeMillis)) {
+			return;
+		}
+		final int slot = startWriting(timeMillis);
+		for (int column = 0; column < columns.length; column++) {
+			final int index = header.indexOf(fields.get(column));
+			double value = Double.NaN;
+			if (index >= 0 && index < values.size() && !values.get(index).isEmpty()) {
+				try {
+					value = Double.parseDouble(values.get(index));
+				} catch (final NumberFormatException e) {
+					// keep NaN
+				}
+			}
+			columns[column].lazySet(slot, Double.doubleToRawLongBits(value));
+		}
+		finishWriting(slot);
+	}
+
+	/**
+	 * Fills the buffer with the records of the last <code>capacity</code>
+	 * datasets from <code>from</code> to <code>to</code> found in the archive.
+	 *
+	 * @return the number of records read
+	 */
+	public int load(final CsvArchiveReader archive, final DateTime from, final DateTime to) throws IOException {
+		final List<CsvArchiveReader.Range> ranges = archive.findRanges(from, to);
+		if (ranges.isEmpty()) {
+			return 0;
+		}
+		final List<String> header = CsvFormat.parseRecord(archive.readHeader(ranges.get(0).getFile()));
+		final int[] records = new int[1];
+		archive.read(from, to, new CsvArchiveReader.RecordHandler() {
+			@Override
+			public void handle(final long timeMillis, final String record) {
+				add(timeMillis, header, CsvFormat.parseRecord(record));
+				records[0]++;
+			}
+		});
+		return records[0];
+	}
+
+	private boolean isNewer(final long timeMillis) {
+		final long written = count;
+		return written == 0 || timeMillis > times.get(slot(written - 1));
+	}
+
+	private int startWriting(final long timeMillis) {
+		final int slot = slot(count);
+		sequences.set(slot, WRITING);
+		times.lazySet(slot, timeMillis);
+		for (final AtomicLongArray column : columns) {
+			column.lazySet(slot, Double.doubleToRawLongBits(Double.NaN));
+		}
+		return slot;
+	}
+
+	private void finishWriting(final int slot) {
+		final long sequence = count;
+		sequences.lazySet(slot, sequence);
+		count = sequence + 1;
+	}
+
+	private int slot(final long sequence) {
+		return (int) (sequence % capacity);
+	}
+
+	/**
+	 * @return the statistics of the values of the field from
+	 * 		<code>from</code> to <code>to</code> (inclusive). Missing values are
+	 * 		skipped.
+	 * @throws IllegalArgumentException if the field is unknown
+	 */
+	public Statistics getStatistics(final String field, final DateTime from, final DateTime to) {
+		final int column = getColumn(field);
+		final Series series = read(column, from.getMillis(), to.getMillis());
+		final Statistics statistics = new Statistics();
+		for (int i = 0; i < series.size(); i++) {
+			statistics.add(series.getValue(i));
+		}
+		return statistics;
+	}
+
+	/**
+	 * @return the values of the field from <code>from</code> to
+	 * 		<code>to</code> (inclusive), oldest first
+	 * @throws IllegalArgumentException if the field is unknown
+	 */
+	public Series getSeries(final String field, final DateTime from, final DateTime to) {
+		return read(getColumn(field), from.getMillis(), to.getMillis());
+	}
+
+	private int getColumn(final String field) {
+		final Integer column = columnsByField.get(field);
+		if (column == null) {
+			throw new IllegalArgumentException("Unknown field '" + field + "'. Available: " + fields);
+		}
+		return column;
+	}
+
+	private Series read(final int column, final long fromMillis, final long toMillis) {
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			final Series series = tryRead(column, fromMillis, toMillis);
+			if (series != null) {
+				return series;
+			}
+		}
+		// the writer is overtaking a reader, which is not able to read the
+		// whole buffer in between two datasets: restrict to half of it
+		final Series series = tryRead(column, Math.max(fromMillis, getTimeAt(count - capacity / 2)), toMillis);
+		return series != null? series : new Series(new long[0], new double[0], 0);
+	}
+
+	private long getTimeAt(final long sequence) {
+		return sequence < 0? Long.MIN_VALUE : times.get(slot(sequence));
+	}
+
+	/**
+	 * @return the values or <code>null</code>, if a slot was overwritten
+	 * 		while reading it
+	 */
+	private Series tryRead(final int column, final long fromMillis, final long toMillis) {
+		final long newest = count - 1;
+		final long oldest = Math.max(0, count - capacity);
+		long[] seriesTimes = new long[16];
+		double[] seriesValues = new double[16];
+		int size = 0;
+		for (long sequence = newest; sequence >= oldest; sequence--) {
+			final int slot = slot(sequence);
+			if (sequences.get(slot) != sequence) {
+				return null;
+			}
+			final long timeMillis = times.get(slot);
+			final double value = Double.longBitsToDouble(columns[column].get(slot));
+			if (sequences.get(slot) != sequence) {
+				return null;
+			}
+			if (timeMillis < fromMillis) {
+				break;
+			}
+			if (timeMillis <= toMillis) {
+				if (size == seriesTimes.length) {
+					seriesTimes = Arrays.copyOf(seriesTimes, size * 2);
+					seriesValues = Arrays.copyOf(seriesValues, size * 2);
+				}
+				seriesTimes[size] = timeMillis;
+				seriesValues[size] = value;
+				size++;
+			}
+		}
+		return new Series(seriesTimes, seriesValues, size);
+	}
+
+	/**
+	 * @return the time of the newest dataset kept or <code>null</code>
+	 */
+	public DateTime getLatestTime() {
+		final long written = count;
+		if (written == 0) {
+			return null;
+		}
+		return new DateTime(times.get(slot(written - 1)));
+	}
+
+	/**
+	 * @return the time of the oldest dataset kept or <code>null</code>
+	 */
+	public DateTime getOldestTime() {
+		final long written = count;
+		if (written == 0) {
+			return null;
+		}
+		// might be overwritten concurrently by a newer one, which is fine
+		return new DateTime(times.get(slot(Math.max(0, written - capacity))));
+	}
+
+	public List<String> getFields() {
+		return fields;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return (int) Math.min(count, capacity);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ObservationRingBuffer [capacity=%s, size=%s, fields=%s]", capacity, size(), fields);
+	}
+
+	/**
+	 * Writes the number fields of a dataset into one slot.
+	 */
+	private final class ColumnWriter implements DatasetFieldVisitor {
+
+		private int slot;
+
+		@Override
+		public void visitNumber(final String name, final double value) {
+			final Integer column = columnsByField.get(name);
+			if (column != null) {
+				columns[column].lazySet(slot, Double.doubleToRawLongBits(value));
+			}
+		}
+
+		@Override
+		public void visitText(final String name, final String value) {}
+	}
+
+	/**
+	 * The values of one field, oldest first.
+	 */
+	public static final class Series {
+
+		private final long[] times;
+
+		private final double[] values;
+
+		private final int size;
+
+		Series(final long[] newestFirstTimes, final double[] newestFirstValues, final int sizeP) {
+			size = sizeP;
+			times = new long[size];
+			values = new double[size];
+			for (int i = 0; i < size; i++) {
+				times[i] = newestFirstTimes[size - 1 - i];
+				values[i] = newestFirstValues[size - 1 - i];
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getTimeMillis(final int index) {
+			return times[index];
+		}
+
+		public double getValue(final int index) {
+			return values[index];
+		}
+	}
+
+	/**
+	 * Count, minimum, maximum and mean of values, skipping {@link Double#NaN}.
+	 */
+	public static final class Statistics {
+
+		private int count;
+
+		private double min = Double.NaN;
+
+		private double max = Double.NaN;
+
+		private double sum;
+
+		public void add(final double value) {
+			if (Double.isNaN(value)) {
+				return;
+			}
+			if (count == 0 || value < min) {
+				min = value;
+			}
+			if (count == 0 || value > max) {
+				max = value;
+			}
+			sum += value;
+			count++;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the minimum or {@link Double#NaN} if there are no values
+		 */
+		public double getMin() {
+			return min;
+		}
+
+		/**
+		 * @return the maximum or {@link Double#NaN} if there are no values
+		 */
+		public double getMax() {
+			return max;
+		}
+
+		/**
+		 * @return the mean or {@link Double#NaN} if there are no values
+		 */
+		public double getMean() {
+			return count == 0? Double.NaN : sum / count;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Statistics [count=%s, min=%s, max=%s, mean=%s]", count, min, max, getMean());
+		}
+	}
+
+}
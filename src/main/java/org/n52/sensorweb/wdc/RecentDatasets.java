@@ -0,0 +1,104 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * Keeps the most recent datasets of a {@link DataCollector} in memory, oldest
+ * first, up to a fixed number.
+ */
+public class RecentDatasets {
+
+	private final int capacity;
+
+	private final ArrayDeque<Dataset> datasets;
+
+	private volatile Dataset latest;
+
+	public RecentDatasets(final int capacityP) {
+		capacity = Math.max(1, capacityP);
+		datasets = new ArrayDeque<>(capacity);
+	}
+
+	/**
+	 * Adds the dataset if it is newer than the latest one, dropping the oldest
+	 * dataset if the capacity is reached.
+	 */
+	public synchronized void add(final Dataset dataset) {
+		if (latest != null && !dataset.getTime().isAfter(latest.getTime())) {
+			return;
+		}
+		if (datasets.size() == capacity) {
+			datasets.removeFirst();
+		}
+		datasets.addLast(dataset);
+		latest = dataset;
+	}
+
+	/**
+	 * @return the newest dataset or <code>null</code>
+	 */
+	public Dataset getLatest() {
+		return latest;
+	}
+
+	/**
+	 * @return the time of the oldest dataset kept or <code>null</code>
+	 */
+	public synchronized DateTime getOldestTime() {
+		return datasets.isEmpty()? null : datasets.getFirst().getTime();
+	}
+
+	/**
+	 * @return the datasets from <code>from</code> to <code>to</code>
+	 * 		(inclusive), oldest first
+	 */
+	public synchronized List<Dataset> get(final DateTime from, final DateTime to) {
+		final List<Dataset> result = new ArrayList<>();
+		final Iterator<Dataset> newestFirst = datasets.descendingIterator();
+		while (newestFirst.hasNext()) {
+			final Dataset dataset = newestFirst.next();
+			if (dataset.getTime().isBefore(from)) {
+				break;
+			}
+			if (!dataset.getTime().isAfter(to)) {
+				result.add(dataset);
+			}
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	public synchronized int size() {
+		return datasets.size();
+	}
+
+}
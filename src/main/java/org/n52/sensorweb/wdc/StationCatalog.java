@@ -0,0 +1,156 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The stations collected by one process, one station per line:
+ * <pre>
+ * name;DATA_URL;DATA_FILE_TIME_ZONE_PARSE_PATTERN;OUTPUT_filename[;KEY=value]...
+ * </pre>
+ * Each station is run by its own collector configured by the global
+ * properties overridden by the columns of its line. Empty columns keep the
+ * global value, except <code>OUTPUT_filename</code>, which defaults to the
+ * name of the station. Further columns override any other property. Empty
+ * lines and lines starting with <code>#</code> are ignored.
+ */
+public class StationCatalog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StationCatalog.class);
+
+	private static final String SEPARATOR = ";";
+
+	static final String DATA_URL = "DATA_URL";
+
+	static final String TIME_ZONE_PARSE_PATTERN = "DATA_FILE_TIME_ZONE_PARSE_PATTERN";
+
+	static final String OUTPUT_FILENAME = "OUTPUT_filename";
+
+	private final Map<String, Properties> stations = new LinkedHashMap<>();
+
+	/**
+	 * @throws IOException if the file could not be read. Invalid lines are
+	 * 		logged and skipped.
+	 */
+	public static StationCatalog load(final File file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			return read(reader, file.getAbsolutePath());
+		}
+	}
+
+	static StationCatalog read(final Reader in, final String source) throws IOException {
+		final StationCatalog catalog = new StationCatalog();
+		final BufferedReader reader = in instanceof BufferedReader? (BufferedReader) in : new BufferedReader(in);
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+				continue;
+			}
+			try {
+				catalog.add(line);
+			} catch (final IllegalArgumentException e) {
+				LOG.error("Ignoring line {} of station catalog '{}': {}", lineNumber, source, e.getMessage());
+			}
+		}
+		LOG.info("Loaded {} stations from '{}'", catalog.size(), source);
+		return catalog;
+	}
+
+	private void add(final String line) {
+		final String[] columns = line.split(SEPARATOR, -1);
+		final String name = columns[0].trim();
+		if (name.isEmpty() || name.contains(".") || name.contains(",")) {
+			throw new IllegalArgumentException("invalid station name '" + name + "'");
+		}
+		if (stations.containsKey(name)) {
+			throw new IllegalArgumentException("duplicate station '" + name + "'");
+		}
+		final Properties properties = new Properties();
+		set(properties, DATA_URL, columns, 1);
+		set(properties, TIME_ZONE_PARSE_PATTERN, columns, 2);
+		set(properties, OUTPUT_FILENAME, columns, 3);
+		if (!properties.containsKey(OUTPUT_FILENAME)) {
+			properties.setProperty(OUTPUT_FILENAME, name);
+		}
+		for (int i = 4; i < columns.length; i++) {
+			if (columns[i].trim().isEmpty()) {
+				continue;
+			}
+			final int separator = columns[i].indexOf('=');
+			if (separator < 1) {
+				throw new IllegalArgumentException("missing '=' in column '" + columns[i] + "'");
+			}
+			properties.setProperty(columns[i].substring(0, separator).trim(), columns[i].substring(separator + 1).trim());
+		}
+		stations.put(name, properties);
+	}
+
+	private static void set(final Properties properties, final String key, final String[] columns, final int index) {
+		if (index < columns.length && !columns[index].trim().isEmpty()) {
+			properties.setProperty(key, columns[index].trim());
+		}
+	}
+
+	/**
+	 * @return the names of the stations in the order of the catalog
+	 */
+	public List<String> getNames() {
+		return new ArrayList<>(stations.keySet());
+	}
+
+	/**
+	 * @return the properties of the station overriding the global ones or
+	 * 		<code>null</code>, if unknown
+	 */
+	public Properties getProperties(final String name) {
+		final Properties properties = stations.get(name);
+		if (properties == null) {
+			return null;
+		}
+		final Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	public int size() {
+		return stations.size();
+	}
+
+}
@@ -0,0 +1,394 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps the values of text fields with a small vocabulary, like the wind
+ * direction or the weather code, to integer codes, one code space per field.
+ * The code of a value is the number of values added to its field before, so
+ * codes never change.
+ * <p>
+ * Datasets keep the canonical instance returned by
+ * {@link #intern(String, byte[], int, int)}, so the datasets in memory share
+ * one instance per value and known values are not decoded again.
+ * <p>
+ * A persisted dictionary is an append-only file of
+ * <code>(modified UTF-8 field, modified UTF-8 value)</code> records. A
+ * truncated last record, e.g. after a crash, is ignored.
+ */
+public class TextDictionary implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TextDictionary.class);
+
+	/**
+	 * the code of a missing value, i.e. <code>null</code>
+	 */
+	public static final int MISSING = -1;
+
+	/**
+	 * the code of a value not in the dictionary
+	 */
+	public static final int UNKNOWN = -2;
+
+	/**
+	 * max. number of values per field. Further values are not added, as the
+	 * field is obviously no small vocabulary.
+	 */
+	public static final int MAX_VALUES_PER_FIELD = 4096;
+
+	private final Map<String, FieldValues> fields = new HashMap<>();
+
+	/**
+	 * <code>null</code> if not persisted or writing failed
+	 */
+	private FileChannel channel;
+
+	private final File file;
+
+	/**
+	 * guards the fields and the file. A lock instead of a monitor, so virtual
+	 * threads writing the file are not pinned to their carrier.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private TextDictionary(final File fileP, final FileChannel channelP) {
+		file = fileP;
+		channel = channelP;
+	}
+
+	/**
+	 * @return a dictionary kept in memory only
+	 */
+	public static TextDictionary inMemory() {
+		return new TextDictionary(null, null);
+	}
+
+	/**
+	 * @return the dictionary of the file, creating it if required. A
+	 * 		truncated last record is removed.
+	 */
+	public static TextDictionary open(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			final TextDictionary dictionary = new TextDictionary(file, channel);
+			final int valid = dictionary.load(Files.readAllBytes(file.toPath()));
+			channel.truncate(valid);
+			channel.position(valid);
+			return dictionary;
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the dictionary of the file, not adding any values to the file
+	 */
+	public static TextDictionary read(final File file) throws IOException {
+		final TextDictionary dictionary = new TextDictionary(file, null);
+		if (file.exists()) {
+			dictionary.load(Files.readAllBytes(file.toPath()));
+		}
+		return dictionary;
+	}
+
+	private int load(final byte[] content) {
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+		final DataInputStream in = new DataInputStream(bytes);
+		int valid = 0;
+		try {
+			while (bytes.available() > 0) {
+				final String field = in.readUTF();
+				final String value = in.readUTF();
+				getValues(field).add(value);
+				valid = content.length - bytes.available();
+			}
+		} catch (final IOException e) {
+			// truncated record
+		}
+		return valid;
+	}
+
+	private FieldValues getValues(final String field) {
+		FieldValues values = fields.get(field);
+		if (values == null) {
+			values = new FieldValues();
+			fields.put(field, values);
+		}
+		return values;
+	}
+
+	/**
+	 * @return the code of the value, added to the dictionary if it is new.
+	 * 		{@link #MISSING} for <code>null</code> and {@link #UNKNOWN} if the
+	 * 		field has {@value #MAX_VALUES_PER_FIELD} values already.
+	 */
+	public int encode(final String field, final String value) {
+		if (value == null) {
+			return MISSING;
+		}
+		lock.lock();
+		try {
+			final FieldValues values = getValues(field);
+			final Integer code = values.codes.get(value);
+			if (code != null) {
+				return code;
+			}
+			return add(field, values, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the code of the value without adding it, {@link #MISSING} for
+	 * 		<code>null</code> and {@link #UNKNOWN} if it is not in the
+	 * 		dictionary
+	 */
+	public int getCode(final String field, final String value) {
+		if (value == null) {
+			return MISSING;
+		}
+		lock.lock();
+		try {
+			final FieldValues values = fields.get(field);
+			final Integer code = values == null? null : values.codes.get(value);
+			return code == null? UNKNOWN : code;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the value of the code or <code>null</code> for
+	 * 		{@link #MISSING} and unknown codes
+	 */
+	public String decode(final String field, final int code) {
+		lock.lock();
+		try {
+			final FieldValues values = fields.get(field);
+			return values != null && code >= 0 && code < values.values.size()? values.values.get(code) : null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the canonical instance of the value, added to the dictionary if
+	 * 		it is new, or <code>null</code> for <code>null</code>
+	 */
+	public String intern(final String field, final String value) {
+		final int code = encode(field, value);
+		return code < 0? value : decode(field, code);
+	}
+
+	/**
+	 * Looks the UTF-8 encoded value up without decoding it, if it is known
+	 * already.
+	 *
+	 * @return the canonical instance of the value, added to the dictionary if
+	 * 		it is new
+	 */
+	public String intern(final String field, final byte[] bytes, final int from, final int to) {
+		lock.lock();
+		try {
+			final FieldValues values = getValues(field);
+			final int code = values.find(bytes, from, to);
+			if (code >= 0) {
+				return values.values.get(code);
+			}
+			final String value = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+			final Integer existing = values.codes.get(value);
+			if (existing != null) {
+				// e.g. an invalid sequence decoded to the same value
+				return values.values.get(existing);
+			}
+			final int added = add(field, values, value);
+			return added < 0? value : values.values.get(added);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of values of the field, i.e. the next code
+	 */
+	public int size(final String field) {
+		lock.lock();
+		try {
+			final FieldValues values = fields.get(field);
+			return values == null? 0 : values.values.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int add(final String field, final FieldValues values, final String value) {
+		if (values.values.size() >= MAX_VALUES_PER_FIELD) {
+			if (!values.full) {
+				values.full = true;
+				LOG.warn("Field '{}' has more than {} distinct values. Further values are not added to {}.",
+						field, MAX_VALUES_PER_FIELD, this);
+			}
+			return UNKNOWN;
+		}
+		if (channel != null) {
+			write(field, value);
+		}
+		return values.add(value);
+	}
+
+	private void write(final String field, final String value) {
+		try {
+			final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+			final DataOutputStream out = new DataOutputStream(record);
+			out.writeUTF(field);
+			out.writeUTF(value);
+			final ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (final IOException e) {
+			// the codes of later values would differ after a restart
+			LOG.error("Could not write to '{}'. Stop persisting the dictionary. Error message: {}",
+					file, e.getMessage());
+			LOG.debug("Exception thrown!", e);
+			closeChannel();
+		}
+	}
+
+	/**
+	 * Synchronizes the file with the disk.
+	 */
+	public void force() throws IOException {
+		lock.lock();
+		try {
+			if (channel != null) {
+				channel.force(false);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closeChannel();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				LOG.error("Could not close '{}': {}", file, e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TextDictionary [file=%s]", file);
+	}
+
+	/**
+	 * The values of one field.
+	 */
+	private static final class FieldValues {
+
+		private final List<String> values = new ArrayList<>();
+
+		/**
+		 * the UTF-8 encoding of the values
+		 */
+		private final List<byte[]> encoded = new ArrayList<>();
+
+		private final Map<String, Integer> codes = new HashMap<>();
+
+		private boolean full;
+
+		int add(final String value) {
+			final int code = values.size();
+			values.add(value);
+			encoded.add(value.getBytes(StandardCharsets.UTF_8));
+			codes.put(value, code);
+			return code;
+		}
+
+		/**
+		 * @return the code of the encoded value or -1
+		 */
+		int find(final byte[] bytes, final int from, final int to) {
+			final int length = to - from;
+			for (int code = 0; code < encoded.size(); code++) {
+				final byte[] value = encoded.get(code);
+				if (value.length == length && equals(value, bytes, from)) {
+					return code;
+				}
+			}
+			return -1;
+		}
+
+		private static boolean equals(final byte[] value, final byte[] bytes, final int from) {
+			for (int i = 0; i < value.length; i++) {
+				if (value[i] != bytes[from + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
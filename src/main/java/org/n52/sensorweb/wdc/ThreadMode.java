@@ -0,0 +1,199 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The kind of threads running collection runs and downloads.
+ * <p>
+ * Virtual threads require Java 21. They are created by reflection, so the
+ * application still compiles and runs on older versions, where
+ * {@link #VIRTUAL} falls back to {@link #PLATFORM} with a warning. Blocking
+ * code run by them must not hold monitors (<code>synchronized</code>) while
+ * waiting for I/O, because this pins the virtual thread to its carrier
+ * thread; use {@link java.util.concurrent.locks.ReentrantLock} instead.
+ */
+public enum ThreadMode {
+
+	/**
+	 * Pools of operating system threads, one stack per running task.
+	 */
+	PLATFORM,
+
+	/**
+	 * A new virtual thread per task, unmounted while blocked on I/O.
+	 */
+	VIRTUAL;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ThreadMode.class);
+
+	private static final AtomicBoolean FALLBACK_LOGGED = new AtomicBoolean();
+
+	public static ThreadMode fromString(final String value) {
+		return valueOf(value.trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return <code>true</code>, if the running JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VirtualThreads.FACTORY_BUILDER != null
+				&& VirtualThreads.NAME != null
+				&& VirtualThreads.FACTORY != null
+				&& VirtualThreads.PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * @return <code>true</code>, if the thread is a virtual thread
+	 */
+	public static boolean isVirtual(final Thread thread) {
+		if (VirtualThreads.IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (Boolean) VirtualThreads.IS_VIRTUAL.invoke(thread);
+		} catch (final IllegalAccessException | InvocationTargetException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return {@link #PLATFORM} if virtual threads are not supported,
+	 * 		otherwise this mode
+	 */
+	public ThreadMode getEffectiveMode() {
+		if (this == VIRTUAL && !isVirtualThreadSupported()) {
+			if (!FALLBACK_LOGGED.getAndSet(true)) {
+				LOG.warn("Virtual threads require Java 21, running on {}. Using platform threads.",
+						System.getProperty("java.version"));
+			}
+			return PLATFORM;
+		}
+		return this;
+	}
+
+	/**
+	 * @param namePrefix the names of the threads followed by a counter
+	 * @param daemon only used for platform threads, virtual threads are
+	 * 		always daemon threads
+	 */
+	public ThreadFactory newThreadFactory(final String namePrefix, final boolean daemon) {
+		if (getEffectiveMode() == VIRTUAL) {
+			return VirtualThreads.newFactory(namePrefix);
+		}
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, namePrefix + count.getAndIncrement());
+				thread.setDaemon(daemon);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * @param platformThreads the maximum number of platform threads, which
+	 * 		are stopped when idle. Virtual threads are not pooled, every task
+	 * 		gets its own thread.
+	 */
+	public ExecutorService newTaskExecutor(final String namePrefix, final int platformThreads) {
+		final ThreadFactory factory = newThreadFactory(namePrefix, true);
+		if (getEffectiveMode() == VIRTUAL) {
+			return VirtualThreads.newThreadPerTaskExecutor(factory);
+		}
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(platformThreads, platformThreads,
+				60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				factory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * The Java 21 API used by reflection: <code>Thread.ofVirtual().name(prefix, 1).factory()</code>,
+	 * <code>Executors.newThreadPerTaskExecutor(factory)</code> and <code>Thread.isVirtual()</code>.
+	 */
+	private static final class VirtualThreads {
+
+		private static final Method FACTORY_BUILDER = findMethod(Thread.class, "ofVirtual");
+
+		private static final Method NAME = findMethod("java.lang.Thread$Builder", "name", String.class, long.class);
+
+		private static final Method FACTORY = findMethod("java.lang.Thread$Builder", "factory");
+
+		private static final Method PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+		private static final Method IS_VIRTUAL = findMethod(Thread.class, "isVirtual");
+
+		private static Method findMethod(final String className, final String name, final Class<?>... parameterTypes) {
+			try {
+				return findMethod(Class.forName(className), name, parameterTypes);
+			} catch (final ClassNotFoundException e) {
+				return null;
+			}
+		}
+
+		private static Method findMethod(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+			try {
+				return type.getMethod(name, parameterTypes);
+			} catch (final NoSuchMethodException e) {
+				return null;
+			}
+		}
+
+		static ThreadFactory newFactory(final String namePrefix) {
+			try {
+				final Object builder = NAME.invoke(FACTORY_BUILDER.invoke(null), namePrefix, 1L);
+				return (ThreadFactory) FACTORY.invoke(builder);
+			} catch (final IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalStateException("Could not create virtual thread factory", e);
+			}
+		}
+
+		static ExecutorService newThreadPerTaskExecutor(final ThreadFactory factory) {
+			try {
+				return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, factory);
+			} catch (final IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalStateException("Could not create virtual thread executor", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+/**
+ * Implemented by {@link DataCollector}s which can stand by while another
+ * process collects into the same files, ready to take over within seconds.
+ * <p>
+ * Instead of {@link DataCollector#init()}, {@link #initStandby()} is called
+ * first. It must not write any file. {@link #follow()} is called
+ * periodically until {@link #activate()} is called once, when this process
+ * takes over. Afterwards the collector runs like after
+ * {@link DataCollector#init()}.
+ */
+public interface WarmStandby {
+
+	/**
+	 * Initializes everything not writing to files, e.g. connections, caches
+	 * and indexes.
+	 */
+	void initStandby();
+
+	/**
+	 * Reads what the active process stored since the last call into the
+	 * in-memory state.
+	 */
+	void follow();
+
+	/**
+	 * Reloads the state written by the previous active process and starts
+	 * everything writing to files.
+	 */
+	void activate();
+
+}
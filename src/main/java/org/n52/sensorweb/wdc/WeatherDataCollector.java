@@ -31,18 +31,43 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.Manifest;
 
+import org.n52.sensorweb.wdc.api.ReadApiServer;
+import org.n52.sensorweb.wdc.ha.FileLease;
+import org.n52.sensorweb.wdc.metrics.JvmMetrics;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.n52.sensorweb.wdc.ms.HttpUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class WeatherDataCollector {
 
+	/**
+	 * the name of a collector, set in the properties passed to it
+	 */
+	public static final String COLLECTOR_NAME = "COLLECTOR_NAME";
+
 	private static final String DATA_INTERVAL_MIN = "DATA_INTERVAL_MIN";
 
 	private static final long delay = 1000;
@@ -55,34 +80,496 @@ public class WeatherDataCollector {
 	
 	private static final String COLLECTOR_IMPLEMENTATION = "COLLECTOR_IMPLEMENTATION";
 
+	private static final String COLLECTORS = "COLLECTORS";
+
+	private static final String STATION_CATALOG = "STATION_CATALOG";
+
+	private static final String STAGGER_STARTS = "STAGGER_STARTS";
+
+	private static final String DEFAULT_COLLECTOR_NAME = "default";
+
+	private static final String SCHEDULER_THREADS = "SCHEDULER_THREADS";
+
+	public static final String THREAD_MODE = "THREAD_MODE";
+
+	private static final String SCHEDULING_MODE = "SCHEDULING_MODE";
+
+	private static final String SCHEDULING_MODE_ADAPTIVE = "adaptive";
+
+	private static final String ADAPTIVE_MIN_INTERVAL_SEC = "ADAPTIVE_MIN_INTERVAL_SEC";
+
+	private static final String ADAPTIVE_MAX_INTERVAL_SEC = "ADAPTIVE_MAX_INTERVAL_SEC";
+
+	private static final String HTTP_SETTINGS_PREFIX = "HTTP_";
+
+	private static final String HTTP_API_PORT = "HTTP_API_PORT";
+
+	private static final String HTTP_API_HOST = "HTTP_API_HOST";
+
+	private static final String HTTP_API_THREADS = "HTTP_API_THREADS";
+
+	private static final String METRICS_JMX = "METRICS_JMX";
+
+	private static final String WRITER_QUEUE_CAPACITY = "WRITER_QUEUE_CAPACITY";
+
+	private static final String WRITER_BATCH_SIZE = "WRITER_BATCH_SIZE";
+
+	private static final String WRITER_OVERFLOW_POLICY = "WRITER_OVERFLOW_POLICY";
+
+	private static final String WRITER_BLOCK_TIMEOUT_MILLIS = "WRITER_BLOCK_TIMEOUT_MILLIS";
+
+	private static final String WRITER_THREADS = "WRITER_THREADS";
+
+	private static final String HA_LEASE_FILE = "HA_LEASE_FILE";
+
+	private static final String HA_HEARTBEAT_MILLIS = "HA_HEARTBEAT_MILLIS";
+
+	private static final String HA_INSTANCE_ID = "HA_INSTANCE_ID";
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
     private static Logger LOG = LoggerFactory.getLogger(WeatherDataCollector.class);
 
 	private final Properties props = new Properties();
 
+	private final Map<String, DataCollector> collectors = new LinkedHashMap<>();
+
+	private final List<AsyncDatasetWriter> writers = new ArrayList<>();
+
+	private StationCatalog stationCatalog;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * runs the collectors on virtual threads or <code>null</code> to run them
+	 * on the threads of the scheduler
+	 */
+	private ExecutorService runExecutor;
+
+	private ExecutorService writerPool;
+
+	private ReadApiServer readApi;
+
+	private FileLease lease;
+
+	private final List<StandbyCollector> standbyCollectors = new ArrayList<>();
+
+	/**
+	 * names of collectors, which were never initialized, because this process
+	 * did not acquire the lease
+	 */
+	private final Set<String> uninitialized = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     public void init() {
         loadProperties();
+        JvmMetrics.register(MetricsRegistry.getDefault());
+        if (Boolean.parseBoolean(props.getProperty(METRICS_JMX, "true"))) {
+        	MetricsRegistry.getDefault().exportToJmx();
+        }
 
-        final Timer timer = new Timer("52n-wdc-timer");
-        final DataCollector collector;
-        try{
-        	collector = DataCollector.class.cast(Class.forName(props.getProperty(COLLECTOR_IMPLEMENTATION)).newInstance());
-        } catch(final InstantiationException e){
-            throw new IllegalStateException(e);
-        } catch(final IllegalAccessException e){
-            throw new IllegalStateException(e);
-        } catch(final ClassNotFoundException e){
-            throw new IllegalStateException(e);
+        // one client shared by all collectors
+        HttpUtil.configure(props);
+        loadStationCatalog();
+        final List<String> names = getCollectorNames();
+        final ThreadMode threadMode = ThreadMode.fromString(props.getProperty(THREAD_MODE, "platform")).getEffectiveMode();
+        // platform threads, because virtual ones are daemon threads and would not keep the JVM alive
+        final ScheduledThreadPoolExecutor schedulerPool = new ScheduledThreadPoolExecutor(getSchedulerThreads(names.size()),
+        		ThreadMode.PLATFORM.newThreadFactory("52n-wdc-scheduler-", false));
+        // adaptive runs reschedule themselves, do not start them once shutting down
+        schedulerPool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduler = schedulerPool;
+        if (threadMode == ThreadMode.VIRTUAL) {
+        	runExecutor = threadMode.newTaskExecutor("52n-wdc-run-", names.size());
         }
-        collector.setProperties(props);
-        collector.init();
-        
-        timer.scheduleAtFixedRate(new DataCollectionTask(collector),
-        		delay,
-        		getPeriod(props));
-        
+        writerPool = createWriterPool();
+        lease = createLease();
+        final boolean staggered = Boolean.parseBoolean(props.getProperty(STAGGER_STARTS, "true"));
+        for (int i = 0; i < names.size(); i++) {
+        	final String name = names.get(i);
+        	final Properties collectorProps = getCollectorProperties(name);
+        	final DataCollector collector = createCollector(collectorProps);
+        	collector.setProperties(collectorProps);
+        	final AsyncDatasetWriter writer = createWriter(name, collector, collectorProps, writerPool);
+        	final DataCollectionTask task = new DataCollectionTask(name, collector, writer);
+        	final long initialDelay = staggered? delay + getPeriod(collectorProps) * (long) i / names.size() : delay;
+        	if (lease != null) {
+        		standBy(new StandbyCollector(name, collector, collectorProps, task, initialDelay));
+        	} else {
+        		collector.init();
+        	}
+        	collectors.put(name, collector);
+        	writers.add(writer);
+        	writer.start();
+        	if (lease == null) {
+        		schedule(task, collectorProps, initialDelay);
+        		LOG.info("Scheduled dataCollector '{}' starting in {}ms: {}", name, initialDelay, collector);
+        	}
+        }
+        startReadApi();
+        if (lease != null) {
+        	lease.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread("52n-wdc-shutdown") {
+        	@Override
+        	public void run() {
+        		shutdown();
+        	}
+        });
+
         LOG.info("*** Initialized WeatherDataCollector ***");
     }
 
+    /**
+     * @param initialDelay the time until the first run in milliseconds. The
+     * 		first runs of all collectors are spread over their periods if
+     * 		{@value #STAGGER_STARTS} is set, so they do not hit the remote
+     * 		hosts and the disks at the same time.
+     */
+    private void schedule(final DataCollectionTask task, final Properties collectorProps, final long initialDelay) {
+    	if (SCHEDULING_MODE_ADAPTIVE.equalsIgnoreCase(collectorProps.getProperty(SCHEDULING_MODE))) {
+    		final AdaptivePollingPolicy policy = new AdaptivePollingPolicy(
+    				1000 * Long.parseLong(collectorProps.getProperty(ADAPTIVE_MIN_INTERVAL_SEC, "15")),
+    				1000 * Long.parseLong(collectorProps.getProperty(ADAPTIVE_MAX_INTERVAL_SEC, "600")),
+    				getPeriod(collectorProps));
+    		new AdaptiveDataCollectionTask(task, policy, scheduler, runExecutor).start(initialDelay);
+    	} else {
+    		scheduler.scheduleAtFixedRate(runExecutor != null? handOff(task) : task,
+    				initialDelay,
+    				getPeriod(collectorProps),
+    				TimeUnit.MILLISECONDS);
+    	}
+    }
+
+    /**
+     * @return a task running the given one by the {@link #runExecutor}. A
+     * 		run is skipped while the previous one did not finish, like the
+     * 		scheduler does not start overlapping runs.
+     */
+    private Runnable handOff(final DataCollectionTask task) {
+    	final AtomicBoolean running = new AtomicBoolean();
+    	final Runnable run = new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				task.run();
+    			} finally {
+    				running.set(false);
+    			}
+    		}
+    	};
+    	return new Runnable() {
+    		@Override
+    		public void run() {
+    			if (!running.compareAndSet(false, true)) {
+    				LOG.warn("Previous run of dataCollector '{}' did not finish. Skipping this run.", task.getName());
+    				return;
+    			}
+    			try {
+    				runExecutor.execute(run);
+    			} catch (final RejectedExecutionException e) {
+    				running.set(false);
+    				LOG.debug("Not running dataCollector '{}' because the executor is shut down.", task.getName());
+    			}
+    		}
+    	};
+    }
+
+    /**
+     * @return the lease of {@value #HA_LEASE_FILE} or <code>null</code>, if
+     * 		not set. Only the process holding the lease collects, the others
+     * 		stand by.
+     */
+    private FileLease createLease() {
+    	final String file = props.getProperty(HA_LEASE_FILE, "").trim();
+    	if (file.isEmpty()) {
+    		return null;
+    	}
+    	String id = props.getProperty(HA_INSTANCE_ID, "").trim();
+    	if (id.isEmpty()) {
+    		id = FileLease.getDefaultId();
+    	}
+    	final FileLease fileLease = new FileLease(new File(file),
+    			id,
+    			Long.parseLong(props.getProperty(HA_HEARTBEAT_MILLIS, "1000")),
+    			new FileLease.Listener() {
+    				@Override
+    				public void leadershipAcquired() {
+    					scheduler.execute(new Runnable() {
+    						@Override
+    						public void run() {
+    							takeOver();
+    						}
+    					});
+    				}
+
+    				@Override
+    				public void leadershipLost() {
+    					LOG.error("Lost lease '{}'. Exiting to not write concurrently with the next leader.", file);
+    					for (final AsyncDatasetWriter writer : writers) {
+    						writer.fence();
+    					}
+    					// halt instead of exit: the shutdown hook would store and flush
+    					// while the next leader may be writing already
+    					Runtime.getRuntime().halt(2);
+    				}
+    			});
+    	LOG.info("Collecting only while holding {}", fileLease);
+    	return fileLease;
+    }
+
+    /**
+     * Initializes a {@link WarmStandby} collector without writing and lets it
+     * follow the datasets stored by the leader. Other collectors are
+     * initialized when taking over.
+     */
+    private void standBy(final StandbyCollector standby) {
+    	standbyCollectors.add(standby);
+    	if (!(standby.collector instanceof WarmStandby)) {
+    		uninitialized.add(standby.name);
+    		LOG.info("dataCollector '{}' will be initialized when taking over.", standby.name);
+    		return;
+    	}
+    	final WarmStandby warmStandby = (WarmStandby) standby.collector;
+    	warmStandby.initStandby();
+    	standby.follower = scheduler.scheduleWithFixedDelay(new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				warmStandby.follow();
+    			} catch (final RuntimeException e) {
+    				LOG.error("dataCollector '{}' could not follow the leader: {}", standby.name, e.getMessage(), e);
+    			}
+    		}
+    	}, standby.initialDelay, getPeriod(standby.props), TimeUnit.MILLISECONDS);
+    	LOG.info("dataCollector '{}' standing by: {}", standby.name, standby.collector);
+    }
+
+    /**
+     * Activates all collectors and schedules their runs, after this process
+     * acquired the lease.
+     */
+    private void takeOver() {
+    	LOG.info("*** Taking over collecting ***");
+    	for (final StandbyCollector standby : standbyCollectors) {
+    		if (standby.follower != null) {
+    			standby.follower.cancel(false);
+    		}
+    		try {
+    			if (standby.collector instanceof WarmStandby) {
+    				((WarmStandby) standby.collector).activate();
+    			} else {
+    				standby.collector.init();
+    				uninitialized.remove(standby.name);
+    			}
+    		} catch (final RuntimeException e) {
+    			LOG.error("Could not activate dataCollector '{}': {}", standby.name, e.getMessage(), e);
+    			continue;
+    		}
+    		schedule(standby.task, standby.props, standby.initialDelay);
+    		LOG.info("Scheduled dataCollector '{}' starting in {}ms: {}", standby.name, standby.initialDelay, standby.collector);
+    	}
+    }
+
+    /**
+     * @param pool the pool shared by all writers or <code>null</code> for a
+     * 		thread per writer
+     */
+    private static AsyncDatasetWriter createWriter(final String name,
+    		final DataCollector collector,
+    		final Properties collectorProps,
+    		final ExecutorService pool) {
+    	return new AsyncDatasetWriter(name,
+    			collector,
+    			Integer.parseInt(collectorProps.getProperty(WRITER_QUEUE_CAPACITY, "64")),
+    			Integer.parseInt(collectorProps.getProperty(WRITER_BATCH_SIZE, "32")),
+    			AsyncDatasetWriter.OverflowPolicy.fromString(collectorProps.getProperty(WRITER_OVERFLOW_POLICY, "block")),
+    			Long.parseLong(collectorProps.getProperty(WRITER_BLOCK_TIMEOUT_MILLIS, "1000")),
+    			pool);
+    }
+
+    /**
+     * @return a pool of {@value #WRITER_THREADS} threads shared by all
+     * 		writers or <code>null</code>, if not set
+     */
+    private ExecutorService createWriterPool() {
+    	final String threads = props.getProperty(WRITER_THREADS, "").trim();
+    	if (threads.isEmpty()) {
+    		return null;
+    	}
+    	LOG.info("Storing datasets of all collectors using {} writer threads", threads);
+    	return Executors.newFixedThreadPool(Integer.parseInt(threads),
+    			ThreadMode.PLATFORM.newThreadFactory("52n-wdc-writer-", false));
+    }
+
+    /**
+     * Loads the stations of {@value #STATION_CATALOG}, if set.
+     */
+    private void loadStationCatalog() {
+    	final String file = props.getProperty(STATION_CATALOG, "").trim();
+    	if (file.isEmpty()) {
+    		return;
+    	}
+    	try {
+    		stationCatalog = StationCatalog.load(new File(file));
+    	} catch (final IOException e) {
+    		LOG.error("Could not read station catalog '{}': {}", file, e.getMessage(), e);
+    		System.exit(1);
+    	}
+    }
+
+    /**
+     * Starts the {@link ReadApiServer}, if {@value #HTTP_API_PORT} is set.
+     */
+    private void startReadApi() {
+    	final String port = props.getProperty(HTTP_API_PORT, "").trim();
+    	if (port.isEmpty()) {
+    		return;
+    	}
+    	try {
+    		readApi = new ReadApiServer(
+    				new InetSocketAddress(props.getProperty(HTTP_API_HOST, "localhost").trim(), Integer.parseInt(port)),
+    				Integer.parseInt(props.getProperty(HTTP_API_THREADS, "4").trim()),
+    				collectors);
+    		readApi.start();
+    	} catch (final IOException e) {
+    		LOG.error("Could not start HTTP API at port '{}': {}", port, e.getMessage(), e);
+    	}
+    }
+
+    /**
+     * Stops scheduling new runs, waits for running ones and for storing all
+     * collected datasets and destroys all collectors.
+     */
+    public void shutdown() {
+    	LOG.info("*** Shutting down WeatherDataCollector ***");
+    	if (readApi != null) {
+    		readApi.stop();
+    	}
+    	scheduler.shutdown();
+    	try {
+    		if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+    			LOG.warn("Running collectors did not finish within {}s.", SHUTDOWN_TIMEOUT_SECONDS);
+    			scheduler.shutdownNow();
+    		}
+    	} catch (final InterruptedException e) {
+    		scheduler.shutdownNow();
+    		Thread.currentThread().interrupt();
+    	}
+    	if (runExecutor != null) {
+    		runExecutor.shutdown();
+    		try {
+    			if (!runExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+    				LOG.warn("Running collectors did not finish within {}s.", SHUTDOWN_TIMEOUT_SECONDS);
+    				runExecutor.shutdownNow();
+    			}
+    		} catch (final InterruptedException e) {
+    			runExecutor.shutdownNow();
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    	for (final AsyncDatasetWriter writer : writers) {
+    		writer.close(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+    	}
+    	if (writerPool != null) {
+    		writerPool.shutdown();
+    	}
+    	for (final Entry<String, DataCollector> collector : collectors.entrySet()) {
+    		if (uninitialized.contains(collector.getKey())) {
+    			continue;
+    		}
+    		try {
+    			collector.getValue().destroy();
+    		} catch (final RuntimeException e) {
+    			LOG.error("Could not destroy dataCollector '{}': {}", collector.getKey(), e.getMessage(), e);
+    		}
+    	}
+    	if (lease != null) {
+    		// only after everything is stored, so the next leader continues from there
+    		lease.close();
+    	}
+    }
+
+	/**
+	 * @return the names of the configured collectors and the stations of the
+	 * 		{@link StationCatalog}. If neither property {@value #COLLECTORS}
+	 * 		nor {@value #STATION_CATALOG} is set, one collector named
+	 * 		{@value #DEFAULT_COLLECTOR_NAME} is configured by the global
+	 * 		properties.
+	 */
+	private List<String> getCollectorNames() {
+		final List<String> names = new ArrayList<>();
+		for (final String name : props.getProperty(COLLECTORS, "").split(",")) {
+			if (!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		if (stationCatalog != null) {
+			for (final String name : stationCatalog.getNames()) {
+				if (names.contains(name)) {
+					LOG.error("Station '{}' of the catalog is configured in '{}' already. Ignoring it.", name, COLLECTORS);
+				} else {
+					names.add(name);
+				}
+			}
+		}
+		if (names.isEmpty()) {
+			names.add(DEFAULT_COLLECTOR_NAME);
+		}
+		return names;
+	}
+
+	/**
+	 * @return the properties of the named collector: all properties starting
+	 * 		with <code>name + "."</code> without this prefix, falling back to
+	 * 		the properties of the station in the {@link StationCatalog} and
+	 * 		the global properties. Settings of the HTTP client are shared by
+	 * 		all collectors, their overrides are ignored.
+	 */
+	private Properties getCollectorProperties(final String name) {
+		final Properties collectorProps = new Properties(props);
+		if (stationCatalog != null && stationCatalog.getProperties(name) != null) {
+			collectorProps.putAll(stationCatalog.getProperties(name));
+		}
+		final String prefix = name + ".";
+		for (final String key : props.stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				collectorProps.setProperty(key.substring(prefix.length()), props.getProperty(key));
+			}
+		}
+		for (final String key : collectorProps.keySet().toArray(new String[0])) {
+			if (key.startsWith(HTTP_SETTINGS_PREFIX)) {
+				LOG.warn("Ignoring '{}' of dataCollector '{}': all collectors share the HTTP settings.", key, name);
+				collectorProps.remove(key);
+			}
+		}
+		collectorProps.setProperty(COLLECTOR_NAME, name);
+		return collectorProps;
+	}
+
+	private DataCollector createCollector(final Properties collectorProps) {
+		try{
+			return DataCollector.class.cast(Class.forName(collectorProps.getProperty(COLLECTOR_IMPLEMENTATION)).newInstance());
+		} catch(final InstantiationException e){
+			throw new IllegalStateException(e);
+		} catch(final IllegalAccessException e){
+			throw new IllegalStateException(e);
+		} catch(final ClassNotFoundException e){
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return {@value #SCHEDULER_THREADS} or by default one thread per
+	 * 		collector, limited to the number of cores
+	 */
+	private int getSchedulerThreads(final int collectorCount) {
+		final String threads = props.getProperty(SCHEDULER_THREADS, "");
+		if (threads.trim().isEmpty()) {
+			return Math.max(1, Math.min(collectorCount, Runtime.getRuntime().availableProcessors()));
+		}
+		return Integer.parseInt(threads.trim());
+	}
+
 	private int getPeriod(final Properties props) {
 		try {
 			final int periodInMinutes = Integer.parseInt(props.getProperty(DATA_INTERVAL_MIN, "4"));
@@ -179,6 +666,37 @@ public class WeatherDataCollector {
 		LOG.info(logMessage);
 	}
 	
+	/**
+	 * A collector of a process not holding the lease yet.
+	 */
+	private static final class StandbyCollector {
+
+		private final String name;
+
+		private final DataCollector collector;
+
+		private final Properties props;
+
+		private final DataCollectionTask task;
+
+		private final long initialDelay;
+
+		private ScheduledFuture<?> follower;
+
+		StandbyCollector(final String nameP,
+				final DataCollector collectorP,
+				final Properties propsP,
+				final DataCollectionTask taskP,
+				final long initialDelayP) {
+			name = nameP;
+			collector = collectorP;
+			props = propsP;
+			task = taskP;
+			initialDelay = initialDelayP;
+		}
+
+	}
+
 	protected static String heapSizeInformation() {
 		final long mb = 1024 * 1024;
 		final Runtime rt = Runtime.getRuntime();
@@ -0,0 +1,158 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.api;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetFieldVisitor;
+import org.n52.sensorweb.wdc.csv.CsvFormat;
+
+/**
+ * Appends JSON values to an {@link Appendable}.
+ */
+public final class JsonFormat {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private JsonFormat() {}
+
+	/**
+	 * Appends the text as JSON string, <code>null</code> as
+	 * <code>null</code>.
+	 */
+	public static void appendString(final Appendable out, final CharSequence text) throws IOException {
+		if (text == null) {
+			out.append("null");
+			return;
+		}
+		out.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Appends the number, {@link Double#NaN} and infinite values as
+	 * <code>null</code>.
+	 */
+	public static void appendNumber(final Appendable out, final double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			out.append("null");
+		} else {
+			CsvFormat.appendDouble(out, value);
+		}
+	}
+
+	/**
+	 * Appends the dataset as JSON object with the ISO 8601 timestamp as
+	 * <code>timestamp</code> and one member per field.
+	 */
+	public static void appendDataset(final Appendable out, final Dataset dataset) throws IOException {
+		out.append("{\"timestamp\":\"");
+		CsvFormat.appendTimestamp(out, dataset.getTime());
+		out.append('"');
+		final IOException[] error = new IOException[1];
+		dataset.visitFields(new DatasetFieldVisitor() {
+			@Override
+			public void visitNumber(final String name, final double value) {
+				try {
+					appendName(out, name);
+					appendNumber(out, value);
+				} catch (final IOException e) {
+					error[0] = e;
+				}
+			}
+
+			@Override
+			public void visitText(final String name, final String value) {
+				try {
+					appendName(out, name);
+					appendString(out, value);
+				} catch (final IOException e) {
+					error[0] = e;
+				}
+			}
+		});
+		if (error[0] != null) {
+			throw error[0];
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Appends a CSV record as JSON object using the names of the header. Empty
+	 * values become <code>null</code>, numbers are appended as numbers and
+	 * everything else as string.
+	 */
+	public static void appendRecord(final Appendable out, final List<String> header, final List<String> values) throws IOException {
+		out.append('{');
+		for (int i = 0; i < header.size(); i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			appendString(out, header.get(i));
+			out.append(':');
+			appendValue(out, i < values.size()? values.get(i) : "");
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Appends a CSV value: empty values as <code>null</code>, numbers as
+	 * numbers and everything else as string.
+	 */
+	public static void appendValue(final Appendable out, final String value) throws IOException {
+		if (value.isEmpty()) {
+			out.append("null");
+			return;
+		}
+		final char first = value.charAt(0);
+		if ((first >= '0' && first <= '9') || first == '-') {
+			try {
+				appendNumber(out, Double.parseDouble(value));
+				return;
+			} catch (final NumberFormatException e) {
+				// e.g. a timestamp
+			}
+		}
+		appendString(out, value);
+	}
+
+	private static void appendName(final Appendable out, final String name) throws IOException {
+		out.append(',');
+		appendString(out, name);
+		out.append(':');
+	}
+
+}
@@ -0,0 +1,739 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.api;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.n52.sensorweb.wdc.DataCollector;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetFieldVisitor;
+import org.n52.sensorweb.wdc.ObservationRingBuffer;
+import org.n52.sensorweb.wdc.RecentDatasets;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.CsvFormat;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.n52.sensorweb.wdc.metrics.PrometheusFormat;
+import org.n52.sensorweb.wdc.rollup.Aggregate;
+import org.n52.sensorweb.wdc.rollup.Resolution;
+import org.n52.sensorweb.wdc.rollup.Rollup;
+import org.n52.sensorweb.wdc.rollup.RollupEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the collected data over HTTP using the server built into the JDK:
+ * <ul>
+ * <li><code>GET /api/</code>: the names of the collectors</li>
+ * <li><code>GET /api/&lt;collector&gt;/latest[?format=json|csv]</code>: the
+ * newest dataset, JSON by default</li>
+ * <li><code>GET /api/&lt;collector&gt;/range?from=&amp;to=[&amp;format=csv|json]</code>:
+ * all datasets of the range, CSV by default</li>
+ * <li><code>GET /api/&lt;collector&gt;/series/&lt;field&gt;?from=&amp;to=</code>:
+ * the values of one field as JSON array of <code>[epoch millis, value]</code>
+ * pairs</li>
+ * <li><code>GET /api/&lt;collector&gt;/stats/&lt;field&gt;?from=&amp;to=</code>:
+ * count, minimum, maximum and mean of a numeric field</li>
+ * <li><code>GET /api/&lt;collector&gt;/rollup/&lt;hourly|daily&gt;?from=&amp;to=</code>:
+ * the pre-aggregated hours or days of the range, see {@link RollupEngine}</li>
+ * </ul>
+ * The metrics of the application are served at <code>GET /metrics</code> in
+ * the text format of Prometheus.
+ * <p>
+ * <code>from</code> and <code>to</code> are ISO 8601 instants.
+ * <code>to</code> defaults to now, <code>from</code> to one day before
+ * <code>to</code> and might be given as ISO 8601 period before
+ * <code>to</code>, e.g. <code>from=PT6H</code>.
+ * <p>
+ * Ranges covered by the {@link ObservationRingBuffer} or the
+ * {@link RecentDatasets} of a collector are served from memory, older ones
+ * from its CSV files. CSV ranges from files are copied
+ * to the response by {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * without decoding the records.
+ */
+public class ReadApiServer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReadApiServer.class);
+
+	static final String CONTEXT = "/api/";
+
+	static final String METRICS_CONTEXT = "/metrics";
+
+	private static final String JSON = "application/json; charset=UTF-8";
+
+	private static final String CSV = "text/csv; charset=UTF-8";
+
+	private static final String TEXT = "text/plain; charset=UTF-8";
+
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+	private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+	private static final DateTimeFormatter TIME_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+	private final Map<String, DataCollector> collectors;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final ConcurrentMap<String, LatestResponse> latestResponses = new ConcurrentHashMap<>();
+
+	/**
+	 * @param address the address to listen at, port 0 for any free port
+	 * @param threads the number of threads handling requests
+	 * @param collectorsP the collectors by name
+	 */
+	public ReadApiServer(final InetSocketAddress address, final int threads, final Map<String, DataCollector> collectorsP) throws IOException {
+		collectors = collectorsP;
+		server = HttpServer.create(address, 0);
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "52n-wdc-api-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					ReadApiServer.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext(METRICS_CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					final StringBuilder metrics = new StringBuilder(16 * 1024);
+					PrometheusFormat.write(metrics, MetricsRegistry.getDefault());
+					send(exchange, 200, PrometheusFormat.CONTENT_TYPE, metrics.toString());
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+		LOG.info("Serving the collected data at http://{}:{}{}", server.getAddress().getHostString(), getPort(), CONTEXT);
+	}
+
+	public void stop() {
+		server.stop(1);
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		if (!"GET".equals(exchange.getRequestMethod())) {
+			send(exchange, 405, TEXT, "Only GET is supported.");
+			return;
+		}
+		final URI uri = exchange.getRequestURI();
+		final String[] path = uri.getPath().substring(CONTEXT.length()).split("/");
+		try {
+			if (path[0].isEmpty()) {
+				sendCollectorNames(exchange);
+				return;
+			}
+			final DataCollector collector = collectors.get(path[0]);
+			if (collector == null || path.length < 2) {
+				send(exchange, 404, TEXT, "Unknown collector. Available: " + collectors.keySet());
+				return;
+			}
+			final Map<String, String> query = parseQuery(uri.getRawQuery());
+			switch (path[1]) {
+			case "latest":
+				sendLatest(exchange, path[0], collector, "csv".equals(query.get("format")));
+				break;
+			case "range":
+				sendRange(exchange, collector, query, "json".equals(query.get("format")));
+				break;
+			case "series":
+				if (path.length < 3) {
+					send(exchange, 404, TEXT, "Missing field: series/<field>");
+				} else {
+					sendSeries(exchange, collector, path[2], query);
+				}
+				break;
+			case "stats":
+				if (path.length < 3) {
+					send(exchange, 404, TEXT, "Missing field: stats/<field>");
+				} else {
+					sendStatistics(exchange, collector, path[2], query);
+				}
+				break;
+			case "rollup":
+				if (path.length < 3) {
+					send(exchange, 404, TEXT, "Missing resolution: rollup/<hourly|daily>");
+				} else {
+					sendRollups(exchange, collector, Resolution.fromString(path[2]), query);
+				}
+				break;
+			default:
+				send(exchange, 404, TEXT, "Unknown resource. Available: latest, range, series/<field>, stats/<field>, rollup/<resolution>");
+			}
+		} catch (final IllegalArgumentException e) {
+			send(exchange, 400, TEXT, e.getMessage());
+		} catch (final IOException e) {
+			// mostly clients closing the connection
+			LOG.debug("Could not answer request '{}': {}", uri, e.getMessage());
+		}
+	}
+
+	private void sendCollectorNames(final HttpExchange exchange) throws IOException {
+		final StringBuilder json = new StringBuilder("{\"collectors\":[");
+		boolean first = true;
+		for (final String name : collectors.keySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			JsonFormat.appendString(json, name);
+			first = false;
+		}
+		send(exchange, 200, JSON, json.append("]}").toString());
+	}
+
+	private void sendLatest(final HttpExchange exchange,
+			final String name,
+			final DataCollector collector,
+			final boolean csv) throws IOException {
+		final Dataset dataset = collector.getRecentDatasets().getLatest();
+		if (dataset == null) {
+			send(exchange, 404, TEXT, "No data collected yet.");
+			return;
+		}
+		LatestResponse response = latestResponses.get(name);
+		if (response == null || response.dataset != dataset) {
+			response = new LatestResponse(dataset);
+			latestResponses.put(name, response);
+		}
+		if (csv) {
+			send(exchange, 200, CSV, response.csv);
+		} else {
+			send(exchange, 200, JSON, response.json);
+		}
+	}
+
+	private void sendRange(final HttpExchange exchange,
+			final DataCollector collector,
+			final Map<String, String> query,
+			final boolean json) throws IOException {
+		final DateTime to = parseTime(query.get("to"), DateTime.now(DateTimeZone.UTC));
+		final DateTime from = parseFrom(query.get("from"), to);
+		if (isInMemory(collector, from)) {
+			final List<Dataset> datasets = collector.getRecentDatasets().get(from, to);
+			final StringBuilder body = new StringBuilder(datasets.size() * 160 + 16);
+			if (json) {
+				body.append('[');
+				for (int i = 0; i < datasets.size(); i++) {
+					if (i > 0) {
+						body.append(',');
+					}
+					JsonFormat.appendDataset(body, datasets.get(i));
+				}
+				body.append(']');
+				send(exchange, 200, JSON, body.toString());
+			} else {
+				body.append(collector.getRecentDatasets().getLatest().getCSVHeader());
+				for (final Dataset dataset : datasets) {
+					body.append(System.lineSeparator());
+					dataset.appendCSV(body);
+				}
+				send(exchange, 200, CSV, body.toString());
+			}
+			return;
+		}
+		final CsvArchiveReader archive = collector.getArchive();
+		final List<CsvArchiveReader.Range> ranges = archive.findRanges(from, to);
+		if (json) {
+			final Writer writer = startStreaming(exchange, JSON);
+			writer.write('[');
+			if (!ranges.isEmpty()) {
+				final List<String> header = CsvFormat.parseRecord(archive.readHeader(ranges.get(0).getFile()));
+				readArchive(archive, from, to, new RecordWriter(writer) {
+					@Override
+					void write(final long timeMillis, final List<String> values) throws IOException {
+						separate();
+						JsonFormat.appendRecord(writer, header, values);
+					}
+				});
+			}
+			writer.write(']');
+			writer.flush();
+		} else {
+			sendCsvRanges(exchange, archive, ranges);
+		}
+	}
+
+	/**
+	 * Copies the ranges directly from the files to the response. Ranges of
+	 * compressed files are already decompressed in memory.
+	 */
+	private static void sendCsvRanges(final HttpExchange exchange,
+			final CsvArchiveReader archive,
+			final List<CsvArchiveReader.Range> ranges) throws IOException {
+		final byte[] header = ranges.isEmpty()?
+				new byte[0] :
+				archive.readHeader(ranges.get(0).getFile()).getBytes(StandardCharsets.UTF_8);
+		long length = header.length;
+		for (final CsvArchiveReader.Range range : ranges) {
+			length += LINE_SEPARATOR.length + range.getLength();
+		}
+		exchange.getResponseHeaders().set("Content-Type", CSV);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.sendResponseHeaders(200, length == 0? -1 : length);
+		final OutputStream out = exchange.getResponseBody();
+		out.write(header);
+		final WritableByteChannel target = Channels.newChannel(out);
+		for (final CsvArchiveReader.Range range : ranges) {
+			out.write(LINE_SEPARATOR);
+			range.writeTo(target);
+		}
+		out.flush();
+	}
+
+	private void sendSeries(final HttpExchange exchange,
+			final DataCollector collector,
+			final String field,
+			final Map<String, String> query) throws IOException {
+		final DateTime to = parseTime(query.get("to"), DateTime.now(DateTimeZone.UTC));
+		final DateTime from = parseFrom(query.get("from"), to);
+		if (isInObservations(collector, field, from)) {
+			final ObservationRingBuffer.Series series = collector.getObservations().getSeries(field, from, to);
+			final StringBuilder body = new StringBuilder(series.size() * 24 + 64).append("{\"field\":");
+			JsonFormat.appendString(body, field);
+			body.append(",\"values\":[");
+			for (int i = 0; i < series.size(); i++) {
+				if (i > 0) {
+					body.append(',');
+				}
+				body.append('[').append(series.getTimeMillis(i)).append(',');
+				JsonFormat.appendNumber(body, series.getValue(i));
+				body.append(']');
+			}
+			send(exchange, 200, JSON, body.append("]}").toString());
+			return;
+		}
+		if (isInMemory(collector, from)) {
+			final Dataset latest = collector.getRecentDatasets().getLatest();
+			if (latest != null && !new SeriesValueWriter(new StringBuilder(), field).write(latest)) {
+				send(exchange, 404, TEXT, "Unknown field '" + field + "'.");
+				return;
+			}
+			final StringBuilder body = new StringBuilder("{\"field\":");
+			JsonFormat.appendString(body, field);
+			body.append(",\"values\":[");
+			final SeriesValueWriter valueWriter = new SeriesValueWriter(body, field);
+			for (final Dataset dataset : collector.getRecentDatasets().get(from, to)) {
+				valueWriter.write(dataset);
+			}
+			send(exchange, 200, JSON, body.append("]}").toString());
+			return;
+		}
+		final CsvArchiveReader archive = collector.getArchive();
+		final List<CsvArchiveReader.Range> ranges = archive.findRanges(from, to);
+		int column = -1;
+		if (!ranges.isEmpty()) {
+			column = CsvFormat.parseRecord(archive.readHeader(ranges.get(0).getFile())).indexOf(field);
+			if (column < 0) {
+				send(exchange, 404, TEXT, "Unknown field '" + field + "'.");
+				return;
+			}
+		}
+		final Writer writer = startStreaming(exchange, JSON);
+		writer.write("{\"field\":");
+		JsonFormat.appendString(writer, field);
+		writer.write(",\"values\":[");
+		if (column >= 0) {
+			final int index = column;
+			readArchive(archive, from, to, new RecordWriter(writer) {
+				@Override
+				void write(final long timeMillis, final List<String> values) throws IOException {
+					separate();
+					writer.write('[');
+					writer.write(Long.toString(timeMillis));
+					writer.write(',');
+					JsonFormat.appendValue(writer, index < values.size()? values.get(index) : "");
+					writer.write(']');
+				}
+			});
+		}
+		writer.write("]}");
+		writer.flush();
+	}
+
+	private void sendStatistics(final HttpExchange exchange,
+			final DataCollector collector,
+			final String field,
+			final Map<String, String> query) throws IOException {
+		final DateTime to = parseTime(query.get("to"), DateTime.now(DateTimeZone.UTC));
+		final DateTime from = parseFrom(query.get("from"), to);
+		final ObservationRingBuffer observations = collector.getObservations();
+		if (observations != null && !observations.getFields().contains(field)) {
+			send(exchange, 404, TEXT, "Unknown field '" + field + "'. Available: " + observations.getFields());
+			return;
+		}
+		final ObservationRingBuffer.Statistics statistics;
+		if (isInObservations(collector, field, from)) {
+			statistics = observations.getStatistics(field, from, to);
+		} else if (collector.getArchive() == null) {
+			send(exchange, 404, TEXT, "No data collected yet.");
+			return;
+		} else {
+			final CsvArchiveReader archive = collector.getArchive();
+			final List<CsvArchiveReader.Range> ranges = archive.findRanges(from, to);
+			statistics = new ObservationRingBuffer.Statistics();
+			if (!ranges.isEmpty()) {
+				final int column = CsvFormat.parseRecord(archive.readHeader(ranges.get(0).getFile())).indexOf(field);
+				if (column < 0) {
+					send(exchange, 404, TEXT, "Unknown field '" + field + "'.");
+					return;
+				}
+				archive.read(from, to, new CsvArchiveReader.RecordHandler() {
+					@Override
+					public void handle(final long timeMillis, final String record) {
+						final List<String> values = CsvFormat.parseRecord(record);
+						if (column < values.size() && !values.get(column).isEmpty()) {
+							try {
+								statistics.add(Double.parseDouble(values.get(column)));
+							} catch (final NumberFormatException e) {
+								// not a number, skipped like missing values
+							}
+						}
+					}
+				});
+			}
+		}
+		final StringBuilder body = new StringBuilder(160).append("{\"field\":");
+		JsonFormat.appendString(body, field);
+		body.append(",\"from\":");
+		JsonFormat.appendString(body, from.toString());
+		body.append(",\"to\":");
+		JsonFormat.appendString(body, to.toString());
+		body.append(",\"count\":").append(statistics.getCount()).append(",\"min\":");
+		JsonFormat.appendNumber(body, statistics.getMin());
+		body.append(",\"max\":");
+		JsonFormat.appendNumber(body, statistics.getMax());
+		body.append(",\"mean\":");
+		JsonFormat.appendNumber(body, statistics.getMean());
+		send(exchange, 200, JSON, body.append('}').toString());
+	}
+
+	private static void sendRollups(final HttpExchange exchange,
+			final DataCollector collector,
+			final Resolution resolution,
+			final Map<String, String> query) throws IOException {
+		final RollupEngine rollups = collector.getRollups();
+		if (rollups == null) {
+			send(exchange, 404, TEXT, "No rollups maintained.");
+			return;
+		}
+		final DateTime to = parseTime(query.get("to"), DateTime.now(DateTimeZone.UTC));
+		final DateTime from = parseFrom(query.get("from"), to);
+		final Writer writer = startStreaming(exchange, JSON);
+		writer.write("{\"resolution\":");
+		JsonFormat.appendString(writer, resolution.toString());
+		writer.write(",\"rollups\":[");
+		boolean first = true;
+		for (final Rollup rollup : rollups.query(resolution, from, to)) {
+			if (!first) {
+				writer.write(',');
+			}
+			first = false;
+			writer.write("{\"time\":");
+			JsonFormat.appendString(writer, rollup.getTime().toString());
+			writer.write(",\"datasets\":");
+			writer.write(Long.toString(rollup.getDatasetCount()));
+			for (final String field : rollup.getFields()) {
+				final Aggregate aggregate = rollup.getAggregate(field);
+				writer.write(',');
+				JsonFormat.appendString(writer, field);
+				writer.write(":{\"count\":");
+				writer.write(Long.toString(aggregate.getCount()));
+				writer.write(",\"min\":");
+				JsonFormat.appendNumber(writer, aggregate.getMin());
+				writer.write(",\"max\":");
+				JsonFormat.appendNumber(writer, aggregate.getMax());
+				writer.write(",\"sum\":");
+				JsonFormat.appendNumber(writer, aggregate.getSum());
+				writer.write(",\"mean\":");
+				JsonFormat.appendNumber(writer, aggregate.getMean());
+				writer.write('}');
+			}
+			writer.write('}');
+		}
+		writer.write("]}");
+		writer.flush();
+	}
+
+	/**
+	 * @return <code>true</code>, if the range starting at <code>from</code>
+	 * 		is covered by the {@link ObservationRingBuffer} of the collector
+	 */
+	private static boolean isInObservations(final DataCollector collector, final String field, final DateTime from) {
+		final ObservationRingBuffer observations = collector.getObservations();
+		if (observations == null || !observations.getFields().contains(field)) {
+			return false;
+		}
+		final DateTime oldest = observations.getOldestTime();
+		return collector.getArchive() == null || (oldest != null && !from.isBefore(oldest));
+	}
+
+	private static boolean isInMemory(final DataCollector collector, final DateTime from) {
+		final DateTime oldest = collector.getRecentDatasets().getOldestTime();
+		return collector.getArchive() == null || (oldest != null && !from.isBefore(oldest));
+	}
+
+	private static void readArchive(final CsvArchiveReader archive,
+			final DateTime from,
+			final DateTime to,
+			final RecordWriter recordWriter) throws IOException {
+		archive.read(from, to, recordWriter);
+		if (recordWriter.error != null) {
+			throw recordWriter.error;
+		}
+	}
+
+	private static Writer startStreaming(final HttpExchange exchange, final String contentType) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		// chunked
+		exchange.sendResponseHeaders(200, 0);
+		return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), WRITER_BUFFER_SIZE);
+	}
+
+	private static void send(final HttpExchange exchange, final int status, final String contentType, final String body) throws IOException {
+		send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(final HttpExchange exchange, final int status, final String contentType, final byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+		exchange.sendResponseHeaders(status, body.length == 0? -1 : body.length);
+		if (body.length > 0) {
+			final OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.flush();
+		}
+	}
+
+	private static DateTime parseFrom(final String value, final DateTime to) {
+		if (value != null && value.startsWith("P")) {
+			return to.minus(Period.parse(value));
+		}
+		return parseTime(value, to.minusDays(1));
+	}
+
+	private static DateTime parseTime(final String value, final DateTime defaultTime) {
+		if (value == null || value.isEmpty()) {
+			return defaultTime;
+		}
+		return TIME_PARSER.parseDateTime(value);
+	}
+
+	private static Map<String, String> parseQuery(final String rawQuery) throws IOException {
+		final Map<String, String> query = new HashMap<>();
+		if (rawQuery == null) {
+			return query;
+		}
+		for (final String parameter : rawQuery.split("&")) {
+			final int separator = parameter.indexOf('=');
+			if (separator > 0) {
+				query.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+						URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * The serialized forms of the latest dataset of a collector.
+	 */
+	private static final class LatestResponse {
+
+		private final Dataset dataset;
+
+		private final byte[] json;
+
+		private final byte[] csv;
+
+		LatestResponse(final Dataset datasetP) throws IOException {
+			dataset = datasetP;
+			final StringBuilder sb = new StringBuilder(512);
+			JsonFormat.appendDataset(sb, dataset);
+			json = sb.toString().getBytes(StandardCharsets.UTF_8);
+			sb.setLength(0);
+			sb.append(dataset.getCSVHeader()).append(System.lineSeparator());
+			dataset.appendCSV(sb);
+			csv = sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Writes the records read from the archive, keeping the first
+	 * {@link IOException} as it can not be thrown by the handler.
+	 */
+	private abstract static class RecordWriter implements CsvArchiveReader.RecordHandler {
+
+		final Writer writer;
+
+		private boolean first = true;
+
+		IOException error;
+
+		RecordWriter(final Writer writerP) {
+			writer = writerP;
+		}
+
+		@Override
+		public void handle(final long timeMillis, final String record) {
+			if (error != null) {
+				return;
+			}
+			try {
+				write(timeMillis, CsvFormat.parseRecord(record));
+			} catch (final IOException e) {
+				error = e;
+			}
+		}
+
+		void separate() throws IOException {
+			if (!first) {
+				writer.write(',');
+			}
+			first = false;
+		}
+
+		abstract void write(long timeMillis, List<String> values) throws IOException;
+	}
+
+	/**
+	 * Appends <code>[epoch millis, value]</code> of one field of datasets.
+	 */
+	private static final class SeriesValueWriter implements DatasetFieldVisitor {
+
+		private final StringBuilder out;
+
+		private final String field;
+
+		private long timeMillis;
+
+		private boolean first = true;
+
+		private boolean found;
+
+		SeriesValueWriter(final StringBuilder outP, final String fieldP) {
+			out = outP;
+			field = fieldP;
+		}
+
+		/**
+		 * @return <code>true</code>, if the dataset contains the field
+		 */
+		boolean write(final Dataset dataset) {
+			timeMillis = dataset.getTime().getMillis();
+			found = false;
+			dataset.visitFields(this);
+			return found;
+		}
+
+		private void start() {
+			if (!first) {
+				out.append(',');
+			}
+			first = false;
+			found = true;
+			out.append('[').append(timeMillis).append(',');
+		}
+
+		@Override
+		public void visitNumber(final String name, final double value) {
+			if (field.equals(name)) {
+				start();
+				try {
+					JsonFormat.appendNumber(out, value);
+				} catch (final IOException e) {
+					// StringBuilder does not throw IOExceptions
+					throw new IllegalStateException(e);
+				}
+				out.append(']');
+			}
+		}
+
+		@Override
+		public void visitText(final String name, final String value) {
+			if (field.equals(name)) {
+				start();
+				try {
+					JsonFormat.appendString(out, value);
+				} catch (final IOException e) {
+					throw new IllegalStateException(e);
+				}
+				out.append(']');
+			}
+		}
+	}
+
+}
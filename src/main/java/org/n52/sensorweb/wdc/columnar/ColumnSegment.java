@@ -0,0 +1,354 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetFieldVisitor;
+import org.n52.sensorweb.wdc.TextDictionary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the rows of one day into a memory-mapped segment file, see
+ * {@link SegmentLayout}.
+ * <p>
+ * A row is committed by increasing the row counter in the header after all of
+ * its values and, last, its timestamp are written. Rows beyond the counter are
+ * overwritten by the next append. When opening an existing segment, the
+ * committed rows are validated: the timestamps must increase and lie within
+ * the day and the text codes must be known to the dictionary. The segment is
+ * cut off before the first invalid row, which covers pages lost by a crash of
+ * the operating system since the last {@link #force()}.
+ * <p>
+ * With a shared {@link TextDictionary}, the dictionary of each text column
+ * is kept a prefix of the values of the shared one, so the codes are the
+ * same in all segments. Columns of existing segments written with other
+ * codes keep their own codes.
+ */
+final class ColumnSegment implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ColumnSegment.class);
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final MappedByteBuffer buffer;
+
+	private final SegmentLayout layout;
+
+	private final SegmentDictionary dictionary;
+
+	private final TextDictionary shared;
+
+	/**
+	 * per column: <code>true</code>, if the codes are the ones of {@link #shared}
+	 */
+	private final boolean[] aligned;
+
+	private final long dayStartMillis;
+
+	private final RowWriter rowWriter = new RowWriter();
+
+	private int rows;
+
+	private ColumnSegment(final File fileP,
+			final FileChannel channelP,
+			final MappedByteBuffer bufferP,
+			final SegmentLayout layoutP,
+			final SegmentDictionary dictionaryP,
+			final TextDictionary sharedP,
+			final long dayStartMillisP) {
+		file = fileP;
+		channel = channelP;
+		buffer = bufferP;
+		layout = layoutP;
+		dictionary = dictionaryP;
+		shared = sharedP;
+		aligned = new boolean[layout.getColumnCount()];
+		dayStartMillis = dayStartMillisP;
+	}
+
+	/**
+	 * Opens the segment of the day, creating it with the given layout if it
+	 * does not exist.
+	 *
+	 * @param shared the dictionary of the codes shared by all segments or
+	 * 		<code>null</code>
+	 * @throws IOException if the file could not be opened or the existing
+	 * 		segment has other columns
+	 */
+	static ColumnSegment open(final File file,
+			final SegmentLayout layout,
+			final long dayStartMillis,
+			final TextDictionary shared) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		SegmentDictionary dictionary = null;
+		try {
+			SegmentLayout fileLayout = layout;
+			final boolean created = channel.size() < SegmentLayout.HEADER_SIZE;
+			if (!created) {
+				final ByteBuffer header = ByteBuffer.allocate(SegmentLayout.HEADER_SIZE);
+				while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+					// read the complete header
+				}
+				fileLayout = SegmentLayout.read(header);
+				if (!fileLayout.hasSameColumns(layout)) {
+					throw new IOException(String.format("Segment '%s' has the columns %s, the data has %s.",
+							file, fileLayout.getNames(), layout.getNames()));
+				}
+				if (SegmentLayout.getDayStartMillis(header) != dayStartMillis) {
+					throw new IOException(String.format("Segment '%s' does not belong to the day starting at %d.",
+							file, dayStartMillis));
+				}
+			}
+			if (fileLayout.getSize() > Integer.MAX_VALUE) {
+				throw new IOException("Segment capacity " + fileLayout.getCapacity() + " is too large.");
+			}
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, fileLayout.getSize());
+			dictionary = SegmentDictionary.open(getDictionaryFile(file), fileLayout.getColumnCount());
+			if (created) {
+				fileLayout.write(buffer, dayStartMillis);
+			}
+			final ColumnSegment segment = new ColumnSegment(file, channel, buffer, fileLayout, dictionary, shared, dayStartMillis);
+			segment.recover();
+			segment.align();
+			return segment;
+		} catch (final IOException | RuntimeException e) {
+			if (dictionary != null) {
+				dictionary.close();
+			}
+			channel.close();
+			throw e;
+		}
+	}
+
+	static File getDictionaryFile(final File segment) {
+		return new File(segment.getPath() + ".dict");
+	}
+
+	private void recover() {
+		final int committed = Math.max(0, Math.min(buffer.getInt(SegmentLayout.ROWS_OFFSET), layout.getCapacity()));
+		long previous = Long.MIN_VALUE;
+		int valid = 0;
+		while (valid < committed) {
+			final long time = buffer.getLong((int) layout.getTimestampOffset(valid));
+			if (time <= previous || time < dayStartMillis || time >= dayStartMillis + MILLIS_PER_DAY || !hasKnownCodes(valid)) {
+				break;
+			}
+			previous = time;
+			valid++;
+		}
+		if (valid != buffer.getInt(SegmentLayout.ROWS_OFFSET)) {
+			LOG.warn("Segment '{}' claimed {} rows, only the first {} are valid. Cutting off the rest.",
+					file,
+					buffer.getInt(SegmentLayout.ROWS_OFFSET),
+					valid);
+			buffer.putInt(SegmentLayout.ROWS_OFFSET, valid);
+		}
+		rows = valid;
+	}
+
+	/**
+	 * Checks which text columns use the codes of the shared dictionary. Values
+	 * missing in the shared dictionary, e.g. of segments written before it
+	 * existed, are added to it.
+	 */
+	private void align() {
+		if (shared == null) {
+			return;
+		}
+		for (int column = 0; column < layout.getColumnCount(); column++) {
+			if (layout.getTypes().get(column) == ColumnType.TEXT) {
+				final String name = layout.getNames().get(column);
+				aligned[column] = true;
+				for (int code = 0; code < dictionary.size(column) && aligned[column]; code++) {
+					aligned[column] = shared.encode(name, dictionary.decode(column, code)) == code;
+				}
+				if (!aligned[column]) {
+					LOG.info("Column '{}' of segment '{}' keeps its own text codes.", name, file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the code of the value in the column, the one of the shared
+	 * 		dictionary if the column is aligned to it
+	 */
+	private int encode(final int column, final String name, final String value) throws IOException {
+		if (aligned[column]) {
+			final int code = shared.encode(name, value);
+			if (code != TextDictionary.UNKNOWN) {
+				// values added to the shared dictionary meanwhile, e.g. by other segments
+				while (dictionary.size(column) <= code) {
+					dictionary.encode(column, shared.decode(name, dictionary.size(column)));
+				}
+				return code;
+			}
+			LOG.warn("Column '{}' of segment '{}' keeps its own text codes from now on.", name, file);
+			aligned[column] = false;
+		}
+		return dictionary.encode(column, value);
+	}
+
+	private boolean hasKnownCodes(final int row) {
+		for (int column = 0; column < layout.getColumnCount(); column++) {
+			if (layout.getTypes().get(column) == ColumnType.TEXT) {
+				final int code = buffer.getInt((int) layout.getValueOffset(column, row));
+				if (code < -1 || code >= dictionary.size(column)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @throws IOException if the segment is full, the dataset has other fields
+	 * 		or the dictionary could not be written
+	 */
+	void append(final Dataset dataset) throws IOException {
+		if (rows >= layout.getCapacity()) {
+			throw new IOException(String.format("Segment '%s' is full with %d rows.", file, rows));
+		}
+		rowWriter.start(rows);
+		dataset.visitFields(rowWriter);
+		rowWriter.finish();
+		buffer.putLong((int) layout.getTimestampOffset(rows), dataset.getTime().getMillis());
+		rows++;
+		buffer.putInt(SegmentLayout.ROWS_OFFSET, rows);
+	}
+
+	/**
+	 * @return the timestamp of the last committed row or
+	 * 		{@link Long#MIN_VALUE} if the segment is empty
+	 */
+	long getLastTimestamp() {
+		return rows == 0? Long.MIN_VALUE : buffer.getLong((int) layout.getTimestampOffset(rows - 1));
+	}
+
+	int getRowCount() {
+		return rows;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Synchronizes the dictionaries and then the segment with the disk.
+	 */
+	void force() throws IOException {
+		if (shared != null) {
+			shared.force();
+		}
+		dictionary.force();
+		buffer.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			dictionary.close();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private final class RowWriter implements DatasetFieldVisitor {
+
+		private int row;
+
+		private int column;
+
+		private IOException error;
+
+		void start(final int rowP) {
+			row = rowP;
+			column = 0;
+			error = null;
+		}
+
+		@Override
+		public void visitNumber(final String name, final double value) {
+			if (check(name, ColumnType.NUMBER)) {
+				buffer.putDouble((int) layout.getValueOffset(column, row), value);
+			}
+			column++;
+		}
+
+		@Override
+		public void visitText(final String name, final String value) {
+			if (check(name, ColumnType.TEXT)) {
+				try {
+					buffer.putInt((int) layout.getValueOffset(column, row), encode(column, name, value));
+				} catch (final IOException e) {
+					error = e;
+				}
+			}
+			column++;
+		}
+
+		private boolean check(final String name, final ColumnType type) {
+			if (error != null) {
+				return false;
+			}
+			if (column >= layout.getColumnCount()
+					|| layout.getTypes().get(column) != type
+					|| !layout.getNames().get(column).equals(name)) {
+				error = new IOException(String.format("Field '%s' does not match the columns %s of segment '%s'.",
+						name, layout.getNames(), file));
+				return false;
+			}
+			return true;
+		}
+
+		void finish() throws IOException {
+			if (error == null && column != layout.getColumnCount()) {
+				error = new IOException(String.format("Dataset has %d fields, segment '%s' has %d columns.",
+						column, file, layout.getColumnCount()));
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+
+	}
+
+}
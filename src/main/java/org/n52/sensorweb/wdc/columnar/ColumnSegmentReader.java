@@ -0,0 +1,190 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Reads the committed rows of a segment written by {@link ColumnarSink}.
+ * <p>
+ * The segment is mapped into memory, so scanning one column reads only the
+ * pages of this column. The buffers returned cover the rows committed when
+ * the reader was opened and are read-only.
+ */
+public class ColumnSegmentReader implements Closeable {
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final MappedByteBuffer buffer;
+
+	private final SegmentLayout layout;
+
+	private final int rows;
+
+	private SegmentDictionary dictionary;
+
+	public ColumnSegmentReader(final File fileP) throws IOException {
+		file = fileP;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() < SegmentLayout.HEADER_SIZE) {
+				throw new IOException(String.format("File '%s' is not a segment.", file));
+			}
+			final MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, SegmentLayout.HEADER_SIZE);
+			layout = SegmentLayout.read(header);
+			if (layout.getSize() > channel.size()) {
+				throw new IOException(String.format("Segment '%s' is truncated.", file));
+			}
+			buffer = channel.map(MapMode.READ_ONLY, 0, layout.getSize());
+			rows = Math.max(0, Math.min(buffer.getInt(SegmentLayout.ROWS_OFFSET), layout.getCapacity()));
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the segment files of all days from <code>from</code> to
+	 * 		<code>to</code> (inclusive) that exist, in chronological order
+	 */
+	public static List<File> findSegments(final String pathPrefix, final DateTime from, final DateTime to) {
+		final List<File> segments = new ArrayList<>();
+		final DateTime end = to.toDateTime(DateTimeZone.UTC);
+		for (DateTime day = from.toDateTime(DateTimeZone.UTC).withTimeAtStartOfDay(); !day.isAfter(end); day = day.plusDays(1)) {
+			final File segment = ColumnarSink.getFile(pathPrefix, day);
+			if (segment.isFile()) {
+				segments.add(segment);
+			}
+		}
+		return segments;
+	}
+
+	public int getRowCount() {
+		return rows;
+	}
+
+	public List<String> getColumnNames() {
+		return layout.getNames();
+	}
+
+	public ColumnType getColumnType(final String column) {
+		return layout.getTypes().get(layout.indexOf(column));
+	}
+
+	/**
+	 * @return the epoch millis of all rows, increasing
+	 */
+	public LongBuffer getTimestamps() {
+		return slice(SegmentLayout.HEADER_SIZE, 8).asLongBuffer();
+	}
+
+	/**
+	 * @return the values of the {@link ColumnType#NUMBER} column,
+	 * 		{@link Double#NaN} for missing values
+	 */
+	public DoubleBuffer getNumbers(final String column) {
+		return slice(getColumnOffset(column, ColumnType.NUMBER), 8).asDoubleBuffer();
+	}
+
+	/**
+	 * @return the dictionary codes of the {@link ColumnType#TEXT} column, -1
+	 * 		for missing values. See {@link #getText(String, int)}.
+	 */
+	public IntBuffer getTextCodes(final String column) {
+		return slice(getColumnOffset(column, ColumnType.TEXT), 4).asIntBuffer();
+	}
+
+	/**
+	 * @return the text of the code of the {@link ColumnType#TEXT} column or
+	 * 		<code>null</code> for -1
+	 */
+	public synchronized String getText(final String column, final int code) throws IOException {
+		final int index = layout.indexOf(column);
+		if (dictionary == null || code >= dictionary.size(index)) {
+			dictionary = SegmentDictionary.read(ColumnSegment.getDictionaryFile(file), layout.getColumnCount());
+		}
+		return dictionary.decode(index, code);
+	}
+
+	/**
+	 * @return the first row with a timestamp at or after the given time,
+	 * 		{@link #getRowCount()} if there is none
+	 */
+	public int findRow(final long millis) {
+		final LongBuffer timestamps = getTimestamps();
+		int low = 0;
+		int high = rows;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (timestamps.get(middle) < millis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private long getColumnOffset(final String column, final ColumnType type) {
+		final int index = layout.indexOf(column);
+		if (layout.getTypes().get(index) != type) {
+			throw new IllegalArgumentException(String.format("Column '%s' is not of type %s.", column, type));
+		}
+		return layout.getColumnOffset(index);
+	}
+
+	private ByteBuffer slice(final long offset, final int width) {
+		final ByteBuffer view = buffer.duplicate();
+		view.position((int) offset);
+		view.limit((int) offset + rows * width);
+		return view.slice();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
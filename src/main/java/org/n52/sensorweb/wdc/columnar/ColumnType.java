@@ -0,0 +1,52 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+/**
+ * The types of columns in a segment file, see {@link ColumnarSink}.
+ */
+public enum ColumnType {
+	/**
+	 * 8 byte IEEE 754 doubles, {@link Double#NaN} for missing values.
+	 */
+	NUMBER(8),
+	/**
+	 * 4 byte codes of a per segment dictionary, -1 for missing values.
+	 */
+	TEXT(4);
+
+	private final int width;
+
+	private ColumnType(final int widthP) {
+		width = widthP;
+	}
+
+	/**
+	 * @return the number of bytes per value
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+}
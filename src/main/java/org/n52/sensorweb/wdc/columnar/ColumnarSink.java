@@ -0,0 +1,219 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetFieldVisitor;
+import org.n52.sensorweb.wdc.DatasetSink;
+import org.n52.sensorweb.wdc.FileLocks;
+import org.n52.sensorweb.wdc.TextDictionary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores datasets in binary, memory-mapped segment files, one per UTC day,
+ * named <code>&lt;pathPrefix&gt;yyyy-MM-dd.col</code>. Each field of the
+ * datasets is a column of fixed-width values: numbers as doubles, texts as
+ * codes of a dictionary kept next to the segment. Timestamps are stored as
+ * epoch millis. With a shared {@link TextDictionary}, the texts have the same
+ * codes in all segments, so filtering by a text is comparing its code.
+ * <p>
+ * The columns are defined by the first dataset of a day. Datasets not newer
+ * than the last one of their day are skipped, so replaying datasets is
+ * harmless. Written rows are visible to readers and survive a crash of the
+ * process immediately; {@link #flush()} synchronizes them with the disk.
+ * Use {@link ColumnSegmentReader} to read the segments.
+ */
+public class ColumnarSink implements DatasetSink {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ColumnarSink.class);
+
+	public static final String FILE_EXTENSION = ".col";
+
+	static final DateTimeFormatter DAY_FORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+
+	private final String pathPrefix;
+
+	private final int rowsPerSegment;
+
+	private TextDictionary dictionary;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private ColumnSegment segment;
+
+	private long segmentDayStartMillis;
+
+	/**
+	 * @param pathPrefixP the path of the segment files up to the date part, e.g. <code>./data/muenster-wetter_</code>
+	 * @param rowsPerSegmentP the maximum number of rows per day
+	 */
+	public ColumnarSink(final String pathPrefixP, final int rowsPerSegmentP) {
+		pathPrefix = pathPrefixP;
+		rowsPerSegment = rowsPerSegmentP;
+	}
+
+	/**
+	 * @param dictionaryP the dictionary of the text codes shared by all
+	 * 		segments or <code>null</code> for codes per segment. Used for the
+	 * 		segments opened afterwards, not closed by {@link #close()}.
+	 */
+	public void setDictionary(final TextDictionary dictionaryP) {
+		lock.lock();
+		try {
+			dictionary = dictionaryP;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the file of the shared dictionary of the segments, see
+	 * 		{@link #setDictionary(TextDictionary)}
+	 */
+	public static File getDictionaryFile(final String pathPrefix) {
+		return new File(pathPrefix + "texts.dict");
+	}
+
+	@Override
+	public void append(final Dataset dataset) throws IOException {
+		final DateTime time = dataset.getTime().toDateTime(DateTimeZone.UTC);
+		final long dayStartMillis = time.withTimeAtStartOfDay().getMillis();
+		lock.lock();
+		try {
+			if (segment == null || segmentDayStartMillis != dayStartMillis) {
+				closeCurrent();
+				final File file = getFile(time);
+				final ReentrantLock fileLock = FileLocks.forFile(file);
+				fileLock.lock();
+				try {
+					segment = ColumnSegment.open(file, createLayout(dataset), dayStartMillis, dictionary);
+				} finally {
+					fileLock.unlock();
+				}
+				segmentDayStartMillis = dayStartMillis;
+				LOG.info("Appending to segment '{}' with {} rows.", file.getAbsolutePath(), segment.getRowCount());
+			}
+			if (time.getMillis() <= segment.getLastTimestamp()) {
+				LOG.debug("Skipping dataset of {}: segment '{}' already contains newer data.", time, segment.getFile());
+				return;
+			}
+			segment.append(dataset);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private SegmentLayout createLayout(final Dataset dataset) {
+		final List<String> names = new ArrayList<>();
+		final List<ColumnType> types = new ArrayList<>();
+		dataset.visitFields(new DatasetFieldVisitor() {
+			@Override
+			public void visitNumber(final String name, final double value) {
+				names.add(name);
+				types.add(ColumnType.NUMBER);
+			}
+
+			@Override
+			public void visitText(final String name, final String value) {
+				names.add(name);
+				types.add(ColumnType.TEXT);
+			}
+		});
+		return new SegmentLayout(rowsPerSegment, names, types);
+	}
+
+	/**
+	 * @return the segment file a dataset with the given time is appended to
+	 */
+	public File getFile(final DateTime time) {
+		return getFile(pathPrefix, time);
+	}
+
+	static File getFile(final String pathPrefix, final DateTime time) {
+		return new File(pathPrefix + DAY_FORMATTER.print(time) + FILE_EXTENSION);
+	}
+
+	@Override
+	public void appendAll(final List<? extends Dataset> datasets) throws IOException {
+		lock.lock();
+		try {
+			for (final Dataset dataset : datasets) {
+				append(dataset);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			if (segment != null) {
+				segment.force();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeCurrent() throws IOException {
+		if (segment != null) {
+			final ColumnSegment closing = segment;
+			segment = null;
+			try {
+				closing.force();
+			} finally {
+				closing.close();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			closeCurrent();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ColumnarSink [pathPrefix=%s, rowsPerSegment=%s]", pathPrefix, rowsPerSegment);
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionaries of the text columns of one segment, stored next to it in
+ * an append-only file of <code>(unsigned byte column, modified UTF-8 value)</code>
+ * records. The code of a value is its position within the records of its
+ * column. A truncated last record, e.g. after a crash, is ignored.
+ */
+final class SegmentDictionary implements Closeable {
+
+	private final List<List<String>> values;
+
+	private final List<Map<String, Integer>> codes;
+
+	private final FileChannel channel;
+
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+
+	private SegmentDictionary(final int columnCount, final FileChannel channelP) {
+		values = new ArrayList<>(columnCount);
+		codes = new ArrayList<>(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			values.add(new ArrayList<String>());
+			codes.add(new HashMap<String, Integer>());
+		}
+		channel = channelP;
+	}
+
+	/**
+	 * @return the dictionary of the file, read-only
+	 */
+	static SegmentDictionary read(final File file, final int columnCount) throws IOException {
+		final SegmentDictionary dictionary = new SegmentDictionary(columnCount, null);
+		if (file.exists()) {
+			dictionary.load(Files.readAllBytes(file.toPath()));
+		}
+		return dictionary;
+	}
+
+	/**
+	 * @return the dictionary of the file, creating it if required. A truncated
+	 * 		last record is removed.
+	 */
+	static SegmentDictionary open(final File file, final int columnCount) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			final SegmentDictionary dictionary = new SegmentDictionary(columnCount, channel);
+			final int valid = dictionary.load(Files.readAllBytes(file.toPath()));
+			channel.truncate(valid);
+			channel.position(valid);
+			return dictionary;
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private int load(final byte[] content) {
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+		final DataInputStream in = new DataInputStream(bytes);
+		int valid = 0;
+		try {
+			while (bytes.available() > 0) {
+				final int column = in.readUnsignedByte();
+				final String value = in.readUTF();
+				if (column >= values.size()) {
+					break;
+				}
+				add(column, value);
+				valid = content.length - bytes.available();
+			}
+		} catch (final IOException e) {
+			// truncated record
+		}
+		return valid;
+	}
+
+	private int add(final int column, final String value) {
+		final List<String> columnValues = values.get(column);
+		final int code = columnValues.size();
+		columnValues.add(value);
+		codes.get(column).put(value, code);
+		return code;
+	}
+
+	/**
+	 * @return the code of the value, added to the file if it is new. -1 for
+	 * 		<code>null</code>.
+	 */
+	int encode(final int column, final String value) throws IOException {
+		if (value == null) {
+			return -1;
+		}
+		final Integer code = codes.get(column).get(value);
+		if (code != null) {
+			return code;
+		}
+		record.reset();
+		final DataOutputStream out = new DataOutputStream(record);
+		out.writeByte(column);
+		out.writeUTF(value);
+		final ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		return add(column, value);
+	}
+
+	/**
+	 * @return the value or <code>null</code> for -1 and unknown codes
+	 */
+	String decode(final int column, final int code) {
+		final List<String> columnValues = values.get(column);
+		return code >= 0 && code < columnValues.size()? columnValues.get(code) : null;
+	}
+
+	int size(final int column) {
+		return values.get(column).size();
+	}
+
+	void force() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The layout of a segment file:
+ * <pre>
+ * header (4096 bytes)
+ *   int    magic
+ *   int    version
+ *   int    capacity, the maximum number of rows
+ *   int    number of columns
+ *   int    number of committed rows
+ *   long   start of the day in epoch millis (UTC)
+ *   column descriptors: byte type, short name length, UTF-8 name
+ * timestamps (capacity * 8 bytes, epoch millis)
+ * one region per column (capacity * width of the type bytes)
+ * </pre>
+ * Everything is stored in big endian byte order. Only the committed rows are
+ * valid.
+ */
+final class SegmentLayout {
+
+	static final int MAGIC = 0x52C01001;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 4096;
+
+	static final int ROWS_OFFSET = 16;
+
+	private static final int DAY_OFFSET = 20;
+
+	private static final int COLUMNS_OFFSET = 28;
+
+	private final int capacity;
+
+	private final List<String> names;
+
+	private final List<ColumnType> types;
+
+	private final long[] offsets;
+
+	private final long size;
+
+	SegmentLayout(final int capacityP, final List<String> namesP, final List<ColumnType> typesP) {
+		// keeps all regions 8 byte aligned
+		capacity = capacityP + (capacityP & 1);
+		names = Collections.unmodifiableList(new ArrayList<>(namesP));
+		types = Collections.unmodifiableList(new ArrayList<>(typesP));
+		offsets = new long[names.size()];
+		long offset = HEADER_SIZE + (long) capacity * 8;
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = offset;
+			offset += (long) capacity * types.get(i).getWidth();
+		}
+		size = offset;
+	}
+
+	static SegmentLayout read(final ByteBuffer header) throws IOException {
+		if (header.getInt(0) != MAGIC) {
+			throw new IOException("Not a segment file.");
+		}
+		if (header.getInt(4) != VERSION) {
+			throw new IOException("Unsupported segment version " + header.getInt(4) + ".");
+		}
+		final int capacity = header.getInt(8);
+		final int columns = header.getInt(12);
+		final List<String> names = new ArrayList<>(columns);
+		final List<ColumnType> types = new ArrayList<>(columns);
+		int position = COLUMNS_OFFSET;
+		try {
+			for (int i = 0; i < columns; i++) {
+				types.add(ColumnType.values()[header.get(position)]);
+				final byte[] name = new byte[header.getShort(position + 1)];
+				for (int j = 0; j < name.length; j++) {
+					name[j] = header.get(position + 3 + j);
+				}
+				names.add(new String(name, StandardCharsets.UTF_8));
+				position += 3 + name.length;
+			}
+		} catch (final IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt segment header.", e);
+		}
+		return new SegmentLayout(capacity, names, types);
+	}
+
+	void write(final ByteBuffer header, final long dayStartMillis) throws IOException {
+		header.putInt(4, VERSION);
+		header.putInt(8, capacity);
+		header.putInt(12, names.size());
+		header.putInt(ROWS_OFFSET, 0);
+		header.putLong(DAY_OFFSET, dayStartMillis);
+		int position = COLUMNS_OFFSET;
+		for (int i = 0; i < names.size(); i++) {
+			final byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+			if (position + 3 + name.length > HEADER_SIZE) {
+				throw new IOException("Too many columns for the segment header.");
+			}
+			header.put(position, (byte) types.get(i).ordinal());
+			header.putShort(position + 1, (short) name.length);
+			for (int j = 0; j < name.length; j++) {
+				header.put(position + 3 + j, name[j]);
+			}
+			position += 3 + name.length;
+		}
+		// a segment is valid only after the complete header is written
+		header.putInt(0, MAGIC);
+	}
+
+	static long getDayStartMillis(final ByteBuffer header) {
+		return header.getLong(DAY_OFFSET);
+	}
+
+	boolean hasSameColumns(final SegmentLayout other) {
+		return names.equals(other.names) && types.equals(other.types);
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	List<String> getNames() {
+		return names;
+	}
+
+	List<ColumnType> getTypes() {
+		return types;
+	}
+
+	int getColumnCount() {
+		return names.size();
+	}
+
+	int indexOf(final String name) {
+		final int index = names.indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("Unknown column '" + name + "'. Available columns: " + names);
+		}
+		return index;
+	}
+
+	long getTimestampOffset(final int row) {
+		return HEADER_SIZE + (long) row * 8;
+	}
+
+	long getColumnOffset(final int column) {
+		return offsets[column];
+	}
+
+	long getValueOffset(final int column, final int row) {
+		return offsets[column] + (long) row * types.get(column).getWidth();
+	}
+
+	long getSize() {
+		return size;
+	}
+
+}
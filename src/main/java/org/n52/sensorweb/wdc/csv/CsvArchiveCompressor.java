@@ -0,0 +1,173 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.n52.sensorweb.wdc.metrics.Counter;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses the CSV files of a {@link CsvArchiveReader} into
+ * {@link GzipBlockArchive}s once the {@link RollingCsvAppender} rolled over to
+ * the next file. A CSV file is deleted only after its archive was written,
+ * synced and verified against it.
+ * <p>
+ * All files are compressed one after another by a single thread of minimum
+ * priority. On {@link #start()} the files left uncompressed by earlier runs
+ * are queued, except the newest one, which might still be appended to.
+ */
+public class CsvArchiveCompressor implements RollingCsvAppender.RollListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CsvArchiveCompressor.class);
+
+	private final CsvArchiveReader archive;
+
+	private final ExecutorService executor;
+
+	private final Counter compressedFiles;
+
+	private final Counter failures;
+
+	private final Counter savedBytes;
+
+	public CsvArchiveCompressor(final CsvArchiveReader archiveP, final String name) {
+		archive = archiveP;
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "52n-wdc-compressor-" + name);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		final MetricsRegistry registry = MetricsRegistry.getDefault();
+		compressedFiles = registry.counter("wdc_csv_compressed_files_total", "CSV files replaced by their archive", "collector", name);
+		failures = registry.counter("wdc_csv_compression_failures_total", "CSV files that could not be archived", "collector", name);
+		savedBytes = registry.counter("wdc_csv_compression_saved_bytes_total", "Bytes saved by compressing CSV files", "collector", name);
+	}
+
+	/**
+	 * Queues all uncompressed files but the newest one.
+	 */
+	public void start() {
+		final List<File> files = archive.getFiles();
+		for (int i = 0; i < files.size() - 1; i++) {
+			if (!GzipBlockArchive.isArchive(files.get(i))) {
+				queue(files.get(i));
+			}
+		}
+	}
+
+	@Override
+	public void rolled(final File file) {
+		queue(file);
+	}
+
+	private void queue(final File file) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				compress(file);
+			}
+		});
+	}
+
+	/**
+	 * Replaces the CSV file by its verified archive.
+	 *
+	 * @return <code>true</code>, if the file was replaced
+	 */
+	public boolean compress(final File csvFile) {
+		final File compressed = GzipBlockArchive.getArchiveFile(csvFile);
+		try {
+			if (!csvFile.exists()) {
+				return false;
+			}
+			final long size = csvFile.length();
+			GzipBlockArchive.write(csvFile, compressed);
+			if (!GzipBlockArchive.verify(csvFile, compressed)) {
+				failures.increment();
+				LOG.error("Archive '{}' does not match its CSV file. Keeping the CSV file.", compressed.getAbsolutePath());
+				delete(compressed);
+				return false;
+			}
+			Files.delete(csvFile.toPath());
+			archive.archived(csvFile);
+			Files.deleteIfExists(SparseTimestampIndex.getIndexFile(csvFile).toPath());
+			compressedFiles.increment();
+			savedBytes.add(size - compressed.length() - GzipBlockArchive.getIndexFile(compressed).length());
+			LOG.debug("Compressed '{}' from {} to {} bytes.", csvFile.getName(), size, compressed.length());
+			return true;
+		} catch (final IOException e) {
+			failures.increment();
+			LOG.error("Could not compress CSV file '{}'. It is kept uncompressed. Error message: {}",
+					csvFile.getAbsolutePath(),
+					e.getMessage());
+			LOG.debug("Exception thrown!", e);
+			delete(compressed);
+			return false;
+		}
+	}
+
+	private static void delete(final File compressed) {
+		try {
+			Files.deleteIfExists(compressed.toPath());
+			Files.deleteIfExists(GzipBlockArchive.getIndexFile(compressed).toPath());
+		} catch (final IOException e) {
+			LOG.warn("Could not delete incomplete archive '{}': {}", compressed.getAbsolutePath(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Finishes the file being compressed and discards the queued ones.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				LOG.warn("Compressor of '{}' did not finish.", archive);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CsvArchiveCompressor [archive=%s]", archive);
+	}
+
+}
@@ -0,0 +1,670 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the records of a time range in the CSV files written by a
+ * {@link RollingCsvAppender} with the same path prefix and date pattern.
+ * <p>
+ * Only files whose period overlaps the range are opened. Files completely
+ * within the range are returned as a whole. In the others, a
+ * {@link SparseTimestampIndex} points to a line shortly before the start and
+ * the end of the range and only the lines in between are scanned from a
+ * memory-mapped view of the file. The indexes are built when the appender
+ * rolls over (see {@link #rolled(File)}) or on first access and are extended
+ * when a file grew.
+ * <p>
+ * Files compressed by a {@link CsvArchiveCompressor} are read in place of
+ * the CSV file. Only their blocks overlapping the range are decompressed.
+ */
+public class CsvArchiveReader implements RollingCsvAppender.RollListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CsvArchiveReader.class);
+
+	private static final int MAX_CACHED_INDEXES = 256;
+
+	private static final String CSV_SUFFIX = ".csv";
+
+	/**
+	 * bytes read from the end of a file to find its last record, enlarged if
+	 * it contains no complete record
+	 */
+	private static final long TAIL_WINDOW_BYTES = 4096;
+
+	private final File folder;
+
+	private final String fileNamePrefix;
+
+	private final DateTimeFormatter fileNameFormatter;
+
+	private final Map<File, SparseTimestampIndex> indexes = new LinkedHashMap<File, SparseTimestampIndex>(32, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<File, SparseTimestampIndex> eldest) {
+			return size() > MAX_CACHED_INDEXES;
+		}
+	};
+
+	/**
+	 * A part of a CSV file consisting of complete records separated by line
+	 * separators. It neither starts nor ends with a line separator.
+	 */
+	public static final class Range {
+
+		private final File file;
+
+		private final ByteBuffer content;
+
+		private final long start;
+
+		private final long end;
+
+		Range(final File fileP, final long startP, final long endP) {
+			this(fileP, null, startP, endP);
+		}
+
+		/**
+		 * @param contentP the decompressed blocks of an archive
+		 */
+		Range(final File fileP, final ByteBuffer contentP, final long startP, final long endP) {
+			file = fileP;
+			content = contentP;
+			start = startP;
+			end = endP;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return the offset of the first byte of the first record, in the
+		 * 		file or, if it is compressed, in its decompressed blocks
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return the offset after the last byte of the last record
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		public long getLength() {
+			return end - start;
+		}
+
+		/**
+		 * @return <code>true</code>, if the range was decompressed from an
+		 * 		archive and is held in memory
+		 */
+		public boolean isCompressed() {
+			return content != null;
+		}
+
+		/**
+		 * Writes the records to the channel, directly from the file if it is
+		 * not compressed.
+		 */
+		public void writeTo(final WritableByteChannel target) throws IOException {
+			if (content != null) {
+				final ByteBuffer records = getBuffer();
+				while (records.hasRemaining()) {
+					target.write(records);
+				}
+				return;
+			}
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				long position = start;
+				while (position < end) {
+					final long transferred = channel.transferTo(position, end - position, target);
+					if (transferred <= 0) {
+						throw new IOException("File '" + file + "' was truncated while sending it.");
+					}
+					position += transferred;
+				}
+			}
+		}
+
+		/**
+		 * @return the records, mapped from the file if it is not compressed
+		 */
+		ByteBuffer getBuffer() throws IOException {
+			if (content != null) {
+				final ByteBuffer records = content.duplicate();
+				records.limit((int) end).position((int) start);
+				return records.slice();
+			}
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				return channel.map(MapMode.READ_ONLY, start, getLength());
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Range [file=%s, start=%s, end=%s]", file, start, end);
+		}
+	}
+
+	/**
+	 * Receives the records found by
+	 * {@link CsvArchiveReader#read(DateTime, DateTime, RecordHandler)}.
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * @param timeMillis the timestamp of the record
+		 * @param record the complete record without line separator
+		 */
+		void handle(long timeMillis, String record);
+
+	}
+
+	/**
+	 * @param pathPrefix the path of the files up to the date part, e.g. <code>./data/muenster-wetter_</code>
+	 * @param fileNameDatePattern the joda time pattern of the date part, e.g. <code>yyyy-MM-dd</code>
+	 */
+	public CsvArchiveReader(final String pathPrefix, final String fileNameDatePattern) {
+		final File prefix = new File(pathPrefix + "x");
+		folder = prefix.getAbsoluteFile().getParentFile();
+		fileNamePrefix = prefix.getName().substring(0, prefix.getName().length() - 1);
+		fileNameFormatter = DateTimeFormat.forPattern(fileNameDatePattern).withZoneUTC();
+	}
+
+	/**
+	 * @return the files that might contain records of the range, in
+	 * 		chronological order
+	 */
+	public List<File> getCandidateFiles(final DateTime from, final DateTime to) {
+		final List<File> candidates = new ArrayList<>();
+		for (final Candidate candidate : getCandidates(from.getMillis(), to.getMillis())) {
+			candidates.add(candidate.file);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Reads the files backwards from their ends, newest file first, without
+	 * scanning them.
+	 *
+	 * @return the time of the last record or <code>null</code>, if there are
+	 * 		no records
+	 */
+	public DateTime getLastRecordTime() throws IOException {
+		final List<Candidate> candidates = getCandidates(Long.MIN_VALUE, Long.MAX_VALUE);
+		for (int i = candidates.size() - 1; i >= 0; i--) {
+			final long time = readLastRecordTime(candidates.get(i).file);
+			if (time != Long.MIN_VALUE) {
+				return new DateTime(time, DateTimeZone.UTC);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the time of the last record of the file or
+	 * 		{@link Long#MIN_VALUE}
+	 */
+	static long readLastRecordTime(final File file) throws IOException {
+		if (GzipBlockArchive.isArchive(file)) {
+			return readLastArchivedRecordTime(file);
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			long window = TAIL_WINDOW_BYTES;
+			while (true) {
+				final long start = Math.max(0, size - window);
+				final ByteBuffer buffer = ByteBuffer.allocate((int) (size - start));
+				int read = 0;
+				while (buffer.hasRemaining() && read >= 0) {
+					read = channel.read(buffer, start + buffer.position());
+				}
+				buffer.flip();
+				int lineEnd = buffer.limit();
+				// the first line of a window not starting at 0 might be incomplete
+				final int firstLine = start == 0? -1 : 0;
+				for (int i = lineEnd - 1; i >= firstLine; i--) {
+					if (i == -1 || buffer.get(i) == '\n') {
+						final int lineStart = i + 1;
+						int fieldEnd = lineStart;
+						while (fieldEnd < lineEnd && buffer.get(fieldEnd) != ',') {
+							fieldEnd++;
+						}
+						// lines torn before the end of the timestamp have no separator
+						final long time = fieldEnd < lineEnd?
+								CsvFormat.parseTimestamp(buffer, lineStart, fieldEnd) :
+								Long.MIN_VALUE;
+						if (time != Long.MIN_VALUE) {
+							return time;
+						}
+						lineEnd = i;
+					}
+				}
+				if (start == 0) {
+					return Long.MIN_VALUE;
+				}
+				window *= 4;
+			}
+		}
+	}
+
+	private static long readLastArchivedRecordTime(final File file) throws IOException {
+		final GzipBlockArchive archive = GzipBlockArchive.load(file);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (int block = archive.getBlockCount() - 1; block >= 0; block--) {
+				final LineScanner lines = new LineScanner(archive.read(channel, block, block));
+				long time = Long.MIN_VALUE;
+				while (lines.next()) {
+					time = lines.time;
+				}
+				if (time != Long.MIN_VALUE) {
+					return time;
+				}
+			}
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return the start of the period of the oldest file or
+	 * 		<code>null</code>, if there are no files
+	 */
+	public DateTime getFirstFileStart() {
+		final List<Candidate> candidates = getCandidates(Long.MIN_VALUE, Long.MAX_VALUE);
+		return candidates.isEmpty()? null : new DateTime(candidates.get(0).start, DateTimeZone.UTC);
+	}
+
+	/**
+	 * @return all files of the archive in chronological order
+	 */
+	List<File> getFiles() {
+		final List<File> files = new ArrayList<>();
+		for (final Candidate candidate : getCandidates(Long.MIN_VALUE, Long.MAX_VALUE)) {
+			files.add(candidate.file);
+		}
+		return files;
+	}
+
+	private List<Candidate> getCandidates(final long from, final long to) {
+		final TreeMap<Long, File> files = new TreeMap<>();
+		final File[] all = folder.listFiles();
+		if (all != null) {
+			for (final File file : all) {
+				final String name = file.getName();
+				final boolean archived = name.endsWith(CSV_SUFFIX + GzipBlockArchive.SUFFIX);
+				if (name.startsWith(fileNamePrefix) && (archived || name.endsWith(CSV_SUFFIX)) && file.isFile()) {
+					final int datePartEnd = name.length() - CSV_SUFFIX.length() - (archived? GzipBlockArchive.SUFFIX.length() : 0);
+					try {
+						final long start = fileNameFormatter.parseMillis(name.substring(fileNamePrefix.length(), datePartEnd));
+						// the CSV file is kept until its archive is verified
+						if (!archived || !files.containsKey(start)) {
+							files.put(start, file);
+						}
+					} catch (final IllegalArgumentException e) {
+						// not written by the appender
+					}
+				}
+			}
+		}
+		final List<Candidate> candidates = new ArrayList<>();
+		for (final Map.Entry<Long, File> entry : files.entrySet()) {
+			final Long next = files.higherKey(entry.getKey());
+			// the records of a file are before the period of the next file
+			final long end = next == null? Long.MAX_VALUE : next - 1;
+			if (entry.getKey() <= to && end >= from) {
+				candidates.add(new Candidate(entry.getValue(), entry.getKey(), entry.getKey() >= from && next != null && end <= to));
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * @return the parts of the files containing the records from
+	 * 		<code>from</code> to <code>to</code> (inclusive), in chronological
+	 * 		order
+	 */
+	public List<Range> findRanges(final DateTime from, final DateTime to) throws IOException {
+		final long fromMillis = from.getMillis();
+		final long toMillis = to.getMillis();
+		final List<Range> ranges = new ArrayList<>();
+		for (final Candidate candidate : getCandidates(fromMillis, toMillis)) {
+			Range range;
+			try {
+				range = findRange(candidate, fromMillis, toMillis);
+			} catch (final NoSuchFileException e) {
+				// compressed in the meantime
+				final File archive = GzipBlockArchive.getArchiveFile(candidate.file);
+				if (!archive.exists()) {
+					throw e;
+				}
+				range = findRange(new Candidate(archive, candidate.start, candidate.complete), fromMillis, toMillis);
+			}
+			if (range != null && range.getLength() > 0) {
+				ranges.add(range);
+			}
+		}
+		return ranges;
+	}
+
+	private Range findRange(final Candidate candidate, final long from, final long to) throws IOException {
+		if (GzipBlockArchive.isArchive(candidate.file)) {
+			return findArchivedRange(candidate.file, from, to);
+		}
+		try (FileChannel channel = FileChannel.open(candidate.file.toPath(), StandardOpenOption.READ)) {
+			final SparseTimestampIndex index = getIndex(candidate.file, channel);
+			return candidate.complete?
+					findCompleteRange(candidate.file, channel, index) :
+					findRange(candidate.file, channel, index, from, to);
+		}
+	}
+
+	/**
+	 * Decompresses the blocks of the archive overlapping the range.
+	 */
+	private static Range findArchivedRange(final File file, final long from, final long to) throws IOException {
+		final GzipBlockArchive archive = GzipBlockArchive.load(file);
+		final ByteBuffer content;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			content = archive.read(channel, archive.floor(from), archive.ceiling(to));
+		}
+		final LineScanner lines = new LineScanner(content);
+		int start = -1;
+		int end = -1;
+		while (lines.next()) {
+			if (lines.time > to) {
+				break;
+			}
+			if (lines.time >= from) {
+				if (start < 0) {
+					start = lines.start;
+				}
+				end = lines.end;
+			}
+		}
+		return start < 0? null : new Range(file, content, start, end);
+	}
+
+	private Range findCompleteRange(final File file, final FileChannel channel, final SparseTimestampIndex index) throws IOException {
+		final long first = index.getFirstRecordOffset();
+		if (first < 0) {
+			return findRange(file, channel, index, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+		long end = channel.size();
+		final ByteBuffer last = ByteBuffer.allocate(1);
+		while (end > first) {
+			last.clear();
+			channel.read(last, end - 1);
+			if (last.get(0) != '\n' && last.get(0) != '\r') {
+				break;
+			}
+			end--;
+		}
+		return new Range(file, first, end);
+	}
+
+	private Range findRange(final File file,
+			final FileChannel channel,
+			final SparseTimestampIndex index,
+			final long from,
+			final long to) throws IOException {
+		final long scanStart = index.floor(from);
+		final long length = channel.size();
+		if (scanStart >= length) {
+			return null;
+		}
+		final LineScanner lines = new LineScanner(channel.map(MapMode.READ_ONLY, scanStart, length - scanStart));
+		long start = -1;
+		while (lines.next()) {
+			if (lines.time >= from) {
+				if (lines.time > to) {
+					return null;
+				}
+				start = scanStart + lines.start;
+				break;
+			}
+		}
+		if (start < 0) {
+			return null;
+		}
+		long end = scanStart + lines.end;
+		// skip the lines an index entry proves to be within the range
+		final long jump = index.floor(to == Long.MAX_VALUE? to : to + 1) - scanStart;
+		if (jump > lines.start) {
+			lines.reset((int) jump);
+		}
+		while (lines.next()) {
+			if (lines.time > to) {
+				break;
+			}
+			end = scanStart + lines.end;
+		}
+		return new Range(file, start, end);
+	}
+
+	/**
+	 * Passes all records from <code>from</code> to <code>to</code>
+	 * (inclusive) to the handler, in chronological order.
+	 */
+	public void read(final DateTime from, final DateTime to, final RecordHandler handler) throws IOException {
+		for (final Range range : findRanges(from, to)) {
+			final ByteBuffer buffer = range.getBuffer();
+			final LineScanner lines = new LineScanner(buffer);
+			while (lines.next()) {
+				final byte[] record = new byte[lines.end - lines.start];
+				for (int i = 0; i < record.length; i++) {
+					record[i] = buffer.get(lines.start + i);
+				}
+				handler.handle(lines.time, new String(record, StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	/**
+	 * @return all records from <code>from</code> to <code>to</code>
+	 * 		(inclusive) in chronological order
+	 */
+	public List<String> readRecords(final DateTime from, final DateTime to) throws IOException {
+		final List<String> records = new ArrayList<>();
+		read(from, to, new RecordHandler() {
+			@Override
+			public void handle(final long timeMillis, final String record) {
+				records.add(record);
+			}
+		});
+		return records;
+	}
+
+	/**
+	 * @return the first line of the file without line separator
+	 */
+	public String readHeader(final File file) throws IOException {
+		if (GzipBlockArchive.isArchive(file)) {
+			// only the first member, containing the header, is decompressed
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+				final String header = reader.readLine();
+				return header == null? "" : header;
+			}
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			final String header = reader.readLine();
+			return header == null? "" : header;
+		}
+	}
+
+	/**
+	 * Builds or extends the index of the file and stores it next to the file.
+	 */
+	public void index(final File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			getIndex(file, channel);
+		}
+	}
+
+	/**
+	 * Forgets the index of a CSV file replaced by its archive.
+	 */
+	void archived(final File file) {
+		synchronized (indexes) {
+			indexes.remove(file);
+		}
+	}
+
+	@Override
+	public void rolled(final File file) {
+		try {
+			index(file);
+		} catch (final IOException e) {
+			LOG.error("Could not index CSV file '{}'. It will be indexed on first access. Error message: {}",
+					file.getAbsolutePath(),
+					e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CsvArchiveReader [folder=%s, fileNamePrefix=%s]", folder, fileNamePrefix);
+	}
+
+	private SparseTimestampIndex getIndex(final File file, final FileChannel channel) throws IOException {
+		SparseTimestampIndex index;
+		synchronized (indexes) {
+			index = indexes.get(file);
+			if (index == null) {
+				index = SparseTimestampIndex.load(file);
+				indexes.put(file, index);
+			}
+		}
+		if (!index.extend(channel)) {
+			LOG.info("CSV file '{}' was replaced. Rebuilding its index.", file.getAbsolutePath());
+			index = new SparseTimestampIndex();
+			index.extend(channel);
+			synchronized (indexes) {
+				indexes.put(file, index);
+			}
+		}
+		index.persist(file);
+		return index;
+	}
+
+	private static final class Candidate {
+
+		private final File file;
+
+		/**
+		 * the start of the period of the file
+		 */
+		private final long start;
+
+		/**
+		 * the period of the file is completely within the requested range
+		 */
+		private final boolean complete;
+
+		Candidate(final File fileP, final long startP, final boolean completeP) {
+			file = fileP;
+			start = startP;
+			complete = completeP;
+		}
+	}
+
+	/**
+	 * Iterates the record lines of a buffer starting at a line start. Lines
+	 * without timestamp, like the header, are skipped.
+	 */
+	private static final class LineScanner {
+
+		private final ByteBuffer buffer;
+
+		private int position;
+
+		int start;
+
+		int end;
+
+		long time;
+
+		LineScanner(final ByteBuffer bufferP) {
+			buffer = bufferP;
+		}
+
+		void reset(final int positionP) {
+			position = positionP;
+		}
+
+		boolean next() {
+			final int limit = buffer.limit();
+			while (position < limit) {
+				start = position;
+				int fieldEnd = -1;
+				int i = position;
+				while (i < limit && buffer.get(i) != '\n') {
+					if (fieldEnd < 0 && buffer.get(i) == ',') {
+						fieldEnd = i;
+					}
+					i++;
+				}
+				position = i + 1;
+				end = i > start && buffer.get(i - 1) == '\r'? i - 1 : i;
+				time = CsvFormat.parseTimestamp(buffer, start, fieldEnd < 0? end : fieldEnd);
+				if (time != Long.MIN_VALUE) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,279 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Appends CSV values to an {@link Appendable} and parses timestamps back
+ * without creating intermediate objects in the common cases.
+ */
+public final class CsvFormat {
+
+	private static final Chronology UTC = ISOChronology.getInstanceUTC();
+
+	private static final DateTimeFormatter ISO_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+	private static final int MILLIS_PER_MINUTE = 60 * 1000;
+
+	private static final int MAX_FRACTION_DIGITS = 6;
+
+	private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1000, 10000, 100000, 1000000 };
+
+	private CsvFormat() {}
+
+	/**
+	 * Appends the value exactly as {@link Double#toString(double)} would
+	 * render it. {@link Double#NaN} is appended as empty value.
+	 */
+	public static void appendDouble(final Appendable out, final double value) throws IOException {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		final double abs = Math.abs(value);
+		// Double.toString uses the computerized scientific notation outside [10^-3, 10^7)
+		if (abs == 0 || abs < 1e-3 || abs >= 1e7) {
+			if (abs == 0) {
+				out.append(1 / value < 0? "-0.0" : "0.0");
+			} else {
+				out.append(Double.toString(value));
+			}
+			return;
+		}
+		for (int digits = 0; digits <= MAX_FRACTION_DIGITS; digits++) {
+			final long scaled = Math.round(abs * POWERS_OF_TEN[digits]);
+			// the decimal scaled/10^digits is the shortest one parsing to value
+			if ((double) scaled / POWERS_OF_TEN[digits] == abs) {
+				if (value < 0) {
+					out.append('-');
+				}
+				appendLong(out, scaled / POWERS_OF_TEN[digits]);
+				out.append('.');
+				if (digits == 0) {
+					out.append('0');
+				} else {
+					appendZeroPadded(out, scaled % POWERS_OF_TEN[digits], digits);
+				}
+				return;
+			}
+		}
+		out.append(Double.toString(value));
+	}
+
+	/**
+	 * Appends the text quoted according to RFC 4180 if it contains a comma,
+	 * quote or line break. <code>null</code> is appended as empty value.
+	 */
+	public static void appendText(final Appendable out, final CharSequence text) throws IOException {
+		if (text == null) {
+			return;
+		}
+		if (!requiresQuoting(text)) {
+			out.append(text);
+			return;
+		}
+		out.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c == '"') {
+				out.append('"');
+			}
+			out.append(c);
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Splits a record into its values, removing the quoting of
+	 * {@link #appendText(Appendable, CharSequence)}.
+	 */
+	public static List<String> parseRecord(final CharSequence record) {
+		final List<String> values = new ArrayList<>();
+		final StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < record.length(); i++) {
+			final char c = record.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					value.append(c);
+				} else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	private static boolean requiresQuoting(final CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends the time exactly as {@link DateTime#toString()} would render it:
+	 * <code>yyyy-MM-ddTHH:mm:ss.SSSZZ</code> with <code>Z</code> for UTC.
+	 */
+	public static void appendTimestamp(final Appendable out, final DateTime time) throws IOException {
+		final long millis = time.getMillis();
+		final int offset = time.getZone().getOffset(millis);
+		final long local = millis + offset;
+		final int year = UTC.year().get(local);
+		if (year < 0 || year > 9999 || offset % MILLIS_PER_MINUTE != 0 || !(time.getChronology() instanceof ISOChronology)) {
+			out.append(time.toString());
+			return;
+		}
+		appendZeroPadded(out, year, 4);
+		out.append('-');
+		appendZeroPadded(out, UTC.monthOfYear().get(local), 2);
+		out.append('-');
+		appendZeroPadded(out, UTC.dayOfMonth().get(local), 2);
+		out.append('T');
+		appendZeroPadded(out, UTC.hourOfDay().get(local), 2);
+		out.append(':');
+		appendZeroPadded(out, UTC.minuteOfHour().get(local), 2);
+		out.append(':');
+		appendZeroPadded(out, UTC.secondOfMinute().get(local), 2);
+		out.append('.');
+		appendZeroPadded(out, UTC.millisOfSecond().get(local), 3);
+		if (offset == 0) {
+			out.append('Z');
+			return;
+		}
+		out.append(offset < 0? '-' : '+');
+		final int offsetMinutes = Math.abs(offset) / MILLIS_PER_MINUTE;
+		appendZeroPadded(out, offsetMinutes / 60, 2);
+		out.append(':');
+		appendZeroPadded(out, offsetMinutes % 60, 2);
+	}
+
+	/**
+	 * Parses a timestamp as written by
+	 * {@link #appendTimestamp(Appendable, DateTime)} from the bytes
+	 * <code>[start, end)</code> of the buffer without creating objects. Other
+	 * ISO 8601 forms are parsed by Jodatime.
+	 *
+	 * @return the epoch millis or {@link Long#MIN_VALUE} if the bytes are no
+	 * 		timestamp
+	 */
+	public static long parseTimestamp(final ByteBuffer buffer, final int start, final int end) {
+		final int length = end - start;
+		if ((length == 24 && buffer.get(start + 23) == 'Z') || length == 29) {
+			final int year = digits(buffer, start, 4);
+			final int month = digits(buffer, start + 5, 2);
+			final int day = digits(buffer, start + 8, 2);
+			final int hour = digits(buffer, start + 11, 2);
+			final int minute = digits(buffer, start + 14, 2);
+			final int second = digits(buffer, start + 17, 2);
+			final int millis = digits(buffer, start + 20, 3);
+			int offset = 0;
+			boolean validOffset = true;
+			if (length == 29) {
+				final int hours = digits(buffer, start + 24, 2);
+				final int minutes = digits(buffer, start + 27, 2);
+				final byte sign = buffer.get(start + 23);
+				offset = (sign == '-'? -1 : 1) * (hours * 60 + minutes) * MILLIS_PER_MINUTE;
+				validOffset = (sign == '+' || sign == '-') && buffer.get(start + 26) == ':' && (hours | minutes) >= 0;
+			}
+			if ((year | month | day | hour | minute | second | millis) >= 0
+					&& validOffset
+					&& buffer.get(start + 4) == '-' && buffer.get(start + 7) == '-' && buffer.get(start + 10) == 'T'
+					&& buffer.get(start + 13) == ':' && buffer.get(start + 16) == ':' && buffer.get(start + 19) == '.') {
+				try {
+					return UTC.getDateTimeMillis(year, month, day, hour, minute, second, millis) - offset;
+				} catch (final IllegalArgumentException e) {
+					return Long.MIN_VALUE;
+				}
+			}
+		}
+		if (length < 4 || length > 64 || digits(buffer, start, 4) < 0) {
+			return Long.MIN_VALUE;
+		}
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) (buffer.get(start + i) & 0xff);
+		}
+		try {
+			return ISO_PARSER.parseMillis(new String(chars));
+		} catch (final IllegalArgumentException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	private static int digits(final ByteBuffer buffer, final int start, final int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			final int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static void appendLong(final Appendable out, final long value) throws IOException {
+		if (value >= 10) {
+			appendLong(out, value / 10);
+		}
+		out.append((char) ('0' + value % 10));
+	}
+
+	private static void appendZeroPadded(final Appendable out, final long value, final int digits) throws IOException {
+		long divisor = 1;
+		for (int i = 1; i < digits; i++) {
+			divisor *= 10;
+		}
+		while (divisor > 1 && value < divisor) {
+			out.append('0');
+			divisor /= 10;
+		}
+		appendLong(out, value);
+	}
+
+}
@@ -0,0 +1,448 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repairs the daily CSV files of a folder in one streaming pass per file:
+ * <ul>
+ * <li>continuation lines starting with "," are joined with the record they
+ * were split from,</li>
+ * <li>known texts containing a comma, e.g. <code>Regen, leicht</code>, are
+ * quoted,</li>
+ * <li>timestamps in a local pattern and time zone are rewritten as ISO 8601
+ * in UTC, as written by {@link RollingCsvAppender}. Timestamps that are
+ * already ISO 8601 are normalized to UTC.</li>
+ * </ul>
+ * Files are processed in parallel. Each result is written next to its file
+ * and then atomically renamed over it, so at most one extra file per thread
+ * exists at any time. Finished files are recorded in
+ * {@value #JOURNAL_FILE}, which lets an interrupted run continue where it
+ * stopped; the repair is idempotent anyway. Stale
+ * {@link SparseTimestampIndex sparse indexes} of replaced files are deleted.
+ * <p>
+ * The newest file of each prefix, i.e. of the name up to the date part, is
+ * skipped, because a running collector might still append to it. Only with
+ * <code>--include-newest</code> all files are repaired; stop the collectors
+ * before.
+ * <p>
+ * Usage: <code>CsvRepairTool &lt;folder&gt; &lt;timestamp pattern&gt;
+ * [time zone] [threads] [--quote &lt;text&gt;]... [--include-newest]</code>, e.g.
+ * <code>CsvRepairTool /data/ "dd.MM.yyyy HH:mm" Etc/GMT-1</code>.
+ */
+public class CsvRepairTool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CsvRepairTool.class);
+
+	static final String JOURNAL_FILE = "csv-repair.done";
+
+	private static final String TEMP_SUFFIX = ".repair";
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final String DEFAULT_ZONE = "Etc/GMT-1";
+
+	private static final String QUOTE_OPTION = "--quote";
+
+	private static final String INCLUDE_NEWEST_OPTION = "--include-newest";
+
+	private static final List<String> DEFAULT_UNQUOTED_TEXTS = Collections.singletonList("Regen, leicht");
+
+	private final File folder;
+
+	private final DateTimeFormatter localParser;
+
+	private final DateTimeFormatter isoParser;
+
+	private final List<String> unquotedTexts;
+
+	private final int threads;
+
+	private final boolean includeNewest;
+
+	/**
+	 * @param folderP the folder of the CSV files
+	 * @param timestampPatternP the {@link DateTimeFormat} pattern of the
+	 * 		timestamps to rewrite
+	 * @param zoneP the time zone of these timestamps
+	 * @param unquotedTextsP texts containing a comma, which are quoted where
+	 * 		they are found unquoted
+	 * @param threadsP the number of files processed in parallel
+	 * @param includeNewestP <code>true</code> to repair the newest file of
+	 * 		each prefix, too. Only if no collector is writing to the folder.
+	 */
+	public CsvRepairTool(final File folderP,
+			final String timestampPatternP,
+			final DateTimeZone zoneP,
+			final List<String> unquotedTextsP,
+			final int threadsP,
+			final boolean includeNewestP) {
+		folder = folderP;
+		localParser = DateTimeFormat.forPattern(timestampPatternP).withZone(zoneP);
+		isoParser = ISODateTimeFormat.dateTimeParser().withZone(zoneP);
+		unquotedTexts = new ArrayList<>(unquotedTextsP);
+		threads = threadsP;
+		includeNewest = includeNewestP;
+	}
+
+	/**
+	 * Repairs all CSV files of the folder not yet listed in the journal,
+	 * except the newest ones of each prefix, if not included.
+	 *
+	 * @return <code>true</code>, if all files were repaired. The journal is
+	 * 		deleted then.
+	 */
+	public boolean repairAll() throws InterruptedException {
+		final File journal = new File(folder, JOURNAL_FILE);
+		final Set<String> done = readJournal(journal);
+		deleteTempFiles();
+		final File[] csvFiles = folder.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File pathname) {
+				return pathname.isFile() && pathname.getName().endsWith(".csv");
+			}
+		});
+		if (csvFiles == null) {
+			LOG.error("Can not read folder '{}'.", folder.getAbsolutePath());
+			return false;
+		}
+		final Set<String> newest = includeNewest? Collections.<String>emptySet() : getNewestFileNames(csvFiles);
+		final List<File> candidates = new ArrayList<>(csvFiles.length);
+		for (final File file : csvFiles) {
+			if (newest.contains(file.getName())) {
+				LOG.info("Skipping '{}', which a collector might still append to.", file.getName());
+			} else if (!done.contains(file.getName())) {
+				candidates.add(file);
+			}
+		}
+		final File[] files = candidates.toArray(new File[candidates.size()]);
+		Arrays.sort(files);
+		LOG.info("Repairing {} CSV files in '{}' with {} threads ({} already done).",
+				files.length,
+				folder.getAbsolutePath(),
+				threads,
+				done.size());
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		boolean success = true;
+		try (BufferedWriter journalWriter = Files.newBufferedWriter(journal.toPath(),
+				StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			final List<Future<String>> results = new ArrayList<>(files.length);
+			for (final File file : files) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws IOException {
+						repair(file);
+						return file.getName();
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					journalWriter.write(results.get(i).get());
+					journalWriter.newLine();
+					journalWriter.flush();
+				} catch (final ExecutionException e) {
+					success = false;
+					LOG.error("Could not repair file '{}'. Exception: '{}'",
+							files[i].getName(),
+							e.getCause().getLocalizedMessage());
+				}
+			}
+		} catch (final IOException e) {
+			LOG.error("Could not write journal '{}'. Exception: '{}'", journal.getAbsolutePath(), e.getLocalizedMessage());
+			return false;
+		} finally {
+			executor.shutdownNow();
+		}
+		if (success && !journal.delete()) {
+			LOG.warn("Could not delete journal '{}'.", journal.getAbsolutePath());
+		}
+		return success;
+	}
+
+	/**
+	 * @return the names of the newest files per prefix. The date parts of
+	 * 		the names sort chronologically.
+	 */
+	private static Set<String> getNewestFileNames(final File[] files) {
+		final Map<String, String> newest = new HashMap<>();
+		for (final File file : files) {
+			final String name = file.getName();
+			final String prefix = getPrefix(name);
+			final String current = newest.get(prefix);
+			if (current == null || name.compareTo(current) > 0) {
+				newest.put(prefix, name);
+			}
+		}
+		return new HashSet<>(newest.values());
+	}
+
+	/**
+	 * @return the name of a CSV file without extension and date part, i.e.
+	 * 		without the trailing digits and dashes
+	 */
+	static String getPrefix(final String name) {
+		int end = name.length() - ".csv".length();
+		while (end > 0 && (Character.isDigit(name.charAt(end - 1)) || name.charAt(end - 1) == '-')) {
+			end--;
+		}
+		return name.substring(0, end);
+	}
+
+	/**
+	 * Repairs the file by replacing it with its repaired copy. The copy and
+	 * the folder are synced, so the file is repaired on disk when this
+	 * returns and may be listed in the journal.
+	 */
+	void repair(final File file) throws IOException {
+		final Path source = file.toPath();
+		final Path temp = source.resolveSibling(file.getName() + TEMP_SUFFIX);
+		int records = 0;
+		try (BufferedReader reader = new BufferedReader(Files.newBufferedReader(source, StandardCharsets.UTF_8), BUFFER_SIZE);
+				FileOutputStream out = new FileOutputStream(temp.toFile());
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+			final StringBuilder record = new StringBuilder(256);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				if (line.charAt(0) == ',' && record.length() > 0) {
+					record.append(line);
+					continue;
+				}
+				if (record.length() > 0) {
+					write(writer, record, records++ == 0);
+				}
+				record.setLength(0);
+				record.append(line);
+			}
+			if (record.length() > 0) {
+				write(writer, record, records == 0);
+			}
+			// the copy must be on disk before it replaces the file
+			writer.flush();
+			out.getFD().sync();
+		} catch (final IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		try {
+			Files.move(temp, source, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(temp, source, StandardCopyOption.REPLACE_EXISTING);
+		}
+		// the byte offsets changed
+		Files.deleteIfExists(SparseTimestampIndex.getIndexFile(file).toPath());
+		syncFolder(source.getParent());
+		LOG.debug("Repaired file '{}'.", file.getName());
+	}
+
+	/**
+	 * Makes the rename durable before the file is listed in the journal,
+	 * where the platform supports syncing folders.
+	 */
+	private static void syncFolder(final Path folder) {
+		if (folder == null) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (final IOException e) {
+			// not supported, e.g. on Windows
+			LOG.trace("Could not sync folder '{}': {}", folder, e.getMessage());
+		}
+	}
+
+	private void write(final Writer writer, final StringBuilder record, final boolean first) throws IOException {
+		quote(record);
+		final int separator = record.indexOf(",");
+		// the header is the first line, starting with a column name
+		final boolean header = first && !Character.isDigit(record.charAt(0));
+		if (!header && separator > 0) {
+			final String timestamp = record.substring(0, separator);
+			final DateTime time = parse(timestamp);
+			if (time != null) {
+				CsvFormat.appendTimestamp(writer, time.withZone(DateTimeZone.UTC));
+				writer.append(record, separator, record.length());
+				writer.write(LINE_SEPARATOR);
+				return;
+			}
+			LOG.warn("Could not parse timestamp '{}'. Record kept unchanged.", timestamp);
+		}
+		writer.append(record);
+		writer.write(LINE_SEPARATOR);
+	}
+
+	private DateTime parse(final String timestamp) {
+		try {
+			return localParser.parseDateTime(timestamp);
+		} catch (final IllegalArgumentException e) {
+			// already repaired
+			try {
+				return isoParser.parseDateTime(timestamp);
+			} catch (final IllegalArgumentException e2) {
+				return null;
+			}
+		}
+	}
+
+	private void quote(final StringBuilder record) {
+		for (final String text : unquotedTexts) {
+			int start = record.indexOf(text);
+			while (start >= 0) {
+				if (start > 0 && record.charAt(start - 1) == '"') {
+					start = record.indexOf(text, start + text.length());
+					continue;
+				}
+				record.insert(start + text.length(), '"');
+				record.insert(start, '"');
+				start = record.indexOf(text, start + text.length() + 2);
+			}
+		}
+	}
+
+	private static Set<String> readJournal(final File journal) {
+		final Set<String> done = new HashSet<>();
+		if (!journal.exists()) {
+			return done;
+		}
+		try {
+			for (final String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+				if (!line.isEmpty()) {
+					done.add(line);
+				}
+			}
+		} catch (final IOException e) {
+			LOG.warn("Could not read journal '{}'. Repairing all files. Exception: '{}'",
+					journal.getAbsolutePath(),
+					e.getLocalizedMessage());
+		}
+		return done;
+	}
+
+	/**
+	 * Deletes the copies of a run interrupted while writing them.
+	 */
+	private void deleteTempFiles() {
+		final File[] temps = folder.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File pathname) {
+				return pathname.isFile() && pathname.getName().endsWith(".csv" + TEMP_SUFFIX);
+			}
+		});
+		if (temps == null) {
+			return;
+		}
+		for (final File temp : temps) {
+			if (!temp.delete()) {
+				LOG.warn("Could not delete incomplete file '{}'.", temp.getAbsolutePath());
+			}
+		}
+	}
+
+	public static void main(final String[] args) throws InterruptedException {
+		final List<String> positional = new ArrayList<>();
+		final List<String> unquotedTexts = new ArrayList<>();
+		boolean includeNewest = false;
+		for (int i = 0; i < args.length; i++) {
+			if (QUOTE_OPTION.equals(args[i]) && i + 1 < args.length) {
+				unquotedTexts.add(args[++i]);
+			} else if (INCLUDE_NEWEST_OPTION.equals(args[i])) {
+				includeNewest = true;
+			} else {
+				positional.add(args[i]);
+			}
+		}
+		if (positional.size() < 2) {
+			LOG.error("Usage: CsvRepairTool <folder> <timestamp pattern> [time zone, default {}] "
+					+ "[threads, default: number of processors] [{} <text>]... "
+					+ "[{}, only with all collectors stopped]",
+					DEFAULT_ZONE,
+					QUOTE_OPTION,
+					INCLUDE_NEWEST_OPTION);
+			System.exit(1);
+		}
+		final File folder = new File(positional.get(0));
+		if (!folder.isDirectory() || !folder.canRead() || !folder.canWrite()) {
+			LOG.error("Can not read/write folder '{}'.", folder.getAbsolutePath());
+			System.exit(1);
+		}
+		final CsvRepairTool tool;
+		try {
+			tool = new CsvRepairTool(folder,
+					positional.get(1),
+					DateTimeZone.forID(positional.size() > 2? positional.get(2) : DEFAULT_ZONE),
+					unquotedTexts.isEmpty()? DEFAULT_UNQUOTED_TEXTS : unquotedTexts,
+					positional.size() > 3? Integer.parseInt(positional.get(3)) : Runtime.getRuntime().availableProcessors(),
+					includeNewest);
+		} catch (final IllegalArgumentException e) {
+			LOG.error("Invalid argument: '{}'.", e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+		System.exit(tool.repairAll()? 0 : 2);
+	}
+
+}
@@ -0,0 +1,320 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A CSV file compressed as a sequence of gzip members, each containing
+ * complete lines, and a block index in <code>&lt;file&gt;.idx</code> with
+ * the time of the first record, the offset and the lengths of each member.
+ * The first member contains only the header.
+ * <p>
+ * The archive is a valid gzip file decompressing to the original CSV file,
+ * e.g. with <code>zcat</code>. Readers decompress only the members covering
+ * a time range.
+ */
+final class GzipBlockArchive {
+
+	static final String SUFFIX = ".gz";
+
+	/**
+	 * uncompressed bytes after which a block is completed at the next line end
+	 */
+	static final int BLOCK_BYTES = 16 * 1024;
+
+	private static final int FILE_MAGIC = 0x52c5b10c;
+
+	private static final int MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	private final long[] times;
+
+	private final long[] offsets;
+
+	private final int[] lengths;
+
+	private final int[] uncompressedLengths;
+
+	private GzipBlockArchive(final long[] timesP,
+			final long[] offsetsP,
+			final int[] lengthsP,
+			final int[] uncompressedLengthsP) {
+		times = timesP;
+		offsets = offsetsP;
+		lengths = lengthsP;
+		uncompressedLengths = uncompressedLengthsP;
+	}
+
+	static File getIndexFile(final File archive) {
+		return new File(archive.getPath() + ".idx");
+	}
+
+	static File getArchiveFile(final File csvFile) {
+		return new File(csvFile.getPath() + SUFFIX);
+	}
+
+	static boolean isArchive(final File file) {
+		return file.getName().endsWith(SUFFIX);
+	}
+
+	/**
+	 * Writes the archive and its index, both synced to disk. The CSV file is
+	 * left unchanged.
+	 */
+	static void write(final File csvFile, final File archive) throws IOException {
+		long[] times = new long[16];
+		long[] offsets = new long[16];
+		int[] lengths = new int[16];
+		int[] uncompressedLengths = new int[16];
+		int count = 0;
+		try (FileChannel in = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(archive.toPath(),
+						StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.WRITE)) {
+			final long size = in.size();
+			if (size > MAX_FILE_SIZE) {
+				throw new IOException("File '" + csvFile + "' is too large to be archived.");
+			}
+			final MappedByteBuffer csv = in.map(MapMode.READ_ONLY, 0, size);
+			final ByteArrayOutputStream member = new ByteArrayOutputStream(BLOCK_BYTES);
+			long offset = 0;
+			int blockStart = 0;
+			while (blockStart < size) {
+				final int blockEnd = findBlockEnd(csv, blockStart, count == 0);
+				member.reset();
+				try (GZIPOutputStream gzip = new GZIPOutputStream(member)) {
+					final byte[] block = new byte[blockEnd - blockStart];
+					((ByteBuffer) csv.duplicate().position(blockStart)).get(block);
+					gzip.write(block);
+				}
+				if (count == times.length) {
+					times = Arrays.copyOf(times, count * 2);
+					offsets = Arrays.copyOf(offsets, count * 2);
+					lengths = Arrays.copyOf(lengths, count * 2);
+					uncompressedLengths = Arrays.copyOf(uncompressedLengths, count * 2);
+				}
+				times[count] = firstRecordTime(csv, blockStart, blockEnd);
+				offsets[count] = offset;
+				lengths[count] = member.size();
+				uncompressedLengths[count] = blockEnd - blockStart;
+				count++;
+				final ByteBuffer bytes = ByteBuffer.wrap(member.toByteArray());
+				while (bytes.hasRemaining()) {
+					offset += out.write(bytes);
+				}
+				blockStart = blockEnd;
+			}
+			out.force(true);
+		}
+		try (FileChannel index = FileChannel.open(getIndexFile(archive).toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + count * 24);
+			try (DataOutputStream data = new DataOutputStream(bytes)) {
+				data.writeInt(FILE_MAGIC);
+				data.writeInt(count);
+				for (int i = 0; i < count; i++) {
+					data.writeLong(times[i]);
+					data.writeLong(offsets[i]);
+					data.writeInt(lengths[i]);
+					data.writeInt(uncompressedLengths[i]);
+				}
+			}
+			final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			while (buffer.hasRemaining()) {
+				index.write(buffer);
+			}
+			index.force(true);
+		}
+	}
+
+	/**
+	 * @return the end of the header line for the first block, otherwise the
+	 * 		end of the first line ending after {@link #BLOCK_BYTES}
+	 */
+	private static int findBlockEnd(final ByteBuffer csv, final int start, final boolean header) {
+		final int limit = csv.limit();
+		int i = header? start : Math.min(limit, start + BLOCK_BYTES - 1);
+		while (i < limit && csv.get(i) != '\n') {
+			i++;
+		}
+		return Math.min(limit, i + 1);
+	}
+
+	private static long firstRecordTime(final ByteBuffer csv, final int start, final int end) {
+		int lineStart = start;
+		while (lineStart < end) {
+			int fieldEnd = lineStart;
+			while (fieldEnd < end && csv.get(fieldEnd) != ',' && csv.get(fieldEnd) != '\n' && csv.get(fieldEnd) != '\r') {
+				fieldEnd++;
+			}
+			final long time = CsvFormat.parseTimestamp(csv, lineStart, fieldEnd);
+			if (time != Long.MIN_VALUE) {
+				return time;
+			}
+			while (lineStart < end && csv.get(lineStart) != '\n') {
+				lineStart++;
+			}
+			lineStart++;
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/**
+	 * @throws IOException if the index is missing or corrupt
+	 */
+	static GzipBlockArchive load(final File archive) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(archive))))) {
+			if (in.readInt() != FILE_MAGIC) {
+				throw new IOException("Invalid block index of '" + archive + "'.");
+			}
+			final int count = in.readInt();
+			final long[] times = new long[count];
+			final long[] offsets = new long[count];
+			final int[] lengths = new int[count];
+			final int[] uncompressedLengths = new int[count];
+			for (int i = 0; i < count; i++) {
+				times[i] = in.readLong();
+				offsets[i] = in.readLong();
+				lengths[i] = in.readInt();
+				uncompressedLengths[i] = in.readInt();
+			}
+			return new GzipBlockArchive(times, offsets, lengths, uncompressedLengths);
+		} catch (final EOFException e) {
+			throw new IOException("Truncated block index of '" + archive + "'.", e);
+		}
+	}
+
+	int getBlockCount() {
+		return times.length;
+	}
+
+	/**
+	 * @return the last block starting before the given time, i.e. the first
+	 * 		one that might contain records at or after it
+	 */
+	int floor(final long millis) {
+		int block = 0;
+		for (int i = 1; i < times.length; i++) {
+			if (times[i] != Long.MIN_VALUE && times[i] >= millis) {
+				break;
+			}
+			block = i;
+		}
+		return block;
+	}
+
+	/**
+	 * @return the last block that might contain records at or before the
+	 * 		given time
+	 */
+	int ceiling(final long millis) {
+		for (int i = times.length - 1; i > 0; i--) {
+			if (times[i] != Long.MIN_VALUE && times[i] <= millis) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the decompressed blocks <code>first</code> to <code>last</code>
+	 * 		(inclusive)
+	 */
+	ByteBuffer read(final FileChannel channel, final int first, final int last) throws IOException {
+		if (first > last) {
+			return ByteBuffer.allocate(0);
+		}
+		final long start = offsets[first];
+		final ByteBuffer compressed = ByteBuffer.allocate((int) (offsets[last] + lengths[last] - start));
+		while (compressed.hasRemaining()) {
+			if (channel.read(compressed, start + compressed.position()) < 0) {
+				throw new EOFException("Archive truncated at " + (start + compressed.position()));
+			}
+		}
+		int length = 0;
+		for (int i = first; i <= last; i++) {
+			length += uncompressedLengths[i];
+		}
+		final byte[] content = new byte[length];
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+			int read = 0;
+			while (read < length) {
+				final int n = in.read(content, read, length - read);
+				if (n < 0) {
+					throw new EOFException("Archive block shorter than indexed");
+				}
+				read += n;
+			}
+		}
+		return ByteBuffer.wrap(content);
+	}
+
+	/**
+	 * Decompresses the archive block by block via its index and compares it
+	 * with the CSV file.
+	 *
+	 * @return <code>true</code>, if the archive contains exactly the CSV file
+	 */
+	static boolean verify(final File csvFile, final File archive) throws IOException {
+		final GzipBlockArchive blocks = load(archive);
+		try (FileChannel csv = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ);
+				FileChannel gzip = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer expected = csv.map(MapMode.READ_ONLY, 0, csv.size());
+			for (int i = 0; i < blocks.getBlockCount(); i++) {
+				final ByteBuffer block = blocks.read(gzip, i, i);
+				if (block.remaining() > expected.remaining()) {
+					return false;
+				}
+				final ByteBuffer part = expected.slice();
+				part.limit(block.remaining());
+				if (!part.equals(block)) {
+					return false;
+				}
+				expected.position(expected.position() + block.remaining());
+			}
+			return !expected.hasRemaining();
+		}
+	}
+
+}
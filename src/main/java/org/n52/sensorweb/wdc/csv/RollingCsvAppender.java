@@ -0,0 +1,474 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetSink;
+import org.n52.sensorweb.wdc.FileLocks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends records to CSV files named
+ * <code>&lt;pathPrefix&gt;&lt;date&gt;.csv</code>, where the date part is
+ * formatted by a pattern like <code>yyyy-MM-dd</code>.
+ * <p>
+ * The file of the current period is kept open. When a record belongs to
+ * another period, the appender rolls over to the file of that period. The
+ * header is written exactly once: whenever an opened file is empty. Records are
+ * written on a new line each, i.e. a file does not end with a line separator.
+ * <p>
+ * Records not newer than the last record of their file are skipped, so
+ * datasets collected again after a failed store do not duplicate rows.
+ * <p>
+ * When records reach the disk is controlled by the {@link Durability}.
+ */
+public class RollingCsvAppender implements DatasetSink {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RollingCsvAppender.class);
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public enum Durability {
+		/**
+		 * Records are buffered in memory and written when the buffer is full,
+		 * on roll over, {@link RollingCsvAppender#flush()} and
+		 * {@link RollingCsvAppender#close()}.
+		 */
+		NONE,
+		/**
+		 * Every record is written to the file, i.e. handed to the operating
+		 * system, immediately.
+		 */
+		FLUSH,
+		/**
+		 * Like {@link #FLUSH} and the file is synchronized with the disk every
+		 * N records or every T milliseconds, whatever comes first.
+		 */
+		FSYNC;
+
+		public static Durability fromString(final String value) {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * Is notified when the appender switched to the file of another period.
+	 */
+	public interface RollListener {
+
+		/**
+		 * Called by the appending thread after the file was closed.
+		 *
+		 * @param file the file of the previous period, no longer appended to
+		 */
+		void rolled(File file);
+
+	}
+
+	private final String pathPrefix;
+
+	private final DateTimeFormatter fileNameFormatter;
+
+	private final String header;
+
+	private final Durability durability;
+
+	private final int fsyncEveryRecords;
+
+	private final long fsyncIntervalMillis;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private final StringBuilder line = new StringBuilder(512);
+
+	private char[] chars = new char[512];
+
+	private CharBuffer charBuffer = CharBuffer.wrap(chars);
+
+	private String currentDatePart;
+
+	private File currentFile;
+
+	private FileChannel channel;
+
+	private volatile RollListener rollListener;
+
+	private int unsyncedRecords;
+
+	private long lastSyncMillis;
+
+	private long lastRecordTime = Long.MIN_VALUE;
+
+	/**
+	 * @param pathPrefixP the path of the files up to the date part, e.g. <code>./data/muenster-wetter_</code>
+	 * @param fileNameDatePattern the joda time pattern of the date part, e.g. <code>yyyy-MM-dd</code>
+	 * @param headerP the header line of new files
+	 * @param durabilityP when records reach the disk
+	 * @param fsyncEveryRecordsP only for {@link Durability#FSYNC}: sync at least every N records
+	 * @param fsyncIntervalMillisP only for {@link Durability#FSYNC}: sync at least every T milliseconds, 0 to disable
+	 */
+	public RollingCsvAppender(final String pathPrefixP,
+			final String fileNameDatePattern,
+			final String headerP,
+			final Durability durabilityP,
+			final int fsyncEveryRecordsP,
+			final long fsyncIntervalMillisP) {
+		pathPrefix = pathPrefixP;
+		fileNameFormatter = DateTimeFormat.forPattern(fileNameDatePattern).withZoneUTC();
+		header = headerP;
+		durability = durabilityP;
+		fsyncEveryRecords = Math.max(1, fsyncEveryRecordsP);
+		fsyncIntervalMillis = fsyncIntervalMillisP;
+	}
+
+	/**
+	 * @param time the time of the record, defines the file to append to
+	 * @param record the CSV record without line separator
+	 * @throws IOException if the file could not be opened or written. The
+	 * 		record is not kept in this case.
+	 */
+	public void append(final DateTime time, final CharSequence record) throws IOException {
+		lock.lock();
+		try {
+			line.setLength(0);
+			line.append(LINE_SEPARATOR).append(record);
+			append(time);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the dataset without creating a {@link String} of it.
+	 *
+	 * @param time the time of the record, defines the file to append to
+	 * @param dataset the data to append as CSV record
+	 * @throws IOException if the file could not be opened or written. The
+	 * 		record is not kept in this case.
+	 */
+	public void append(final DateTime time, final Dataset dataset) throws IOException {
+		lock.lock();
+		try {
+			line.setLength(0);
+			line.append(LINE_SEPARATOR);
+			dataset.appendCSV(line);
+			append(time);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the dataset to the file of its time.
+	 */
+	@Override
+	public void append(final Dataset dataset) throws IOException {
+		append(dataset.getTime(), dataset);
+	}
+
+	/**
+	 * Encodes all datasets before writing them, so a batch costs one write
+	 * and at most one sync per file.
+	 */
+	@Override
+	public void appendAll(final List<? extends Dataset> datasets) throws IOException {
+		if (datasets.isEmpty()) {
+			return;
+		}
+		lock.lock();
+		try {
+			for (final Dataset dataset : datasets) {
+				rollIfRequired(dataset.getTime());
+				if (!isNewer(dataset.getTime())) {
+					continue;
+				}
+				line.setLength(0);
+				line.append(LINE_SEPARATOR);
+				dataset.appendCSV(line);
+				encode(line);
+			}
+			if (durability != Durability.NONE) {
+				writeBuffer();
+				syncIfRequired(datasets.size());
+			}
+		} catch (final IOException e) {
+			buffer.clear();
+			discardChannel();
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void append(final DateTime time) throws IOException {
+		try {
+			rollIfRequired(time);
+			if (!isNewer(time)) {
+				return;
+			}
+			encode(line);
+			if (durability != Durability.NONE) {
+				writeBuffer();
+				syncIfRequired(1);
+			}
+		} catch (final IOException e) {
+			// reopen the file with the next record
+			buffer.clear();
+			discardChannel();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return <code>true</code>, if the record is newer than the last one of
+	 * 		the current file and becomes the last one
+	 */
+	private boolean isNewer(final DateTime time) {
+		if (time.getMillis() <= lastRecordTime) {
+			LOG.debug("Skipping record of {}: CSV file '{}' already contains newer data.", time, currentFile);
+			return false;
+		}
+		lastRecordTime = time.getMillis();
+		return true;
+	}
+
+	/**
+	 * @return the file a record with the given time is appended to
+	 */
+	public File getFile(final DateTime time) {
+		return new File(pathPrefix + fileNameFormatter.print(time) + ".csv");
+	}
+
+	/**
+	 * @return the currently open file or <code>null</code>
+	 */
+	public File getCurrentFile() {
+		lock.lock();
+		try {
+			return currentFile;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void rollIfRequired(final DateTime time) throws IOException {
+		final String datePart = fileNameFormatter.print(time);
+		if (datePart.equals(currentDatePart) && channel != null) {
+			return;
+		}
+		final File file = new File(pathPrefix + datePart + ".csv");
+		final File previous = channel != null? currentFile : null;
+		closeCurrent();
+		open(file);
+		currentDatePart = datePart;
+		final RollListener listener = rollListener;
+		if (previous != null && listener != null && !previous.equals(file)) {
+			listener.rolled(previous);
+		}
+	}
+
+	/**
+	 * @param listener notified with the completed file whenever the appender
+	 * 		rolls over to the file of another period
+	 */
+	public void setRollListener(final RollListener listener) {
+		rollListener = listener;
+	}
+
+	private void open(final File file) throws IOException {
+		final ReentrantLock fileLock = FileLocks.forFile(file);
+		fileLock.lock();
+		try {
+			channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+			currentFile = file;
+			if (channel.size() == 0) {
+				encode(header);
+				writeBuffer();
+				channel.force(true);
+				lastRecordTime = Long.MIN_VALUE;
+			} else {
+				lastRecordTime = CsvArchiveReader.readLastRecordTime(file);
+			}
+			lastSyncMillis = System.currentTimeMillis();
+			LOG.info("Appending to CSV file '{}'.", file.getAbsolutePath());
+		} finally {
+			fileLock.unlock();
+		}
+	}
+
+	private void encode(final CharSequence chars) throws IOException {
+		final int length = chars.length();
+		if (length > this.chars.length) {
+			this.chars = new char[Math.max(length, this.chars.length * 2)];
+			charBuffer = CharBuffer.wrap(this.chars);
+		}
+		for (int i = 0; i < length; i++) {
+			this.chars[i] = chars.charAt(i);
+		}
+		charBuffer.clear();
+		charBuffer.limit(length);
+		final CharBuffer in = charBuffer;
+		encoder.reset();
+		while (true) {
+			final CoderResult result = encoder.encode(in, buffer, true);
+			if (result.isOverflow()) {
+				writeBuffer();
+			} else if (result.isUnderflow()) {
+				break;
+			} else {
+				result.throwException();
+			}
+		}
+		encoder.flush(buffer);
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		if (buffer.hasRemaining()) {
+			final ReentrantLock fileLock = FileLocks.forFile(currentFile);
+			fileLock.lock();
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} finally {
+				fileLock.unlock();
+			}
+		}
+		buffer.clear();
+	}
+
+	private void syncIfRequired(final int records) throws IOException {
+		if (durability != Durability.FSYNC) {
+			return;
+		}
+		unsyncedRecords += records;
+		final long now = System.currentTimeMillis();
+		if (unsyncedRecords >= fsyncEveryRecords
+				|| (fsyncIntervalMillis > 0 && now - lastSyncMillis >= fsyncIntervalMillis)) {
+			channel.force(false);
+			unsyncedRecords = 0;
+			lastSyncMillis = now;
+		}
+	}
+
+	/**
+	 * Writes all buffered records to the current file and synchronizes it with
+	 * the disk if the durability is {@link Durability#FSYNC}.
+	 */
+	@Override
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			if (channel == null) {
+				return;
+			}
+			writeBuffer();
+			if (durability == Durability.FSYNC && unsyncedRecords > 0) {
+				channel.force(false);
+				unsyncedRecords = 0;
+				lastSyncMillis = System.currentTimeMillis();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeCurrent() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		try {
+			writeBuffer();
+			if (durability != Durability.NONE) {
+				channel.force(false);
+			}
+		} finally {
+			channel.close();
+			channel = null;
+			currentDatePart = null;
+			unsyncedRecords = 0;
+			LOG.info("Closed CSV file '{}'.", currentFile.getAbsolutePath());
+		}
+	}
+
+	private void discardChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				LOG.debug("Could not close CSV file '{}'.", currentFile, e);
+			}
+			channel = null;
+			currentDatePart = null;
+			unsyncedRecords = 0;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			closeCurrent();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RollingCsvAppender [pathPrefix=%s, durability=%s, fsyncEveryRecords=%s, fsyncIntervalMillis=%s, currentFile=%s]",
+				pathPrefix, durability, fsyncEveryRecords, fsyncIntervalMillis, currentFile);
+	}
+
+}
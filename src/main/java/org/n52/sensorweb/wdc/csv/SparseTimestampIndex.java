@@ -0,0 +1,227 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Maps the timestamp of every {@value #INTERVAL}th record of a CSV file to
+ * the byte offset of its line. The index covers the file up to the start of
+ * its last line, which might still be written, and is extended when the file
+ * grew. Records are expected in chronological order, as written by
+ * {@link RollingCsvAppender}.
+ * <p>
+ * The index is stored in <code>&lt;file&gt;.idx</code>. It can always be
+ * rebuilt from the CSV file, so it is replaced atomically but not synced.
+ */
+final class SparseTimestampIndex {
+
+	static final int INTERVAL = 32;
+
+	private static final int FILE_MAGIC = 0x52c51d01;
+
+	private static final int MAX_CHUNK = 64 * 1024 * 1024;
+
+	private long[] times = new long[16];
+
+	private long[] offsets = new long[16];
+
+	private int size;
+
+	private long indexedLength;
+
+	private long records;
+
+	private boolean changed;
+
+	static File getIndexFile(final File csvFile) {
+		return new File(csvFile.getPath() + ".idx");
+	}
+
+	/**
+	 * @return the stored index or an empty one if there is none, it is
+	 * 		corrupt or longer than the CSV file
+	 */
+	static SparseTimestampIndex load(final File csvFile) {
+		final File file = getIndexFile(csvFile);
+		final SparseTimestampIndex index = new SparseTimestampIndex();
+		if (!file.exists()) {
+			return index;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != INTERVAL) {
+				return new SparseTimestampIndex();
+			}
+			index.indexedLength = in.readLong();
+			index.records = in.readLong();
+			final int count = in.readInt();
+			index.times = new long[Math.max(16, count)];
+			index.offsets = new long[Math.max(16, count)];
+			for (int i = 0; i < count; i++) {
+				index.times[i] = in.readLong();
+				index.offsets[i] = in.readLong();
+			}
+			index.size = count;
+			if (index.indexedLength > csvFile.length()) {
+				return new SparseTimestampIndex();
+			}
+			return index;
+		} catch (final IOException e) {
+			return new SparseTimestampIndex();
+		}
+	}
+
+	/**
+	 * Writes the index if it changed since it was loaded or persisted.
+	 */
+	synchronized void persist(final File csvFile) throws IOException {
+		if (!changed) {
+			return;
+		}
+		final File file = getIndexFile(csvFile);
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(INTERVAL);
+			out.writeLong(indexedLength);
+			out.writeLong(records);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(times[i]);
+				out.writeLong(offsets[i]);
+			}
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		changed = false;
+	}
+
+	/**
+	 * Indexes the lines appended since the last call.
+	 *
+	 * @return <code>false</code> if the file is shorter than the indexed part,
+	 * 		i.e. the index does not belong to the file anymore
+	 */
+	synchronized boolean extend(final FileChannel channel) throws IOException {
+		final long length = channel.size();
+		if (length < indexedLength) {
+			return false;
+		}
+		while (length > indexedLength) {
+			final int chunk = (int) Math.min(MAX_CHUNK, length - indexedLength);
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, indexedLength, chunk);
+			int lineStart = 0;
+			for (int i = 0; i < chunk; i++) {
+				if (buffer.get(i) == '\n') {
+					add(buffer, lineStart, i);
+					lineStart = i + 1;
+				}
+			}
+			if (lineStart == 0) {
+				// no complete line left in this chunk
+				break;
+			}
+			indexedLength += lineStart;
+			changed = true;
+		}
+		return true;
+	}
+
+	private void add(final MappedByteBuffer buffer, final int lineStart, final int lineEnd) {
+		int fieldEnd = lineStart;
+		while (fieldEnd < lineEnd && buffer.get(fieldEnd) != ',' && buffer.get(fieldEnd) != '\r') {
+			fieldEnd++;
+		}
+		final long time = CsvFormat.parseTimestamp(buffer, lineStart, fieldEnd);
+		if (time == Long.MIN_VALUE) {
+			// e.g. the header
+			return;
+		}
+		if (records % INTERVAL == 0) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+			}
+			times[size] = time;
+			offsets[size] = indexedLength + lineStart;
+			size++;
+		}
+		records++;
+	}
+
+	/**
+	 * @return the offset of a line at or before the first record at or after
+	 * 		the given time, i.e. where to start scanning for it
+	 */
+	synchronized long floor(final long millis) {
+		if (size == 0) {
+			return 0;
+		}
+		int low = 0;
+		int high = size - 1;
+		// find the last entry before millis
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (times[middle] < millis) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return offsets[low];
+	}
+
+	/**
+	 * @return the offset of the first record line or -1 if none is indexed
+	 */
+	synchronized long getFirstRecordOffset() {
+		return size == 0? -1 : offsets[0];
+	}
+
+	synchronized long getIndexedLength() {
+		return indexedLength;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,425 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.flow;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.n52.sensorweb.wdc.DataCollector;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.metrics.Counter;
+import org.n52.sensorweb.wdc.metrics.Gauge;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes every dataset stored by a {@link DataCollector} to the
+ * subscribers registered in the same process.
+ * <p>
+ * {@link #publish(Dataset)} never blocks: each subscription has its own
+ * bounded buffer and an {@link Overflow} policy applied when the subscriber
+ * does not keep up. Datasets are delivered on a shared pool, at most one
+ * call at a time per subscription and only as far as requested by the
+ * subscriber. A subscriber throwing an exception is cancelled without
+ * affecting the others.
+ */
+public class DatasetPublisher implements Flow.Publisher<Dataset> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DatasetPublisher.class);
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * max. datasets delivered to one subscriber before the pool switches to
+	 * other subscriptions
+	 */
+	private static final int MAX_BATCH = 64;
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger(1);
+
+	private static final ThreadPoolExecutor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+	/**
+	 * What to do with a new dataset if the buffer of a subscriber is full.
+	 */
+	public enum Overflow {
+		/**
+		 * Drop the oldest buffered dataset.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Drop the new dataset.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Keep only the newest dataset not delivered yet, for subscribers
+		 * interested in the current state only. The capacity is ignored.
+		 */
+		CONFLATE;
+
+		public static Overflow fromString(final String value) {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+	}
+
+	private final String name;
+
+	private final Executor executor;
+
+	private final List<DatasetSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	private volatile boolean closed;
+
+	private final Counter published;
+
+	private final Counter dropped;
+
+	/**
+	 * Delivers on a pool of daemon threads shared by all publishers.
+	 *
+	 * @param nameP the name of the collector
+	 */
+	public DatasetPublisher(final String nameP) {
+		this(nameP, DEFAULT_EXECUTOR);
+	}
+
+	public DatasetPublisher(final String nameP, final Executor executorP) {
+		name = nameP;
+		executor = executorP;
+		final MetricsRegistry registry = MetricsRegistry.getDefault();
+		published = registry.counter("wdc_published_datasets_total", "Datasets published to subscribers", "collector", name);
+		dropped = registry.counter("wdc_publisher_dropped_total",
+				"Datasets dropped or conflated because a subscriber did not keep up",
+				"collector", name);
+		registry.gauge("wdc_publisher_subscribers", "Active subscriptions", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return subscriptions.size();
+			}
+		}, "collector", name);
+	}
+
+	private static ThreadPoolExecutor createDefaultExecutor() {
+		final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(r, "52n-wdc-publisher-" + THREAD_COUNT.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Subscribes with a buffer of {@value #DEFAULT_CAPACITY} datasets,
+	 * dropping the oldest ones on overflow.
+	 */
+	@Override
+	public void subscribe(final Flow.Subscriber<? super Dataset> subscriber) {
+		subscribe(subscriber, DEFAULT_CAPACITY, Overflow.DROP_OLDEST);
+	}
+
+	/**
+	 * @param capacity the max. number of datasets buffered for the subscriber
+	 * @param overflow what to do if the buffer is full
+	 */
+	public void subscribe(final Flow.Subscriber<? super Dataset> subscriber, final int capacity, final Overflow overflow) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber");
+		}
+		final DatasetSubscription subscription = new DatasetSubscription(subscriber, Math.max(1, capacity), overflow);
+		if (closed) {
+			subscription.complete();
+			return;
+		}
+		subscriptions.add(subscription);
+		subscription.schedule();
+	}
+
+	/**
+	 * Hands the dataset to all subscribers without waiting for them.
+	 */
+	public void publish(final Dataset dataset) {
+		if (closed) {
+			return;
+		}
+		published.increment();
+		for (final DatasetSubscription subscription : subscriptions) {
+			subscription.offer(dataset);
+		}
+	}
+
+	/**
+	 * Completes all subscriptions after the buffered datasets were delivered.
+	 */
+	public void close() {
+		closed = true;
+		for (final DatasetSubscription subscription : subscriptions) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * @return the number of active subscriptions
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DatasetPublisher [name=%s, subscribers=%s]", name, subscriptions.size());
+	}
+
+	/**
+	 * The buffer and demand of one subscriber. The short sections guarded by
+	 * its monitor never call the subscriber.
+	 */
+	private final class DatasetSubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super Dataset> subscriber;
+
+		private final int capacity;
+
+		private final Overflow overflow;
+
+		private final ArrayDeque<Dataset> buffer = new ArrayDeque<>();
+
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private long demand;
+
+		private boolean subscribed;
+
+		private boolean cancelled;
+
+		private boolean completing;
+
+		private Throwable error;
+
+		DatasetSubscription(final Flow.Subscriber<? super Dataset> subscriberP,
+				final int capacityP,
+				final Overflow overflowP) {
+			subscriber = subscriberP;
+			capacity = capacityP;
+			overflow = overflowP;
+		}
+
+		void offer(final Dataset dataset) {
+			synchronized (this) {
+				if (cancelled || completing) {
+					return;
+				}
+				if (overflow == Overflow.CONFLATE && !buffer.isEmpty()) {
+					buffer.clear();
+					dropped.increment();
+				} else if (buffer.size() >= capacity) {
+					dropped.increment();
+					if (overflow == Overflow.DROP_NEWEST) {
+						return;
+					}
+					buffer.poll();
+				}
+				buffer.add(dataset);
+			}
+			schedule();
+		}
+
+		void complete() {
+			synchronized (this) {
+				completing = true;
+			}
+			schedule();
+		}
+
+		@Override
+		public void request(final long n) {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				if (n <= 0) {
+					error = new IllegalArgumentException("Non-positive request: " + n);
+				} else {
+					demand = demand + n < 0? Long.MAX_VALUE : demand + n;
+				}
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				buffer.clear();
+			}
+			subscriptions.remove(this);
+		}
+
+		void schedule() {
+			if (!scheduled.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				executor.execute(this);
+			} catch (final RejectedExecutionException e) {
+				scheduled.set(false);
+				LOG.error("Could not deliver datasets of '{}' to {}: {}", name, subscriber, e.getMessage());
+			}
+		}
+
+		/**
+		 * Delivers up to {@value #MAX_BATCH} datasets and schedules itself
+		 * again if more can be delivered.
+		 */
+		@Override
+		public void run() {
+			try {
+				deliver();
+			} finally {
+				scheduled.set(false);
+				if (hasWork()) {
+					schedule();
+				}
+			}
+		}
+
+		private void deliver() {
+			if (!subscribed) {
+				subscribed = true;
+				if (!call(new Runnable() {
+					@Override
+					public void run() {
+						subscriber.onSubscribe(DatasetSubscription.this);
+					}
+				})) {
+					return;
+				}
+			}
+			for (int i = 0; i < MAX_BATCH; i++) {
+				final Dataset next;
+				synchronized (this) {
+					if (cancelled) {
+						return;
+					}
+					if (error != null) {
+						cancelled = true;
+						buffer.clear();
+					} else if (buffer.isEmpty() && completing) {
+						cancelled = true;
+					}
+					if (cancelled) {
+						next = null;
+					} else if (demand == 0 || buffer.isEmpty()) {
+						return;
+					} else {
+						next = buffer.poll();
+						if (demand != Long.MAX_VALUE) {
+							demand--;
+						}
+					}
+				}
+				if (next == null) {
+					subscriptions.remove(this);
+					finish();
+					return;
+				}
+				if (!call(new Runnable() {
+					@Override
+					public void run() {
+						subscriber.onNext(next);
+					}
+				})) {
+					return;
+				}
+			}
+		}
+
+		private synchronized boolean hasWork() {
+			if (cancelled) {
+				return false;
+			}
+			return !subscribed || error != null || (completing && buffer.isEmpty()) || (demand > 0 && !buffer.isEmpty());
+		}
+
+		/**
+		 * Calls {@link Flow.Subscriber#onError(Throwable)} or
+		 * {@link Flow.Subscriber#onComplete()}.
+		 */
+		private void finish() {
+			final Throwable failure;
+			synchronized (this) {
+				failure = error;
+			}
+			try {
+				if (failure != null) {
+					subscriber.onError(failure);
+				} else {
+					subscriber.onComplete();
+				}
+			} catch (final RuntimeException e) {
+				LOG.error("Subscriber {} of '{}' failed: {}", subscriber, name, e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * @return <code>false</code>, if the subscriber threw an exception
+		 * 		and was cancelled
+		 */
+		private boolean call(final Runnable callback) {
+			try {
+				callback.run();
+				return true;
+			} catch (final RuntimeException e) {
+				LOG.error("Cancelling subscriber {} of '{}': {}", subscriber, name, e.getMessage(), e);
+				cancel();
+				try {
+					subscriber.onError(e);
+				} catch (final RuntimeException ignored) {
+					// cancelled already
+				}
+				return false;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.flow;
+
+/**
+ * The interfaces of reactive streams with backpressure as defined by
+ * <code>java.util.concurrent.Flow</code> of Java 9, which is not available
+ * with Java 7. Implementations follow its rules, so they can be adapted
+ * one-to-one once the minimum Java version is raised.
+ */
+public final class Flow {
+
+	private Flow() {}
+
+	/**
+	 * Produces items for its subscribers.
+	 */
+	public interface Publisher<T> {
+
+		/**
+		 * Adds the subscriber, which is called back by
+		 * {@link Subscriber#onSubscribe(Subscription)} first.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+
+	}
+
+	/**
+	 * Receives the items of a {@link Publisher}, one call at a time.
+	 */
+	public interface Subscriber<T> {
+
+		/**
+		 * Called before any other method. No items are sent until requested
+		 * by {@link Subscription#request(long)}.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		/**
+		 * Called at most once, if the subscription failed. No further calls
+		 * follow.
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Called at most once, if no further items will be sent.
+		 */
+		void onComplete();
+
+	}
+
+	/**
+	 * The link between one {@link Publisher} and one {@link Subscriber}.
+	 */
+	public interface Subscription {
+
+		/**
+		 * Adds <code>n</code> items to the demand of the subscriber. A
+		 * demand of {@link Long#MAX_VALUE} is unbounded.
+		 */
+		void request(long n);
+
+		/**
+		 * Stops sending items, eventually.
+		 */
+		void cancel();
+
+	}
+
+}
@@ -0,0 +1,317 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ha;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Elects one leader among processes sharing a lease file by an exclusive
+ * {@link FileChannel#tryLock(long, long, boolean) file lock}. The operating
+ * system releases the lock as soon as the leader terminates, so a standby
+ * polling every <code>heartbeatMillis</code> takes over within one heartbeat.
+ * <p>
+ * The leader writes <code>id;millis</code> to the file with every heartbeat,
+ * so standbys can tell who leads and whether it is still alive. A leader
+ * which can not write its heartbeat anymore gives up the lease and notifies
+ * {@link Listener#leadershipLost()}. The lock covers one byte behind the
+ * heartbeat, so the file stays readable on systems with mandatory locks.
+ */
+public class FileLease {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileLease.class);
+
+	private static final long LOCK_POSITION = Integer.MAX_VALUE;
+
+	private static final int MAX_HEARTBEAT_BYTES = 1024;
+
+	/**
+	 * heartbeats older than this number of heartbeat intervals are reported
+	 * as stale
+	 */
+	private static final int STALE_HEARTBEATS = 5;
+
+	/**
+	 * Notified by the thread of the lease.
+	 */
+	public interface Listener {
+
+		/**
+		 * This process became the leader.
+		 */
+		void leadershipAcquired();
+
+		/**
+		 * This process lost the lease, because its heartbeat could not be
+		 * written. Called before the lock is released: another process might
+		 * become leader as soon as this method returns.
+		 */
+		void leadershipLost();
+
+	}
+
+	private final File file;
+
+	private final String id;
+
+	private final long heartbeatMillis;
+
+	private final Listener listener;
+
+	private final ScheduledExecutorService executor;
+
+	private FileChannel channel;
+
+	private FileLock lock;
+
+	private volatile boolean leader;
+
+	private String lastSeenLeader;
+
+	private boolean staleReported;
+
+	/**
+	 * @param fileP the lease file shared by all processes
+	 * @param idP the name of this process written with its heartbeats
+	 * @param heartbeatMillisP the interval of renewing or trying to acquire
+	 * 		the lease
+	 */
+	public FileLease(final File fileP, final String idP, final long heartbeatMillisP, final Listener listenerP) {
+		if (idP.contains(";") || idP.contains("\n")) {
+			throw new IllegalArgumentException("Invalid lease id '" + idP + "'");
+		}
+		file = fileP;
+		id = idP;
+		heartbeatMillis = heartbeatMillisP;
+		listener = listenerP;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "52n-wdc-lease");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the name of the JVM, usually <code>pid@host</code>
+	 */
+	public static String getDefaultId() {
+		return ManagementFactory.getRuntimeMXBean().getName().replace(';', '_');
+	}
+
+	/**
+	 * Tries to acquire the lease immediately and then every heartbeat.
+	 */
+	public void start() {
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					heartbeat();
+				} catch (final RuntimeException e) {
+					// do not cancel the following heartbeats
+					LOG.error("Heartbeat of lease '{}' failed: {}", file, e.getMessage(), e);
+				}
+			}
+		}, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Renews the lease if leading, otherwise tries to acquire it. Called by
+	 * the thread of the lease only.
+	 */
+	void heartbeat() {
+		if (leader) {
+			try {
+				writeHeartbeat();
+			} catch (final IOException e) {
+				LOG.error("Could not renew lease '{}'. Giving up leadership: {}", file, e.getMessage());
+				LOG.debug("Exception thrown!", e);
+				leader = false;
+				// before releasing, so nothing is written once another process can lead
+				listener.leadershipLost();
+				release();
+			}
+			return;
+		}
+		try {
+			if (tryAcquire()) {
+				writeHeartbeat();
+				leader = true;
+				LOG.info("'{}' acquired lease '{}'. Previous leader: {}", id, file, lastSeenLeader);
+				listener.leadershipAcquired();
+			} else {
+				checkLeader();
+			}
+		} catch (final IOException e) {
+			LOG.error("Could not acquire lease '{}': {}", file, e.getMessage());
+			LOG.debug("Exception thrown!", e);
+			release();
+		}
+	}
+
+	private boolean tryAcquire() throws IOException {
+		if (channel == null) {
+			final File folder = file.getAbsoluteFile().getParentFile();
+			if (folder != null && !folder.exists() && !folder.mkdirs()) {
+				throw new IOException("Could not create folder '" + folder + "'");
+			}
+			channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+		}
+		try {
+			lock = channel.tryLock(LOCK_POSITION, 1, false);
+		} catch (final OverlappingFileLockException e) {
+			// held by another lease of this JVM
+			lock = null;
+		}
+		return lock != null;
+	}
+
+	private void writeHeartbeat() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap((id + ";" + System.currentTimeMillis() + "\n").getBytes(StandardCharsets.UTF_8));
+		channel.truncate(0);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, buffer.position());
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Logs changes of the leader and stale heartbeats, which indicate a hung
+	 * leader still holding the lock.
+	 */
+	private void checkLeader() throws IOException {
+		final String[] heartbeat = readHeartbeat();
+		if (heartbeat == null) {
+			return;
+		}
+		if (!heartbeat[0].equals(lastSeenLeader)) {
+			lastSeenLeader = heartbeat[0];
+			staleReported = false;
+			LOG.info("Standing by for leader '{}' of lease '{}'", lastSeenLeader, file);
+		}
+		final long age = System.currentTimeMillis() - Long.parseLong(heartbeat[1]);
+		if (age > STALE_HEARTBEATS * heartbeatMillis && !staleReported) {
+			staleReported = true;
+			LOG.warn("Leader '{}' of lease '{}' did not renew it for {}ms but still holds the lock.",
+					lastSeenLeader,
+					file,
+					age);
+		} else if (age <= STALE_HEARTBEATS * heartbeatMillis) {
+			staleReported = false;
+		}
+	}
+
+	/**
+	 * @return the id and time of the last heartbeat or <code>null</code>, if
+	 * 		none was written
+	 */
+	String[] readHeartbeat() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(MAX_HEARTBEAT_BYTES);
+		while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+			// read up to the end of the file
+		}
+		final String content = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+		final int separator = content.lastIndexOf(';');
+		if (separator < 1) {
+			return null;
+		}
+		try {
+			Long.parseLong(content.substring(separator + 1));
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+		return new String[] { content.substring(0, separator), content.substring(separator + 1) };
+	}
+
+	private void release() {
+		try {
+			if (lock != null) {
+				lock.release();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (final IOException e) {
+			LOG.warn("Could not release lease '{}': {}", file, e.getMessage());
+		}
+		lock = null;
+		channel = null;
+	}
+
+	/**
+	 * @return <code>true</code>, if this process holds the lease
+	 */
+	public boolean isLeader() {
+		return leader;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Stops the heartbeats and releases the lease, so a standby takes over
+	 * with its next heartbeat.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(heartbeatMillis + 1000, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		leader = false;
+		release();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("FileLease [file=%s, id=%s, heartbeatMillis=%s, leader=%s]", file, id, heartbeatMillis, leader);
+	}
+
+}
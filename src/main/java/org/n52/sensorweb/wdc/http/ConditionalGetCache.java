@@ -0,0 +1,335 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the bodies and validators (<code>ETag</code>,
+ * <code>Last-Modified</code>) of responses per URL for conditional requests
+ * issued by {@link PooledHttpClient}.
+ * <p>
+ * The cache holds at most <code>maxBytes</code> of response bodies. The least
+ * recently used entries are evicted first. If a file is given, the cache is
+ * loaded from it by {@link #load()} and written to it by {@link #persist()}.
+ */
+public class ConditionalGetCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConditionalGetCache.class);
+
+	private static final int FILE_MAGIC = 0x52ca0001;
+
+	private final long maxBytes;
+
+	private final File file;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(32, 0.75f, true);
+
+	private long bytes;
+
+	private boolean dirty;
+
+	/**
+	 * serializes {@link #persist()}, which writes a snapshot of the entries
+	 * without holding the monitor of the cache
+	 */
+	private final ReentrantLock persistLock = new ReentrantLock();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong notModified = new AtomicLong();
+
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * @param maxBytesP the maximum size of all cached bodies
+	 * @param fileP the file to persist the cache to, might be <code>null</code>
+	 */
+	public ConditionalGetCache(final long maxBytesP, final File fileP) {
+		maxBytes = maxBytesP;
+		file = fileP;
+	}
+
+	/**
+	 * @return the cached entry for the URL or <code>null</code>. A
+	 * 		<code>null</code> value is counted as miss.
+	 */
+	synchronized Entry lookup(final String url) {
+		final Entry entry = entries.get(url);
+		if (entry == null) {
+			misses.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Counts a <code>304 Not Modified</code> response answered by the given entry.
+	 */
+	void hit(final Entry entry) {
+		notModified.incrementAndGet();
+		bytesSaved.addAndGet(entry.getBody().length);
+	}
+
+	/**
+	 * Stores the response if it carries a validator, otherwise removes the
+	 * entry of the URL.
+	 */
+	synchronized void update(final String url, final HttpResponse response) {
+		final String eTag = response.getETag();
+		final String lastModified = response.getLastModified();
+		if ((eTag == null && lastModified == null) || response.getBodyLength() > maxBytes) {
+			remove(url);
+			return;
+		}
+		final Entry previous = entries.put(url, new Entry(eTag, lastModified, response.copyBody()));
+		if (previous != null) {
+			bytes -= previous.getBody().length;
+		}
+		bytes += response.getBodyLength();
+		dirty = true;
+		evict();
+	}
+
+	private void remove(final String url) {
+		final Entry removed = entries.remove(url);
+		if (removed != null) {
+			bytes -= removed.getBody().length;
+			dirty = true;
+		}
+	}
+
+	private void evict() {
+		final Iterator<Entry> iterator = entries.values().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().getBody().length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Loads the entries from the file, if any.
+	 */
+	public synchronized void load() {
+		if (file == null || !file.exists()) {
+			return;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FILE_MAGIC) {
+				LOG.error("File '{}' is not a response cache file. It will be overwritten.", file.getAbsolutePath());
+				return;
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final String url = in.readUTF();
+				final String eTag = readNullableUTF(in);
+				final String lastModified = readNullableUTF(in);
+				final byte[] body = new byte[in.readInt()];
+				in.readFully(body);
+				entries.put(url, new Entry(eTag, lastModified, body));
+				bytes += body.length;
+			}
+			evict();
+			LOG.info("Loaded {} cached responses from '{}'.", entries.size(), file.getAbsolutePath());
+		} catch (final IOException e) {
+			LOG.error("Could not load response cache from '{}'. Starting with an empty cache. Error message: {}",
+					file.getAbsolutePath(),
+					e.getMessage());
+			LOG.debug("Exception thrown!", e);
+			entries.clear();
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Writes the entries to the file if they changed since the last call. The
+	 * file is replaced atomically, so a crash leaves the previous version.
+	 * <p>
+	 * Only copying the entries holds the monitor of the cache, so lookups
+	 * are not blocked by the file I/O and virtual threads are not pinned.
+	 */
+	public void persist() {
+		if (file == null) {
+			return;
+		}
+		persistLock.lock();
+		try {
+			final List<Map.Entry<String, Entry>> snapshot;
+			synchronized (this) {
+				if (!dirty) {
+					return;
+				}
+				snapshot = new ArrayList<>(entries.size());
+				for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+					snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+				}
+				dirty = false;
+			}
+			if (!write(snapshot)) {
+				synchronized (this) {
+					dirty = true;
+				}
+			}
+		} finally {
+			persistLock.unlock();
+		}
+	}
+
+	private boolean write(final List<Map.Entry<String, Entry>> snapshot) {
+		final File tmp = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			try (FileOutputStream fos = new FileOutputStream(tmp);
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(snapshot.size());
+				for (final Map.Entry<String, Entry> entry : snapshot) {
+					out.writeUTF(entry.getKey());
+					writeNullableUTF(out, entry.getValue().getETag());
+					writeNullableUTF(out, entry.getValue().getLastModified());
+					out.writeInt(entry.getValue().getBody().length);
+					out.write(entry.getValue().getBody());
+				}
+				out.flush();
+				fos.getFD().sync();
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} catch (final FileNotFoundException e) {
+			LOG.error("Could not create response cache file '{}'.", tmp.getAbsolutePath());
+		} catch (final IOException e) {
+			LOG.error("Could not persist response cache to '{}'. Error message: {}", file.getAbsolutePath(), e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+		return false;
+	}
+
+	private static String readNullableUTF(final DataInputStream in) throws IOException {
+		return in.readBoolean()? in.readUTF() : null;
+	}
+
+	private static void writeNullableUTF(final DataOutputStream out, final String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return the number of requests without a cached entry
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of <code>304 Not Modified</code> responses received,
+	 * 		i.e. of responses served from the cache
+	 */
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	/**
+	 * @return the number of body bytes not transferred due to <code>304 Not Modified</code> responses
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ConditionalGetCache [maxBytes=%s, file=%s, misses=%s, notModified=%s, bytesSaved=%s]",
+				maxBytes, file, misses, notModified, bytesSaved);
+	}
+
+	static class Entry {
+
+		private final String eTag;
+
+		private final String lastModified;
+
+		private final byte[] body;
+
+		Entry(final String eTagP, final String lastModifiedP, final byte[] bodyP) {
+			eTag = eTagP;
+			lastModified = lastModifiedP;
+			body = bodyP;
+		}
+
+		String getETag() {
+			return eTag;
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+
+		byte[] getBody() {
+			return body;
+		}
+
+	}
+
+}
@@ -0,0 +1,182 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.http;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The response to a request issued by a {@link PooledHttpClient}.
+ * <p>
+ * The body is NOT copied out of the receive buffer of the requesting thread.
+ * Hence, it is only valid until the same thread issues the next request. Use
+ * {@link #copyBody()} to keep it longer. Bodies served from a
+ * {@link ConditionalGetCache} are shared and MUST NOT be modified.
+ * <p>
+ * Virtual threads do not keep a receive buffer, their responses use one of
+ * a pool. {@link #release()} returns it once the body is not needed anymore;
+ * responses not released just leave the buffer to the garbage collector.
+ */
+public class HttpResponse {
+
+	private static final Charset DOWNLOAD_CHARSET = StandardCharsets.UTF_8;
+
+	private final int statusCode;
+
+	private final String eTag;
+
+	private final String lastModified;
+
+	private final byte[] body;
+
+	private final int bodyLength;
+
+	private final boolean fromCache;
+
+	private ReceiveBuffer buffer;
+
+	HttpResponse(final int statusCodeP,
+			final String eTagP,
+			final String lastModifiedP,
+			final byte[] bodyP,
+			final int bodyLengthP,
+			final boolean fromCacheP) {
+		this(statusCodeP, eTagP, lastModifiedP, bodyP, bodyLengthP, fromCacheP, null);
+	}
+
+	/**
+	 * @param bufferP the buffer holding the body
+	 */
+	HttpResponse(final int statusCodeP,
+			final String eTagP,
+			final String lastModifiedP,
+			final ReceiveBuffer bufferP) {
+		this(statusCodeP, eTagP, lastModifiedP, bufferP.getData(), bufferP.getLength(), false, bufferP);
+	}
+
+	private HttpResponse(final int statusCodeP,
+			final String eTagP,
+			final String lastModifiedP,
+			final byte[] bodyP,
+			final int bodyLengthP,
+			final boolean fromCacheP,
+			final ReceiveBuffer bufferP) {
+		statusCode = statusCodeP;
+		eTag = eTagP;
+		lastModified = lastModifiedP;
+		body = bodyP;
+		bodyLength = bodyLengthP;
+		fromCache = fromCacheP;
+		buffer = bufferP;
+	}
+
+	/**
+	 * Returns the receive buffer holding the body to its pool, if any. The
+	 * body MUST NOT be used afterwards.
+	 */
+	public void release() {
+		final ReceiveBuffer released = buffer;
+		buffer = null;
+		if (released != null) {
+			released.release();
+		}
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return <code>true</code> if the status code is 2xx or the body was
+	 * 		served from the cache after a <code>304 Not Modified</code>
+	 */
+	public boolean isSuccessful() {
+		return fromCache || statusCode >= 200 && statusCode < 300;
+	}
+
+	/**
+	 * @return <code>true</code> if the body is the one of a
+	 * 		{@link ConditionalGetCache} entry. It MUST NOT be modified.
+	 */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	/**
+	 * @return the value of the <code>ETag</code> header or <code>null</code>
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @return the value of the <code>Last-Modified</code> header or <code>null</code>
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the array holding the body starting at index 0. It might be
+	 * 		larger than the body, see {@link #getBodyLength()}.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	public int getBodyLength() {
+		return bodyLength;
+	}
+
+	public byte[] copyBody() {
+		final byte[] copy = new byte[bodyLength];
+		System.arraycopy(body, 0, copy, 0, bodyLength);
+		return copy;
+	}
+
+	/**
+	 * Trims the body on byte level like {@link String#trim()} before decoding
+	 * it, so no untrimmed copy is created.
+	 *
+	 * @return the body decoded as UTF-8 without leading and trailing white space
+	 */
+	public String getBodyAsTrimmedString() {
+		int start = 0;
+		int end = bodyLength;
+		while (start < end && (body[start] & 0xff) <= ' ') {
+			start++;
+		}
+		while (end > start && (body[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		return start == end? "" : new String(body, start, end - start, DOWNLOAD_CHARSET);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("HttpResponse [statusCode=%s, eTag=%s, lastModified=%s, bodyLength=%s, fromCache=%s]",
+				statusCode, eTag, lastModified, bodyLength, fromCache);
+	}
+
+}
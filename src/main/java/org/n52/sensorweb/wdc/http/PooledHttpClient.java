@@ -0,0 +1,332 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.n52.sensorweb.wdc.ThreadMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP client for downloading many small files from the same hosts.
+ * <p>
+ * Connections are kept alive and reused per host by the keep-alive cache of
+ * the JDK. This requires that every response body is read completely and its
+ * stream is closed, which this client always does unless a response exceeds
+ * the maximum size. The maximum number of idle connections kept per host is
+ * controlled by the system property <code>http.maxConnections</code>, see
+ * {@link #setMaxConnectionsPerHost(int)}.
+ * <p>
+ * Responses are received into one buffer per thread which is reused for all
+ * following requests of this thread, see {@link HttpResponse}. Virtual
+ * threads, which usually run a single download, take a buffer from a pool of
+ * at most {@value #POOLED_BUFFERS} instead, which is returned by
+ * {@link HttpResponse#release()}.
+ * <p>
+ * If a {@link ConditionalGetCache} is set, requests are sent with the
+ * validators of the cached response and a <code>304 Not Modified</code>
+ * response is answered with the cached body.
+ */
+public class PooledHttpClient {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PooledHttpClient.class);
+
+	private static final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+
+	// 4k buffer
+	private static final int INITIAL_BUFFER_SIZE = 1024 * 4;
+
+	private static final int POOLED_BUFFERS = 32;
+
+	private final int connectTimeoutMillis;
+
+	private final int readTimeoutMillis;
+
+	private final int maxResponseBytes;
+
+	private final ThreadLocal<ReceiveBuffer> buffers = new ThreadLocal<ReceiveBuffer>() {
+		@Override
+		protected ReceiveBuffer initialValue() {
+			return new ReceiveBuffer(Math.min(INITIAL_BUFFER_SIZE, maxResponseBytes), null);
+		}
+	};
+
+	private final BlockingQueue<ReceiveBuffer> pooledBuffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+	private volatile ConditionalGetCache cache;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong oversizedResponses = new AtomicLong();
+
+	/**
+	 * @param connectTimeoutMillisP timeout for establishing a connection, 0 means infinite
+	 * @param readTimeoutMillisP timeout for waiting on data of an established connection, 0 means infinite
+	 * @param maxResponseBytesP responses with larger bodies are rejected
+	 */
+	public PooledHttpClient(final int connectTimeoutMillisP, final int readTimeoutMillisP, final int maxResponseBytesP) {
+		if (maxResponseBytesP < 1) {
+			throw new IllegalArgumentException("maxResponseBytes must be > 0 but is " + maxResponseBytesP);
+		}
+		connectTimeoutMillis = connectTimeoutMillisP;
+		readTimeoutMillis = readTimeoutMillisP;
+		maxResponseBytes = maxResponseBytesP;
+	}
+
+	/**
+	 * Sets the number of idle keep-alive connections the JDK keeps per host.
+	 * This has only an effect before the first HTTP connection of this JVM is
+	 * opened and if the system property is not set by the user.
+	 */
+	public static void setMaxConnectionsPerHost(final int maxConnections) {
+		if (System.getProperty(MAX_CONNECTIONS_PROPERTY) == null) {
+			System.setProperty(MAX_CONNECTIONS_PROPERTY, Integer.toString(maxConnections));
+		}
+	}
+
+	public HttpResponse get(final URL url) throws IOException {
+		return get(url, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * @param url the URL to request
+	 * @param requestHeaders additional request headers
+	 * @return the response. Its body is only valid until this thread issues the next request.
+	 * @throws IOException if the request failed or the response exceeds the maximum size
+	 */
+	public HttpResponse get(final URL url, final Map<String, String> requestHeaders) throws IOException {
+		requests.incrementAndGet();
+		try {
+			final URLConnection connection = url.openConnection();
+			connection.setConnectTimeout(connectTimeoutMillis);
+			connection.setReadTimeout(readTimeoutMillis);
+			connection.setUseCaches(false);
+			for (final Entry<String, String> header : requestHeaders.entrySet()) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+			if (connection instanceof HttpURLConnection) {
+				return get((HttpURLConnection) connection);
+			}
+			// e.g. file URLs
+			try (InputStream is = connection.getInputStream()) {
+				final ReceiveBuffer buffer = receive(is, connection.getContentLengthLong(), url);
+				return new HttpResponse(HttpURLConnection.HTTP_OK, null, null, buffer);
+			}
+		} catch (final IOException e) {
+			failures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	private HttpResponse get(final HttpURLConnection connection) throws IOException {
+		final ConditionalGetCache responseCache = cache;
+		final String key = connection.getURL().toString();
+		final ConditionalGetCache.Entry cached = responseCache == null? null : responseCache.lookup(key);
+		if (cached != null) {
+			if (cached.getETag() != null) {
+				connection.setRequestProperty("If-None-Match", cached.getETag());
+			}
+			if (cached.getLastModified() != null) {
+				connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+			}
+		}
+		final HttpResponse response = read(connection);
+		if (responseCache != null) {
+			if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				response.release();
+				responseCache.hit(cached);
+				return new HttpResponse(HttpURLConnection.HTTP_NOT_MODIFIED,
+						cached.getETag(),
+						cached.getLastModified(),
+						cached.getBody(),
+						cached.getBody().length,
+						true);
+			}
+			if (response.getStatusCode() == HttpURLConnection.HTTP_OK) {
+				responseCache.update(key, response);
+			}
+		}
+		return response;
+	}
+
+	private HttpResponse read(final HttpURLConnection connection) throws IOException {
+		final int statusCode = connection.getResponseCode();
+		final InputStream is = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST?
+				connection.getErrorStream() : connection.getInputStream();
+		final ReceiveBuffer buffer;
+		if (is == null) {
+			buffer = acquireBuffer();
+		} else {
+			try {
+				buffer = receive(is, connection.getContentLengthLong(), connection.getURL());
+			} catch (final ResponseTooLargeException e) {
+				// the rest of the body is not read, hence the connection can not be reused
+				connection.disconnect();
+				throw e;
+			} finally {
+				// returns the connection to the keep-alive cache
+				is.close();
+			}
+		}
+		return new HttpResponse(statusCode,
+				connection.getHeaderField("ETag"),
+				connection.getHeaderField("Last-Modified"),
+				buffer);
+	}
+
+	/**
+	 * @return the empty buffer of the current thread or, for virtual
+	 * 		threads, one of the pool
+	 */
+	private ReceiveBuffer acquireBuffer() {
+		if (!isPooling(Thread.currentThread())) {
+			final ReceiveBuffer buffer = buffers.get();
+			buffer.reset();
+			return buffer;
+		}
+		final ReceiveBuffer pooled = pooledBuffers.poll();
+		return pooled != null? pooled : new ReceiveBuffer(Math.min(INITIAL_BUFFER_SIZE, maxResponseBytes), pooledBuffers);
+	}
+
+	/**
+	 * @return <code>true</code>, if the thread takes its buffers from the
+	 * 		pool, because it is not expected to issue further requests
+	 */
+	boolean isPooling(final Thread thread) {
+		return ThreadMode.isVirtual(thread);
+	}
+
+	private ReceiveBuffer receive(final InputStream is, final long contentLength, final URL url) throws IOException {
+		if (contentLength > maxResponseBytes) {
+			oversizedResponses.incrementAndGet();
+			throw new ResponseTooLargeException(url, contentLength, maxResponseBytes);
+		}
+		final ReceiveBuffer buffer = acquireBuffer();
+		try {
+			read(is, buffer, contentLength, url);
+		} catch (final IOException | RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+		bytesReceived.addAndGet(buffer.getLength());
+		LOG.trace("Received {} bytes from '{}'", buffer.getLength(), url);
+		return buffer;
+	}
+
+	private void read(final InputStream is, final ReceiveBuffer buffer, final long contentLength, final URL url) throws IOException {
+		if (contentLength > 0) {
+			buffer.ensureFree((int) contentLength);
+		}
+		int read;
+		do {
+			int capacity = Math.min(buffer.getData().length, maxResponseBytes);
+			if (buffer.getLength() == capacity) {
+				if (capacity == maxResponseBytes) {
+					// check if the stream is really longer than allowed
+					if (is.read() < 0) {
+						break;
+					}
+					oversizedResponses.incrementAndGet();
+					throw new ResponseTooLargeException(url, -1, maxResponseBytes);
+				}
+				buffer.ensureFree(Math.min(buffer.getLength(), maxResponseBytes - buffer.getLength()));
+				capacity = Math.min(buffer.getData().length, maxResponseBytes);
+			}
+			read = is.read(buffer.getData(), buffer.getLength(), capacity - buffer.getLength());
+			if (read > 0) {
+				buffer.setLength(buffer.getLength() + read);
+			}
+		} while (read >= 0);
+	}
+
+	/**
+	 * @param cacheP the cache to use for conditional requests, <code>null</code> disables caching
+	 */
+	public void setCache(final ConditionalGetCache cacheP) {
+		cache = cacheP;
+	}
+
+	public ConditionalGetCache getCache() {
+		return cache;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	public int getMaxResponseBytes() {
+		return maxResponseBytes;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getOversizedResponses() {
+		return oversizedResponses.get();
+	}
+
+	/**
+	 * @return the number of receive buffer arrays allocated by all clients,
+	 * 		which is about the number of threads using a client if the maximum
+	 * 		response size is small.
+	 */
+	public static long getBufferAllocations() {
+		return ReceiveBuffer.getAllocations();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("PooledHttpClient [connectTimeoutMillis=%s, readTimeoutMillis=%s, maxResponseBytes=%s]",
+				connectTimeoutMillis, readTimeoutMillis, maxResponseBytes);
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.http;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Growable receive buffer which is reused for all responses read by one
+ * thread or, if taken from a pool, returned to it by {@link #release()}
+ * once the response is used. It only grows up to the maximum response size
+ * of the client.
+ */
+final class ReceiveBuffer {
+
+	private static final AtomicLong ALLOCATIONS = new AtomicLong();
+
+	private final BlockingQueue<ReceiveBuffer> pool;
+
+	private byte[] data;
+
+	private int length;
+
+	/**
+	 * @param poolP the pool to return the buffer to or <code>null</code>, if
+	 * 		it is kept by one thread
+	 */
+	ReceiveBuffer(final int initialCapacity, final BlockingQueue<ReceiveBuffer> poolP) {
+		data = allocate(initialCapacity);
+		pool = poolP;
+	}
+
+	/**
+	 * Returns the buffer to its pool. It is dropped, if the pool is full.
+	 */
+	void release() {
+		if (pool != null) {
+			length = 0;
+			pool.offer(this);
+		}
+	}
+
+	void reset() {
+		length = 0;
+	}
+
+	byte[] getData() {
+		return data;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	void setLength(final int lengthP) {
+		length = lengthP;
+	}
+
+	/**
+	 * Ensures that at least <code>free</code> bytes can be written after
+	 * {@link #getLength()}.
+	 */
+	void ensureFree(final int free) {
+		final int required = length + free;
+		if (required > data.length) {
+			final byte[] grown = allocate(Math.max(required, data.length * 2));
+			System.arraycopy(data, 0, grown, 0, length);
+			data = grown;
+		}
+	}
+
+	private static byte[] allocate(final int capacity) {
+		ALLOCATIONS.incrementAndGet();
+		return new byte[capacity];
+	}
+
+	/**
+	 * @return the number of receive buffer arrays allocated since startup
+	 */
+	static long getAllocations() {
+		return ALLOCATIONS.get();
+	}
+
+}
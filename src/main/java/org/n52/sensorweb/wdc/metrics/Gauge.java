@@ -0,0 +1,69 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that goes up and down. It is either set explicitly or read from a
+ * {@link Source} when exported.
+ */
+public class Gauge extends Metric implements GaugeMBean {
+
+	/**
+	 * Provides the current value of a {@link Gauge}.
+	 */
+	public interface Source {
+
+		double getValue();
+
+	}
+
+	private final Source source;
+
+	private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+	Gauge(final String name, final String help, final Source sourceP, final String... labels) {
+		super(name, help, labels);
+		source = sourceP;
+	}
+
+	/**
+	 * Sets the value of a gauge without {@link Source}.
+	 */
+	public void set(final double value) {
+		bits.set(Double.doubleToRawLongBits(value));
+	}
+
+	@Override
+	public double getValue() {
+		return source != null? source.getValue() : Double.longBitsToDouble(bits.get());
+	}
+
+	@Override
+	String getType() {
+		return "gauge";
+	}
+
+}
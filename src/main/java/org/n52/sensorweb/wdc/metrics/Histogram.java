@@ -0,0 +1,165 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts observed values in buckets with fixed upper bounds, as exported by
+ * Prometheus histograms. Recording is lock-free and does not allocate.
+ */
+public class Histogram extends Metric implements HistogramMBean {
+
+	/**
+	 * bucket bounds in seconds for latencies from 1ms to 1min
+	 */
+	public static final double[] LATENCY_BUCKETS = {
+		0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+	};
+
+	/**
+	 * bucket bounds in seconds for delays from 1s to 1d
+	 */
+	public static final double[] DELAY_BUCKETS = {
+		1, 10, 30, 60, 120, 300, 600, 900, 1800, 3600, 7200, 21600, 86400
+	};
+
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final double[] bounds;
+
+	/**
+	 * non-cumulative counts per bucket, the last one counting values larger
+	 * than all bounds
+	 */
+	private final AtomicLongArray counts;
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sumBits = new AtomicLong(Double.doubleToRawLongBits(0));
+
+	Histogram(final String name, final String help, final double[] boundsP, final String... labels) {
+		super(name, help, labels);
+		bounds = boundsP.clone();
+		counts = new AtomicLongArray(bounds.length + 1);
+	}
+
+	public void record(final double value) {
+		int bucket = 0;
+		while (bucket < bounds.length && value > bounds[bucket]) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+		long current;
+		do {
+			current = sumBits.get();
+		} while (!sumBits.compareAndSet(current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value)));
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Records a duration in seconds.
+	 *
+	 * @param nanos e.g. the difference of two {@link System#nanoTime()} calls
+	 */
+	public void recordNanos(final long nanos) {
+		record(nanos / NANOS_PER_SECOND);
+	}
+
+	/**
+	 * Records the seconds since <code>startNanos</code>.
+	 */
+	public void recordSince(final long startNanos) {
+		recordNanos(System.nanoTime() - startNanos);
+	}
+
+	double[] getBounds() {
+		return bounds.clone();
+	}
+
+	/**
+	 * @return the non-cumulative counts per bucket, the last one for values
+	 * 		larger than all bounds
+	 */
+	long[] getBucketCounts() {
+		final long[] snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public double getSum() {
+		return Double.longBitsToDouble(sumBits.get());
+	}
+
+	@Override
+	public double getMean() {
+		final long n = getCount();
+		return n == 0? Double.NaN : getSum() / n;
+	}
+
+	@Override
+	public double getMedianBucket() {
+		return getBucketOf(0.5);
+	}
+
+	@Override
+	public double getP99Bucket() {
+		return getBucketOf(0.99);
+	}
+
+	private double getBucketOf(final double quantile) {
+		final long[] snapshot = getBucketCounts();
+		long total = 0;
+		for (final long bucketCount : snapshot) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return Double.NaN;
+		}
+		long cumulative = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= quantile * total) {
+				return bounds[i];
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	String getType() {
+		return "histogram";
+	}
+
+}
@@ -0,0 +1,79 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Registers gauges of heap usage and garbage collections of this JVM.
+ */
+public final class JvmMetrics {
+
+	private JvmMetrics() {}
+
+	public static void register(final MetricsRegistry registry) {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		registry.gauge("jvm_memory_heap_used_bytes", "Used heap memory", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return memory.getHeapMemoryUsage().getUsed();
+			}
+		});
+		registry.gauge("jvm_memory_heap_committed_bytes", "Committed heap memory", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return memory.getHeapMemoryUsage().getCommitted();
+			}
+		});
+		registry.gauge("jvm_memory_heap_max_bytes", "Maximum heap memory, -1 if undefined", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return memory.getHeapMemoryUsage().getMax();
+			}
+		});
+		registry.gauge("jvm_memory_nonheap_used_bytes", "Used non-heap memory", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return memory.getNonHeapMemoryUsage().getUsed();
+			}
+		});
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			registry.gauge("jvm_gc_collections", "Number of collections since start", new Gauge.Source() {
+				@Override
+				public double getValue() {
+					return gc.getCollectionCount();
+				}
+			}, "gc", gc.getName());
+			registry.gauge("jvm_gc_collection_seconds", "Accumulated collection time since start", new Gauge.Source() {
+				@Override
+				public double getValue() {
+					return gc.getCollectionTime() / 1000.0;
+				}
+			}, "gc", gc.getName());
+		}
+	}
+
+}
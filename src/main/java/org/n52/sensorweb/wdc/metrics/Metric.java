@@ -0,0 +1,93 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import java.util.Arrays;
+
+/**
+ * A named measurement with optional labels, e.g.
+ * <code>wdc_append_seconds{collector="muenster"}</code>.
+ */
+public abstract class Metric {
+
+	private final String name;
+
+	private final String help;
+
+	private final String[] labels;
+
+	/**
+	 * @param labelsP alternating label names and values
+	 */
+	Metric(final String nameP, final String helpP, final String... labelsP) {
+		if (labelsP.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be pairs of name and value: " + Arrays.toString(labelsP));
+		}
+		name = nameP;
+		help = helpP;
+		labels = labelsP.clone();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getHelp() {
+		return help;
+	}
+
+	/**
+	 * @return alternating label names and values
+	 */
+	public String[] getLabels() {
+		return labels.clone();
+	}
+
+	int getLabelCount() {
+		return labels.length / 2;
+	}
+
+	String getLabelName(final int index) {
+		return labels[2 * index];
+	}
+
+	String getLabelValue(final int index) {
+		return labels[2 * index + 1];
+	}
+
+	/**
+	 * @return the type as used by Prometheus: counter, gauge or histogram
+	 */
+	abstract String getType();
+
+	static String getKey(final String name, final String... labels) {
+		return name + Arrays.toString(labels);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s [name=%s, labels=%s]", getClass().getSimpleName(), name, Arrays.toString(labels));
+	}
+
+}
@@ -0,0 +1,191 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates and holds all {@link Metric}s of the application. Metrics are
+ * identified by name and labels; asking twice for the same metric returns
+ * the same instance, so callers should keep the instances used on hot paths.
+ * <p>
+ * Metrics are exported by {@link PrometheusFormat} and, after
+ * {@link #exportToJmx()}, as MBeans of the domain {@value #JMX_DOMAIN}.
+ */
+public class MetricsRegistry {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+	public static final String JMX_DOMAIN = "org.n52.sensorweb.wdc";
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+	private volatile MBeanServer mbeanServer;
+
+	/**
+	 * @return the registry used by the whole application
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param labels alternating label names and values
+	 * @return a counter incremented by {@link Counter#increment()}
+	 */
+	public Counter counter(final String name, final String help, final String... labels) {
+		return counter(name, help, null, labels);
+	}
+
+	/**
+	 * @return a counter reading its count from the source. If the counter
+	 * 		exists already, it keeps its source.
+	 */
+	public Counter counter(final String name, final String help, final Counter.Source source, final String... labels) {
+		final String key = Metric.getKey(name, labels);
+		final Metric metric = metrics.get(key);
+		return metric != null? cast(metric, Counter.class) : register(key, new Counter(name, help, source, labels), Counter.class);
+	}
+
+	/**
+	 * @return a histogram with {@link Histogram#LATENCY_BUCKETS}
+	 */
+	public Histogram histogram(final String name, final String help, final String... labels) {
+		return histogram(name, help, Histogram.LATENCY_BUCKETS, labels);
+	}
+
+	public Histogram histogram(final String name, final String help, final double[] bounds, final String... labels) {
+		final String key = Metric.getKey(name, labels);
+		final Metric metric = metrics.get(key);
+		return metric != null?
+				cast(metric, Histogram.class) :
+				register(key, new Histogram(name, help, bounds, labels), Histogram.class);
+	}
+
+	/**
+	 * @return a gauge set by {@link Gauge#set(double)}
+	 */
+	public Gauge gauge(final String name, final String help, final String... labels) {
+		return gauge(name, help, null, labels);
+	}
+
+	/**
+	 * @return a gauge reading its value from the source. If the gauge exists
+	 * 		already, it keeps its source.
+	 */
+	public Gauge gauge(final String name, final String help, final Gauge.Source source, final String... labels) {
+		final String key = Metric.getKey(name, labels);
+		final Metric metric = metrics.get(key);
+		return metric != null? cast(metric, Gauge.class) : register(key, new Gauge(name, help, source, labels), Gauge.class);
+	}
+
+	private <T extends Metric> T register(final String key, final T metric, final Class<T> type) {
+		final Metric existing = metrics.putIfAbsent(key, metric);
+		if (existing != null) {
+			return cast(existing, type);
+		}
+		if (mbeanServer != null) {
+			registerMBean(mbeanServer, metric);
+		}
+		return metric;
+	}
+
+	private static <T extends Metric> T cast(final Metric metric, final Class<T> type) {
+		if (!type.isInstance(metric)) {
+			throw new IllegalArgumentException(String.format("%s is not a %s.", metric, type.getSimpleName()));
+		}
+		return type.cast(metric);
+	}
+
+	/**
+	 * @return all metrics ordered by name
+	 */
+	public List<Metric> getMetrics() {
+		final List<Metric> sorted = new ArrayList<>(metrics.values());
+		Collections.sort(sorted, new Comparator<Metric>() {
+			@Override
+			public int compare(final Metric m1, final Metric m2) {
+				return m1.getName().compareTo(m2.getName());
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Registers all current and future metrics at the platform MBean server.
+	 */
+	public synchronized void exportToJmx() {
+		if (mbeanServer != null) {
+			return;
+		}
+		mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		for (final Metric metric : metrics.values()) {
+			registerMBean(mbeanServer, metric);
+		}
+		LOG.info("Exporting metrics as MBeans of domain '{}'", JMX_DOMAIN);
+	}
+
+	private static void registerMBean(final MBeanServer server, final Metric metric) {
+		try {
+			final ObjectName name = getObjectName(metric);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(metric, name);
+			}
+		} catch (final JMException e) {
+			LOG.error("Could not export {} to JMX: {}", metric, e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+	}
+
+	static ObjectName getObjectName(final Metric metric) throws JMException {
+		final StringBuilder name = new StringBuilder(JMX_DOMAIN)
+				.append(":type=")
+				.append(metric.getType())
+				.append(",name=")
+				.append(metric.getName());
+		for (int i = 0; i < metric.getLabelCount(); i++) {
+			name.append(',')
+				.append(metric.getLabelName(i))
+				.append('=')
+				.append(ObjectName.quote(metric.getLabelValue(i)));
+		}
+		return new ObjectName(name.toString());
+	}
+
+}
@@ -0,0 +1,127 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import java.io.IOException;
+
+/**
+ * Writes metrics in the text exposition format 0.0.4 of Prometheus.
+ */
+public final class PrometheusFormat {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private PrometheusFormat() {}
+
+	public static void write(final Appendable out, final MetricsRegistry registry) throws IOException {
+		String previousName = null;
+		for (final Metric metric : registry.getMetrics()) {
+			if (!metric.getName().equals(previousName)) {
+				out.append("# HELP ").append(metric.getName()).append(' ');
+				appendEscaped(out, metric.getHelp(), false);
+				out.append('\n');
+				out.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+				previousName = metric.getName();
+			}
+			if (metric instanceof Counter) {
+				appendSample(out, metric, "", null, ((Counter) metric).getCount());
+			} else if (metric instanceof Gauge) {
+				appendSample(out, metric, "", null, ((Gauge) metric).getValue());
+			} else if (metric instanceof Histogram) {
+				appendHistogram(out, (Histogram) metric);
+			}
+		}
+	}
+
+	private static void appendHistogram(final Appendable out, final Histogram histogram) throws IOException {
+		final double[] bounds = histogram.getBounds();
+		final long[] counts = histogram.getBucketCounts();
+		long cumulative = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			cumulative += counts[i];
+			appendSample(out, histogram, "_bucket", Double.toString(bounds[i]), cumulative);
+		}
+		cumulative += counts[bounds.length];
+		appendSample(out, histogram, "_bucket", "+Inf", cumulative);
+		appendSample(out, histogram, "_sum", null, histogram.getSum());
+		// consistent with the buckets rather than the concurrently updated count
+		appendSample(out, histogram, "_count", null, cumulative);
+	}
+
+	private static void appendSample(final Appendable out,
+			final Metric metric,
+			final String suffix,
+			final String le,
+			final double value) throws IOException {
+		out.append(metric.getName()).append(suffix);
+		if (metric.getLabelCount() > 0 || le != null) {
+			out.append('{');
+			for (int i = 0; i < metric.getLabelCount(); i++) {
+				if (i > 0) {
+					out.append(',');
+				}
+				out.append(metric.getLabelName(i)).append("=\"");
+				appendEscaped(out, metric.getLabelValue(i), true);
+				out.append('"');
+			}
+			if (le != null) {
+				if (metric.getLabelCount() > 0) {
+					out.append(',');
+				}
+				out.append("le=\"").append(le).append('"');
+			}
+			out.append('}');
+		}
+		out.append(' ').append(formatValue(value)).append('\n');
+	}
+
+	private static String formatValue(final double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0? "+Inf" : "-Inf";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	private static void appendEscaped(final Appendable out, final String value, final boolean quotes) throws IOException {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '\\') {
+				out.append("\\\\");
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else if (c == '"' && quotes) {
+				out.append("\\\"");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the values of the station files directly from the downloaded bytes,
+ * without decoding them to a {@link String} first. The common forms are
+ * parsed without allocating anything, everything else is decoded and left
+ * to {@link Double#parseDouble(String)}, so the results equal the ones of
+ * parsing the trimmed, decoded file.
+ */
+final class ByteParsers {
+
+	/**
+	 * 2<sup>53</sup>: all integers up to it are exact doubles
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	/**
+	 * the powers of ten exactly representable as double
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private ByteParsers() {}
+
+	/**
+	 * Parses a decimal number using <code>,</code> or <code>.</code> as
+	 * decimal separator, e.g. <code>1013,2</code>.
+	 *
+	 * @return the number or {@link Double#NaN}, if the bytes contain white
+	 * 		space only
+	 * @throws NumberFormatException if the bytes are no number
+	 */
+	static double parseDecimal(final byte[] bytes, final int from, final int to) {
+		final int start = trimStart(bytes, from, to);
+		final int end = trimEnd(bytes, start, to);
+		if (start == end) {
+			return Double.NaN;
+		}
+		int i = start;
+		final boolean negative = bytes[i] == '-';
+		if (negative || bytes[i] == '+') {
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; i < end; i++) {
+			final int b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				if (mantissa >= MAX_EXACT_MANTISSA) {
+					return parseDecoded(bytes, start, end);
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			} else if ((b == ',' || b == '.') && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else {
+				return parseDecoded(bytes, start, end);
+			}
+		}
+		if (digits == 0 || mantissa > MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+			return parseDecoded(bytes, start, end);
+		}
+		// exact operands, so the division is rounded correctly like parseDouble
+		final double value = fractionDigits > 0? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+		return negative? -value : value;
+	}
+
+	private static double parseDecoded(final byte[] bytes, final int start, final int end) {
+		return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.UTF_8).replace(',', '.'));
+	}
+
+	/**
+	 * Parses the ASCII digits of the bytes as one integer, ignoring
+	 * everything else like HTML tags and units, e.g. <code>10000</code> for
+	 * <code>&lt;b&gt;10000&lt;/b&gt; m</code>.
+	 *
+	 * @return the number or {@link Double#NaN}, if the bytes contain no digit
+	 */
+	static double parseDigits(final byte[] bytes, final int from, final int to) {
+		long value = 0;
+		int digits = 0;
+		for (int i = from; i < to; i++) {
+			final int b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				if (value >= MAX_EXACT_MANTISSA) {
+					return parseDigitsDecoded(bytes, from, to);
+				}
+				value = value * 10 + (b - '0');
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+		return value > MAX_EXACT_MANTISSA? parseDigitsDecoded(bytes, from, to) : value;
+	}
+
+	private static double parseDigitsDecoded(final byte[] bytes, final int from, final int to) {
+		final StringBuilder digits = new StringBuilder(to - from);
+		for (int i = from; i < to; i++) {
+			if (bytes[i] >= '0' && bytes[i] <= '9') {
+				digits.append((char) bytes[i]);
+			}
+		}
+		return Double.parseDouble(digits.toString());
+	}
+
+	/**
+	 * @return the index of the first byte after leading white space, like
+	 * 		{@link String#trim()}
+	 */
+	static int trimStart(final byte[] bytes, final int from, final int to) {
+		int start = from;
+		while (start < to && (bytes[start] & 0xff) <= ' ') {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * @return the index after the last byte before trailing white space,
+	 * 		like {@link String#trim()}
+	 */
+	static int trimEnd(final byte[] bytes, final int from, final int to) {
+		int end = to;
+		while (end > from && (bytes[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * @return <code>true</code>, if the bytes equal the other ones
+	 */
+	static boolean equals(final byte[] bytes, final int from, final int to, final byte[] other) {
+		if (to - from != other.length) {
+			return false;
+		}
+		for (int i = 0; i < other.length; i++) {
+			if (bytes[from + i] != other[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
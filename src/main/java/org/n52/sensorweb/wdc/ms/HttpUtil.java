@@ -23,45 +23,242 @@
  */
 package org.n52.sensorweb.wdc.ms;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.n52.sensorweb.wdc.http.ConditionalGetCache;
+import org.n52.sensorweb.wdc.http.HttpResponse;
+import org.n52.sensorweb.wdc.http.PooledHttpClient;
+import org.n52.sensorweb.wdc.metrics.Counter;
+import org.n52.sensorweb.wdc.metrics.Gauge;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class HttpUtil {
-	
-	// 4k buffer
-    private static final int BUFFER_SIZE = 1024 * 4;
-
-    private static final String DOWNLOAD_CHARSET = "UTF-8";
-    
-    private static final Logger LOG = LoggerFactory.getLogger(HttpUtil.class);
-	
+
+	public static final String HTTP_CONNECT_TIMEOUT_MILLIS = "HTTP_CONNECT_TIMEOUT_MILLIS";
+
+	public static final String HTTP_READ_TIMEOUT_MILLIS = "HTTP_READ_TIMEOUT_MILLIS";
+
+	public static final String HTTP_MAX_RESPONSE_BYTES = "HTTP_MAX_RESPONSE_BYTES";
+
+	public static final String HTTP_MAX_CONNECTIONS_PER_HOST = "HTTP_MAX_CONNECTIONS_PER_HOST";
+
+	public static final String HTTP_CACHE_ENABLED = "HTTP_CACHE_ENABLED";
+
+	public static final String HTTP_CACHE_MAX_BYTES = "HTTP_CACHE_MAX_BYTES";
+
+	public static final String HTTP_CACHE_FILE = "HTTP_CACHE_FILE";
+
+	private static final String DEFAULT_CONNECT_TIMEOUT_MILLIS = "10000";
+
+	private static final String DEFAULT_READ_TIMEOUT_MILLIS = "30000";
+
+	// 64k
+	private static final String DEFAULT_MAX_RESPONSE_BYTES = "65536";
+
+	// 1M
+	private static final String DEFAULT_CACHE_MAX_BYTES = "1048576";
+
+	private static final Logger LOG = LoggerFactory.getLogger(HttpUtil.class);
+
+	private static volatile PooledHttpClient client = createClient(new Properties());
+
+	private static final ConcurrentMap<String, DownloadMetrics> DOWNLOAD_METRICS = new ConcurrentHashMap<>();
+
+	/**
+	 * Replaces the client and its response cache used by
+	 * {@link #download(URL, String, String)} if the configuration differs
+	 * from the current one. All collectors share the client, so it is
+	 * configured once from the application configuration by
+	 * {@link org.n52.sensorweb.wdc.WeatherDataCollector}.
+	 *
+	 * @param configuration the application configuration
+	 */
+	public static synchronized void configure(final Properties configuration) {
+		final PooledHttpClient configured = createClient(configuration);
+		if (configured.getConnectTimeoutMillis() != client.getConnectTimeoutMillis()
+				|| configured.getReadTimeoutMillis() != client.getReadTimeoutMillis()
+				|| configured.getMaxResponseBytes() != client.getMaxResponseBytes()) {
+			configured.setCache(client.getCache());
+			client = configured;
+			LOG.info("Using {}", client);
+		}
+		if (Boolean.parseBoolean(configuration.getProperty(HTTP_CACHE_ENABLED, "false"))) {
+			configureCache(configuration);
+		}
+		final String maxConnections = configuration.getProperty(HTTP_MAX_CONNECTIONS_PER_HOST);
+		if (maxConnections != null) {
+			PooledHttpClient.setMaxConnectionsPerHost(Integer.parseInt(maxConnections));
+		}
+	}
+
+	/**
+	 * Restores the default client without response cache.
+	 */
+	static synchronized void reset() {
+		client = createClient(new Properties());
+	}
+
+	private static PooledHttpClient createClient(final Properties configuration) {
+		return new PooledHttpClient(
+				Integer.parseInt(configuration.getProperty(HTTP_CONNECT_TIMEOUT_MILLIS, DEFAULT_CONNECT_TIMEOUT_MILLIS)),
+				Integer.parseInt(configuration.getProperty(HTTP_READ_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS)),
+				Integer.parseInt(configuration.getProperty(HTTP_MAX_RESPONSE_BYTES, DEFAULT_MAX_RESPONSE_BYTES)));
+	}
+
+	private static void configureCache(final Properties configuration) {
+		final long maxBytes = Long.parseLong(configuration.getProperty(HTTP_CACHE_MAX_BYTES, DEFAULT_CACHE_MAX_BYTES));
+		final String fileName = configuration.getProperty(HTTP_CACHE_FILE, "");
+		final File file = fileName.isEmpty()? null : new File(fileName);
+		final ConditionalGetCache current = client.getCache();
+		if (current != null
+				&& current.getMaxBytes() == maxBytes
+				&& (file == null? current.getFile() == null : file.equals(current.getFile()))) {
+			return;
+		}
+		final ConditionalGetCache cache = new ConditionalGetCache(maxBytes, file);
+		cache.load();
+		client.setCache(cache);
+		registerCacheMetrics();
+		LOG.info("Using {}", cache);
+	}
+
+	/**
+	 * Exports the counts of the current cache. The metrics are registered
+	 * once and read whatever cache is configured.
+	 */
+	private static void registerCacheMetrics() {
+		final MetricsRegistry registry = MetricsRegistry.getDefault();
+		registry.counter("wdc_http_cache_not_modified_total", "Responses served from the cache after 304 Not Modified", new Counter.Source() {
+			@Override
+			public long getCount() {
+				final ConditionalGetCache cache = client.getCache();
+				return cache == null? 0 : cache.getNotModified();
+			}
+		});
+		registry.counter("wdc_http_cache_misses_total", "Requests without a cached response", new Counter.Source() {
+			@Override
+			public long getCount() {
+				final ConditionalGetCache cache = client.getCache();
+				return cache == null? 0 : cache.getMisses();
+			}
+		});
+		registry.counter("wdc_http_cache_saved_bytes_total", "Body bytes not transferred due to 304 Not Modified", new Counter.Source() {
+			@Override
+			public long getCount() {
+				final ConditionalGetCache cache = client.getCache();
+				return cache == null? 0 : cache.getBytesSaved();
+			}
+		});
+		registry.gauge("wdc_http_cache_bytes", "Bytes of the cached response bodies", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				final ConditionalGetCache cache = client.getCache();
+				return cache == null? 0 : cache.getBytes();
+			}
+		});
+	}
+
+	/**
+	 * Writes the response cache to its file, if configured.
+	 */
+	public static void persistCache() {
+		final ConditionalGetCache cache = client.getCache();
+		if (cache != null) {
+			cache.persist();
+		}
+	}
+
+	public static PooledHttpClient getClient() {
+		return client;
+	}
+
     /**
      * @param url the URL to the file to download
+     * @param collector the name of the downloading collector, labels the metrics
+     * @param field the field of the file, labels the metrics
      * @return the content of the file as trimmed String. An empty String will be returned, if anything bad happened.
      * @see String#trim()
      */
-    public static String downloadFile(final URL url) {
-    	try (final InputStream is = url.openStream();
-            final ByteArrayOutputStream bout = new ByteArrayOutputStream(BUFFER_SIZE);){
-           
-           final byte data[] = new byte[BUFFER_SIZE];
-           int x = 0;
-           while ((x = is.read(data, 0, BUFFER_SIZE)) >= 0) {
-               bout.write(data, 0, x);
-           }
-
-           final String s = bout.toString(DOWNLOAD_CHARSET);
-
-           return s.trim();
-       } catch (final IOException e) {
-           LOG.error("Could not open stream to " + url.toString(), e);
-           return "";
-       }
-   }
+    public static String downloadFile(final URL url, final String collector, final String field) {
+    	final HttpResponse response = download(url, collector, field);
+    	if (response == null) {
+    		return "";
+    	}
+    	final String body = response.getBodyAsTrimmedString();
+    	response.release();
+    	return body;
+    }
+
+    /**
+     * Downloads the file without decoding its content.
+     *
+     * @param url the URL to the file to download
+     * @param collector the name of the downloading collector, labels the metrics
+     * @param field the field of the file, labels the metrics
+     * @return the successful response or <code>null</code>, if anything bad
+     *         happened. Its body is only valid until the calling thread
+     *         issues the next request or releases it, see {@link HttpResponse}.
+     */
+    public static HttpResponse download(final URL url, final String collector, final String field) {
+    	final DownloadMetrics metrics = getMetrics(collector, field);
+    	try {
+    		final HttpResponse response = client.get(url);
+    		if (!response.isFromCache()) {
+    			metrics.bytes.add(response.getBodyLength());
+    		}
+    		if (!response.isSuccessful()) {
+    			response.release();
+    			metrics.failures.increment();
+    			LOG.error("Could not download '{}'. Response status code: {}", url, response.getStatusCode());
+    			return null;
+    		}
+    		return response;
+    	} catch (final IOException e) {
+    		metrics.failures.increment();
+    		LOG.error("Could not open stream to " + url.toString(), e);
+    		return null;
+    	}
+    }
+
+    private static DownloadMetrics getMetrics(final String collector, final String field) {
+    	final String key = collector + '/' + field;
+    	DownloadMetrics metrics = DOWNLOAD_METRICS.get(key);
+    	if (metrics == null) {
+    		metrics = new DownloadMetrics(collector, field);
+    		final DownloadMetrics existing = DOWNLOAD_METRICS.putIfAbsent(key, metrics);
+    		if (existing != null) {
+    			metrics = existing;
+    		}
+    	}
+    	return metrics;
+    }
+
+    /**
+     * The counters of one field of a collector, kept to avoid looking them up
+     * by labels on every download.
+     */
+    private static final class DownloadMetrics {
+
+    	private final Counter bytes;
+
+    	private final Counter failures;
+
+    	DownloadMetrics(final String collector, final String field) {
+    		final MetricsRegistry registry = MetricsRegistry.getDefault();
+    		bytes = registry.counter("wdc_http_received_bytes_total",
+    				"Bytes of response bodies received, excluding responses served from the cache",
+    				"collector", collector, "field", field);
+    		failures = registry.counter("wdc_http_failures_total",
+    				"Failed downloads: errors and unsuccessful status codes",
+    				"collector", collector, "field", field);
+    	}
+    }
 
 }
@@ -24,8 +24,12 @@
 
 package org.n52.sensorweb.wdc.ms;
 
+import java.io.IOException;
+
 import org.joda.time.DateTime;
 import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetFieldVisitor;
+import org.n52.sensorweb.wdc.csv.CsvFormat;
 
 public class MuensterwetterDataset implements Dataset {
 
@@ -33,36 +37,88 @@ public class MuensterwetterDataset implements Dataset {
 			+ "windSpeedBft,windDirectionDegree,windDirection,windMaxGust,"
 			+ "airPressure,visibility,weatherCode,weatherCodeText,globalRadiation";
 
-	private double temperature;
+	private double temperature = Double.NaN;
 
-    private double relativeHumidity;
+    private double relativeHumidity = Double.NaN;
 
-    private double windSpeedMperSec;
+    private double windSpeedMperSec = Double.NaN;
 
-    private double windSpeedKmh;
+    private double windSpeedKmh = Double.NaN;
 
-    private double windSpeedBft;
+    private double windSpeedBft = Double.NaN;
 
-    private double windDirectionDegree;
+    private double windDirectionDegree = Double.NaN;
 
     private String windDirection;
 
-    private double windMaxGust;
+    private double windMaxGust = Double.NaN;
 
-    private double airPressure;
+    private double airPressure = Double.NaN;
 
-    private double visibility;
+    private double visibility = Double.NaN;
 
     private String weatherCode;
 
     private String weatherCodeText;
 
-    private double globalRadiation;
+    private double globalRadiation = Double.NaN;
 
     private DateTime time;
 
     public MuensterwetterDataset() {}
 
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public double getRelativeHumidity() {
+        return relativeHumidity;
+    }
+
+    public double getWindSpeedMperSec() {
+        return windSpeedMperSec;
+    }
+
+    public double getWindSpeedKmh() {
+        return windSpeedKmh;
+    }
+
+    public double getWindSpeedBft() {
+        return windSpeedBft;
+    }
+
+    public double getWindDirectionDegree() {
+        return windDirectionDegree;
+    }
+
+    public String getWindDirection() {
+        return windDirection;
+    }
+
+    public double getWindMaxGust() {
+        return windMaxGust;
+    }
+
+    public double getAirPressure() {
+        return airPressure;
+    }
+
+    public double getVisibility() {
+        return visibility;
+    }
+
+    public String getWeatherCode() {
+        return weatherCode;
+    }
+
+    public String getWeatherCodeText() {
+        return weatherCodeText;
+    }
+
+    public double getGlobalRadiation() {
+        return globalRadiation;
+    }
+
     public void setTemperature(final double temperatureP) {
         temperature = temperatureP;
     }
@@ -125,23 +181,68 @@ public class MuensterwetterDataset implements Dataset {
         windMaxGust = windMaxGustP;
     }
 
+   	/**
+   	 * Fields that could not be collected, e.g. because their download failed,
+   	 * are left empty.
+   	 */
    	@Override
 	public String toCSVString(){
-		return String.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s",
-				time.toString(),
-				temperature,
-				relativeHumidity,
-				windSpeedMperSec,
-				windSpeedKmh,
-				windSpeedBft,
-				windDirectionDegree,
-				windDirection,
-				windMaxGust,
-				airPressure,
-				visibility,
-				weatherCode,
-				weatherCodeText,
-				globalRadiation);
+		final StringBuilder sb = new StringBuilder(CSV_HEADER.length());
+		try {
+			appendCSV(sb);
+		} catch (final IOException e) {
+			// StringBuilder does not throw IOExceptions
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void appendCSV(final Appendable out) throws IOException {
+		CsvFormat.appendTimestamp(out, time);
+		out.append(',');
+		CsvFormat.appendDouble(out, temperature);
+		out.append(',');
+		CsvFormat.appendDouble(out, relativeHumidity);
+		out.append(',');
+		CsvFormat.appendDouble(out, windSpeedMperSec);
+		out.append(',');
+		CsvFormat.appendDouble(out, windSpeedKmh);
+		out.append(',');
+		CsvFormat.appendDouble(out, windSpeedBft);
+		out.append(',');
+		CsvFormat.appendDouble(out, windDirectionDegree);
+		out.append(',');
+		CsvFormat.appendText(out, windDirection);
+		out.append(',');
+		CsvFormat.appendDouble(out, windMaxGust);
+		out.append(',');
+		CsvFormat.appendDouble(out, airPressure);
+		out.append(',');
+		CsvFormat.appendDouble(out, visibility);
+		out.append(',');
+		CsvFormat.appendText(out, weatherCode);
+		out.append(',');
+		CsvFormat.appendText(out, weatherCodeText);
+		out.append(',');
+		CsvFormat.appendDouble(out, globalRadiation);
+	}
+
+	@Override
+	public void visitFields(final DatasetFieldVisitor visitor) {
+		visitor.visitNumber("temperature", temperature);
+		visitor.visitNumber("relativeHumidity", relativeHumidity);
+		visitor.visitNumber("windSpeedMperSec", windSpeedMperSec);
+		visitor.visitNumber("windSpeedKmh", windSpeedKmh);
+		visitor.visitNumber("windSpeedBft", windSpeedBft);
+		visitor.visitNumber("windDirectionDegree", windDirectionDegree);
+		visitor.visitText("windDirection", windDirection);
+		visitor.visitNumber("windMaxGust", windMaxGust);
+		visitor.visitNumber("airPressure", airPressure);
+		visitor.visitNumber("visibility", visibility);
+		visitor.visitText("weatherCode", weatherCode);
+		visitor.visitText("weatherCodeText", weatherCodeText);
+		visitor.visitNumber("globalRadiation", globalRadiation);
 	}
 
 	@Override
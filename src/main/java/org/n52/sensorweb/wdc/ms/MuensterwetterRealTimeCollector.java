@@ -25,36 +25,77 @@
 package org.n52.sensorweb.wdc.ms;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import org.n52.sensorweb.wdc.DataCollector;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetSink;
+import org.n52.sensorweb.wdc.LastTimeStore;
+import org.n52.sensorweb.wdc.ObservationRingBuffer;
+import org.n52.sensorweb.wdc.RecentDatasets;
+import org.n52.sensorweb.wdc.TextDictionary;
+import org.n52.sensorweb.wdc.ThreadMode;
+import org.n52.sensorweb.wdc.WarmStandby;
+import org.n52.sensorweb.wdc.WeatherDataCollector;
+import org.n52.sensorweb.wdc.columnar.ColumnarSink;
+import org.n52.sensorweb.wdc.csv.CsvArchiveCompressor;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender;
+import org.n52.sensorweb.wdc.flow.DatasetPublisher;
+import org.n52.sensorweb.wdc.http.HttpResponse;
+import org.n52.sensorweb.wdc.metrics.Gauge;
+import org.n52.sensorweb.wdc.metrics.Histogram;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.n52.sensorweb.wdc.rollup.RollupEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-// TODO move all file CSV file handling code and constants to DataCollectionTask class and return only a new Dataset
+// TODO move all file CSV file handling code and constants to DataCollectionTask class
 
-public class MuensterwetterRealTimeCollector implements DataCollector {
+public class MuensterwetterRealTimeCollector implements DataCollector, WarmStandby {
 	
-	private static long run = 1;
+	private final AtomicLong run = new AtomicLong(1);
+
+	/**
+	 * serializes {@link #follow()} and {@link #activate()}, because the
+	 * {@link #observations} must be added by one thread at a time
+	 */
+	private final ReentrantLock followLock = new ReentrantLock();
+
+	private volatile boolean active;
 
 	private static final long MILLIS_PER_MINUTE = 60 * 1000;
 
 	private static final String DATE_FORMAT_data_file_extension = "DATE_FORMAT_data_file_extension";
 
+	/**
+	 * the file of former versions, migrated to {@value #LAST_TIME_STATE_FILE}
+	 */
 	private static final String LAST_TIME_FILE = "lastTime.52n";
 
+	private static final String LAST_TIME_STATE_FILE = "lastTimes.52n";
+
+	private static final String DATA_FILE_PREFIX = "DATA_FILE_";
+
 	private static final String DATA_FIELD_TIME = "DATA_FILE_time";
 
 	private static final String DATA_FIELD_TIME_ZONE = "DATA_FILE_timeZone";
@@ -101,6 +142,45 @@ public class MuensterwetterRealTimeCollector implements DataCollector {
 
 	private static final String LAST_TIME_FILE_FOLDER = "LAST_TIME_FILE_folder";
 
+	private static final String CSV_DURABILITY = "CSV_DURABILITY";
+
+	private static final String CSV_FSYNC_EVERY_RECORDS = "CSV_FSYNC_EVERY_RECORDS";
+
+	private static final String CSV_FSYNC_INTERVAL_MILLIS = "CSV_FSYNC_INTERVAL_MILLIS";
+
+	private static final String CSV_COMPRESSION = "CSV_COMPRESSION";
+
+	private static final String OUTPUT_SINKS = "OUTPUT_SINKS";
+
+	private static final String OUTPUT_SINK_CSV = "csv";
+
+	private static final String OUTPUT_SINK_COLUMNAR = "columnar";
+
+	private static final String COLUMNAR_FOLDER = "COLUMNAR_folder";
+
+	private static final String COLUMNAR_ROWS_PER_DAY = "COLUMNAR_ROWS_PER_DAY";
+
+	private static final String ROLLUP_FIELDS = "ROLLUP_FIELDS";
+
+	private static final String ROLLUP_DIRECTION_FIELDS = "ROLLUP_DIRECTION_FIELDS";
+
+	private static final String RECENT_DATASETS = "RECENT_DATASETS";
+
+	private static final String OBSERVATION_BUFFER_DAYS = "OBSERVATION_BUFFER_DAYS";
+
+	private static final String FETCH_MODE = "FETCH_MODE";
+
+	private static final String FETCH_MODE_CONCURRENT = "concurrent";
+
+	private static final String FETCH_THREADS = "FETCH_THREADS";
+
+	private static final String FETCH_DEADLINE_MILLIS = "FETCH_DEADLINE_MILLIS";
+
+	/**
+	 * removed from the content of the time zone file, e.g. <code>(UTC+1)</code>
+	 */
+	private static final Pattern TIME_ZONE_DECORATION = Pattern.compile("[\\(\\)UTC]");
+
     private static Logger LOG = LoggerFactory.getLogger(MuensterwetterRealTimeCollector.class);
 
     protected URL dataUrl;
@@ -109,50 +189,142 @@ public class MuensterwetterRealTimeCollector implements DataCollector {
 
 	private Properties props;
 
-	private DateTimeFormatter dateTimeFormatter;
+	private TimestampParser timestampParser;
+
+	private TimeZoneResolver timeZoneResolver;
+
+	private List<Field> fields;
+
+	private ExecutorService fetchExecutor;
+
+	private long fetchDeadlineMillis;
+
+	private volatile DateTime timeOfLatestData;
+
+	private List<DatasetSink> sinks;
+
+	private CsvArchiveReader archive;
+
+	private CsvArchiveCompressor compressor;
+
+	private RollupEngine rollups;
+
+	private RecentDatasets recentDatasets;
+
+	private ObservationRingBuffer observations;
+
+	private DatasetPublisher publisher;
+
+	/**
+	 * interns the texts of the datasets, persisted if the columnar sink is
+	 * used, see {@link #openTextDictionary()}
+	 */
+	private volatile TextDictionary texts;
+
+	private ColumnarSink columnarSink;
+
+	private String name;
+
+	private LastTimeStore lastTimeStore;
+
+	private Histogram timeDownloadTime;
+
+	private Histogram timeZoneDownloadTime;
+
+	private Histogram timestampParseTime;
+
+	private Histogram appendTime;
+
+	private Histogram storeLastTimeTime;
+
+	private Histogram dataLag;
+
+	private Gauge lastDataLag;
+
+	/**
+	 * the time of the latest dataset returned by {@link #collectWeatherData()},
+	 * which might not be stored yet, or <code>null</code> to use the stored
+	 * time
+	 */
+	private DateTime lastCollectedTime;
 
     @Override
-	public void collectWeatherData() {
+	public MuensterwetterDataset collectWeatherData() {
         LOG.info("** START parsing ** Run #" + getRun());
 
         final DateTime lastTimeOfMeasurement = getLastTimeOfMeasurement();
 		final MuensterwetterDataset data = getData(lastTimeOfMeasurement);
 
+        if (lastTimeOfMeasurement.getMillis() > 0) {
+        	timeOfLatestData = lastTimeOfMeasurement;
+        }
+        MuensterwetterDataset collected = null;
         if (data.getTime().isAfter(lastTimeOfMeasurement)) {
-        	if (appendData(data)) {
-        		storeLastTime(data.getTime());
-        	} else {
-        		LOG.error("New data could not be stored to file. Please fix it!");
+        	synchronized (this) {
+        		lastCollectedTime = data.getTime();
         	}
+        	timeOfLatestData = data.getTime();
+        	collected = data;
         } else {
         	LOG.info("No newer data available. Last timestamp: '{}'. Time now: '{}'",
         			lastTimeOfMeasurement.toString(),
         			DateTime.now(DateTimeZone.UTC));
         }
 
+        HttpUtil.persistCache();
         LOG.info("** DONE  parsing ** Run #" + getAndIncrementRun());
+        return collected;
     }
 
-	private synchronized String getAndIncrementRun() {
-		String tmp = Long.toString(run);
-		run++;
-		return tmp;
+	@Override
+	public boolean store(final List<? extends Dataset> datasets) {
+		if (datasets.isEmpty()) {
+			return true;
+		}
+		final DateTime last = datasets.get(datasets.size() - 1).getTime();
+		final long appendStart = System.nanoTime();
+		final boolean appended = appendData(datasets);
+		appendTime.recordSince(appendStart);
+		if (!appended) {
+			LOG.error("New data could not be stored to file. Please fix it!");
+			synchronized (this) {
+				// collect it again with the next run, unless newer data was collected meanwhile
+				if (last.equals(lastCollectedTime)) {
+					lastCollectedTime = null;
+				}
+			}
+			return false;
+		}
+		final long now = System.currentTimeMillis();
+		for (final Dataset dataset : datasets) {
+			final double lagSeconds = (now - dataset.getTime().getMillis()) / 1000.0;
+			dataLag.record(lagSeconds);
+			lastDataLag.set(lagSeconds);
+			recentDatasets.add(dataset);
+			observations.add(dataset);
+			publisher.publish(dataset);
+		}
+		final long storeStart = System.nanoTime();
+		storeLastTime(last);
+		storeLastTimeTime.recordSince(storeStart);
+		return true;
+	}
+
+	private String getAndIncrementRun() {
+		return Long.toString(run.getAndIncrement());
 	}
 
-	private synchronized String getRun() {
-		return Long.toString(run);
+	private String getRun() {
+		return Long.toString(run.get());
 	}
 
 	private void storeLastTime(final DateTime time)	{
-		try (
-				FileWriter fw = new FileWriter(getLastTimeFile());
-				BufferedWriter bw = new BufferedWriter(fw);
-				){
-			bw.write(time.toString());
+		try {
+			lastTimeStore.put(name, time);
 		} catch (final IOException e) {
 			LOG.error("Could not save timestamp '{}' of last data set to file '{}'. Switch log level to debug to see the exception.",
 					time.toString(),
-					getLastTimeFile());
+					lastTimeStore.getFile());
 			LOG.debug("Exception thrown!",e);
 		}
 	}
@@ -161,252 +333,534 @@ public class MuensterwetterRealTimeCollector implements DataCollector {
 		return props.getProperty(LAST_TIME_FILE_FOLDER, "." + File.separatorChar) + LAST_TIME_FILE;
 	}
 
-	private DateTime getLastTimeOfMeasurement() {
+	DateTime getLastTimeOfMeasurement() {
+		synchronized (this) {
+			if (lastCollectedTime != null) {
+				return lastCollectedTime;
+			}
+		}
+		final DateTime lastTime = lastTimeStore.get(name);
+		if (lastTime == null) {
+			 // this might result in a bug when dealing with data from before 1970-01-01
+			return new DateTime(0).toDateTime(DateTimeZone.UTC);
+		}
+		return lastTime;
+	}
+
+	/**
+	 * Takes the last time from the file of former versions or, if not
+	 * available, from the last record of the CSV files.
+	 */
+	private void recoverLastTime() {
+		DateTime lastTime = readLegacyLastTime();
+		String source = getLastTimeFile();
+		if (lastTime == null && archive != null) {
+			try {
+				lastTime = archive.getLastRecordTime();
+				source = archive.toString();
+			} catch (final IOException e) {
+				LOG.error("Could not read the last record of {}. Error message: {}", archive, e.getMessage());
+				LOG.debug("Exception thrown!", e);
+			}
+		}
+		if (lastTime == null) {
+			LOG.info("No last time of collector '{}' found. It will be stored in '{}' after successful download of weather data.",
+					name,
+					lastTimeStore.getFile());
+			return;
+		}
+		LOG.info("Recovered last time '{}' of collector '{}' from '{}'", lastTime, name, source);
+		storeLastTime(lastTime);
+		final File legacyFile = new File(getLastTimeFile());
+		if (lastTime.equals(lastTimeStore.get(name)) && legacyFile.exists() && !legacyFile.delete()) {
+			LOG.warn("Could not delete migrated file '{}'.", legacyFile);
+		}
+	}
+
+	/**
+	 * @return the time stored by former versions in {@value #LAST_TIME_FILE}
+	 * 		or <code>null</code>
+	 */
+	private DateTime readLegacyLastTime() {
+		final File file = new File(getLastTimeFile());
+		if (!file.exists()) {
+			return null;
+		}
 		String lastTimestamp = "";
-		// get last record from data file
 		try (
-				FileReader fr = new FileReader(getLastTimeFile());
+				FileReader fr = new FileReader(file);
 				BufferedReader br = new BufferedReader(fr);
 				){
 			lastTimestamp = br.readLine();
-		} catch (final FileNotFoundException e1) {
-			LOG.info("File '{}' could not be found. A new file will be created after successful download of weather data.",getLastTimeFile());
 		} catch (final IOException e1) {
 			LOG.error("Exception thrown: {}", e1.getMessage(), e1);
 		}
 		if (lastTimestamp == null || lastTimestamp.isEmpty()) {
-			 // this might result in a bug when dealing with data from before 1970-01-01
-			return new DateTime(0).toDateTime(DateTimeZone.UTC);
+			return null;
 		}
-		// get date from last line
-		DateTime lastTime;
 		try {
-			lastTime = new DateTime(lastTimestamp).toDateTime(DateTimeZone.UTC);
+			return new DateTime(lastTimestamp).toDateTime(DateTimeZone.UTC);
 		} catch (final IllegalArgumentException|UnsupportedOperationException e) {
-			LOG.error("LastTimestamp '{}' could not be parsed to a jodatime...DateTime. Current value '{}'. Error message: '{}' (enable debug level logging for more details). Default value 1970-01-01 will be used.",
+			LOG.error("LastTimestamp '{}' could not be parsed to a jodatime...DateTime. Current value '{}'. Error message: '{}' (enable debug level logging for more details).",
 					DATA_LAST_TIME,
 					lastTimestamp,
 					e.getMessage());
 			LOG.debug("Exception", e);
-			 // this might result in a bug when dealing with data from before 1970-01-01
-			lastTime = new DateTime(0).toDateTime(DateTimeZone.UTC);
+			return null;
 		}
-		return lastTime;
 	}
 
-	private boolean appendData(final MuensterwetterDataset dataset) {
-		// 1 create file name
-		// 1.1 create file name
-		final String fileName = getFileName(dataset.getTime());
-		final File outputFile = new File(fileName);
-
-		// 1.2 check if file exists -> if not => create new file
-		if (!outputFile.exists()) {
+	boolean appendData(final List<? extends Dataset> datasets) {
+		boolean appended = true;
+		for (final DatasetSink sink : sinks) {
 			try {
-				outputFile.createNewFile();
-				writeCSVHeader(outputFile);
-			} catch (final IOException e) {
-				LOG.error("CSV output file '{}' could not be created. Aborting storing of parsed values: {}. Error Message: {} (enable debug level to see exception).",
-						outputFile.getAbsolutePath(),
-						dataset,
+				sink.appendAll(datasets);
+			} catch (final IOException | RuntimeException e) {
+				// a failing sink must neither skip the others nor the retry
+				LOG.error("Could not append {} to {}. Error Message: {} (enable debug level to see exception).",
+						datasets,
+						sink,
 						e.getMessage());
-				LOG.debug("Exception thrown!", e);
-				return false;
+				LOG.debug("Exception thrown!",e);
+				appended = false;
 			}
 		}
+		return appended;
+	}
 
-		// 2 append new line
-		try (final BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile,true))){
-			bw.newLine();
-			bw.write(dataset.toCSVString());
-			bw.flush();
+	private List<DatasetSink> createSinks() {
+		final List<DatasetSink> list = new ArrayList<>();
+		for (final String sink : props.getProperty(OUTPUT_SINKS, OUTPUT_SINK_CSV).split(",")) {
+			if (sink.trim().equalsIgnoreCase(OUTPUT_SINK_CSV)) {
+				list.add(createAppender());
+			} else if (sink.trim().equalsIgnoreCase(OUTPUT_SINK_COLUMNAR)) {
+				list.add(createColumnarSink());
+			} else if (!sink.trim().isEmpty()) {
+				LOG.error("Unknown output sink '{}' ignored. Supported: '{}', '{}'.",
+						sink,
+						OUTPUT_SINK_CSV,
+						OUTPUT_SINK_COLUMNAR);
+			}
 		}
-		catch (final IOException e) {
-			LOG.error("Could not append new line '{}' to CSV file '{}' in folder '{}'. Enable log level debug to see more details.",
-					dataset.toCSVString(),
-					outputFile.getName(),
-					outputFile.getAbsolutePath());
-			LOG.debug("Exception thrown!",e);
-			return false;
+		rollups = createRollupEngine();
+		if (rollups != null) {
+			list.add(rollups);
 		}
-		return true;
+		return list;
 	}
 
-	private void writeCSVHeader(final File outputFile) {
-		try (FileWriter fw = new FileWriter(outputFile);
-				BufferedWriter bw = new BufferedWriter(fw);){
-			bw.write(new MuensterwetterDataset().getCSVHeader());
-			bw.flush();
-		} catch (final IOException e) {
-			// TODO Auto-generated catch block generated on 25.11.2013 around 11:34:15
-			LOG.error("Exception thrown: {}", e.getMessage(), e);
+	/**
+	 * @return the engine aggregating the {@value #ROLLUP_FIELDS} or
+	 * 		<code>null</code>, if none are configured
+	 */
+	private RollupEngine createRollupEngine() {
+		final List<String> rollupFields = split(props.getProperty(ROLLUP_FIELDS,
+				"temperature,relativeHumidity,windSpeedMperSec,windDirectionDegree,windMaxGust,airPressure,globalRadiation"));
+		if (rollupFields.isEmpty()) {
+			return null;
 		}
-	}
-
-	private String getFileName(final DateTime date)	{
-		final String fileNameDatePart = DateTimeFormat.forPattern(props.getProperty(DATE_FORMAT_data_file_extension)).print(date);
 		final String userDefinedPrefix = props.getProperty(OUTPUT_FILENAME, "prefix_not_defined");
 		final String userDefinePath = props.getProperty(OUTPUT_FOLDER, "." + File.separatorChar);
-		final String fileName = userDefinePath + userDefinedPrefix + "_" + fileNameDatePart + ".csv";
-		return fileName;
+		return new RollupEngine(userDefinePath + userDefinedPrefix + "_",
+				rollupFields,
+				split(props.getProperty(ROLLUP_DIRECTION_FIELDS, "windDirectionDegree")));
 	}
 
-	private MuensterwetterDataset getData(final DateTime lastTime) {
-        final MuensterwetterDataset data = new MuensterwetterDataset();
+	private static List<String> split(final String list) {
+		final List<String> values = new ArrayList<>();
+		for (final String value : list.split(",")) {
+			if (!value.trim().isEmpty()) {
+				values.add(value.trim());
+			}
+		}
+		return values;
+	}
 
-        getTimestamp(data, lastTime);
-        // skip requesting if data is not new
-        if (!data.getTime().isAfter(lastTime)) {
-        	return data;
-        }
+	/**
+	 * Aggregates the records of the CSV files missing in the rollups, e.g.
+	 * after enabling them.
+	 */
+	private void rebuildRollups() {
+		if (rollups == null || archive == null) {
+			return;
+		}
+		try {
+			rollups.rebuild(archive);
+		} catch (final IOException e) {
+			LOG.error("Could not rebuild the rollups from {}. Error message: {}", archive, e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+	}
 
-        // 2m above ground
-        final String airTempUrl = dataUrl + props.getProperty(DATA_FIELD_AIR_TEMP);
-        try {
-        	data.setTemperature(getDoubleValueFromUrl(airTempUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	private ColumnarSink createColumnarSink() {
+		columnarSink = new ColumnarSink(getColumnarPathPrefix(),
+				Integer.parseInt(props.getProperty(COLUMNAR_ROWS_PER_DAY, "4096")));
+		return columnarSink;
+	}
 
-        final String relativeHumidityUrl = dataUrl + props.getProperty(DATA_FIELD_REL_HUM);
-        try {
-            data.setRelativeHumidity(getDoubleValueFromUrl(relativeHumidityUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	private String getColumnarPathPrefix() {
+		final String userDefinedPrefix = props.getProperty(OUTPUT_FILENAME, "prefix_not_defined");
+		String userDefinePath = props.getProperty(COLUMNAR_FOLDER, "");
+		if (userDefinePath.isEmpty()) {
+			userDefinePath = props.getProperty(OUTPUT_FOLDER, "." + File.separatorChar);
+		}
+		return userDefinePath + userDefinedPrefix + "_";
+	}
 
-        // 72m above NN
-        final String airPressureUrl = dataUrl + props.getProperty(DATA_FIELD_AIR_PRESSURE);
-        try {
-            data.setAirPressure(getDoubleValueFromUrl(airPressureUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	/**
+	 * Persists the codes of the texts next to the segments of the columnar
+	 * sink, so they are the same in all segments. Opened by the active
+	 * process only, as it appends to the file.
+	 */
+	private void openTextDictionary() {
+		if (columnarSink == null) {
+			return;
+		}
+		final File file = ColumnarSink.getDictionaryFile(getColumnarPathPrefix());
+		try {
+			final TextDictionary persisted = TextDictionary.open(file);
+			texts = persisted;
+			columnarSink.setDictionary(persisted);
+		} catch (final IOException e) {
+			LOG.error("Could not open the text dictionary '{}'. The segments keep their own text codes. Error message: {}",
+					file,
+					e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+	}
 
-        // 7.7m above ground
-        final String windSpeedMperSecUrl = dataUrl + props.getProperty(DATA_FIELD_WIND_SPEED);
-        try {
-            data.setWindSpeedMperSec(getDoubleValueFromUrl(windSpeedMperSecUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	private RollingCsvAppender createAppender() {
+		final String userDefinedPrefix = props.getProperty(OUTPUT_FILENAME, "prefix_not_defined");
+		final String userDefinePath = props.getProperty(OUTPUT_FOLDER, "." + File.separatorChar);
+		archive = new CsvArchiveReader(userDefinePath + userDefinedPrefix + "_",
+				props.getProperty(DATE_FORMAT_data_file_extension));
+		final RollingCsvAppender appender = new RollingCsvAppender(userDefinePath + userDefinedPrefix + "_",
+				props.getProperty(DATE_FORMAT_data_file_extension),
+				new MuensterwetterDataset().getCSVHeader(),
+				RollingCsvAppender.Durability.fromString(props.getProperty(CSV_DURABILITY, "flush")),
+				Integer.parseInt(props.getProperty(CSV_FSYNC_EVERY_RECORDS, "1")),
+				Long.parseLong(props.getProperty(CSV_FSYNC_INTERVAL_MILLIS, "0")));
+		if (Boolean.parseBoolean(props.getProperty(CSV_COMPRESSION, "false"))) {
+			compressor = new CsvArchiveCompressor(archive, name);
+			appender.setRollListener(compressor);
+		} else {
+			appender.setRollListener(archive);
+		}
+		return appender;
+	}
 
-        final String windSpeedKmhUrl = dataUrl + props.getProperty(DATA_FIELD_WIND_SPEED_KMH);
-        try {
-            data.setWindSpeedKmh(getDoubleValueFromUrl(windSpeedKmhUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	MuensterwetterDataset getData(final DateTime lastTime) {
+		final MuensterwetterDataset data = new MuensterwetterDataset();
 
-        final String windSpeedBeaufortUrl = dataUrl + props.getProperty(DATA_FIELD_WIND_SPEED_BFT);
-        try {
-            data.setWindSpeedBft(getDoubleValueFromUrl(windSpeedBeaufortUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+		getTimestamp(data, lastTime);
+		// skip requesting if data is not new
+		if (!data.getTime().isAfter(lastTime)) {
+			return data;
+		}
 
-        final String maxWindGustLast10minUrl = dataUrl + props.getProperty(DATA_FIELD_WIND_SPEED_MAX_TEN_MIN);
-        try {
-            data.setWindMaxGust(getDoubleValueFromUrl(maxWindGustLast10minUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+		if (fetchExecutor == null) {
+			getFieldsSequential(data);
+		} else {
+			getFieldsConcurrent(data);
+		}
+		LOG.debug("Created new Muensterwetter Dataset: {}", data.toString());
+		return data;
+	}
 
-        final String windDirectionUrl = dataUrl + props.getProperty(DATA_FIELD_WIND_DIR);
-        try {
-            data.setWindDirection(downloadFile(windDirectionUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	private void getFieldsSequential(final MuensterwetterDataset data) {
+		for (final Field field : fields) {
+			try {
+				final HttpResponse response = download(field.getUrl(), field.getName(), field.downloadTime);
+				try {
+					field.apply(data, response);
+				} finally {
+					release(response);
+				}
+			} catch (final MalformedURLException e) {
+				LOG.error("Exception thrown: ",e);
+			}
+		}
+	}
 
-        final String windDirectionDegreeUrl = dataUrl + props.getProperty(DATA_FIELD_WIND_DIR_DEG);
-        try {
-            data.setWindDirectionDegree(getDoubleValueFromUrl(windDirectionDegreeUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	/**
+	 * Issues all field requests at once and waits at most {@link #fetchDeadlineMillis}
+	 * for them. Fields not downloaded in time or failing are left empty.
+	 * <p>
+	 * Each field is parsed by the thread downloading it, as the body is only
+	 * valid until its next request. Fields parsed after the deadline are
+	 * discarded.
+	 */
+	private void getFieldsConcurrent(final MuensterwetterDataset data) {
+		final AtomicBoolean accepting = new AtomicBoolean(true);
+		final List<Callable<Void>> downloads = new ArrayList<>(fields.size());
+		for (final Field field : fields) {
+			downloads.add(new Callable<Void>() {
+				@Override
+				public Void call() throws MalformedURLException {
+					final HttpResponse response = download(field.getUrl(), field.getName(), field.downloadTime);
+					try {
+						synchronized (accepting) {
+							if (accepting.get()) {
+								field.apply(data, response);
+							}
+						}
+					} finally {
+						release(response);
+					}
+					return null;
+				}
+			});
+		}
+		final List<Future<Void>> results;
+		try {
+			results = fetchExecutor.invokeAll(downloads, fetchDeadlineMillis, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			LOG.error("Interrupted while downloading fields. Skipping all fields of this run.");
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			synchronized (accepting) {
+				accepting.set(false);
+			}
+		}
+		for (int i = 0; i < results.size(); i++) {
+			final Field field = fields.get(i);
+			final Future<Void> result = results.get(i);
+			if (result.isCancelled()) {
+				LOG.error("Field '{}' could not be downloaded within {}ms. It will be left empty.",
+						field.getUrl(),
+						fetchDeadlineMillis);
+				continue;
+			}
+			try {
+				result.get();
+			} catch (final ExecutionException e) {
+				LOG.error("Field '{}' could not be downloaded. It will be left empty. Error message: {}",
+						field.getUrl(),
+						e.getCause().getMessage());
+				LOG.debug("Exception thrown!", e.getCause());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
 
-        final String globalRadiationUrl = dataUrl + props.getProperty(DATA_FIELD_GLOBAL_RADIATION);
-        try {
-            data.setGlobalRadiation(getDoubleValueFromUrl(globalRadiationUrl));
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	private List<Field> createFields() {
+		final List<Field> list = new ArrayList<>();
+		// 2m above ground
+		list.add(new Field(DATA_FIELD_AIR_TEMP) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setTemperature(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_REL_HUM) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setRelativeHumidity(parseDecimal(response));
+			}
+		});
+		// 72m above NN
+		list.add(new Field(DATA_FIELD_AIR_PRESSURE) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setAirPressure(parseDecimal(response));
+			}
+		});
+		// 7.7m above ground
+		list.add(new Field(DATA_FIELD_WIND_SPEED) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWindSpeedMperSec(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WIND_SPEED_KMH) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWindSpeedKmh(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WIND_SPEED_BFT) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWindSpeedBft(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WIND_SPEED_MAX_TEN_MIN) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWindMaxGust(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WIND_DIR) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWindDirection(getText(response, "windDirection"));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WIND_DIR_DEG) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWindDirectionDegree(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_GLOBAL_RADIATION) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setGlobalRadiation(parseDecimal(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_VISIBILITY) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setVisibility(parseDigits(response));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WEATHER_CODE) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWeatherCode(getText(response, "weatherCode"));
+			}
+		});
+		list.add(new Field(DATA_FIELD_WEATHER_CODE_TEXT_DE) {
+			@Override
+			void apply(final MuensterwetterDataset data, final HttpResponse response) {
+				data.setWeatherCodeText(getText(response, "weatherCodeText"));
+			}
+		});
+		return list;
+	}
 
-        final String visibilityUrl = dataUrl + props.getProperty(DATA_FIELD_VISIBILITY);
-        try {
-            final double d = Double.parseDouble(downloadFile(visibilityUrl).replaceAll("[^\\d]", ""));
-            data.setVisibility(d);
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	/**
+	 * @return the number in the response, e.g. <code>1013,2</code>, or
+	 * 		{@link Double#NaN} if the download failed or is no number
+	 */
+	private static double parseDecimal(final HttpResponse response) {
+		if (response == null) {
+			return Double.NaN;
+		}
+		try {
+			return ByteParsers.parseDecimal(response.getBody(), 0, response.getBodyLength());
+		} catch (final NumberFormatException e) {
+			LOG.error("Value '{}' could not be parsed to a number. Field will be left empty.",
+					response.getBodyAsTrimmedString());
+			return Double.NaN;
+		}
+	}
 
-        final String weatherCodeUrl = dataUrl + props.getProperty(DATA_FIELD_WEATHER_CODE);
-        try {
-            final String s = downloadFile(weatherCodeUrl);
-            data.setWeatherCode(s);
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
+	/**
+	 * @return the digits in the response as one number, e.g.
+	 * 		<code>10000</code> for <code>&lt;b&gt;10000&lt;/b&gt; m</code>, or
+	 * 		{@link Double#NaN} if the download failed
+	 */
+	private static double parseDigits(final HttpResponse response) {
+		return response == null? Double.NaN : ByteParsers.parseDigits(response.getBody(), 0, response.getBodyLength());
+	}
 
-        final String weatherCodeDescrUrl = dataUrl + props.getProperty(DATA_FIELD_WEATHER_CODE_TEXT_DE);
-        try {
-            final String s = downloadFile(weatherCodeDescrUrl);
-            data.setWeatherCodeText(s);
-        } catch (final MalformedURLException e) {
-            LOG.error("Exception thrown: ",e);
-        }
-        LOG.debug("Created new Muensterwetter Dataset: {}", data.toString());
-        return data;
-    }
+	private static String getText(final HttpResponse response) {
+		return response == null? "" : response.getBodyAsTrimmedString();
+	}
 
-	private double getDoubleValueFromUrl(final String airTempUrl) throws MalformedURLException {
-		String s = downloadFile(airTempUrl);
-		s = s.replace(",", ".");
-		return Double.parseDouble(s);
+	/**
+	 * @return the canonical instance of the trimmed text of the response,
+	 * 		decoded only if it is new, see {@link TextDictionary}
+	 */
+	private String getText(final HttpResponse response, final String field) {
+		if (response == null) {
+			return texts.intern(field, "");
+		}
+		final byte[] body = response.getBody();
+		final int start = ByteParsers.trimStart(body, 0, response.getBodyLength());
+		return texts.intern(field, body, start, ByteParsers.trimEnd(body, start, response.getBodyLength()));
 	}
 
 	private void getTimestamp(final MuensterwetterDataset data, final DateTime lastTime) {
 		final String timeUrl = dataUrl + props.getProperty(DATA_FIELD_TIME);
 		final String timeZoneUrl = dataUrl + props.getProperty(DATA_FIELD_TIME_ZONE);
         try {
-            final String t = downloadFile(timeUrl);
-
-            String tzId = downloadFile(timeZoneUrl);
-            if (!tzId.isEmpty()) {
-            	tzId = String.format(props.getProperty(DATA_FILE_TIME_ZONE_PARSE_PATTERN),
-            			tzId.replaceAll("[\\(\\)UTC]",""));
-            	if (tzId.contains("+")) {
-            		tzId = tzId.replace('+', '-');
-            	} else {
-            		tzId = tzId.replace('-', '+');
-            	}
+        	// the zone first: the body of a response is only valid until the next request
+            final HttpResponse zone = download(timeZoneUrl, "timeZone", timeZoneDownloadTime);
+            final DateTimeZone localZone;
+            try {
+            	localZone = zone == null?
+            			DateTimeZone.UTC : timeZoneResolver.resolve(zone.getBody(), 0, zone.getBodyLength());
+            } finally {
+            	release(zone);
             }
-            
-            DateTimeZone localZone = DateTimeZone.UTC;
-
-            if (DateTimeZone.getAvailableIDs().contains(tzId)) {
-            	localZone = DateTimeZone.forID(tzId);
-            } else {
-            	LOG.info("Timezone id '{}' is not supported by Jodatime. Please check "
-            			+ "'http://www.joda.org/joda-time/timezones.html'.",
-            			tzId);
-            }
-            if (t == null || t.isEmpty()) {
-            	LOG.error("Timestamp string '{}' could not be parsed. Stop this collection run",t);
-            	// work around to skip processing because the timestamp of the dataset is not newer than last time
-            	data.setTime(lastTime);
+            final HttpResponse t = download(timeUrl, "time", timeDownloadTime);
+            try {
+            	if (t == null || ByteParsers.trimStart(t.getBody(), 0, t.getBodyLength()) == t.getBodyLength()) {
+            		LOG.error("Timestamp string '{}' could not be parsed. Stop this collection run", getText(t));
+            		// work around to skip processing because the timestamp of the dataset is not newer than last time
+            		data.setTime(lastTime);
+            		return;
+            	}
+            	final long parseStart = System.nanoTime();
+            	data.setTime(timestampParser.parse(t.getBody(), 0, t.getBodyLength(), localZone));
+            	timestampParseTime.recordSince(parseStart);
+            } finally {
+            	release(t);
             }
-            DateTime date = dateTimeFormatter.withZone(localZone).parseDateTime(t).toDateTime(DateTimeZone.UTC);
-            data.setTime(date);
 
         } catch (final UnsupportedOperationException|IllegalArgumentException|MalformedURLException e) {
             LOG.error("Exception thrown: ",e);
         }
 	}
 
-	protected String downloadFile(final String timeUrl) throws MalformedURLException {
-		return HttpUtil.downloadFile(new URL(timeUrl));
+	/**
+	 * @param value the content of the time zone file, e.g. <code>(UTC+1)</code>
+	 * @param parsePattern see <code>DATA_FILE_TIME_ZONE_PARSE_PATTERN</code>
+	 * @return the matching zone or UTC if it is not supported by Jodatime
+	 */
+	static DateTimeZone parseTimeZone(final String value, final String parsePattern) {
+		String tzId = value;
+		if (!tzId.isEmpty()) {
+			tzId = String.format(parsePattern, TIME_ZONE_DECORATION.matcher(tzId).replaceAll(""));
+			if (tzId.contains("+")) {
+				tzId = tzId.replace('+', '-');
+			} else {
+				tzId = tzId.replace('-', '+');
+			}
+		}
+		if (DateTimeZone.getAvailableIDs().contains(tzId)) {
+			return DateTimeZone.forID(tzId);
+		}
+		LOG.info("Timezone id '{}' is not supported by Jodatime. Please check "
+				+ "'http://www.joda.org/joda-time/timezones.html'.",
+				tzId);
+		return DateTimeZone.UTC;
+	}
+
+	DateTime parseTimestamp(final String value, final DateTimeZone localZone) {
+		return timestampParser.parse(value, localZone);
+	}
+
+	private HttpResponse download(final String url, final String field, final Histogram downloadTime) throws MalformedURLException {
+		final long start = System.nanoTime();
+		try {
+			return downloadFile(url, field);
+		} finally {
+			downloadTime.recordSince(start);
+		}
+	}
+
+	/**
+	 * Returns the receive buffer of the response, if any, see
+	 * {@link HttpResponse#release()}.
+	 */
+	private static void release(final HttpResponse response) {
+		if (response != null) {
+			response.release();
+		}
+	}
+
+	/**
+	 * @return the successful response or <code>null</code>, see
+	 * 		{@link HttpUtil#download(URL, String, String)}
+	 */
+	protected HttpResponse downloadFile(final String url, final String field) throws MalformedURLException {
+		return HttpUtil.download(new URL(url), name, field);
 	}
 
     @Override
@@ -414,6 +868,36 @@ public class MuensterwetterRealTimeCollector implements DataCollector {
         return intervalMillis;
     }
 
+	@Override
+	public DateTime getTimeOfLatestData() {
+		return timeOfLatestData;
+	}
+
+	@Override
+	public CsvArchiveReader getArchive() {
+		return archive;
+	}
+
+	@Override
+	public RollupEngine getRollups() {
+		return rollups;
+	}
+
+	@Override
+	public RecentDatasets getRecentDatasets() {
+		return recentDatasets;
+	}
+
+	@Override
+	public ObservationRingBuffer getObservations() {
+		return observations;
+	}
+
+	@Override
+	public DatasetPublisher getPublisher() {
+		return publisher;
+	}
+
     @Override
 	public String toString() {
         return "MuensterwetterRealTimeCollector [interval=" + intervalMillis + ", dataUrl=" + dataUrl + "]";
@@ -426,6 +910,12 @@ public class MuensterwetterRealTimeCollector implements DataCollector {
 
 	@Override
 	public void init() {
+		initStandby();
+		start();
+	}
+
+	@Override
+	public void initStandby() {
 		try {
             dataUrl = new URL(props.getProperty(DATA_URL));
         } catch (final MalformedURLException e) {
@@ -433,7 +923,208 @@ public class MuensterwetterRealTimeCollector implements DataCollector {
         }
 
         intervalMillis = Long.parseLong(props.getProperty(DATA_INTERVAL_MIN)) * MILLIS_PER_MINUTE;
-        dateTimeFormatter = DateTimeFormat.forPattern(props.getProperty(DATE_FORMAT_TIME_FILE));
+        timestampParser = new TimestampParser(props.getProperty(DATE_FORMAT_TIME_FILE));
+        timeZoneResolver = new TimeZoneResolver(props.getProperty(DATA_FILE_TIME_ZONE_PARSE_PATTERN));
+        fields = createFields();
+        name = props.getProperty(WeatherDataCollector.COLLECTOR_NAME, "default");
+        createMetrics(name);
+        sinks = createSinks();
+        lastTimeStore = LastTimeStore.forFile(new File(
+        		props.getProperty(LAST_TIME_FILE_FOLDER, "." + File.separatorChar) + LAST_TIME_STATE_FILE));
+        recentDatasets = new RecentDatasets(Integer.parseInt(props.getProperty(RECENT_DATASETS, "1440")));
+        observations = createObservationBuffer();
+        publisher = new DatasetPublisher(name);
+        texts = TextDictionary.inMemory();
+        if (FETCH_MODE_CONCURRENT.equalsIgnoreCase(props.getProperty(FETCH_MODE))) {
+        	final int threads = Integer.parseInt(props.getProperty(FETCH_THREADS, Integer.toString(fields.size())));
+        	final ThreadMode threadMode = ThreadMode.fromString(
+        			props.getProperty(WeatherDataCollector.THREAD_MODE, "platform")).getEffectiveMode();
+        	fetchDeadlineMillis = Long.parseLong(props.getProperty(FETCH_DEADLINE_MILLIS, "30000"));
+        	fetchExecutor = threadMode.newTaskExecutor("52n-wdc-fetch-", threads);
+        	if (threadMode == ThreadMode.VIRTUAL) {
+        		LOG.info("Downloading fields concurrently using virtual threads and a deadline of {}ms per run.",
+        				fetchDeadlineMillis);
+        	} else {
+        		LOG.info("Downloading fields concurrently using {} threads and a deadline of {}ms per run.",
+        				threads,
+        				fetchDeadlineMillis);
+        	}
+        }
+	}
+
+	/**
+	 * Starts everything writing files: recovers a missing last time, adds the
+	 * records missing in the rollups and compresses closed CSV files.
+	 */
+	private void start() {
+		active = true;
+		openTextDictionary();
+        if (lastTimeStore.get(name) == null) {
+        	recoverLastTime();
+        }
+        rebuildRollups();
+        if (compressor != null) {
+        	compressor.start();
+        }
+	}
+
+	@Override
+	public void follow() {
+		followLock.lock();
+		try {
+			if (!active) {
+				followArchive();
+			}
+		} finally {
+			followLock.unlock();
+		}
+	}
+
+	private void followArchive() {
+		if (archive == null) {
+			return;
+		}
+		final DateTime latest = observations.getLatestTime();
+		final DateTime now = DateTime.now(DateTimeZone.UTC);
+		try {
+			final int records = observations.load(archive,
+					latest != null? latest.plusMillis(1) : now.minusDays(getObservationBufferDays()),
+					now);
+			LOG.debug("Followed {} new datasets of collector '{}'", records, name);
+		} catch (final IOException e) {
+			LOG.warn("Could not follow datasets of '{}': {}", archive, e.getMessage());
+			LOG.debug("Exception thrown!", e);
+		}
+	}
+
+	/**
+	 * Reloads the last times stored by the previous active process and
+	 * catches up with its datasets before {@link #start()}.
+	 */
+	@Override
+	public void activate() {
+		followLock.lock();
+		try {
+			followArchive();
+			// the observations are added by the writer from now on
+			active = true;
+		} finally {
+			followLock.unlock();
+		}
+		lastTimeStore.reload();
+		synchronized (this) {
+			lastCollectedTime = null;
+		}
+		start();
+		LOG.info("Activated collector '{}', last time: {}", name, lastTimeStore.get(name));
+	}
+
+	@Override
+	public void destroy() {
+		if (fetchExecutor != null) {
+			fetchExecutor.shutdownNow();
+		}
+		if (compressor != null) {
+			compressor.close();
+		}
+		publisher.close();
+		for (final DatasetSink sink : sinks) {
+			try {
+				sink.close();
+			} catch (final IOException e) {
+				LOG.error("Could not close {}: {}", sink, e.getMessage());
+				LOG.debug("Exception thrown!", e);
+			}
+		}
+		texts.close();
+		HttpUtil.persistCache();
+	}
+
+	private void createMetrics(final String name) {
+		final MetricsRegistry registry = MetricsRegistry.getDefault();
+		final String downloadMetric = "wdc_field_download_seconds";
+		final String downloadHelp = "Duration of downloading one field file";
+		for (final Field field : fields) {
+			field.downloadTime = registry.histogram(downloadMetric, downloadHelp, "collector", name, "field", field.getName());
+		}
+		timeDownloadTime = registry.histogram(downloadMetric, downloadHelp, "collector", name, "field", "time");
+		timeZoneDownloadTime = registry.histogram(downloadMetric, downloadHelp, "collector", name, "field", "timeZone");
+		timestampParseTime = registry.histogram("wdc_timestamp_parse_seconds",
+				"Duration of parsing the timestamp of the station",
+				"collector", name);
+		appendTime = registry.histogram("wdc_append_seconds",
+				"Duration of appending a batch of datasets to all output sinks",
+				"collector", name);
+		storeLastTimeTime = registry.histogram("wdc_store_last_time_seconds",
+				"Duration of storing the time of the latest dataset",
+				"collector", name);
+		dataLag = registry.histogram("wdc_data_lag_seconds",
+				"Delay between the timestamp of the station and storing the dataset",
+				Histogram.DELAY_BUCKETS,
+				"collector", name);
+		lastDataLag = registry.gauge("wdc_data_lag_last_seconds",
+				"Delay between the timestamp of the station and storing the latest dataset",
+				"collector", name);
+	}
+
+	private int getObservationBufferDays() {
+		return Integer.parseInt(props.getProperty(OBSERVATION_BUFFER_DAYS, "7"));
+	}
+
+	/**
+	 * Creates the buffer for {@value #OBSERVATION_BUFFER_DAYS} days of
+	 * datasets and fills it from the CSV files, if available.
+	 */
+	private ObservationRingBuffer createObservationBuffer() {
+		final int days = getObservationBufferDays();
+		final long capacity = (long) days * DateTimeConstants.MILLIS_PER_DAY / Math.max(1, intervalMillis);
+		final ObservationRingBuffer buffer = new ObservationRingBuffer((int) Math.min(Integer.MAX_VALUE, capacity),
+				ObservationRingBuffer.getNumberFields(new MuensterwetterDataset()));
+		if (archive != null) {
+			final DateTime now = DateTime.now(DateTimeZone.UTC);
+			try {
+				final int records = buffer.load(archive, now.minusDays(days), now);
+				LOG.info("Loaded {} datasets of the last {} days into {}", records, days, buffer);
+			} catch (final IOException e) {
+				LOG.warn("Could not load recent datasets from '{}': {}", archive, e.getMessage());
+				LOG.debug("Exception thrown!", e);
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * A single value of a {@link MuensterwetterDataset} provided by one file
+	 * below {@link #dataUrl}.
+	 */
+	private abstract class Field {
+
+		private final String fileProperty;
+
+		private Histogram downloadTime;
+
+		Field(final String filePropertyP) {
+			fileProperty = filePropertyP;
+		}
+
+		/**
+		 * @return the name of the field without prefix, e.g. <code>airTemperature</code>
+		 */
+		String getName() {
+			return fileProperty.startsWith(DATA_FILE_PREFIX)? fileProperty.substring(DATA_FILE_PREFIX.length()) : fileProperty;
+		}
+
+		String getUrl() {
+			return dataUrl + props.getProperty(fileProperty);
+		}
+
+		/**
+		 * @param data the data set to fill
+		 * @param response the downloaded file or <code>null</code> if the
+		 * 		download failed. Its body is only valid during this call.
+		 */
+		abstract void apply(MuensterwetterDataset data, HttpResponse response);
+
 	}
 
 }
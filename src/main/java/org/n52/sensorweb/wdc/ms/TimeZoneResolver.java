@@ -0,0 +1,95 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.joda.time.DateTimeZone;
+
+/**
+ * Resolves the content of the time zone file, e.g. <code>(UTC+1)</code>, to
+ * a {@link DateTimeZone} once per distinct content. As the content changes
+ * twice a year at most, the bytes of the last file are compared first and
+ * its zone is returned without decoding anything.
+ */
+final class TimeZoneResolver {
+
+	/**
+	 * max. number of distinct contents remembered, more are resolved on every call
+	 */
+	private static final int MAX_ZONES = 32;
+
+	private final String parsePattern;
+
+	private final ConcurrentMap<String, DateTimeZone> zones = new ConcurrentHashMap<>();
+
+	private volatile Entry last;
+
+	/**
+	 * @param parsePatternP see <code>DATA_FILE_TIME_ZONE_PARSE_PATTERN</code>
+	 */
+	TimeZoneResolver(final String parsePatternP) {
+		parsePattern = parsePatternP;
+	}
+
+	/**
+	 * @return the zone or UTC if it is not supported by Jodatime
+	 * @see MuensterwetterRealTimeCollector#parseTimeZone(String, String)
+	 */
+	DateTimeZone resolve(final byte[] bytes, final int from, final int to) {
+		final int start = ByteParsers.trimStart(bytes, from, to);
+		final int end = ByteParsers.trimEnd(bytes, start, to);
+		final Entry entry = last;
+		if (entry != null && ByteParsers.equals(bytes, start, end, entry.content)) {
+			return entry.zone;
+		}
+		final String value = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+		DateTimeZone zone = zones.get(value);
+		if (zone == null) {
+			zone = MuensterwetterRealTimeCollector.parseTimeZone(value, parsePattern);
+			if (zones.size() < MAX_ZONES) {
+				zones.putIfAbsent(value, zone);
+			}
+		}
+		last = new Entry(Arrays.copyOfRange(bytes, start, end), zone);
+		return zone;
+	}
+
+	private static final class Entry {
+
+		private final byte[] content;
+
+		private final DateTimeZone zone;
+
+		Entry(final byte[] contentP, final DateTimeZone zoneP) {
+			content = contentP;
+			zone = zoneP;
+		}
+
+	}
+
+}
@@ -0,0 +1,187 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Parses the content of the time file from the downloaded bytes.
+ * <p>
+ * Patterns consisting of fixed width numbers only, i.e. <code>dd</code>,
+ * <code>MM</code>, <code>yyyy</code>, <code>HH</code>, <code>mm</code>
+ * and <code>ss</code> separated by other ASCII characters like
+ * <code>dd.MM.yyyy HH:mm</code>, are parsed directly. All other patterns and
+ * values not matching them exactly are parsed by a {@link DateTimeFormatter},
+ * so the results are the same.
+ */
+final class TimestampParser {
+
+	private static final Chronology UTC = ISOChronology.getInstanceUTC();
+
+	private static final int YEAR = 0;
+
+	private static final int MONTH = 1;
+
+	private static final int DAY = 2;
+
+	private static final int HOUR = 3;
+
+	private static final int MINUTE = 4;
+
+	private static final int SECOND = 5;
+
+	private final DateTimeFormatter formatter;
+
+	/**
+	 * per byte of a matching value: the field of the digit or -1 for a literal
+	 */
+	private final int[] layout;
+
+	/**
+	 * per byte of a matching value: the expected literal
+	 */
+	private final byte[] literals;
+
+	/**
+	 * @param pattern see {@link DateTimeFormat}
+	 */
+	TimestampParser(final String pattern) {
+		formatter = DateTimeFormat.forPattern(pattern);
+		final List<Integer> fields = new ArrayList<>();
+		final StringBuilder text = new StringBuilder();
+		final boolean[] used = new boolean[SECOND + 1];
+		boolean supported = true;
+		for (int i = 0; i < pattern.length() && supported; ) {
+			final char c = pattern.charAt(i);
+			int count = 1;
+			while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+				count++;
+			}
+			final int field = getField(c, count);
+			if (field >= 0 && !used[field]) {
+				used[field] = true;
+				for (int j = 0; j < count; j++) {
+					fields.add(field);
+					text.append('0');
+				}
+			} else if (field == -1 && c < 128 && !Character.isLetter(c) && c != '\'') {
+				for (int j = 0; j < count; j++) {
+					fields.add(-1);
+					text.append(c);
+				}
+			} else {
+				supported = false;
+			}
+			i += count;
+		}
+		if (supported && used[YEAR] && used[MONTH] && used[DAY]) {
+			layout = new int[fields.size()];
+			for (int i = 0; i < layout.length; i++) {
+				layout[i] = fields.get(i);
+			}
+			literals = text.toString().getBytes(StandardCharsets.US_ASCII);
+		} else {
+			layout = null;
+			literals = null;
+		}
+	}
+
+	private static int getField(final char c, final int count) {
+		switch (c) {
+		case 'y':
+			return count == 4? YEAR : -2;
+		case 'M':
+			return count == 2? MONTH : -2;
+		case 'd':
+			return count == 2? DAY : -2;
+		case 'H':
+			return count == 2? HOUR : -2;
+		case 'm':
+			return count == 2? MINUTE : -2;
+		case 's':
+			return count == 2? SECOND : -2;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return <code>true</code>, if values of the pattern are parsed without
+	 * 		a {@link DateTimeFormatter}
+	 */
+	boolean isDirect() {
+		return layout != null;
+	}
+
+	/**
+	 * @param zone the zone of the local time in the file
+	 * @return the time in UTC
+	 * @throws IllegalArgumentException if the value does not match the pattern
+	 * 		or is no valid time in the zone
+	 */
+	DateTime parse(final byte[] bytes, final int from, final int to, final DateTimeZone zone) {
+		final int start = ByteParsers.trimStart(bytes, from, to);
+		final int end = ByteParsers.trimEnd(bytes, start, to);
+		if (layout == null || end - start != layout.length) {
+			return parseFormatted(new String(bytes, start, end - start, StandardCharsets.UTF_8), zone);
+		}
+		final int[] values = new int[SECOND + 1];
+		for (int i = 0; i < layout.length; i++) {
+			final int b = bytes[start + i];
+			final int field = layout[i];
+			if (field < 0) {
+				if (b != literals[i]) {
+					return parseFormatted(new String(bytes, start, end - start, StandardCharsets.UTF_8), zone);
+				}
+			} else if (b >= '0' && b <= '9') {
+				values[field] = values[field] * 10 + (b - '0');
+			} else {
+				return parseFormatted(new String(bytes, start, end - start, StandardCharsets.UTF_8), zone);
+			}
+		}
+		final long local = UTC.getDateTimeMillis(values[YEAR], values[MONTH], values[DAY],
+				values[HOUR], values[MINUTE], values[SECOND], 0);
+		// strict: like the formatter, reject local times in a gap of the zone
+		return new DateTime(zone.convertLocalToUTC(local, true), DateTimeZone.UTC);
+	}
+
+	DateTime parse(final String value, final DateTimeZone zone) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return parse(bytes, 0, bytes.length, zone);
+	}
+
+	private DateTime parseFormatted(final String value, final DateTimeZone zone) {
+		return formatter.withZone(zone).parseDateTime(value).toDateTime(DateTimeZone.UTC);
+	}
+
+}
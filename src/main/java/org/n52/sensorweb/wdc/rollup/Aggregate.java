@@ -0,0 +1,93 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.rollup;
+
+/**
+ * The aggregated values of one field in one bucket of a {@link Rollup}.
+ * Directions in degrees are averaged as unit vectors, so that e.g. 350° and
+ * 10° average to 0°.
+ */
+public final class Aggregate {
+
+	private final long count;
+
+	private final double min;
+
+	private final double max;
+
+	private final double sum;
+
+	private final double mean;
+
+	Aggregate(final long countP, final double minP, final double maxP, final double sumP, final double meanP) {
+		count = countP;
+		min = minP;
+		max = maxP;
+		sum = sumP;
+		mean = meanP;
+	}
+
+	/**
+	 * @return the number of values, missing ones are not counted
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the minimum or {@link Double#NaN} if there are no values
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the maximum or {@link Double#NaN} if there are no values
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the sum or {@link Double#NaN} for directions
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the arithmetic mean or, for directions, the direction of the
+	 * 		mean unit vector in [0, 360). {@link Double#NaN} if there are no
+	 * 		values.
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Aggregate [count=%s, min=%s, max=%s, sum=%s, mean=%s]", count, min, max, sum, mean);
+	}
+
+}
@@ -0,0 +1,355 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.rollup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * The rollups of one month in one {@link Resolution}, stored in a file of
+ * fixed-size rows, one per hour or day of the longest month. Each row holds
+ * the number and the time of the last dataset aggregated and per field the
+ * count, minimum, maximum and sum of its values (for directions the sums of
+ * the sine and cosine). All values are doubles, missing buckets are zero.
+ * <p>
+ * Changed rows are written in place and synced with the disk by
+ * {@link #force()} and {@link #close()}. Rows written after the last sync
+ * may be lost in a crash; their datasets are aggregated again from the CSV
+ * files, because the rows hold the time of their last dataset. A row only
+ * partially on the disk is not detected, delete the file to rebuild it from
+ * the CSV files.
+ */
+final class MonthlyRollups implements Closeable {
+
+	static final int DATASETS = 0;
+
+	static final int LAST_TIME = 1;
+
+	static final int COUNT = 0;
+
+	static final int MIN = 1;
+
+	static final int MAX = 2;
+
+	static final int SUM = 3;
+
+	static final int SUM_COS = 4;
+
+	private static final int ROW_HEADER_SLOTS = 2;
+
+	private static final int FIELD_SLOTS = 5;
+
+	private static final int FILE_MAGIC = 0x52c5a66e;
+
+	private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormat.forPattern("yyyy-MM").withZoneUTC();
+
+	private final File file;
+
+	private final Resolution resolution;
+
+	private final long monthStart;
+
+	private final List<String> fields;
+
+	private final boolean[] directions;
+
+	private final int stride;
+
+	private final double[] rows;
+
+	private int dataOffset;
+
+	private long lastTime = Long.MIN_VALUE;
+
+	private int firstDirtyRow = Integer.MAX_VALUE;
+
+	private int lastDirtyRow = -1;
+
+	private FileChannel channel;
+
+	private MonthlyRollups(final File fileP,
+			final Resolution resolutionP,
+			final long monthStartP,
+			final List<String> fieldsP,
+			final boolean[] directionsP) {
+		file = fileP;
+		resolution = resolutionP;
+		monthStart = monthStartP;
+		fields = fieldsP;
+		directions = directionsP;
+		stride = ROW_HEADER_SLOTS + FIELD_SLOTS * fields.size();
+		rows = new double[resolution.getRowsPerMonth() * stride];
+	}
+
+	static int getFieldOffset(final int field) {
+		return ROW_HEADER_SLOTS + field * FIELD_SLOTS;
+	}
+
+	/**
+	 * @return <code>&lt;pathPrefix&gt;yyyy-MM-&lt;resolution&gt;.rollup</code>
+	 */
+	static File getFile(final String pathPrefix, final Resolution resolution, final long monthStart) {
+		return new File(pathPrefix + MONTH_FORMATTER.print(monthStart) + "-" + resolution + ".rollup");
+	}
+
+	/**
+	 * @return the stored rollups of the month, if the file exists and
+	 * 		aggregates the given fields, otherwise empty ones
+	 */
+	static MonthlyRollups open(final String pathPrefix,
+			final Resolution resolution,
+			final long monthStart,
+			final List<String> fields,
+			final boolean[] directions) throws IOException {
+		final MonthlyRollups rollups = new MonthlyRollups(getFile(pathPrefix, resolution, monthStart),
+				resolution,
+				monthStart,
+				fields,
+				directions);
+		rollups.load();
+		return rollups;
+	}
+
+	private void load() throws IOException {
+		final byte[] content;
+		try {
+			content = Files.readAllBytes(file.toPath());
+		} catch (final NoSuchFileException e) {
+			return;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(content);
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+		try {
+			if (in.readInt() != FILE_MAGIC
+					|| in.readInt() != resolution.ordinal()
+					|| in.readLong() != monthStart
+					|| in.readInt() != fields.size()) {
+				return;
+			}
+			for (int i = 0; i < fields.size(); i++) {
+				if (!fields.get(i).equals(in.readUTF()) || directions[i] != in.readBoolean()) {
+					return;
+				}
+			}
+			final int offset = content.length - in.available();
+			if (content.length - offset != rows.length * 8) {
+				return;
+			}
+			buffer.position(offset);
+			buffer.asDoubleBuffer().get(rows);
+			dataOffset = offset;
+		} catch (final IOException e) {
+			// truncated header, rebuilt
+			Arrays.fill(rows, 0);
+			return;
+		}
+		for (int row = 0; row < resolution.getRowsPerMonth(); row++) {
+			lastTime = Math.max(lastTime, getRowLastTime(row));
+		}
+	}
+
+	private long getRowLastTime(final int row) {
+		return rows[row * stride + DATASETS] == 0? Long.MIN_VALUE : (long) rows[row * stride + LAST_TIME];
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	long getMonthStart() {
+		return monthStart;
+	}
+
+	/**
+	 * @return the time of the newest dataset aggregated or
+	 * 		{@link Long#MIN_VALUE}
+	 */
+	long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * @param values the values of the fields, {@link Double#NaN} if missing
+	 * @return <code>false</code>, if the dataset is not newer than the last
+	 * 		one and was skipped
+	 */
+	boolean add(final long time, final double[] values) {
+		if (time <= lastTime) {
+			return false;
+		}
+		final int row = resolution.getRow(monthStart, time);
+		final int rowStart = row * stride;
+		rows[rowStart + DATASETS]++;
+		rows[rowStart + LAST_TIME] = time;
+		for (int field = 0; field < values.length; field++) {
+			final double value = values[field];
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			final int base = rowStart + getFieldOffset(field);
+			final boolean first = rows[base + COUNT] == 0;
+			rows[base + COUNT]++;
+			rows[base + MIN] = first? value : Math.min(rows[base + MIN], value);
+			rows[base + MAX] = first? value : Math.max(rows[base + MAX], value);
+			if (directions[field]) {
+				final double radians = Math.toRadians(value);
+				rows[base + SUM] += Math.sin(radians);
+				rows[base + SUM_COS] += Math.cos(radians);
+			} else {
+				rows[base + SUM] += value;
+			}
+		}
+		lastTime = time;
+		firstDirtyRow = Math.min(firstDirtyRow, row);
+		lastDirtyRow = Math.max(lastDirtyRow, row);
+		return true;
+	}
+
+	/**
+	 * Writes the rows changed since the last call, or the whole file, if it
+	 * does not exist yet.
+	 */
+	void write() throws IOException {
+		if (lastDirtyRow < 0) {
+			return;
+		}
+		if (channel == null && dataOffset == 0) {
+			writeFile();
+		} else {
+			if (channel == null) {
+				channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((lastDirtyRow - firstDirtyRow + 1) * stride * 8);
+			buffer.asDoubleBuffer().put(rows, firstDirtyRow * stride, (lastDirtyRow - firstDirtyRow + 1) * stride);
+			final long position = dataOffset + (long) firstDirtyRow * stride * 8;
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, position + buffer.position());
+			}
+		}
+		firstDirtyRow = Integer.MAX_VALUE;
+		lastDirtyRow = -1;
+	}
+
+	private void writeFile() throws IOException {
+		final ByteArrayOutputStream header = new ByteArrayOutputStream(64 + fields.size() * 24);
+		try (DataOutputStream out = new DataOutputStream(header)) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(resolution.ordinal());
+			out.writeLong(monthStart);
+			out.writeInt(fields.size());
+			for (int i = 0; i < fields.size(); i++) {
+				out.writeUTF(fields.get(i));
+				out.writeBoolean(directions[i]);
+			}
+		}
+		final File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(header.size() + rows.length * 8);
+			buffer.put(header.toByteArray());
+			buffer.asDoubleBuffer().put(rows);
+			buffer.rewind();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			// before renaming, so the file is complete after a crash
+			out.force(true);
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		dataOffset = header.size();
+	}
+
+	/**
+	 * @return the non-empty buckets starting from <code>from</code> to
+	 * 		<code>to</code> (inclusive)
+	 */
+	List<Rollup> get(final long from, final long to) {
+		final List<Rollup> rollups = new ArrayList<>();
+		for (int row = 0; row < resolution.getRowsPerMonth(); row++) {
+			final long time = monthStart + row * resolution.getBucketMillis();
+			if (time > to) {
+				break;
+			}
+			if (time >= from && rows[row * stride + DATASETS] > 0) {
+				rollups.add(new Rollup(time,
+						resolution,
+						fields,
+						directions,
+						Arrays.copyOfRange(rows, row * stride, (row + 1) * stride)));
+			}
+		}
+		return rollups;
+	}
+
+	/**
+	 * Synchronizes the rows written in place with the disk.
+	 */
+	void force() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			try {
+				channel.force(false);
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MonthlyRollups [file=%s, lastTime=%s]", file, lastTime);
+	}
+
+}
@@ -0,0 +1,90 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.rollup;
+
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * The periods the {@link RollupEngine} aggregates datasets for, aligned to
+ * UTC.
+ */
+public enum Resolution {
+
+	HOURLY(DateTimeConstants.MILLIS_PER_HOUR, 31 * 24),
+
+	DAILY(DateTimeConstants.MILLIS_PER_DAY, 31);
+
+	private static final Chronology UTC = ISOChronology.getInstanceUTC();
+
+	private final long bucketMillis;
+
+	private final int rowsPerMonth;
+
+	private Resolution(final long bucketMillisP, final int rowsPerMonthP) {
+		bucketMillis = bucketMillisP;
+		rowsPerMonth = rowsPerMonthP;
+	}
+
+	public long getBucketMillis() {
+		return bucketMillis;
+	}
+
+	/**
+	 * @return the number of rows of a month file, i.e. of the longest month
+	 */
+	int getRowsPerMonth() {
+		return rowsPerMonth;
+	}
+
+	/**
+	 * @return the row of the bucket containing the time within the month
+	 */
+	int getRow(final long monthStart, final long millis) {
+		return (int) ((millis - monthStart) / bucketMillis);
+	}
+
+	static long getMonthStart(final long millis) {
+		return UTC.monthOfYear().roundFloor(millis);
+	}
+
+	static long getNextMonthStart(final long monthStart) {
+		return UTC.monthOfYear().add(monthStart, 1);
+	}
+
+	/**
+	 * @return the resolution with the name, ignoring case
+	 * @throws IllegalArgumentException if there is none
+	 */
+	public static Resolution fromString(final String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	@Override
+	public String toString() {
+		return name().toLowerCase();
+	}
+
+}
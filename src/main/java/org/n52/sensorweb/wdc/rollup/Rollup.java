@@ -0,0 +1,119 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.rollup;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * The aggregates of all fields of the datasets within one hour or day.
+ */
+public final class Rollup {
+
+	private final long timeMillis;
+
+	private final Resolution resolution;
+
+	private final List<String> fields;
+
+	private final boolean[] directions;
+
+	private final double[] row;
+
+	/**
+	 * @param rowP a copy of the row as stored by {@link MonthlyRollups}
+	 */
+	Rollup(final long timeMillisP,
+			final Resolution resolutionP,
+			final List<String> fieldsP,
+			final boolean[] directionsP,
+			final double[] rowP) {
+		timeMillis = timeMillisP;
+		resolution = resolutionP;
+		fields = fieldsP;
+		directions = directionsP;
+		row = rowP;
+	}
+
+	/**
+	 * @return the start of the hour or day
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	public DateTime getTime() {
+		return new DateTime(timeMillis, DateTimeZone.UTC);
+	}
+
+	public Resolution getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * @return the number of datasets aggregated
+	 */
+	public long getDatasetCount() {
+		return (long) row[MonthlyRollups.DATASETS];
+	}
+
+	public List<String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return the aggregate of the field or <code>null</code> if it is not
+	 * 		aggregated
+	 */
+	public Aggregate getAggregate(final String field) {
+		final int index = fields.indexOf(field);
+		if (index < 0) {
+			return null;
+		}
+		final int base = MonthlyRollups.getFieldOffset(index);
+		final long count = (long) row[base + MonthlyRollups.COUNT];
+		if (count == 0) {
+			return new Aggregate(0, Double.NaN, Double.NaN, directions[index]? Double.NaN : 0, Double.NaN);
+		}
+		final double sum = row[base + MonthlyRollups.SUM];
+		if (directions[index]) {
+			final double degrees = Math.toDegrees(Math.atan2(sum, row[base + MonthlyRollups.SUM_COS]));
+			return new Aggregate(count,
+					row[base + MonthlyRollups.MIN],
+					row[base + MonthlyRollups.MAX],
+					Double.NaN,
+					degrees < 0? degrees + 360 : degrees);
+		}
+		return new Aggregate(count, row[base + MonthlyRollups.MIN], row[base + MonthlyRollups.MAX], sum, sum / count);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Rollup [time=%s, resolution=%s, row=%s]", getTime(), resolution, Arrays.toString(row));
+	}
+
+}
@@ -0,0 +1,306 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.rollup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.joda.time.DateTime;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.DatasetFieldVisitor;
+import org.n52.sensorweb.wdc.DatasetSink;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.CsvFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains hourly and daily count, minimum, maximum, sum and mean of
+ * numeric fields while datasets are appended, so that reports over long
+ * ranges read a few pre-aggregated rows per day instead of all records.
+ * Direction fields, e.g. the wind direction in degrees, are averaged as
+ * unit vectors.
+ * <p>
+ * The rollups are stored per month and {@link Resolution} in files named
+ * <code>&lt;pathPrefix&gt;yyyy-MM-hourly.rollup</code>, see
+ * {@link MonthlyRollups}. Datasets not newer than the last one aggregated
+ * are skipped, so replaying datasets is harmless. Missing files, and the
+ * datasets appended to the CSV files but not aggregated before a crash,
+ * are recovered from the CSV files by {@link #rebuild(CsvArchiveReader)}.
+ */
+public class RollupEngine implements DatasetSink {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RollupEngine.class);
+
+	private final String pathPrefix;
+
+	private final List<String> fields;
+
+	private final boolean[] directions;
+
+	private final Map<String, Integer> fieldIndexes = new HashMap<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Map<Resolution, MonthlyRollups> current = new EnumMap<>(Resolution.class);
+
+	private final double[] values;
+
+	private final DatasetFieldVisitor valueCollector = new DatasetFieldVisitor() {
+		@Override
+		public void visitNumber(final String name, final double value) {
+			final Integer index = fieldIndexes.get(name);
+			if (index != null) {
+				values[index] = value;
+			}
+		}
+
+		@Override
+		public void visitText(final String name, final String value) {}
+	};
+
+	/**
+	 * @param pathPrefixP the path of the rollup files up to the date part, e.g. <code>./data/muenster-wetter_</code>
+	 * @param fieldsP the numeric fields to aggregate
+	 * @param directionFieldsP the fields containing directions in degrees
+	 */
+	public RollupEngine(final String pathPrefixP, final List<String> fieldsP, final Collection<String> directionFieldsP) {
+		pathPrefix = pathPrefixP;
+		fields = Collections.unmodifiableList(new ArrayList<>(fieldsP));
+		directions = new boolean[fields.size()];
+		for (int i = 0; i < fields.size(); i++) {
+			fieldIndexes.put(fields.get(i), i);
+			directions[i] = directionFieldsP.contains(fields.get(i));
+		}
+		values = new double[fields.size()];
+	}
+
+	public List<String> getFields() {
+		return fields;
+	}
+
+	@Override
+	public void append(final Dataset dataset) throws IOException {
+		appendAll(Collections.singletonList(dataset));
+	}
+
+	@Override
+	public void appendAll(final List<? extends Dataset> datasets) throws IOException {
+		lock.lock();
+		try {
+			for (final Dataset dataset : datasets) {
+				Arrays.fill(values, Double.NaN);
+				dataset.visitFields(valueCollector);
+				add(dataset.getTime().getMillis(), values);
+			}
+			writeCurrent();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void add(final long time, final double[] fieldValues) throws IOException {
+		for (final Resolution resolution : Resolution.values()) {
+			getMonth(resolution, time).add(time, fieldValues);
+		}
+	}
+
+	private MonthlyRollups getMonth(final Resolution resolution, final long time) throws IOException {
+		final long monthStart = Resolution.getMonthStart(time);
+		MonthlyRollups month = current.get(resolution);
+		if (month == null || month.getMonthStart() != monthStart) {
+			if (month != null) {
+				month.write();
+				month.close();
+			}
+			month = MonthlyRollups.open(pathPrefix, resolution, monthStart, fields, directions);
+			current.put(resolution, month);
+		}
+		return month;
+	}
+
+	private void writeCurrent() throws IOException {
+		for (final MonthlyRollups month : current.values()) {
+			month.write();
+		}
+	}
+
+	/**
+	 * Aggregates the records of the CSV files missing in the rollups, month
+	 * by month. Files of months without rollups or with rollups of other
+	 * fields are rebuilt completely.
+	 *
+	 * @return the number of records aggregated
+	 */
+	public int rebuild(final CsvArchiveReader archive) throws IOException {
+		final DateTime first = archive.getFirstFileStart();
+		final DateTime last = archive.getLastRecordTime();
+		if (first == null || last == null) {
+			return 0;
+		}
+		int records = 0;
+		for (long month = Resolution.getMonthStart(first.getMillis());
+				month <= last.getMillis();
+				month = Resolution.getNextMonthStart(month)) {
+			lock.lock();
+			try {
+				long from = Long.MAX_VALUE;
+				for (final Resolution resolution : Resolution.values()) {
+					from = Math.min(from, getMonth(resolution, month).getLastTime());
+				}
+				from = Math.max(from == Long.MIN_VALUE? month : from + 1, month);
+				final long to = Math.min(Resolution.getNextMonthStart(month) - 1, last.getMillis());
+				if (from <= to) {
+					records += aggregate(archive, new DateTime(from, last.getZone()), new DateTime(to, last.getZone()));
+					writeCurrent();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (records > 0) {
+			LOG.info("Aggregated {} records of '{}' into rollups.", records, archive);
+		}
+		return records;
+	}
+
+	private int aggregate(final CsvArchiveReader archive, final DateTime from, final DateTime to) throws IOException {
+		final List<CsvArchiveReader.Range> ranges = archive.findRanges(from, to);
+		if (ranges.isEmpty()) {
+			return 0;
+		}
+		final List<String> header = CsvFormat.parseRecord(archive.readHeader(ranges.get(0).getFile()));
+		final int[] columns = new int[fields.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = header.indexOf(fields.get(i));
+		}
+		final double[] recordValues = new double[fields.size()];
+		final int[] records = new int[1];
+		final IOException[] failure = new IOException[1];
+		archive.read(from, to, new CsvArchiveReader.RecordHandler() {
+			@Override
+			public void handle(final long timeMillis, final String record) {
+				if (failure[0] != null) {
+					return;
+				}
+				final List<String> parsed = CsvFormat.parseRecord(record);
+				for (int i = 0; i < columns.length; i++) {
+					recordValues[i] = parse(parsed, columns[i]);
+				}
+				try {
+					add(timeMillis, recordValues);
+					records[0]++;
+				} catch (final IOException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return records[0];
+	}
+
+	private static double parse(final List<String> values, final int column) {
+		if (column < 0 || column >= values.size() || values.get(column).isEmpty()) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(values.get(column));
+		} catch (final NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @return the non-empty buckets starting from <code>from</code> to
+	 * 		<code>to</code> (inclusive), in chronological order
+	 */
+	public List<Rollup> query(final Resolution resolution, final DateTime from, final DateTime to) throws IOException {
+		final List<Rollup> rollups = new ArrayList<>();
+		final long fromMillis = from.getMillis();
+		final long toMillis = to.getMillis();
+		for (long month = Resolution.getMonthStart(fromMillis);
+				month <= toMillis;
+				month = Resolution.getNextMonthStart(month)) {
+			lock.lock();
+			try {
+				final MonthlyRollups written = current.get(resolution);
+				if (written != null && written.getMonthStart() == month) {
+					rollups.addAll(written.get(fromMillis, toMillis));
+					continue;
+				}
+			} finally {
+				lock.unlock();
+			}
+			// completed months are not changed anymore
+			rollups.addAll(MonthlyRollups.open(pathPrefix, resolution, month, fields, directions).get(fromMillis, toMillis));
+		}
+		return rollups;
+	}
+
+	/**
+	 * Writes the changed rows and synchronizes them with the disk.
+	 */
+	@Override
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			writeCurrent();
+			for (final MonthlyRollups month : current.values()) {
+				month.force();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			for (final MonthlyRollups month : current.values()) {
+				month.write();
+				month.close();
+			}
+			current.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("RollupEngine [pathPrefix=%s, fields=%s]", pathPrefix, fields);
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class AdaptivePollingPolicyTest {
+
+	private static final long SECOND = 1000;
+
+	private static final long MINUTE = 60 * SECOND;
+
+	@Test
+	public void shouldBackOffWithoutData() {
+		final AdaptivePollingPolicy policy = new AdaptivePollingPolicy(15 * SECOND, 60 * SECOND, 4 * MINUTE);
+
+		assertThat(policy.nextDelay(Long.MIN_VALUE, 0), is(15 * SECOND));
+		assertThat(policy.nextDelay(Long.MIN_VALUE, 0), is(30 * SECOND));
+		assertThat(policy.nextDelay(Long.MIN_VALUE, 0), is(60 * SECOND));
+		assertThat(policy.nextDelay(Long.MIN_VALUE, 0), is(60 * SECOND));
+	}
+
+	@Test
+	public void shouldLearnPeriodAndLag() {
+		final long period = 5 * MINUTE;
+		final long lag = 40 * SECOND;
+		final AdaptivePollingPolicy policy = new AdaptivePollingPolicy(10 * SECOND, 10 * MINUTE, 4 * MINUTE);
+
+		final long[] result = simulate(policy, period, lag, 24 * 60 * MINUTE);
+
+		assertThat(policy.getPeriodMillis(), is(period));
+		assertThat(policy.getLagMillis(), lessThanOrEqualTo(lag + 10 * SECOND));
+		final long records = result[0];
+		final long polls = result[1];
+		// fixed polling every 4 minutes needs 1.25 polls per record
+		assertThat((double) polls / records, lessThan(1.25));
+		// fixed polling every 4 minutes is up to 4 minutes late
+		assertThat(result[2], lessThanOrEqualTo(lag + 20 * SECOND));
+	}
+
+	/**
+	 * Simulates a station publishing data every <code>period</code> with the
+	 * given delay.
+	 *
+	 * @return number of records, number of polls, and the maximum delay of a
+	 * 		record after the first hour
+	 */
+	private long[] simulate(final AdaptivePollingPolicy policy, final long period, final long lag, final long duration) {
+		long now = 17 * SECOND;
+		long lastSeen = Long.MIN_VALUE;
+		long records = 0;
+		long polls = 0;
+		long maxDelay = 0;
+		while (now < duration) {
+			final long published = ((now - lag) / period) * period;
+			polls++;
+			if (published > lastSeen) {
+				records++;
+				if (now > 60 * MINUTE) {
+					maxDelay = Math.max(maxDelay, now - published);
+				}
+				lastSeen = published;
+			}
+			now += policy.nextDelay(lastSeen, now);
+		}
+		return new long[] { records, polls, maxDelay };
+	}
+
+}
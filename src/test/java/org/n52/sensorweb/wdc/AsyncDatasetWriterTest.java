@@ -0,0 +1,253 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.AsyncDatasetWriter.OverflowPolicy;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.flow.DatasetPublisher;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+import org.n52.sensorweb.wdc.rollup.RollupEngine;
+
+public class AsyncDatasetWriterTest {
+
+	private static final DateTime START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	@Test
+	public void shouldStoreQueuedDatasetsInOneBatch() throws InterruptedException {
+		final StallingCollector collector = new StallingCollector();
+		final AsyncDatasetWriter writer = new AsyncDatasetWriter("batch", collector, 10, 5, OverflowPolicy.BLOCK, 1000);
+		writer.start();
+		writer.submit(createDataset(0));
+		assertTrue(collector.storing.await(5, TimeUnit.SECONDS));
+		// queued while the first batch is stalled
+		for (int i = 1; i <= 7; i++) {
+			assertTrue(writer.submit(createDataset(i)));
+		}
+		collector.release.countDown();
+		assertTrue(writer.close(5000));
+
+		assertThat(collector.batchSizes, is(Arrays.asList(1, 5, 2)));
+		assertThat(collector.times.size(), is(8));
+		assertThat(collector.times.get(7), is(START.plusMinutes(7)));
+	}
+
+	@Test
+	public void shouldStoreInOrderOnSharedPool() throws InterruptedException {
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			final StallingCollector collector = new StallingCollector();
+			final StallingCollector other = new StallingCollector();
+			other.release.countDown();
+			final AsyncDatasetWriter writer = new AsyncDatasetWriter("pooled", collector, 10, 5, OverflowPolicy.BLOCK, 1000, pool);
+			final AsyncDatasetWriter otherWriter = new AsyncDatasetWriter("other", other, 10, 5, OverflowPolicy.BLOCK, 1000, pool);
+			writer.start();
+			otherWriter.start();
+			writer.submit(createDataset(0));
+			assertTrue(collector.storing.await(5, TimeUnit.SECONDS));
+			for (int i = 1; i <= 7; i++) {
+				assertTrue(writer.submit(createDataset(i)));
+			}
+			// not blocked by the stalled writer
+			assertTrue(otherWriter.submit(createDataset(0)));
+			assertTrue(otherWriter.close(5000));
+			assertThat(other.times.size(), is(1));
+
+			collector.release.countDown();
+			assertTrue(writer.close(5000));
+			assertThat(collector.batchSizes, is(Arrays.asList(1, 5, 2)));
+			for (int i = 0; i < 8; i++) {
+				assertThat(collector.times.get(i), is(START.plusMinutes(i)));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldNotBlockCollectingIfStalled() throws InterruptedException {
+		final StallingCollector collector = new StallingCollector();
+		final AsyncDatasetWriter writer = new AsyncDatasetWriter("drop", collector, 2, 5, OverflowPolicy.DROP_NEWEST, 1000);
+		writer.start();
+		writer.submit(createDataset(0));
+		assertTrue(collector.storing.await(5, TimeUnit.SECONDS));
+
+		final long start = System.currentTimeMillis();
+		assertTrue(writer.submit(createDataset(1)));
+		assertTrue(writer.submit(createDataset(2)));
+		assertThat(writer.submit(createDataset(3)), is(false));
+		assertThat(System.currentTimeMillis() - start, lessThan(500L));
+
+		collector.release.countDown();
+		assertTrue(writer.close(5000));
+		assertThat(collector.times, is(Arrays.asList(START, START.plusMinutes(1), START.plusMinutes(2))));
+	}
+
+	@Test
+	public void shouldDropOldestIfConfigured() throws InterruptedException {
+		final StallingCollector collector = new StallingCollector();
+		final AsyncDatasetWriter writer = new AsyncDatasetWriter("oldest", collector, 2, 5, OverflowPolicy.DROP_OLDEST, 1000);
+		writer.start();
+		writer.submit(createDataset(0));
+		assertTrue(collector.storing.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i <= 4; i++) {
+			assertTrue(writer.submit(createDataset(i)));
+		}
+		collector.release.countDown();
+		assertTrue(writer.close(5000));
+		assertThat(collector.times, is(Arrays.asList(START, START.plusMinutes(3), START.plusMinutes(4))));
+	}
+
+	@Test
+	public void shouldRejectDatasetsAfterClose() {
+		final StallingCollector collector = new StallingCollector();
+		collector.release.countDown();
+		final AsyncDatasetWriter writer = new AsyncDatasetWriter("closed", collector, 2, 5, OverflowPolicy.BLOCK, 1000);
+		writer.start();
+		assertTrue(writer.close(5000));
+		assertThat(writer.submit(createDataset(0)), is(false));
+	}
+
+	@Test
+	public void shouldDiscardQueuedDatasetsWhenFenced() throws InterruptedException {
+		final StallingCollector collector = new StallingCollector();
+		final AsyncDatasetWriter writer = new AsyncDatasetWriter("fenced", collector, 10, 5, OverflowPolicy.BLOCK, 1000);
+		writer.start();
+		writer.submit(createDataset(0));
+		assertTrue(collector.storing.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i <= 3; i++) {
+			assertTrue(writer.submit(createDataset(i)));
+		}
+
+		// the lease is lost while storing the first batch
+		writer.fence();
+		assertThat(writer.getQueueSize(), is(0));
+		assertThat(writer.submit(createDataset(4)), is(false));
+		collector.release.countDown();
+		assertTrue(writer.close(5000));
+		assertThat(collector.times, is(Arrays.asList(START)));
+	}
+
+	private static MuensterwetterDataset createDataset(final int minutes) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(START.plusMinutes(minutes));
+		return dataset;
+	}
+
+	/**
+	 * Blocks storing the first batch until released, like a stalled disk.
+	 */
+	private static class StallingCollector implements DataCollector {
+
+		private final CountDownLatch storing = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private final List<Integer> batchSizes = new ArrayList<>();
+
+		private final List<DateTime> times = new ArrayList<>();
+
+		@Override
+		public boolean store(final List<? extends Dataset> datasets) {
+			storing.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			batchSizes.add(datasets.size());
+			for (final Dataset dataset : datasets) {
+				times.add(dataset.getTime());
+			}
+			return true;
+		}
+
+		@Override
+		public Dataset collectWeatherData() {
+			return null;
+		}
+
+		@Override
+		public long getParseIntervalMillis() {
+			return 0;
+		}
+
+		@Override
+		public DateTime getTimeOfLatestData() {
+			return null;
+		}
+
+		@Override
+		public RecentDatasets getRecentDatasets() {
+			return null;
+		}
+
+		@Override
+		public ObservationRingBuffer getObservations() {
+			return null;
+		}
+
+		@Override
+		public CsvArchiveReader getArchive() {
+			return null;
+		}
+
+		@Override
+		public RollupEngine getRollups() {
+			return null;
+		}
+
+		@Override
+		public DatasetPublisher getPublisher() {
+			return null;
+		}
+
+		@Override
+		public void setProperties(final Properties configuration) {}
+
+		@Override
+		public void init() {}
+
+		@Override
+		public void destroy() {}
+	}
+
+}
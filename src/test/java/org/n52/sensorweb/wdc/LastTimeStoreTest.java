@@ -0,0 +1,106 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LastTimeStoreTest {
+
+	private static final DateTime TIME = new DateTime(2015, 1, 1, 12, 0, DateTimeZone.UTC);
+
+	private File folder;
+
+	private File file;
+
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("wdc-state").toFile();
+		file = new File(folder, "lastTimes.52n");
+	}
+
+	@After
+	public void deleteFolder() {
+		for (final File child : folder.listFiles()) {
+			child.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldShareOneFileBetweenCollectors() throws IOException {
+		final LastTimeStore store = LastTimeStore.forFile(file);
+		assertTrue(LastTimeStore.forFile(new File(folder, "./lastTimes.52n")) == store);
+		store.put("muenster", TIME);
+		store.put("other", TIME.plusHours(1));
+		store.put("muenster", TIME.plusMinutes(5));
+
+		assertThat(Arrays.asList(folder.list()), is(Arrays.asList("lastTimes.52n")));
+		final LastTimeStore reloaded = load(file);
+		assertThat(reloaded.get("muenster"), is(TIME.plusMinutes(5)));
+		assertThat(reloaded.get("other"), is(TIME.plusHours(1)));
+		assertThat(reloaded.get("unknown"), is((DateTime) null));
+	}
+
+	@Test
+	public void shouldIgnoreCorruptLines() throws IOException {
+		Files.write(file.toPath(), ("# comment\nmuenster=2015-01-01T12:00:00.000Z\nother=2015-01-0\nbroken\n")
+				.getBytes(StandardCharsets.UTF_8));
+		final LastTimeStore store = load(file);
+		assertThat(store.get("muenster"), is(TIME));
+		assertThat(store.get("other"), is((DateTime) null));
+	}
+
+	@Test
+	public void shouldReloadTimesWrittenByAnotherProcess() throws IOException {
+		final LastTimeStore standby = load(file);
+		load(file).put("muenster", TIME);
+		assertThat(standby.get("muenster"), is((DateTime) null));
+
+		standby.reload();
+		assertThat(standby.get("muenster"), is(TIME));
+	}
+
+	/**
+	 * Loads the file again, bypassing the instances shared by
+	 * {@link LastTimeStore#forFile(File)}.
+	 */
+	private static LastTimeStore load(final File file) {
+		return new LastTimeStore(file.toPath());
+	}
+
+}
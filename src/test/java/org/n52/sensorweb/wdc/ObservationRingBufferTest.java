@@ -0,0 +1,169 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+
+public class ObservationRingBufferTest {
+
+	private static final DateTime START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	@Test
+	public void shouldKeepNumberFieldsOfLatestDatasets() {
+		final ObservationRingBuffer buffer = createBuffer(10);
+		for (int i = 0; i < 25; i++) {
+			buffer.add(createDataset(START.plusMinutes(i), i));
+		}
+		// older datasets are ignored
+		buffer.add(createDataset(START, 100));
+
+		assertThat(buffer.size(), is(10));
+		assertThat(buffer.getOldestTime().getMillis(), is(START.plusMinutes(15).getMillis()));
+		final ObservationRingBuffer.Series series = buffer.getSeries("temperature", START, START.plusHours(1));
+		assertThat(series.size(), is(10));
+		assertThat(series.getTimeMillis(0), is(START.plusMinutes(15).getMillis()));
+		assertThat(series.getValue(0), is(15.0));
+		assertThat(series.getValue(9), is(24.0));
+		assertThat(buffer.getSeries("windSpeedKmh", START, START.plusHours(1)).getValue(9), is(24.0 * 3.6));
+		assertTrue(Double.isNaN(buffer.getSeries("visibility", START, START.plusHours(1)).getValue(9)));
+	}
+
+	@Test
+	public void shouldCalculateStatisticsSkippingMissingValues() {
+		final ObservationRingBuffer buffer = createBuffer(100);
+		for (int i = 0; i < 60; i++) {
+			final MuensterwetterDataset dataset = createDataset(START.plusMinutes(i), i);
+			if (i % 10 == 0) {
+				dataset.setTemperature(Double.NaN);
+			}
+			buffer.add(dataset);
+		}
+		final ObservationRingBuffer.Statistics statistics = buffer.getStatistics("temperature",
+				START.plusMinutes(30),
+				START.plusMinutes(39));
+		assertThat(statistics.getCount(), is(9));
+		assertThat(statistics.getMin(), is(31.0));
+		assertThat(statistics.getMax(), is(39.0));
+		assertThat(statistics.getMean(), is(35.0));
+		assertTrue(Double.isNaN(buffer.getStatistics("temperature", START.minusDays(1), START.minusHours(1)).getMean()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTextFields() {
+		createBuffer(10).getSeries("windDirection", START, START);
+	}
+
+	@Test
+	public void shouldLoadFromArchive() throws IOException {
+		final File folder = Files.createTempDirectory("wdc-ring").toFile();
+		final String prefix = folder.getAbsolutePath() + File.separator + "test_";
+		try (RollingCsvAppender appender = new RollingCsvAppender(prefix, "yyyy-MM-dd",
+				new MuensterwetterDataset().getCSVHeader(), Durability.FLUSH, 1, 0)) {
+			for (int i = 0; i < 3 * 24; i++) {
+				appender.append(createDataset(START.plusHours(i), i));
+			}
+		}
+		try {
+			final ObservationRingBuffer buffer = createBuffer(30);
+			final int records = buffer.load(new CsvArchiveReader(prefix, "yyyy-MM-dd"), START.plusDays(1), START.plusDays(3));
+			assertThat(records, is(48));
+			assertThat(buffer.size(), is(30));
+			final ObservationRingBuffer.Series series = buffer.getSeries("temperature", START, START.plusDays(3));
+			assertThat(series.getTimeMillis(29), is(START.plusHours(71).getMillis()));
+			assertThat(series.getValue(29), is(71.0));
+			assertThat(series.getValue(0), is(42.0));
+			assertTrue(Double.isNaN(buffer.getSeries("visibility", START, START.plusDays(3)).getValue(0)));
+		} finally {
+			for (final File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+	}
+
+	@Test
+	public void shouldReadConsistentValuesWhileWriting() throws InterruptedException {
+		final ObservationRingBuffer buffer = createBuffer(64);
+		final int datasets = 200000;
+		final AtomicReference<String> error = new AtomicReference<>();
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (buffer.size() < 64 || buffer.getOldestTime().isBefore(START.plusMinutes(datasets - 64))) {
+					final ObservationRingBuffer.Series series = buffer.getSeries("temperature", START, START.plusMinutes(datasets));
+					for (int i = 0; i < series.size(); i++) {
+						// the values are the minutes since START
+						if (series.getValue(i) * 60000 != series.getTimeMillis(i) - START.getMillis()
+								|| (i > 0 && series.getTimeMillis(i) != series.getTimeMillis(i - 1) + 60000)) {
+							error.set("inconsistent series at " + i + ": " + series.getTimeMillis(i) + "=" + series.getValue(i));
+							return;
+						}
+					}
+				}
+			}
+		};
+		reader.start();
+		final MuensterwetterDataset dataset = createDataset(START, 0);
+		for (int i = 0; i < datasets; i++) {
+			dataset.setTime(START.plusMinutes(i));
+			dataset.setTemperature(i);
+			buffer.add(dataset);
+		}
+		reader.join(10000);
+		assertThat(error.get(), is((String) null));
+	}
+
+	private static ObservationRingBuffer createBuffer(final int capacity) {
+		final ObservationRingBuffer buffer = new ObservationRingBuffer(capacity,
+				ObservationRingBuffer.getNumberFields(new MuensterwetterDataset()));
+		assertThat(buffer.getFields().subList(0, 2), is(Arrays.asList("temperature", "relativeHumidity")));
+		return buffer;
+	}
+
+	private static MuensterwetterDataset createDataset(final DateTime time, final int i) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(time);
+		dataset.setTemperature(i);
+		dataset.setWindSpeedKmh(i * 3.6);
+		dataset.setWindDirection("SW");
+		return dataset;
+	}
+
+}
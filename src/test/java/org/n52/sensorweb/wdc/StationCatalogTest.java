@@ -0,0 +1,73 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class StationCatalogTest {
+
+	private static final String CATALOG = "# name;DATA_URL;DATA_FILE_TIME_ZONE_PARSE_PATTERN;OUTPUT_filename\n"
+			+ "muenster;http://example.org/ms/;Etc/GMT%s;muenster-wetter\n"
+			+ "\n"
+			+ "osnabrueck;http://example.org/os/;;;DATA_INTERVAL_MIN=5; FETCH_MODE = concurrent\n"
+			+ "muenster;http://example.org/duplicate/\n"
+			+ "invalid.name;http://example.org/invalid/\n"
+			+ "bielefeld;http://example.org/bi/;;;missing-separator\n";
+
+	@Test
+	public void shouldReadStationsInOrder() throws IOException {
+		final StationCatalog catalog = StationCatalog.read(new StringReader(CATALOG), "test");
+
+		assertThat(catalog.size(), is(2));
+		assertThat(catalog.getNames(), is(Arrays.asList("muenster", "osnabrueck")));
+	}
+
+	@Test
+	public void shouldOverrideGivenColumnsOnly() throws IOException {
+		final StationCatalog catalog = StationCatalog.read(new StringReader(CATALOG), "test");
+
+		final Properties muenster = catalog.getProperties("muenster");
+		assertThat(muenster.getProperty(StationCatalog.DATA_URL), is("http://example.org/ms/"));
+		assertThat(muenster.getProperty(StationCatalog.TIME_ZONE_PARSE_PATTERN), is("Etc/GMT%s"));
+		assertThat(muenster.getProperty(StationCatalog.OUTPUT_FILENAME), is("muenster-wetter"));
+
+		final Properties osnabrueck = catalog.getProperties("osnabrueck");
+		assertThat(osnabrueck.getProperty(StationCatalog.TIME_ZONE_PARSE_PATTERN), is(nullValue()));
+		assertThat(osnabrueck.getProperty(StationCatalog.OUTPUT_FILENAME), is("osnabrueck"));
+		assertThat(osnabrueck.getProperty("DATA_INTERVAL_MIN"), is("5"));
+		assertThat(osnabrueck.getProperty("FETCH_MODE"), is("concurrent"));
+
+		assertThat(catalog.getProperties("bielefeld"), is(nullValue()));
+	}
+
+}
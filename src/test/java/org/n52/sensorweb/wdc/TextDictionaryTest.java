@@ -0,0 +1,116 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TextDictionaryTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("wdc-texts", ".dict").toFile();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void shouldKeepCodesAfterReopening() throws Exception {
+		TextDictionary dictionary = TextDictionary.open(file);
+		assertThat(dictionary.encode("windDirection", "SW"), is(0));
+		assertThat(dictionary.encode("windDirection", "W"), is(1));
+		assertThat(dictionary.encode("weatherCode", "61"), is(0));
+		assertThat(dictionary.encode("windDirection", "SW"), is(0));
+		assertThat(dictionary.encode("windDirection", null), is(TextDictionary.MISSING));
+		dictionary.close();
+
+		dictionary = TextDictionary.open(file);
+		assertThat(dictionary.getCode("windDirection", "W"), is(1));
+		assertThat(dictionary.getCode("windDirection", "N"), is(TextDictionary.UNKNOWN));
+		assertThat(dictionary.decode("weatherCode", 0), is("61"));
+		assertThat(dictionary.decode("weatherCode", 1), is(nullValue()));
+		assertThat(dictionary.encode("windDirection", "N"), is(2));
+		dictionary.close();
+		assertThat(TextDictionary.read(file).size("windDirection"), is(3));
+	}
+
+	@Test
+	public void shouldIgnoreTruncatedRecord() throws Exception {
+		final TextDictionary dictionary = TextDictionary.open(file);
+		dictionary.encode("windDirection", "SW");
+		dictionary.encode("windDirection", "NNW");
+		dictionary.close();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+
+		final TextDictionary reopened = TextDictionary.open(file);
+		assertThat(reopened.size("windDirection"), is(1));
+		assertThat(reopened.encode("windDirection", "E"), is(1));
+		reopened.close();
+		assertThat(TextDictionary.read(file).decode("windDirection", 1), is("E"));
+	}
+
+	@Test
+	public void shouldInternEncodedValues() {
+		final TextDictionary dictionary = TextDictionary.inMemory();
+		final byte[] bytes = " Regen, leicht\n".getBytes(StandardCharsets.UTF_8);
+		final String first = dictionary.intern("weatherCodeText", bytes, 1, bytes.length - 1);
+		assertThat(first, is("Regen, leicht"));
+		final String second = dictionary.intern("weatherCodeText", "Regen, leicht".getBytes(StandardCharsets.UTF_8), 0, 13);
+		assertTrue(first == second);
+		assertTrue(first == dictionary.intern("weatherCodeText", new String("Regen, leicht")));
+		assertThat(dictionary.intern("weatherCode", "Stark bewölkt".getBytes(StandardCharsets.UTF_8), 0, 14), is("Stark bewölkt"));
+		assertThat(dictionary.size("weatherCodeText"), is(1));
+	}
+
+	@Test
+	public void shouldStopAddingValuesOfLargeVocabularies() {
+		final TextDictionary dictionary = TextDictionary.inMemory();
+		for (int i = 0; i < TextDictionary.MAX_VALUES_PER_FIELD; i++) {
+			dictionary.encode("comment", Integer.toString(i));
+		}
+		assertThat(dictionary.encode("comment", "new"), is(TextDictionary.UNKNOWN));
+		assertThat(dictionary.intern("comment", "new"), is("new"));
+		assertThat(dictionary.encode("comment", "1"), is(1));
+	}
+
+}
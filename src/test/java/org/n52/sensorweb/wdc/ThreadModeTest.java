@@ -0,0 +1,77 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+public class ThreadModeTest {
+
+	@Test
+	public void shouldParseModeIgnoringCase() {
+		assertThat(ThreadMode.fromString(" Virtual "), is(ThreadMode.VIRTUAL));
+		assertThat(ThreadMode.fromString("platform"), is(ThreadMode.PLATFORM));
+	}
+
+	@Test
+	public void shouldFallBackToPlatformThreadsIfUnsupported() {
+		final ThreadMode expected = ThreadMode.isVirtualThreadSupported()? ThreadMode.VIRTUAL : ThreadMode.PLATFORM;
+		assertThat(ThreadMode.VIRTUAL.getEffectiveMode(), is(expected));
+		assertThat(ThreadMode.PLATFORM.getEffectiveMode(), is(ThreadMode.PLATFORM));
+	}
+
+	@Test
+	public void shouldNamePlatformThreads() {
+		final Thread thread = ThreadMode.PLATFORM.newThreadFactory("test-", true).newThread(new Runnable() {
+			@Override
+			public void run() {}
+		});
+		assertThat(thread.getName(), is("test-1"));
+		assertThat(thread.isDaemon(), is(true));
+	}
+
+	@Test
+	public void shouldRunTasksInEitherMode() throws Exception {
+		for (final ThreadMode mode : ThreadMode.values()) {
+			final ExecutorService executor = mode.newTaskExecutor("test-" + mode + "-", 2);
+			try {
+				final String name = executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return Thread.currentThread().getName();
+					}
+				}).get();
+				assertThat(name, is("test-" + mode + "-1"));
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+}
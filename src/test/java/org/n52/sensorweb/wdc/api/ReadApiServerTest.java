@@ -0,0 +1,299 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.api;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.DataCollector;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.ObservationRingBuffer;
+import org.n52.sensorweb.wdc.RecentDatasets;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+import org.n52.sensorweb.wdc.flow.DatasetPublisher;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+import org.n52.sensorweb.wdc.rollup.RollupEngine;
+
+public class ReadApiServerTest {
+
+	private static final DateTime START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	private File folder;
+
+	private RollingCsvAppender appender;
+
+	private RollupEngine rollups;
+
+	private ReadApiServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		folder = Files.createTempDirectory("wdc-api").toFile();
+		final String prefix = folder.getAbsolutePath() + File.separator + "test_";
+		final CsvArchiveReader archive = new CsvArchiveReader(prefix, "yyyy-MM-dd");
+		final RecentDatasets recent = new RecentDatasets(6);
+		final ObservationRingBuffer observations = new ObservationRingBuffer(12,
+				ObservationRingBuffer.getNumberFields(new MuensterwetterDataset()));
+		appender = new RollingCsvAppender(prefix, "yyyy-MM-dd", new MuensterwetterDataset().getCSVHeader(), Durability.FLUSH, 1, 0);
+		appender.setRollListener(archive);
+		rollups = new RollupEngine(prefix, Collections.singletonList("temperature"), Collections.<String>emptySet());
+		// two days, one dataset every hour, the last six datasets and twelve
+		// observations in memory
+		for (int i = 0; i < 48; i++) {
+			final MuensterwetterDataset dataset = createDataset(START.plusHours(i), i);
+			appender.append(dataset);
+			rollups.append(dataset);
+			recent.add(dataset);
+			observations.add(dataset);
+		}
+		appender.flush();
+		server = new ReadApiServer(new InetSocketAddress("localhost", 0), 2,
+				Collections.<String, DataCollector>singletonMap("test", new StaticCollector(recent, observations, archive, rollups)));
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.stop();
+		appender.close();
+		rollups.close();
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldServeLatestDatasetAsJson() throws IOException {
+		final String json = get("/api/test/latest");
+		assertThat(json, startsWith("{\"timestamp\":\"2015-01-02T23:00:00.000Z\",\"temperature\":47.5,"));
+		assertThat(json, containsString("\"weatherCodeText\":\"Regen, \\\"leicht\\\"\""));
+		assertThat(json, containsString("\"visibility\":null"));
+	}
+
+	@Test
+	public void shouldServeRecentRangeFromMemory() throws IOException {
+		final String csv = get("/api/test/range?from=PT2H&to=2015-01-02T23:00:00Z");
+		final String[] lines = csv.split(System.lineSeparator());
+		assertThat(lines.length, is(4));
+		assertThat(lines[0], is(new MuensterwetterDataset().getCSVHeader()));
+		assertThat(lines[1], startsWith("2015-01-02T21:00:00.000Z,45.5,"));
+		assertThat(lines[3], startsWith("2015-01-02T23:00:00.000Z,47.5,"));
+	}
+
+	@Test
+	public void shouldServeOlderRangeFromFiles() throws IOException {
+		final String csv = get("/api/test/range?from=2015-01-01T22:00:00Z&to=2015-01-02T01:00:00Z");
+		final String[] lines = csv.split(System.lineSeparator());
+		assertThat(lines.length, is(5));
+		assertThat(lines[0], is(new MuensterwetterDataset().getCSVHeader()));
+		assertThat(lines[1], startsWith("2015-01-01T22:00:00.000Z,22.5,"));
+		assertThat(lines[4], startsWith("2015-01-02T01:00:00.000Z,25.5,"));
+
+		final String json = get("/api/test/range?from=2015-01-01T22:00:00Z&to=2015-01-01T23:00:00Z&format=json");
+		assertThat(json, startsWith("[{\"timestamp\":\"2015-01-01T22:00:00.000Z\",\"temperature\":22.5,"));
+		assertThat(json, containsString("\"weatherCodeText\":\"Regen, \\\"leicht\\\"\""));
+	}
+
+	@Test
+	public void shouldServeSeries() throws IOException {
+		assertThat(get("/api/test/series/temperature?from=2015-01-01T00:00:00Z&to=2015-01-01T02:00:00Z"),
+				is("{\"field\":\"temperature\",\"values\":[[1420070400000,0.5],[1420074000000,1.5],[1420077600000,2.5]]}"));
+		assertThat(get("/api/test/series/temperature?from=PT1H&to=2015-01-02T23:00:00Z"),
+				is("{\"field\":\"temperature\",\"values\":[[1420236000000,46.5],[1420239600000,47.5]]}"));
+	}
+
+	@Test
+	public void shouldServeStatistics() throws IOException {
+		// from the observations in memory
+		assertThat(get("/api/test/stats/temperature?from=PT10H&to=2015-01-02T23:00:00Z"),
+				is("{\"field\":\"temperature\",\"from\":\"2015-01-02T13:00:00.000Z\",\"to\":\"2015-01-02T23:00:00.000Z\","
+						+ "\"count\":11,\"min\":37.5,\"max\":47.5,\"mean\":42.5}"));
+		// from the files
+		assertThat(get("/api/test/stats/temperature?from=2015-01-01T00:00:00Z&to=2015-01-01T23:00:00Z"),
+				containsString("\"count\":24,\"min\":0.5,\"max\":23.5,\"mean\":12.0}"));
+		assertThat(get("/api/test/stats/visibility?from=PT1H&to=2015-01-02T23:00:00Z"),
+				containsString("\"count\":0,\"min\":null,\"max\":null,\"mean\":null}"));
+		assertThat(status("/api/test/stats/windDirection"), is(404));
+	}
+
+	@Test
+	public void shouldServeRollups() throws IOException {
+		assertThat(get("/api/test/rollup/daily?from=2015-01-01T00:00:00Z&to=2015-01-02T00:00:00Z"),
+				is("{\"resolution\":\"daily\",\"rollups\":["
+						+ "{\"time\":\"2015-01-01T00:00:00.000Z\",\"datasets\":24,"
+						+ "\"temperature\":{\"count\":24,\"min\":0.5,\"max\":23.5,\"sum\":288.0,\"mean\":12.0}},"
+						+ "{\"time\":\"2015-01-02T00:00:00.000Z\",\"datasets\":24,"
+						+ "\"temperature\":{\"count\":24,\"min\":24.5,\"max\":47.5,\"sum\":864.0,\"mean\":36.0}}]}"));
+		assertThat(status("/api/test/rollup/weekly"), is(400));
+	}
+
+	@Test
+	public void shouldServeMetrics() throws IOException {
+		MetricsRegistry.getDefault().counter("wdc_test_requests_total", "Requests of the test").increment();
+		assertThat(get("/metrics"), containsString("# TYPE wdc_test_requests_total counter\nwdc_test_requests_total 1\n"));
+	}
+
+	@Test
+	public void shouldRejectInvalidRequests() throws IOException {
+		assertThat(status("/api/unknown/latest"), is(404));
+		assertThat(status("/api/test/series/unknown"), is(404));
+		assertThat(status("/api/test/range?from=yesterday"), is(400));
+	}
+
+	private static MuensterwetterDataset createDataset(final DateTime time, final int i) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(time);
+		dataset.setTemperature(i + 0.5);
+		dataset.setWindDirection("SW");
+		dataset.setWeatherCodeText("Regen, \"leicht\"");
+		return dataset;
+	}
+
+	private String get(final String path) throws IOException {
+		final HttpURLConnection connection = open(path);
+		assertThat(connection.getResponseCode(), is(200));
+		try (InputStream in = connection.getInputStream()) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private int status(final String path) throws IOException {
+		final HttpURLConnection connection = open(path);
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private HttpURLConnection open(final String path) throws IOException {
+		return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+	}
+
+	private static class StaticCollector implements DataCollector {
+
+		private final RecentDatasets recent;
+
+		private final ObservationRingBuffer observations;
+
+		private final CsvArchiveReader archive;
+
+		private final RollupEngine rollups;
+
+		StaticCollector(final RecentDatasets recentP,
+				final ObservationRingBuffer observationsP,
+				final CsvArchiveReader archiveP,
+				final RollupEngine rollupsP) {
+			recent = recentP;
+			observations = observationsP;
+			archive = archiveP;
+			rollups = rollupsP;
+		}
+
+		@Override
+		public Dataset collectWeatherData() {
+			return null;
+		}
+
+		@Override
+		public boolean store(final List<? extends Dataset> datasets) {
+			return false;
+		}
+
+		@Override
+		public long getParseIntervalMillis() {
+			return 0;
+		}
+
+		@Override
+		public DateTime getTimeOfLatestData() {
+			return recent.getLatest().getTime();
+		}
+
+		@Override
+		public RecentDatasets getRecentDatasets() {
+			return recent;
+		}
+
+		@Override
+		public ObservationRingBuffer getObservations() {
+			return observations;
+		}
+
+		@Override
+		public CsvArchiveReader getArchive() {
+			return archive;
+		}
+
+		@Override
+		public RollupEngine getRollups() {
+			return rollups;
+		}
+
+		@Override
+		public DatasetPublisher getPublisher() {
+			return null;
+		}
+
+		@Override
+		public void setProperties(final Properties configuration) {}
+
+		@Override
+		public void init() {}
+
+		@Override
+		public void destroy() {}
+	}
+
+}
@@ -0,0 +1,198 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.columnar;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.TextDictionary;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+
+public class ColumnarSinkTest {
+
+	private File folder;
+
+	private String prefix;
+
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("wdc-columnar").toFile();
+		prefix = folder.getAbsolutePath() + File.separator + "test_";
+	}
+
+	@After
+	public void deleteFolder() {
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldWriteColumnsPerDay() throws Exception {
+		final ColumnarSink sink = new ColumnarSink(prefix, 16);
+		sink.append(dataset("2014-01-01T23:50:00.000Z", 1.5, "Regen, leicht"));
+		sink.append(dataset("2014-01-01T23:55:00.000Z", Double.NaN, null));
+		sink.append(dataset("2014-01-02T00:00:00.000Z", -3, "Schnee"));
+		sink.close();
+
+		final List<File> segments = ColumnSegmentReader.findSegments(prefix,
+				new DateTime("2014-01-01T00:00:00.000Z"),
+				new DateTime("2014-01-02T12:00:00.000Z"));
+		assertThat(segments.size(), is(2));
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(segments.get(0))) {
+			assertThat(reader.getRowCount(), is(2));
+			assertThat(reader.getColumnNames().size(), is(13));
+			assertThat(reader.getColumnType("weatherCodeText"), is(ColumnType.TEXT));
+			assertThat(reader.getTimestamps().get(1), is(new DateTime("2014-01-01T23:55:00.000Z").getMillis()));
+			final DoubleBuffer temperatures = reader.getNumbers("temperature");
+			assertThat(temperatures.remaining(), is(2));
+			assertThat(temperatures.get(0), is(1.5));
+			assertTrue(Double.isNaN(temperatures.get(1)));
+			assertThat(reader.getText("weatherCodeText", reader.getTextCodes("weatherCodeText").get(0)), is("Regen, leicht"));
+			assertThat(reader.getTextCodes("weatherCodeText").get(1), is(-1));
+			assertThat(reader.getText("weatherCodeText", -1), is(nullValue()));
+		}
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(segments.get(1))) {
+			assertThat(reader.getRowCount(), is(1));
+			assertThat(reader.getNumbers("temperature").get(0), is(-3.0));
+			assertThat(reader.getText("weatherCodeText", reader.getTextCodes("weatherCodeText").get(0)), is("Schnee"));
+		}
+	}
+
+	@Test
+	public void shouldContinueSegmentAndSkipOlderData() throws Exception {
+		ColumnarSink sink = new ColumnarSink(prefix, 16);
+		sink.append(dataset("2014-01-01T10:00:00.000Z", 1, "Regen"));
+		sink.close();
+
+		sink = new ColumnarSink(prefix, 16);
+		sink.append(dataset("2014-01-01T10:00:00.000Z", 1, "Regen"));
+		sink.append(dataset("2014-01-01T10:05:00.000Z", 2, "Regen"));
+		sink.append(dataset("2014-01-01T10:10:00.000Z", 3, "Nebel"));
+		sink.close();
+
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(sink.getFile(new DateTime("2014-01-01T10:00:00.000Z")))) {
+			assertThat(reader.getRowCount(), is(3));
+			assertThat(reader.getNumbers("temperature").get(2), is(3.0));
+			assertThat(reader.getTextCodes("weatherCodeText").get(1), is(0));
+			assertThat(reader.getTextCodes("weatherCodeText").get(2), is(1));
+			assertThat(reader.findRow(new DateTime("2014-01-01T10:03:00.000Z").getMillis()), is(1));
+			assertThat(reader.findRow(new DateTime("2014-01-01T11:00:00.000Z").getMillis()), is(3));
+		}
+	}
+
+	@Test
+	public void shouldCutOffRowsNotCompletelyWritten() throws Exception {
+		final ColumnarSink sink = new ColumnarSink(prefix, 16);
+		sink.append(dataset("2014-01-01T10:00:00.000Z", 1, "Regen"));
+		sink.append(dataset("2014-01-01T10:05:00.000Z", 2, "Regen"));
+		sink.close();
+		final File file = sink.getFile(new DateTime("2014-01-01T10:00:00.000Z"));
+		// claim a third row whose timestamp never reached the file
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(SegmentLayout.ROWS_OFFSET);
+			raf.writeInt(3);
+		}
+
+		final ColumnarSink reopened = new ColumnarSink(prefix, 16);
+		reopened.append(dataset("2014-01-01T10:10:00.000Z", 3, "Nebel"));
+		reopened.close();
+
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(file)) {
+			assertThat(reader.getRowCount(), is(3));
+			assertThat(reader.getNumbers("temperature").get(2), is(3.0));
+		}
+	}
+
+	@Test
+	public void shouldUseSharedTextCodesInAllSegments() throws Exception {
+		// a segment written before the shared dictionary existed
+		ColumnarSink sink = new ColumnarSink(prefix, 16);
+		sink.append(dataset("2014-01-01T10:00:00.000Z", 1, "Nebel"));
+		sink.close();
+
+		final TextDictionary dictionary = TextDictionary.open(ColumnarSink.getDictionaryFile(prefix));
+		// added by the collector before the datasets reach the sink
+		assertThat(dictionary.encode("weatherCodeText", "Schnee"), is(0));
+		sink = new ColumnarSink(prefix, 16);
+		sink.setDictionary(dictionary);
+		sink.append(dataset("2014-01-01T10:05:00.000Z", 2, "Regen"));
+		sink.append(dataset("2014-01-02T10:00:00.000Z", 3, "Regen"));
+		sink.append(dataset("2014-01-03T10:00:00.000Z", 4, "Nebel"));
+		sink.close();
+		dictionary.close();
+
+		final TextDictionary persisted = TextDictionary.read(ColumnarSink.getDictionaryFile(prefix));
+		final int rain = persisted.getCode("weatherCodeText", "Regen");
+		final int fog = persisted.getCode("weatherCodeText", "Nebel");
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(sink.getFile(new DateTime("2014-01-01T10:00:00.000Z")))) {
+			// keeps its own codes
+			assertThat(reader.getText("weatherCodeText", reader.getTextCodes("weatherCodeText").get(0)), is("Nebel"));
+			assertThat(reader.getText("weatherCodeText", reader.getTextCodes("weatherCodeText").get(1)), is("Regen"));
+		}
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(sink.getFile(new DateTime("2014-01-02T10:00:00.000Z")))) {
+			assertThat(reader.getTextCodes("weatherCodeText").get(0), is(rain));
+			assertThat(reader.getText("weatherCodeText", rain), is("Regen"));
+		}
+		try (ColumnSegmentReader reader = new ColumnSegmentReader(sink.getFile(new DateTime("2014-01-03T10:00:00.000Z")))) {
+			assertThat(reader.getTextCodes("weatherCodeText").get(0), is(fog));
+			assertThat(reader.getText("weatherCodeText", fog), is("Nebel"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void shouldFailWhenSegmentIsFull() throws Exception {
+		final ColumnarSink sink = new ColumnarSink(prefix, 2);
+		try {
+			sink.append(dataset("2014-01-01T10:00:00.000Z", 1, null));
+			sink.append(dataset("2014-01-01T10:05:00.000Z", 2, null));
+			sink.append(dataset("2014-01-01T10:10:00.000Z", 3, null));
+		} finally {
+			sink.close();
+		}
+	}
+
+	private static MuensterwetterDataset dataset(final String time, final double temperature, final String weather) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(new DateTime(time));
+		dataset.setTemperature(temperature);
+		dataset.setWeatherCodeText(weather);
+		return dataset;
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+
+public class CsvArchiveCompressorTest {
+
+	private static final DateTime START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	private File folder;
+
+	private CsvArchiveReader reader;
+
+	private RollingCsvAppender appender;
+
+	private CsvArchiveCompressor compressor;
+
+	@Before
+	public void createArchive() throws IOException {
+		folder = Files.createTempDirectory("wdc-compress").toFile();
+		final String prefix = folder.getAbsolutePath() + File.separator + "test_";
+		reader = new CsvArchiveReader(prefix, "yyyy-MM-dd");
+		appender = new RollingCsvAppender(prefix, "yyyy-MM-dd", "timestamp,value", Durability.FLUSH, 1, 0);
+		// three days, one record per minute, i.e. several blocks per file
+		for (int i = 0; i < 3 * 1440; i++) {
+			final DateTime time = START.plusMinutes(i);
+			appender.append(time, time + "," + i);
+		}
+		compressor = new CsvArchiveCompressor(reader, "test");
+	}
+
+	@After
+	public void deleteArchive() throws IOException {
+		compressor.close();
+		appender.close();
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldReplaceFileByEquivalentArchive() throws IOException {
+		final File csv = appender.getFile(START);
+		final byte[] original = Files.readAllBytes(csv.toPath());
+		reader.index(csv);
+
+		assertTrue(compressor.compress(csv));
+
+		final File archive = GzipBlockArchive.getArchiveFile(csv);
+		assertThat(csv.exists(), is(false));
+		assertThat(SparseTimestampIndex.getIndexFile(csv).exists(), is(false));
+		assertThat(archive.length(), lessThan((long) original.length / 3));
+		assertThat(GzipBlockArchive.load(archive).getBlockCount(), greaterThan(2));
+		try (InputStream in = new GZIPInputStream(new FileInputStream(archive))) {
+			assertTrue(Arrays.equals(readFully(in), original));
+		}
+	}
+
+	@Test
+	public void shouldReadRangesFromArchive() throws IOException {
+		final DateTime from = START.plusHours(10).plusSeconds(30);
+		final DateTime to = START.plusDays(1).plusHours(2);
+		final List<String> expected = reader.readRecords(from, to);
+
+		assertTrue(compressor.compress(appender.getFile(START)));
+
+		assertThat(reader.readRecords(from, to), is(expected));
+		assertThat(reader.readRecords(START, START.plusMinutes(1)).size(), is(2));
+		assertThat(reader.readRecords(START.plusDays(1).minusMinutes(1), START.plusDays(1)).size(), is(2));
+		final List<CsvArchiveReader.Range> ranges = reader.findRanges(START.plusHours(23), START.plusHours(25));
+		assertThat(ranges.size(), is(2));
+		assertTrue(ranges.get(0).isCompressed());
+		assertThat(reader.readHeader(ranges.get(0).getFile()), is("timestamp,value"));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ranges.get(0).writeTo(Channels.newChannel(out));
+		assertThat(out.size(), is((int) ranges.get(0).getLength()));
+		assertTrue(out.toString("UTF-8").startsWith(START.plusHours(23) + ",1380"));
+	}
+
+	@Test
+	public void shouldFindLastRecordInArchive() throws IOException {
+		assertTrue(compressor.compress(appender.getFile(START)));
+
+		assertThat(CsvArchiveReader.readLastRecordTime(GzipBlockArchive.getArchiveFile(appender.getFile(START))),
+				is(START.plusDays(1).minusMinutes(1).getMillis()));
+	}
+
+	@Test
+	public void shouldKeepNewestFileUncompressedOnStart() throws Exception {
+		compressor.start();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (appender.getFile(START.plusDays(1)).exists() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertThat(appender.getFile(START).exists(), is(false));
+		assertThat(appender.getFile(START.plusDays(1)).exists(), is(false));
+		assertThat(appender.getFile(START.plusDays(2)).exists(), is(true));
+		assertThat(reader.getLastRecordTime(), is(START.plusDays(3).minusMinutes(1)));
+		assertThat(reader.readRecords(START, START.plusDays(3)).size(), is(3 * 1440));
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,154 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+
+public class CsvArchiveReaderTest {
+
+	private static final DateTime START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	private File folder;
+
+	private String prefix;
+
+	private CsvArchiveReader reader;
+
+	private RollingCsvAppender appender;
+
+	@Before
+	public void createArchive() throws IOException {
+		folder = Files.createTempDirectory("wdc-archive").toFile();
+		prefix = folder.getAbsolutePath() + File.separator + "test_";
+		reader = new CsvArchiveReader(prefix, "yyyy-MM-dd");
+		appender = new RollingCsvAppender(prefix, "yyyy-MM-dd", "timestamp,value", Durability.FLUSH, 1, 0);
+		appender.setRollListener(reader);
+		// three days, one record every 10 minutes
+		for (int i = 0; i < 3 * 144; i++) {
+			append(START.plusMinutes(i * 10), i);
+		}
+	}
+
+	@After
+	public void deleteArchive() throws IOException {
+		appender.close();
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldIndexFilesOnRollOver() {
+		assertTrue(SparseTimestampIndex.getIndexFile(appender.getFile(START)).exists());
+		assertTrue(SparseTimestampIndex.getIndexFile(appender.getFile(START.plusDays(1))).exists());
+	}
+
+	@Test
+	public void shouldFindTimeOfLastRecordFromFileEnd() throws IOException {
+		assertThat(reader.getLastRecordTime().getMillis(), is(START.plusMinutes((3 * 144 - 1) * 10).getMillis()));
+		// a torn last line is skipped
+		Files.write(appender.getCurrentFile().toPath(), (System.lineSeparator() + "2015-01-03T2").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		assertThat(reader.getLastRecordTime().getMillis(), is(START.plusMinutes((3 * 144 - 1) * 10).getMillis()));
+	}
+
+	@Test
+	public void shouldReadRangeWithinOneFile() throws IOException {
+		final List<String> records = reader.readRecords(START.plusHours(30), START.plusHours(36));
+
+		assertThat(records.size(), is(37));
+		assertThat(records.get(0), is(record(START.plusHours(30), 180)));
+		assertThat(records.get(36), is(record(START.plusHours(36), 216)));
+	}
+
+	@Test
+	public void shouldReturnFilesWithinRangeCompletely() throws IOException {
+		final List<CsvArchiveReader.Range> ranges = reader.findRanges(START.plusHours(23), START.plusHours(49).minusMillis(1));
+
+		assertThat(ranges.size(), is(3));
+		assertThat(ranges.get(1).getFile(), is(appender.getFile(START.plusDays(1))));
+		assertThat(ranges.get(1).getStart(), is((long) ("timestamp,value" + System.lineSeparator()).length()));
+		assertThat(ranges.get(1).getEnd(), is(appender.getFile(START.plusDays(1)).length()));
+		assertThat(reader.readRecords(START.plusHours(23), START.plusHours(49).minusMillis(1)).size(), is(6 + 144 + 6));
+	}
+
+	@Test
+	public void shouldFindRecordsAppendedAfterIndexing() throws IOException {
+		final DateTime last = START.plusMinutes((3 * 144 - 1) * 10);
+		assertThat(reader.readRecords(last.minusHours(1), last.plusHours(1)).size(), is(7));
+
+		append(last.plusMinutes(10), 1000);
+		appender.flush();
+
+		final List<String> records = reader.readRecords(last.minusHours(1), last.plusHours(1));
+		assertThat(records.size(), is(8));
+		assertThat(records.get(7), is(record(last.plusMinutes(10), 1000)));
+	}
+
+	@Test
+	public void shouldRebuildIndexOfReplacedFile() throws IOException {
+		final File file = appender.getFile(START);
+		assertThat(reader.readRecords(START, START.plusHours(1)).size(), is(7));
+
+		Files.write(file.toPath(), ("timestamp,value" + System.lineSeparator() + record(START.plusMinutes(5), 1))
+				.getBytes(StandardCharsets.UTF_8));
+
+		final List<String> records = reader.readRecords(START, START.plusHours(1));
+		assertThat(records.size(), is(1));
+		assertThat(records.get(0), is(record(START.plusMinutes(5), 1)));
+	}
+
+	@Test
+	public void shouldReturnNothingOutsideArchive() throws IOException {
+		assertThat(reader.readRecords(START.minusDays(10), START.minusDays(9)).size(), is(0));
+		assertThat(reader.getCandidateFiles(START.minusDays(10), START.minusDays(9)).size(), is(0));
+		assertThat(reader.readRecords(START.plusHours(1).plusMinutes(1), START.plusHours(1).plusMinutes(2)).size(), is(0));
+	}
+
+	private void append(final DateTime time, final int value) throws IOException {
+		appender.append(time, record(time, value));
+	}
+
+	private static String record(final DateTime time, final int value) {
+		return time.toString() + "," + value;
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+
+public class CsvFormatTest {
+
+	@Test
+	public void shouldFormatDoublesLikeDoubleToString() throws IOException {
+		final double[] values = { 12.3, -5.0, 0.0, -0.0, 1013.25, 0.001, 9999999.9, 1e7, 1e-4, 42, 0.1 + 0.2 };
+		for (final double value : values) {
+			assertThat(format(value), is(Double.toString(value)));
+		}
+		assertThat(format(Double.NaN), is(""));
+	}
+
+	@Test
+	public void shouldFormatRandomDoublesWithoutLosingPrecision() throws IOException {
+		final Random random = new Random(52);
+		for (int i = 0; i < 20000; i++) {
+			final double value = i % 2 == 0?
+					(random.nextInt(2000000) - 1000000) / Math.pow(10, random.nextInt(5)) :
+					Double.longBitsToDouble(random.nextLong());
+			if (Double.isNaN(value)) {
+				continue;
+			}
+			final String formatted = format(value);
+			assertThat(Double.parseDouble(formatted), is(value));
+			assertThat(formatted.length(), lessThanOrEqualTo(Double.toString(value).length()));
+		}
+	}
+
+	@Test
+	public void shouldFormatTimestampsLikeDateTimeToString() throws IOException {
+		final Random random = new Random(52);
+		final DateTimeZone[] zones = {
+				DateTimeZone.UTC,
+				DateTimeZone.forID("Etc/GMT-1"),
+				DateTimeZone.forID("Europe/Berlin"),
+				DateTimeZone.forID("America/St_Johns"),
+				DateTimeZone.forOffsetMillis(-90 * 60 * 1000) };
+		for (int i = 0; i < 10000; i++) {
+			final long millis = (long) (random.nextDouble() * 4102444800000L);
+			final DateTime time = new DateTime(millis, zones[i % zones.length]);
+			final StringBuilder sb = new StringBuilder();
+			CsvFormat.appendTimestamp(sb, time);
+			assertThat(sb.toString(), is(time.toString()));
+		}
+	}
+
+	@Test
+	public void shouldParseTimestamps() {
+		final DateTime utc = new DateTime(2014, 1, 1, 12, 30, 15, 123, DateTimeZone.UTC);
+		final DateTime berlin = utc.withZone(DateTimeZone.forID("Europe/Berlin"));
+		final DateTime stJohns = utc.withZone(DateTimeZone.forID("America/St_Johns"));
+		assertThat(parse(utc.toString()), is(utc.getMillis()));
+		assertThat(parse(berlin.toString()), is(utc.getMillis()));
+		assertThat(parse(stJohns.toString()), is(utc.getMillis()));
+		assertThat(parse("2014-01-01T12:30:15Z"), is(utc.minusMillis(123).getMillis()));
+		assertThat(parse("timestamp"), is(Long.MIN_VALUE));
+		assertThat(parse("2014-13-01T12:30:15.123Z"), is(Long.MIN_VALUE));
+		assertThat(parse(""), is(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void shouldQuoteTextIfRequired() throws IOException {
+		assertThat(text("Regen"), is("Regen"));
+		assertThat(text("Regen, leicht"), is("\"Regen, leicht\""));
+		assertThat(text("5\" Schnee"), is("\"5\"\" Schnee\""));
+		assertThat(text("a\nb"), is("\"a\nb\""));
+		assertThat(text(null), is(""));
+	}
+
+	@Test
+	public void shouldParseQuotedRecords() {
+		final List<String> values = CsvFormat.parseRecord("2014-01-01T12:00:00.000Z,,61,\"Regen, leicht\",\"5\"\" Schnee\"");
+		assertThat(values.size(), is(5));
+		assertThat(values.get(1), is(""));
+		assertThat(values.get(3), is("Regen, leicht"));
+		assertThat(values.get(4), is("5\" Schnee"));
+	}
+
+	@Test
+	public void shouldQuoteWeatherCodeTextInRecord() {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(new DateTime(2014, 1, 1, 12, 0, DateTimeZone.UTC));
+		dataset.setTemperature(12.3);
+		dataset.setWeatherCode("61");
+		dataset.setWeatherCodeText("Regen, leicht");
+		assertThat(dataset.toCSVString(), is("2014-01-01T12:00:00.000Z,12.3,,,,,,,,,,61,\"Regen, leicht\","));
+	}
+
+	private static String format(final double value) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		CsvFormat.appendDouble(sb, value);
+		return sb.toString();
+	}
+
+	private static long parse(final String timestamp) {
+		final ByteBuffer buffer = ByteBuffer.wrap(("x" + timestamp + ",").getBytes(StandardCharsets.US_ASCII));
+		return CsvFormat.parseTimestamp(buffer, 1, buffer.limit() - 1);
+	}
+
+	private static String text(final String value) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		CsvFormat.appendText(sb, value);
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,144 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CsvRepairToolTest {
+
+	private static final String NL = System.lineSeparator();
+
+	private File folder;
+
+	private CsvRepairTool tool;
+
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("wdc-repair").toFile();
+		tool = new CsvRepairTool(folder,
+				"dd.MM.yyyy HH:mm",
+				DateTimeZone.forID("Etc/GMT-1"),
+				Collections.singletonList("Regen, leicht"),
+				2,
+				true);
+	}
+
+	@After
+	public void deleteFolder() {
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldRepairFilesInOnePass() throws Exception {
+		write("a.csv", "time,temperature,weather\n"
+				+ "01.01.2014 00:10,1.5,Regen, leicht\n"
+				+ "01.01.2014 00:20,1.6\n"
+				+ ",klar\n"
+				+ "\n");
+		write("b.csv", "time,temperature,weather\n"
+				+ "02.01.2014 00:10,1.5,\"Regen, leicht\"\n");
+		write("b.csv.idx", "stale");
+		write("a.csv.repair", "left over");
+
+		assertTrue(tool.repairAll());
+
+		assertThat(read("a.csv"), is("time,temperature,weather" + NL
+				+ "2013-12-31T23:10:00.000Z,1.5,\"Regen, leicht\"" + NL
+				+ "2013-12-31T23:20:00.000Z,1.6,klar" + NL));
+		assertThat(read("b.csv"), is("time,temperature,weather" + NL
+				+ "2014-01-01T23:10:00.000Z,1.5,\"Regen, leicht\"" + NL));
+		assertThat(folder.list().length, is(2));
+	}
+
+	@Test
+	public void shouldBeIdempotent() throws Exception {
+		write("a.csv", "time,temperature\n"
+				+ "01.01.2014 00:10,1.5,Regen, leicht\n");
+		tool.repairAll();
+		final String repaired = read("a.csv");
+
+		assertTrue(tool.repairAll());
+
+		assertThat(read("a.csv"), is(repaired));
+	}
+
+	@Test
+	public void shouldSkipFilesRepairedBeforeInterruption() throws Exception {
+		write("a.csv", "time,temperature\n01.01.2014 00:10,1.5\n");
+		write("b.csv", "time,temperature\n02.01.2014 00:10,1.5\n");
+		write(CsvRepairTool.JOURNAL_FILE, "a.csv\n");
+
+		assertTrue(tool.repairAll());
+
+		assertThat(read("a.csv"), is("time,temperature\n01.01.2014 00:10,1.5\n"));
+		assertThat(read("b.csv"), is("time,temperature" + NL + "2014-01-01T23:10:00.000Z,1.5" + NL));
+		assertThat(new File(folder, CsvRepairTool.JOURNAL_FILE).exists(), is(false));
+	}
+
+	@Test
+	public void shouldSkipNewestFilePerPrefix() throws Exception {
+		final String old = "time,temperature\n01.01.2014 00:10,1.5\n";
+		write("ms_2014-01-01.csv", old);
+		write("ms_2014-01-02.csv", old);
+		write("station2_2014-01-01.csv", old);
+		tool = new CsvRepairTool(folder,
+				"dd.MM.yyyy HH:mm",
+				DateTimeZone.forID("Etc/GMT-1"),
+				Collections.singletonList("Regen, leicht"),
+				2,
+				false);
+
+		assertTrue(tool.repairAll());
+
+		assertThat(read("ms_2014-01-01.csv"), is("time,temperature" + NL + "2013-12-31T23:10:00.000Z,1.5" + NL));
+		assertThat(read("ms_2014-01-02.csv"), is(old));
+		assertThat(read("station2_2014-01-01.csv"), is(old));
+		assertThat(CsvRepairTool.getPrefix("station2_2014-01-01.csv"), is("station2_"));
+	}
+
+	private void write(final String name, final String content) throws IOException {
+		Files.write(new File(folder, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String read(final String name) throws IOException {
+		return new String(Files.readAllBytes(new File(folder, name).toPath()), StandardCharsets.UTF_8);
+	}
+
+}
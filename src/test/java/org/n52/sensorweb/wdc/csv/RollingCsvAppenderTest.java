@@ -0,0 +1,169 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.csv;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+
+public class RollingCsvAppenderTest {
+
+	private static final String NL = System.lineSeparator();
+
+	private static final String EMPTY_FIELDS = ",,,,,,,,,,,,";
+
+	private File folder;
+
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("wdc-csv").toFile();
+	}
+
+	@After
+	public void deleteFolder() {
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldWriteHeaderOnceAndRollOverPerDay() throws Exception {
+		final RollingCsvAppender appender = createAppender(Durability.FLUSH);
+
+		appender.append(new DateTime("2014-01-01T23:50:00.000Z"), "a");
+		appender.append(new DateTime("2014-01-01T23:55:00.000Z"), "b");
+		appender.append(new DateTime("2014-01-02T00:00:00.000Z"), "c");
+		appender.close();
+
+		assertThat(read("test_2014-01-01.csv"), is("h" + NL + "a" + NL + "b"));
+		assertThat(read("test_2014-01-02.csv"), is("h" + NL + "c"));
+	}
+
+	@Test
+	public void shouldNotRepeatHeaderWhenReopeningFile() throws Exception {
+		RollingCsvAppender appender = createAppender(Durability.FSYNC);
+		appender.append(new DateTime("2014-01-01T10:00:00.000Z"), "a");
+		appender.close();
+
+		appender = createAppender(Durability.FSYNC);
+		appender.append(new DateTime("2014-01-01T10:05:00.000Z"), "b");
+		appender.close();
+
+		assertThat(read("test_2014-01-01.csv"), is("h" + NL + "a" + NL + "b"));
+	}
+
+	@Test
+	public void shouldWriteHeaderToEmptyFile() throws Exception {
+		new File(folder, "test_2014-01-01.csv").createNewFile();
+		final RollingCsvAppender appender = createAppender(Durability.FLUSH);
+
+		appender.append(new DateTime("2014-01-01T10:00:00.000Z"), "a");
+		appender.close();
+
+		assertThat(read("test_2014-01-01.csv"), is("h" + NL + "a"));
+	}
+
+	@Test
+	public void shouldBufferRecordsUntilFlush() throws Exception {
+		final RollingCsvAppender appender = createAppender(Durability.NONE);
+
+		appender.append(new DateTime("2014-01-01T10:00:00.000Z"), "a");
+		assertThat(read("test_2014-01-01.csv"), is("h"));
+
+		appender.flush();
+		assertThat(read("test_2014-01-01.csv"), is("h" + NL + "a"));
+		appender.close();
+	}
+
+	@Test
+	public void shouldAppendBatchAcrossDays() throws Exception {
+		final RollingCsvAppender appender = createAppender(Durability.FSYNC);
+
+		appender.appendAll(Arrays.asList(
+				createDataset("2014-01-01T23:55:00.000Z", 1),
+				createDataset("2014-01-02T00:00:00.000Z", 2),
+				createDataset("2014-01-02T00:05:00.000Z", 3)));
+		appender.appendAll(Collections.<MuensterwetterDataset>emptyList());
+
+		assertThat(read("test_2014-01-01.csv"), is("h" + NL + "2014-01-01T23:55:00.000Z,1.0" + EMPTY_FIELDS));
+		assertThat(read("test_2014-01-02.csv"), is("h"
+				+ NL + "2014-01-02T00:00:00.000Z,2.0" + EMPTY_FIELDS
+				+ NL + "2014-01-02T00:05:00.000Z,3.0" + EMPTY_FIELDS));
+		appender.close();
+	}
+
+	@Test
+	public void shouldSkipDatasetsAlreadyInFile() throws Exception {
+		RollingCsvAppender appender = createAppender(Durability.FLUSH);
+		appender.appendAll(Arrays.asList(
+				createDataset("2014-01-01T10:00:00.000Z", 1),
+				createDataset("2014-01-01T10:05:00.000Z", 2)));
+		appender.close();
+
+		// the batch is collected again after another sink failed
+		appender = createAppender(Durability.FLUSH);
+		appender.appendAll(Arrays.asList(
+				createDataset("2014-01-01T10:00:00.000Z", 1),
+				createDataset("2014-01-01T10:05:00.000Z", 2),
+				createDataset("2014-01-01T10:10:00.000Z", 3)));
+		appender.append(createDataset("2014-01-01T10:10:00.000Z", 3));
+		appender.close();
+
+		assertThat(read("test_2014-01-01.csv"), is("h"
+				+ NL + "2014-01-01T10:00:00.000Z,1.0" + EMPTY_FIELDS
+				+ NL + "2014-01-01T10:05:00.000Z,2.0" + EMPTY_FIELDS
+				+ NL + "2014-01-01T10:10:00.000Z,3.0" + EMPTY_FIELDS));
+	}
+
+	private static MuensterwetterDataset createDataset(final String time, final double temperature) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(new DateTime(time, DateTimeZone.UTC));
+		dataset.setTemperature(temperature);
+		return dataset;
+	}
+
+	private RollingCsvAppender createAppender(final Durability durability) {
+		return new RollingCsvAppender(folder.getPath() + File.separator + "test_", "yyyy-MM-dd", "h", durability, 2, 0);
+	}
+
+	private String read(final String fileName) throws IOException {
+		return new String(Files.readAllBytes(new File(folder, fileName).toPath()), StandardCharsets.UTF_8);
+	}
+
+}
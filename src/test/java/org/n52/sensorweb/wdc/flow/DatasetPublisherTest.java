@@ -0,0 +1,250 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.flow;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.Dataset;
+import org.n52.sensorweb.wdc.flow.DatasetPublisher.Overflow;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+
+public class DatasetPublisherTest {
+
+	private static final DateTime START = new DateTime(2015, 6, 1, 0, 0, DateTimeZone.UTC);
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	private final DatasetPublisher publisher = new DatasetPublisher("publisher-test", executor);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void shouldDeliverOnlyRequestedDatasets() throws InterruptedException {
+		final RecordingSubscriber subscriber = new RecordingSubscriber(2);
+		publisher.subscribe(subscriber);
+		assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 5; i++) {
+			publisher.publish(dataset(i));
+		}
+		subscriber.awaitMinutes(0, 1);
+		Thread.sleep(100);
+		assertThat(subscriber.getMinutes(), is(Arrays.asList(0, 1)));
+
+		subscriber.subscription.request(10);
+		subscriber.awaitMinutes(0, 1, 2, 3, 4);
+	}
+
+	@Test
+	public void shouldNotBlockPublisherAndOtherSubscribersOnSlowSubscriber() throws InterruptedException {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final RecordingSubscriber slow = new RecordingSubscriber(Long.MAX_VALUE) {
+			@Override
+			public void onNext(final Dataset item) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.onNext(item);
+			}
+		};
+		final RecordingSubscriber fast = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(slow, 3, Overflow.DROP_OLDEST);
+		publisher.subscribe(fast);
+		assertTrue(slow.subscribed.await(5, TimeUnit.SECONDS));
+		assertTrue(fast.subscribed.await(5, TimeUnit.SECONDS));
+
+		publisher.publish(dataset(0));
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		final long start = System.nanoTime();
+		for (int i = 1; i < 10; i++) {
+			publisher.publish(dataset(i));
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		fast.awaitMinutes(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+		release.countDown();
+		// the first dataset was delivered before, the newest three were kept
+		slow.awaitMinutes(0, 7, 8, 9);
+	}
+
+	@Test
+	public void shouldConflateToLatestDataset() throws InterruptedException {
+		final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		publisher.subscribe(subscriber, DatasetPublisher.DEFAULT_CAPACITY, Overflow.CONFLATE);
+		assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 5; i++) {
+			publisher.publish(dataset(i));
+		}
+		subscriber.subscription.request(5);
+		subscriber.awaitMinutes(4);
+	}
+
+	@Test
+	public void shouldDropNewestDatasets() throws InterruptedException {
+		final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		publisher.subscribe(subscriber, 2, Overflow.DROP_NEWEST);
+		assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 5; i++) {
+			publisher.publish(dataset(i));
+		}
+		subscriber.subscription.request(5);
+		subscriber.awaitMinutes(0, 1);
+	}
+
+	@Test
+	public void shouldCancelFailingSubscriberOnly() throws InterruptedException {
+		final RecordingSubscriber failing = new RecordingSubscriber(Long.MAX_VALUE) {
+			@Override
+			public void onNext(final Dataset item) {
+				throw new IllegalStateException("failing subscriber");
+			}
+		};
+		final RecordingSubscriber other = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(failing);
+		publisher.subscribe(other);
+		assertTrue(failing.subscribed.await(5, TimeUnit.SECONDS));
+		assertTrue(other.subscribed.await(5, TimeUnit.SECONDS));
+
+		publisher.publish(dataset(0));
+		assertTrue(failing.done.await(5, TimeUnit.SECONDS));
+		assertTrue(failing.error instanceof IllegalStateException);
+		publisher.publish(dataset(1));
+		other.awaitMinutes(0, 1);
+		assertThat(publisher.getSubscriberCount(), is(1));
+	}
+
+	@Test
+	public void shouldCompleteAfterDeliveringBufferedDatasets() throws InterruptedException {
+		final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(subscriber);
+		assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+		publisher.publish(dataset(0));
+		publisher.publish(dataset(1));
+		publisher.close();
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		assertThat(subscriber.getMinutes(), is(Arrays.asList(0, 1)));
+		assertThat(subscriber.completed, is(true));
+		assertThat(publisher.getSubscriberCount(), is(0));
+	}
+
+	@Test
+	public void shouldSignalErrorOnInvalidRequest() throws InterruptedException {
+		final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		publisher.subscribe(subscriber);
+		assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	private static MuensterwetterDataset dataset(final int minutes) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(START.plusMinutes(minutes));
+		return dataset;
+	}
+
+	private static class RecordingSubscriber implements Flow.Subscriber<Dataset> {
+
+		private final long initialRequest;
+
+		private final List<Integer> minutes = Collections.synchronizedList(new ArrayList<Integer>());
+
+		private final CountDownLatch subscribed = new CountDownLatch(1);
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile Flow.Subscription subscription;
+
+		private volatile Throwable error;
+
+		private volatile boolean completed;
+
+		RecordingSubscriber(final long initialRequestP) {
+			initialRequest = initialRequestP;
+		}
+
+		@Override
+		public void onSubscribe(final Flow.Subscription subscriptionP) {
+			subscription = subscriptionP;
+			if (initialRequest > 0) {
+				subscription.request(initialRequest);
+			}
+			subscribed.countDown();
+		}
+
+		@Override
+		public void onNext(final Dataset item) {
+			minutes.add((int) ((item.getTime().getMillis() - START.getMillis()) / 60000));
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			done.countDown();
+		}
+
+		List<Integer> getMinutes() {
+			synchronized (minutes) {
+				return new ArrayList<>(minutes);
+			}
+		}
+
+		void awaitMinutes(final Integer... expected) throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + 5000;
+			while (!getMinutes().equals(Arrays.asList(expected)) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(getMinutes(), is(Arrays.asList(expected)));
+		}
+
+	}
+
+}
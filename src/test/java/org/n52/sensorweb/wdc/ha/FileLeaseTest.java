@@ -0,0 +1,169 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ha;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileLeaseTest {
+
+	private static final long HEARTBEAT_MILLIS = 100;
+
+	private File folder;
+
+	private File file;
+
+	@Before
+	public void createFolder() throws IOException {
+		folder = Files.createTempDirectory("wdc-lease").toFile();
+		file = new File(folder, "leader.lock");
+	}
+
+	@After
+	public void deleteFolder() {
+		for (final File child : folder.listFiles()) {
+			child.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldTakeOverAfterLeaderClosed() throws InterruptedException {
+		final RecordingListener firstListener = new RecordingListener();
+		final RecordingListener secondListener = new RecordingListener();
+		final FileLease first = new FileLease(file, "first", HEARTBEAT_MILLIS, firstListener);
+		final FileLease second = new FileLease(file, "second", HEARTBEAT_MILLIS, secondListener);
+		try {
+			first.start();
+			assertTrue(firstListener.acquired.await(5, TimeUnit.SECONDS));
+			second.start();
+			Thread.sleep(3 * HEARTBEAT_MILLIS);
+			assertThat(second.isLeader(), is(false));
+
+			first.close();
+			assertTrue(secondListener.acquired.await(5, TimeUnit.SECONDS));
+			assertThat(second.isLeader(), is(true));
+			assertThat(first.isLeader(), is(false));
+		} finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	@Test
+	public void shouldWriteHeartbeats() throws InterruptedException, IOException {
+		final RecordingListener listener = new RecordingListener();
+		final FileLease lease = new FileLease(file, "writer", HEARTBEAT_MILLIS, listener);
+		try {
+			lease.start();
+			assertTrue(listener.acquired.await(5, TimeUnit.SECONDS));
+			final long before = System.currentTimeMillis();
+			Thread.sleep(3 * HEARTBEAT_MILLIS);
+			final String[] heartbeat = lease.readHeartbeat();
+			assertThat(heartbeat[0], is("writer"));
+			assertTrue(Long.parseLong(heartbeat[1]) >= before);
+		} finally {
+			lease.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectInvalidId() {
+		new FileLease(file, "a;b", HEARTBEAT_MILLIS, new RecordingListener());
+	}
+
+	/**
+	 * Runs {@link LeaseHolder} in a second JVM and takes over once it is
+	 * killed, like a standby process.
+	 */
+	@Test
+	public void shouldTakeOverFromKilledProcess() throws Exception {
+		final ProcessBuilder builder = new ProcessBuilder(
+				new File(System.getProperty("java.home"), "bin" + File.separator + "java").getAbsolutePath(),
+				"-cp",
+				System.getProperty("java.class.path"),
+				LeaseHolder.class.getName(),
+				file.getAbsolutePath(),
+				Long.toString(HEARTBEAT_MILLIS));
+		builder.redirectErrorStream(true);
+		final Process process = builder.start();
+		final RecordingListener listener = new RecordingListener();
+		final FileLease standby = new FileLease(file, "standby", HEARTBEAT_MILLIS, listener);
+		try {
+			final BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = output.readLine()) != null && !line.equals(LeaseHolder.LEADING)) {
+				// skip logging
+			}
+			assertThat(line, is(LeaseHolder.LEADING));
+			standby.start();
+			Thread.sleep(5 * HEARTBEAT_MILLIS);
+			assertThat(standby.isLeader(), is(false));
+			assertThat(standby.readHeartbeat()[0], is(LeaseHolder.ID));
+
+			final long killed = System.currentTimeMillis();
+			process.destroy();
+			process.waitFor();
+			assertTrue(listener.acquired.await(5, TimeUnit.SECONDS));
+			assertTrue(System.currentTimeMillis() - killed < 5000);
+			assertThat(standby.isLeader(), is(true));
+		} finally {
+			process.destroy();
+			standby.close();
+		}
+	}
+
+	private static class RecordingListener implements FileLease.Listener {
+
+		private final CountDownLatch acquired = new CountDownLatch(1);
+
+		private final CountDownLatch lost = new CountDownLatch(1);
+
+		@Override
+		public void leadershipAcquired() {
+			acquired.countDown();
+		}
+
+		@Override
+		public void leadershipLost() {
+			lost.countDown();
+		}
+
+	}
+
+}
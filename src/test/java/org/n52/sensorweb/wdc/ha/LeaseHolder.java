@@ -0,0 +1,58 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ha;
+
+import java.io.File;
+
+/**
+ * Holds a {@link FileLease} in a separate process for
+ * {@link FileLeaseTest}. Prints {@value #LEADING} once leading and runs until
+ * killed.
+ */
+public final class LeaseHolder {
+
+	static final String ID = "holder";
+
+	static final String LEADING = "LEADING";
+
+	private LeaseHolder() {}
+
+	public static void main(final String[] args) throws InterruptedException {
+		final FileLease lease = new FileLease(new File(args[0]), ID, Long.parseLong(args[1]), new FileLease.Listener() {
+			@Override
+			public void leadershipAcquired() {
+				System.out.println(LEADING);
+				System.out.flush();
+			}
+
+			@Override
+			public void leadershipLost() {
+				System.exit(2);
+			}
+		});
+		lease.start();
+		Thread.sleep(Long.MAX_VALUE);
+	}
+
+}
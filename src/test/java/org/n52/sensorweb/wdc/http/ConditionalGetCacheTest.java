@@ -0,0 +1,128 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.http;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.ms.StubStationServer;
+
+public class ConditionalGetCacheTest {
+
+	private StubStationServer server;
+
+	private PooledHttpClient client;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubStationServer();
+		server.put("weatherCode.txt", "Regen, leicht");
+		server.put("timezone.txt", "(UTC+1)");
+		client = new PooledHttpClient(1000, 1000, 1024);
+		file = File.createTempFile("httpCache", ".52n");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		file.delete();
+	}
+
+	@Test
+	public void shouldServeUnchangedFileFromCache() throws Exception {
+		final ConditionalGetCache cache = new ConditionalGetCache(1024, null);
+		client.setCache(cache);
+
+		client.get(url("weatherCode.txt"));
+		final HttpResponse response = client.get(url("weatherCode.txt"));
+
+		assertThat(response.isFromCache(), is(true));
+		assertThat(response.isSuccessful(), is(true));
+		assertThat(response.getBodyAsTrimmedString(), is("Regen, leicht"));
+		assertThat(server.getNotModifiedCount(), is(1));
+		assertThat(cache.getMisses(), is(1L));
+		assertThat(cache.getNotModified(), is(1L));
+		assertThat(cache.getBytesSaved(), is(13L));
+	}
+
+	@Test
+	public void shouldDownloadChangedFile() throws Exception {
+		final ConditionalGetCache cache = new ConditionalGetCache(1024, null);
+		client.setCache(cache);
+
+		client.get(url("weatherCode.txt"));
+		server.put("weatherCode.txt", "Regen");
+		final HttpResponse response = client.get(url("weatherCode.txt"));
+
+		assertThat(response.isFromCache(), is(false));
+		assertThat(response.getBodyAsTrimmedString(), is("Regen"));
+		assertThat(cache.getNotModified(), is(0L));
+		assertThat(cache.getBytes(), is(5L));
+	}
+
+	@Test
+	public void shouldEvictLeastRecentlyUsedEntries() throws Exception {
+		final ConditionalGetCache cache = new ConditionalGetCache(16, null);
+		client.setCache(cache);
+
+		client.get(url("weatherCode.txt"));
+		client.get(url("timezone.txt"));
+
+		assertThat(cache.size(), is(1));
+		assertThat(cache.getBytes(), is(7L));
+		assertThat(client.get(url("timezone.txt")).isFromCache(), is(true));
+	}
+
+	@Test
+	public void shouldRestorePersistedEntries() throws Exception {
+		final ConditionalGetCache cache = new ConditionalGetCache(1024, file);
+		client.setCache(cache);
+		client.get(url("weatherCode.txt"));
+		cache.persist();
+
+		final ConditionalGetCache restored = new ConditionalGetCache(1024, file);
+		restored.load();
+		client.setCache(restored);
+		final HttpResponse response = client.get(url("weatherCode.txt"));
+
+		assertThat(restored.size(), is(1));
+		assertThat(response.isFromCache(), is(true));
+		assertThat(response.getBodyAsTrimmedString(), is("Regen, leicht"));
+	}
+
+	private URL url(final String fileName) throws IOException {
+		return new URL(server.getDataUrl() + fileName);
+	}
+
+}
@@ -0,0 +1,185 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.http;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.ThreadMode;
+import org.n52.sensorweb.wdc.ms.StubStationServer;
+
+public class PooledHttpClientTest {
+
+	private StubStationServer server;
+
+	private PooledHttpClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubStationServer();
+		server.put("temperature.txt", " 12,3 \r\n");
+		client = new PooledHttpClient(1000, 500, 1024);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void shouldReturnTrimmedBody() throws Exception {
+		final HttpResponse response = client.get(url("temperature.txt"));
+
+		assertThat(response.getStatusCode(), is(200));
+		assertThat(response.getBodyAsTrimmedString(), is("12,3"));
+		assertThat(response.getBodyLength(), is(8));
+	}
+
+	@Test
+	public void shouldReuseConnections() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			client.get(url("temperature.txt"));
+		}
+
+		assertThat(server.getRequestCount("temperature.txt"), is(50));
+		assertThat(server.getConnectionCount(), is(1));
+	}
+
+	@Test
+	public void shouldReuseReceiveBuffer() throws Exception {
+		client.get(url("temperature.txt"));
+		final long allocations = PooledHttpClient.getBufferAllocations();
+
+		for (int i = 0; i < 100; i++) {
+			client.get(url("temperature.txt"));
+		}
+
+		assertThat(PooledHttpClient.getBufferAllocations(), is(allocations));
+	}
+
+	@Test
+	public void shouldReuseReleasedBuffersAcrossPooledThreads() throws Exception {
+		final PooledHttpClient pooling = new PooledHttpClient(1000, 500, 1024) {
+			@Override
+			boolean isPooling(final Thread thread) {
+				return true;
+			}
+		};
+		final long allocations = PooledHttpClient.getBufferAllocations();
+
+		for (int i = 0; i < 100; i++) {
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						pooling.get(url("temperature.txt")).release();
+					} catch (final IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+
+		assertThat(server.getRequestCount("temperature.txt"), is(100));
+		assertThat(PooledHttpClient.getBufferAllocations(), lessThan(allocations + 2));
+	}
+
+	@Test
+	public void shouldReuseReleasedBuffersAcrossVirtualThreads() throws Exception {
+		Assume.assumeTrue(ThreadMode.isVirtualThreadSupported());
+		final ExecutorService executor = ThreadMode.VIRTUAL.newTaskExecutor("52n-wdc-test-", 1);
+		try {
+			final long allocations = PooledHttpClient.getBufferAllocations();
+			for (int i = 0; i < 100; i++) {
+				executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						client.get(url("temperature.txt")).release();
+						return null;
+					}
+				}).get();
+			}
+
+			assertThat(PooledHttpClient.getBufferAllocations(), lessThan(allocations + 2));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void shouldRejectTooLargeResponses() throws Exception {
+		final char[] large = new char[2048];
+		Arrays.fill(large, 'x');
+		server.put("large.txt", new String(large));
+
+		try {
+			client.get(url("large.txt"));
+			fail("Expected ResponseTooLargeException");
+		} catch (final ResponseTooLargeException e) {
+			assertThat(client.getOversizedResponses(), is(1L));
+		}
+		assertThat(client.get(url("temperature.txt")).getBodyAsTrimmedString(), is("12,3"));
+	}
+
+	@Test
+	public void shouldReturnStatusCodeOfMissingFiles() throws Exception {
+		final HttpResponse response = client.get(url("missing.txt"));
+
+		assertThat(response.isSuccessful(), is(false));
+		assertThat(response.getStatusCode(), is(404));
+	}
+
+	@Test
+	public void shouldTimeOutOnSlowResponses() throws Exception {
+		server.setDelay("temperature.txt", 3000);
+		final long start = System.currentTimeMillis();
+		try {
+			client.get(url("temperature.txt"));
+			fail("Expected SocketTimeoutException");
+		} catch (final SocketTimeoutException e) {
+			assertThat(System.currentTimeMillis() - start, lessThan(2000L));
+			assertThat(client.getFailures(), is(1L));
+		}
+	}
+
+	private URL url(final String fileName) throws IOException {
+		return new URL(server.getDataUrl() + fileName);
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.metrics;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+	@Test
+	public void shouldReturnSameMetricForSameNameAndLabels() {
+		final MetricsRegistry registry = new MetricsRegistry();
+		final Counter counter = registry.counter("test_total", "help", "collector", "a");
+		assertThat(registry.counter("test_total", "help", "collector", "a") == counter, is(true));
+		assertThat(registry.counter("test_total", "help", "collector", "b") == counter, is(false));
+		assertThat(registry.getMetrics().size(), is(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectMetricOfOtherType() {
+		final MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test", "help");
+		registry.gauge("test", "help");
+	}
+
+	@Test
+	public void shouldReadCounterFromSource() {
+		final MetricsRegistry registry = new MetricsRegistry();
+		final AtomicLong count = new AtomicLong(3);
+		registry.counter("test_total", "help", new Counter.Source() {
+			@Override
+			public long getCount() {
+				return count.get();
+			}
+		});
+		count.incrementAndGet();
+
+		assertThat(registry.counter("test_total", "help").getCount(), is(4L));
+	}
+
+	@Test
+	public void shouldWritePrometheusFormat() throws IOException {
+		final MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_bytes_total", "Received bytes", "url", "http://example.org/\"a\"").add(42);
+		registry.gauge("test_lag_seconds", "Lag", new Gauge.Source() {
+			@Override
+			public double getValue() {
+				return 1.5;
+			}
+		});
+		final Histogram histogram = registry.histogram("test_seconds", "Duration", new double[] { 0.1, 1 }, "collector", "ms");
+		histogram.record(0.05);
+		histogram.record(0.5);
+		histogram.record(0.7);
+		histogram.recordNanos(5000000000L);
+
+		final StringBuilder out = new StringBuilder();
+		PrometheusFormat.write(out, registry);
+		assertThat(out.toString(), is("# HELP test_bytes_total Received bytes\n"
+				+ "# TYPE test_bytes_total counter\n"
+				+ "test_bytes_total{url=\"http://example.org/\\\"a\\\"\"} 42\n"
+				+ "# HELP test_lag_seconds Lag\n"
+				+ "# TYPE test_lag_seconds gauge\n"
+				+ "test_lag_seconds 1.5\n"
+				+ "# HELP test_seconds Duration\n"
+				+ "# TYPE test_seconds histogram\n"
+				+ "test_seconds_bucket{collector=\"ms\",le=\"0.1\"} 1\n"
+				+ "test_seconds_bucket{collector=\"ms\",le=\"1.0\"} 3\n"
+				+ "test_seconds_bucket{collector=\"ms\",le=\"+Inf\"} 4\n"
+				+ "test_seconds_sum{collector=\"ms\"} 6.25\n"
+				+ "test_seconds_count{collector=\"ms\"} 4\n"));
+		assertThat(histogram.getMedianBucket(), is(1.0));
+		assertThat(histogram.getP99Bucket(), is(Double.POSITIVE_INFINITY));
+	}
+
+	@Test
+	public void shouldExportToJmx() throws JMException {
+		final MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("test_jmx_before_total", "help", "url", "http://example.org:80/a,b").add(3);
+		registry.exportToJmx();
+		registry.gauge("test_jmx_after", "help", "collector", "ms").set(2);
+
+		assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(
+				new ObjectName("org.n52.sensorweb.wdc:type=counter,name=test_jmx_before_total,url="
+						+ ObjectName.quote("http://example.org:80/a,b")),
+				"Count"), is((Object) 3L));
+		assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(
+				new ObjectName("org.n52.sensorweb.wdc:type=gauge,name=test_jmx_after,collector=\"ms\""),
+				"Value"), is((Object) 2.0));
+	}
+
+}
@@ -0,0 +1,180 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ByteParsersTest {
+
+	private static final int FUZZ_RUNS = 200000;
+
+	/**
+	 * bytes the fuzzed values are made of: digits, separators, signs, white
+	 * space, HTML, units, exponents and non-ASCII bytes
+	 */
+	private static final byte[] ALPHABET = "0123456789,.,.-+  \t\n<b>/m eEdxINaf".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void shouldParseRecordedStationValues() {
+		assertThat(parseDecimal("12,3"), is(12.3));
+		assertThat(parseDecimal("87"), is(87.0));
+		assertThat(parseDecimal("3,4"), is(3.4));
+		assertThat(parseDecimal("1013,2"), is(1013.2));
+		assertThat(parseDecimal("225"), is(225.0));
+		assertThat(parseDecimal("7,9"), is(7.9));
+		assertThat(parseDecimal("-12,5\r\n"), is(-12.5));
+		assertThat(parseDecimal("  0,0 "), is(0.0));
+		assertThat(parseDigits("<b>10000</b> m"), is(10000.0));
+		assertThat(parseDigits("<b>850</b> m\n"), is(850.0));
+	}
+
+	@Test
+	public void shouldReturnNaNForEmptyValues() {
+		assertTrue(Double.isNaN(parseDecimal("")));
+		assertTrue(Double.isNaN(parseDecimal(" \r\n")));
+		assertTrue(Double.isNaN(parseDigits("")));
+		assertTrue(Double.isNaN(parseDigits("<b></b> m")));
+	}
+
+	@Test
+	public void shouldRejectInvalidNumbers() {
+		for (final String value : new String[] { ",", "-", "1,013,2", "n/a", "12,3 °C" }) {
+			try {
+				parseDecimal(value);
+				fail("Expected NumberFormatException for '" + value + "'");
+			} catch (final NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void shouldParseValuesOnlyBetweenIndices() {
+		final byte[] bytes = "xx1013,2yy".getBytes(StandardCharsets.US_ASCII);
+		assertThat(ByteParsers.parseDecimal(bytes, 2, 8), is(1013.2));
+		assertThat(ByteParsers.parseDigits(bytes, 1, 5), is(101.0));
+	}
+
+	@Test
+	public void shouldParseLikeDoubleParseDoubleAtPrecisionLimits() {
+		for (final String value : new String[] { "9007199254740992", "9007199254740993", "0,1", "0,30000000000000004",
+				"123456789012345678901234567890", "0,0000000000000000000000123", "-0", "1e3", "Infinity", "0x1p3" }) {
+			assertEquals(value, parseDouble(value), parseDecimal(value));
+		}
+		assertThat(parseDigits("<b>123456789012345678901234567890</b>"), is(1.2345678901234568E29));
+	}
+
+	@Test
+	public void shouldParseFuzzedValuesLikeDecodedStrings() {
+		final Random random = new Random(52);
+		for (int i = 0; i < FUZZ_RUNS; i++) {
+			final byte[] bytes = randomValue(random);
+			final String decoded = new String(bytes, StandardCharsets.UTF_8).trim();
+			final String description = "'" + decoded + "'";
+			assertEquals(description, parseReference(decoded), parseDecimalOrError(bytes));
+			assertEquals(description, parseReference(decoded.replaceAll("[^\\d]", "")),
+					ByteParsers.parseDigits(bytes, 0, bytes.length));
+		}
+	}
+
+	private static byte[] randomValue(final Random random) {
+		final byte[] bytes = new byte[random.nextInt(24)];
+		for (int i = 0; i < bytes.length; i++) {
+			final int kind = random.nextInt(10);
+			if (kind < 6) {
+				bytes[i] = (byte) ('0' + random.nextInt(10));
+			} else if (kind < 9) {
+				bytes[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+			} else {
+				bytes[i] = (byte) random.nextInt(256);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the decoded value parsed like the fields did before
+	 * 		{@link ByteParsers}, {@link Double#NaN} for invalid numbers
+	 */
+	private static double parseDouble(final String value) {
+		final Double reference = parseReference(value);
+		return reference != null? reference : Double.NaN;
+	}
+
+	/**
+	 * @return like {@link #parseDouble(String)}, but <code>null</code> for
+	 * 		invalid numbers
+	 */
+	private static Double parseReference(final String value) {
+		if (value.isEmpty()) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(value.replace(",", "."));
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Double parseDecimalOrError(final byte[] bytes) {
+		try {
+			return ByteParsers.parseDecimal(bytes, 0, bytes.length);
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Compares the bits, so <code>NaN</code> equals <code>NaN</code> and
+	 * <code>0.0</code> differs from <code>-0.0</code>.
+	 */
+	private static void assertEquals(final String description, final Double expected, final Double actual) {
+		if (expected == null || actual == null) {
+			assertTrue(description + ": expected " + expected + " but was " + actual, expected == actual);
+		} else {
+			assertTrue(description + ": expected " + expected + " but was " + actual,
+					Double.doubleToRawLongBits(expected) == Double.doubleToRawLongBits(actual)
+					|| expected.isNaN() && actual.isNaN());
+		}
+	}
+
+	private static double parseDecimal(final String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return ByteParsers.parseDecimal(bytes, 0, bytes.length);
+	}
+
+	private static double parseDigits(final String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return ByteParsers.parseDigits(bytes, 0, bytes.length);
+	}
+
+}
@@ -0,0 +1,78 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.net.URL;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.metrics.MetricsRegistry;
+
+public class HttpUtilTest {
+
+	private StubStationServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		HttpUtil.reset();
+		server = new StubStationServer();
+		server.put("weatherCode.txt", "Regen, leicht");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		HttpUtil.reset();
+	}
+
+	@Test
+	public void shouldReplaceClientWithChangedSettings() {
+		final Properties configuration = new Properties();
+		configuration.setProperty(HttpUtil.HTTP_READ_TIMEOUT_MILLIS, "1234");
+
+		HttpUtil.configure(configuration);
+
+		assertThat(HttpUtil.getClient().getReadTimeoutMillis(), is(1234));
+	}
+
+	@Test
+	public void shouldExportCountsOfConfiguredCache() throws Exception {
+		final Properties configuration = new Properties();
+		configuration.setProperty(HttpUtil.HTTP_CACHE_ENABLED, "true");
+		HttpUtil.configure(configuration);
+		final URL url = new URL(server.getDataUrl() + "weatherCode.txt");
+
+		HttpUtil.download(url, "default", "weatherCode");
+		HttpUtil.download(url, "default", "weatherCode");
+
+		assertThat(MetricsRegistry.getDefault().counter("wdc_http_cache_not_modified_total", "").getCount(), is(1L));
+		assertThat(MetricsRegistry.getDefault().counter("wdc_http_cache_saved_bytes_total", "").getCount(), is(13L));
+	}
+
+}
@@ -23,12 +23,41 @@
  */
 package org.n52.sensorweb.wdc.ms;
 
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.Properties;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
+import org.n52.sensorweb.wdc.WeatherDataCollector;
 
 public class MuensterwetterRealTimeCollectorTest {
 
+	private static final long FIELD_DELAY_MILLIS = 300;
+
+	private static final DateTime EPOCH = new DateTime(0, DateTimeZone.UTC);
+
+	private StubStationServer server;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new StubStationServer();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
 	@Test
 	public final void shouldNotThrowAnyExceptionIfTryingToConnectToNotExistingService() throws Exception {
 		final MuensterwetterRealTimeCollector collector = new MuensterwetterRealTimeCollector();
@@ -40,4 +69,123 @@ public class MuensterwetterRealTimeCollectorTest {
 		collector.collectWeatherData();
 	}
 
+	@Test
+	public final void shouldCollectAllFieldsSequentially() throws Exception {
+		final Properties configuration = loadStationConfiguration();
+		final MuensterwetterRealTimeCollector collector = createCollector(configuration);
+
+		final MuensterwetterDataset data = collector.getData(EPOCH);
+
+		assertThat(data.getTime().getMillis(), is(new DateTime("2014-01-01T11:00:00.000Z").getMillis()));
+		assertThat(data.getTemperature(), is(12.3));
+		assertThat(data.getAirPressure(), is(1013.2));
+		assertThat(data.getVisibility(), is(10000.0));
+		assertThat(data.getWindDirection(), is("SW"));
+		assertThat(data.getWeatherCodeText(), is("Regen, leicht"));
+	}
+
+	@Test
+	public final void shouldDownloadFieldsConcurrently() throws Exception {
+		final Properties configuration = loadStationConfiguration();
+		configuration.put("FETCH_MODE", "concurrent");
+		delayAllFields(configuration);
+		final MuensterwetterRealTimeCollector collector = createCollector(configuration);
+
+		final long start = System.currentTimeMillis();
+		final MuensterwetterDataset data = collector.getData(EPOCH);
+		final long duration = System.currentTimeMillis() - start;
+
+		// sequential download would take 13 * FIELD_DELAY_MILLIS
+		assertThat(duration, lessThan(4 * FIELD_DELAY_MILLIS));
+		assertThat(data.getTemperature(), is(12.3));
+		assertThat(data.getGlobalRadiation(), is(321.0));
+		assertThat(data.getWeatherCode(), is("61"));
+	}
+
+	@Test
+	public final void shouldLeaveOnlySlowFieldEmptyAfterDeadline() throws Exception {
+		final Properties configuration = loadStationConfiguration();
+		configuration.put("FETCH_MODE", "concurrent");
+		configuration.put("FETCH_DEADLINE_MILLIS", "1000");
+		delayAllFields(configuration);
+		server.setDelay(configuration.getProperty("DATA_FILE_airPressure"), 10000);
+		final MuensterwetterRealTimeCollector collector = createCollector(configuration);
+
+		final long start = System.currentTimeMillis();
+		final MuensterwetterDataset data = collector.getData(EPOCH);
+		final long duration = System.currentTimeMillis() - start;
+
+		assertThat(duration, lessThan(2000L));
+		assertTrue(Double.isNaN(data.getAirPressure()));
+		assertThat(data.getTemperature(), is(12.3));
+		assertThat(data.getRelativeHumidity(), is(87.0));
+		assertThat(data.getWindSpeedBft(), is(3.0));
+	}
+
+	@Test
+	public final void shouldRecoverLastTimeFromNewestCsvFile() throws Exception {
+		final File folder = Files.createTempDirectory("wdc-recover").toFile();
+		try {
+			final Properties configuration = loadStationConfiguration();
+			configuration.put("OUTPUT_folder", folder.getAbsolutePath() + File.separator);
+			configuration.put("LAST_TIME_FILE_folder", folder.getAbsolutePath() + File.separator);
+			configuration.put(WeatherDataCollector.COLLECTOR_NAME, "recover");
+			final MuensterwetterRealTimeCollector collector = createCollector(configuration);
+			assertThat(collector.getLastTimeOfMeasurement(), is(EPOCH));
+			final MuensterwetterDataset collected = collector.collectWeatherData();
+			assertTrue(collector.store(Collections.singletonList(collected)));
+			final DateTime stored = new DateTime("2014-01-01T11:00:00.000Z", DateTimeZone.UTC);
+			assertThat(collector.getLastTimeOfMeasurement(), is(stored));
+			collector.destroy();
+
+			// the state file got lost
+			assertTrue(new File(folder, "lastTimes.52n").delete());
+			final MuensterwetterRealTimeCollector restarted = createCollector(configuration);
+			assertThat(restarted.getLastTimeOfMeasurement().getMillis(), is(stored.getMillis()));
+			restarted.destroy();
+		} finally {
+			for (final File file : folder.listFiles()) {
+				file.delete();
+			}
+			folder.delete();
+		}
+	}
+
+	private Properties loadStationConfiguration() throws Exception {
+		final Properties configuration = new Properties();
+		configuration.load(getClass().getResourceAsStream("/config.properties"));
+		configuration.put(MuensterwetterRealTimeCollector.DATA_URL, server.getDataUrl());
+		server.put(configuration.getProperty("DATA_FILE_time"), "01.01.2014 12:00\n");
+		server.put(configuration.getProperty("DATA_FILE_timeZone"), "(UTC+1)");
+		server.put(configuration.getProperty("DATA_FILE_airTemperature"), "12,3");
+		server.put(configuration.getProperty("DATA_FILE_relativeHumidity"), "87");
+		server.put(configuration.getProperty("DATA_FILE_airPressure"), "1013,2");
+		server.put(configuration.getProperty("DATA_FILE_windspeed"), "3,4");
+		server.put(configuration.getProperty("DATA_FILE_windspeedKmh"), "12,2");
+		server.put(configuration.getProperty("DATA_FILE_windspeedBft"), "3");
+		server.put(configuration.getProperty("DATA_FILE_windMax10min"), "7,9");
+		server.put(configuration.getProperty("DATA_FILE_windDirectionDeg"), "225");
+		server.put(configuration.getProperty("DATA_FILE_windDirection"), "SW");
+		server.put(configuration.getProperty("DATA_FILE_globalRadiation"), "321");
+		server.put(configuration.getProperty("DATA_FILE_visibility"), "<b>10000</b> m");
+		server.put(configuration.getProperty("DATA_FILE_weatherCode"), "61");
+		server.put(configuration.getProperty("DATA_FILE_weatherCodeTextDe"), "Regen, leicht");
+		return configuration;
+	}
+
+	private void delayAllFields(final Properties configuration) {
+		for (final String key : configuration.stringPropertyNames()) {
+			if (key.startsWith("DATA_FILE_") && !key.startsWith("DATA_FILE_time")) {
+				server.setDelay(configuration.getProperty(key), FIELD_DELAY_MILLIS);
+			}
+		}
+	}
+
+	private MuensterwetterRealTimeCollector createCollector(final Properties configuration) {
+		final MuensterwetterRealTimeCollector collector = new MuensterwetterRealTimeCollector();
+		collector.setProperties(configuration);
+		collector.init();
+		return collector;
+	}
+
 }
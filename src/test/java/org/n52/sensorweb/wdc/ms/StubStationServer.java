@@ -0,0 +1,155 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server serving the station files below <code>/data/</code> for
+ * tests. Each file might be delayed individually. Responses carry an ETag and
+ * requests with a matching <code>If-None-Match</code> header are answered
+ * with <code>304 Not Modified</code>.
+ */
+public class StubStationServer {
+
+	private static final String CONTEXT = "/data/";
+
+	static {
+		// avoid delayed ACKs slowing down keep-alive connections
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> delays = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+	private final Set<InetSocketAddress> connections = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+	private final AtomicInteger notModified = new AtomicInteger();
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	public StubStationServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext(CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				final String fileName = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+				getRequestCounter(fileName).incrementAndGet();
+				connections.add(exchange.getRemoteAddress());
+				final Long delay = delays.get(fileName);
+				if (delay != null) {
+					try {
+						Thread.sleep(delay);
+					} catch (final InterruptedException e) {
+						exchange.close();
+						return;
+					}
+				}
+				final byte[] content = files.get(fileName);
+				if (content == null) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				final String eTag = "\"" + Arrays.hashCode(content) + "\"";
+				exchange.getResponseHeaders().set("ETag", eTag);
+				if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				exchange.sendResponseHeaders(200, content.length);
+				try (OutputStream os = exchange.getResponseBody()) {
+					os.write(content);
+				}
+			}
+		});
+		server.start();
+	}
+
+	public void put(final String fileName, final String content) {
+		files.put(fileName, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public void setDelay(final String fileName, final long delayMillis) {
+		delays.put(fileName, delayMillis);
+	}
+
+	public int getRequestCount(final String fileName) {
+		return getRequestCounter(fileName).get();
+	}
+
+	private AtomicInteger getRequestCounter(final String fileName) {
+		requests.putIfAbsent(fileName, new AtomicInteger());
+		return requests.get(fileName);
+	}
+
+	/**
+	 * @return the number of <code>304 Not Modified</code> responses sent so far
+	 */
+	public int getNotModifiedCount() {
+		return notModified.get();
+	}
+
+	/**
+	 * @return the number of distinct client connections used for all requests so far
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	public String getDataUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + CONTEXT;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+public class TimeZoneResolverTest {
+
+	private final TimeZoneResolver resolver = new TimeZoneResolver("Etc/GMT%s");
+
+	@Test
+	public void shouldResolveRecordedTimeZoneFiles() {
+		assertThat(resolve("(UTC+1)"), is(DateTimeZone.forID("Etc/GMT-1")));
+		assertThat(resolve("(UTC+2)\n"), is(DateTimeZone.forID("Etc/GMT-2")));
+		assertThat(resolve("(UTC-5)"), is(DateTimeZone.forID("Etc/GMT+5")));
+		assertThat(resolve("(UTC+1)"), is(DateTimeZone.forID("Etc/GMT-1")));
+		assertThat(resolve("unknown"), is(DateTimeZone.UTC));
+		assertThat(resolve(""), is(DateTimeZone.UTC));
+	}
+
+	@Test
+	public void shouldReturnCachedZoneForSameContent() {
+		final DateTimeZone zone = resolve("(UTC+1)");
+		assertTrue(zone == resolve(" (UTC+1)\r\n"));
+		final byte[] bytes = "xx(UTC+1)yy".getBytes(StandardCharsets.US_ASCII);
+		assertTrue(zone == resolver.resolve(bytes, 2, 9));
+	}
+
+	private DateTimeZone resolve(final String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return resolver.resolve(bytes, 0, bytes.length);
+	}
+
+}
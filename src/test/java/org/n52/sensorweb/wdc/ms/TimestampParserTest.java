@@ -0,0 +1,136 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.ms;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+public class TimestampParserTest {
+
+	private static final String PATTERN = "dd.MM.yyyy HH:mm";
+
+	private static final DateTimeZone UTC_PLUS_ONE = DateTimeZone.forID("Etc/GMT-1");
+
+	private static final DateTimeZone BERLIN = DateTimeZone.forID("Europe/Berlin");
+
+	private static final int FUZZ_RUNS = 100000;
+
+	private static final byte[] ALPHABET = "0123456789.: -".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void shouldParseRecordedTimeFile() {
+		final TimestampParser parser = new TimestampParser(PATTERN);
+		assertTrue(parser.isDirect());
+		final byte[] bytes = "01.01.2014 12:00\n".getBytes(StandardCharsets.US_ASCII);
+		assertThat(parser.parse(bytes, 0, bytes.length, UTC_PLUS_ONE), is(new DateTime("2014-01-01T11:00:00.000Z", DateTimeZone.UTC)));
+	}
+
+	@Test
+	public void shouldUseFormatterForOtherPatternsAndValues() {
+		final TimestampParser parser = new TimestampParser("d.M.yyyy H:mm");
+		assertThat(parser.isDirect(), is(false));
+		assertThat(parser.parse("1.1.2014 12:00", UTC_PLUS_ONE), is(new DateTime("2014-01-01T11:00:00.000Z", DateTimeZone.UTC)));
+		// not matching the width of the direct pattern
+		assertThat(new TimestampParser(PATTERN).parse("1.01.2014 12:00", UTC_PLUS_ONE),
+				is(new DateTime("2014-01-01T11:00:00.000Z", DateTimeZone.UTC)));
+		assertThat(new TimestampParser("yyyy-MM-dd'T'HH:mm").isDirect(), is(false));
+	}
+
+	@Test
+	public void shouldRejectInvalidTimes() {
+		final TimestampParser parser = new TimestampParser(PATTERN);
+		for (final String value : new String[] { "31.02.2014 12:00", "01.13.2014 12:00", "01.01.2014 24:00",
+				"01.01.2014 12-00", "30.03.2014 02:30" }) {
+			try {
+				parser.parse(value, BERLIN);
+				fail("Expected IllegalArgumentException for '" + value + "'");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void shouldParseLikeFormatter() {
+		final Random random = new Random(52);
+		final TimestampParser parser = new TimestampParser(PATTERN);
+		final DateTimeFormatter formatter = DateTimeFormat.forPattern(PATTERN);
+		final DateTimeZone[] zones = { DateTimeZone.UTC, UTC_PLUS_ONE, BERLIN };
+		for (int i = 0; i < FUZZ_RUNS; i++) {
+			final byte[] bytes = random.nextBoolean()? randomTime(random) : randomBytes(random);
+			final String value = new String(bytes, StandardCharsets.US_ASCII);
+			final DateTimeZone zone = zones[random.nextInt(zones.length)];
+			assertThat("'" + value + "'", parseOrNull(parser, bytes, zone), is(parseOrNull(formatter, value.trim(), zone)));
+		}
+	}
+
+	/**
+	 * @return a value of the pattern, not necessarily valid
+	 */
+	private static byte[] randomTime(final Random random) {
+		final String value = String.format("%02d.%02d.%04d %02d:%02d",
+				random.nextInt(33), random.nextInt(14), random.nextInt(10000), random.nextInt(26), random.nextInt(62));
+		final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+		if (random.nextInt(4) == 0) {
+			bytes[random.nextInt(bytes.length)] = ALPHABET[random.nextInt(ALPHABET.length)];
+		}
+		return bytes;
+	}
+
+	private static byte[] randomBytes(final Random random) {
+		final byte[] bytes = new byte[random.nextInt(20)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+		}
+		return bytes;
+	}
+
+	private static Long parseOrNull(final TimestampParser parser, final byte[] bytes, final DateTimeZone zone) {
+		try {
+			return parser.parse(bytes, 0, bytes.length, zone).getMillis();
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static Long parseOrNull(final DateTimeFormatter formatter, final String value, final DateTimeZone zone) {
+		try {
+			return formatter.withZone(zone).parseDateTime(value).getMillis();
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+ * ﻿Copyright (C) 2013
+ * by 52 North Initiative for Geospatial Open Source Software GmbH
+ *
+ * Contact: Andreas Wytzisk
+ * 52 North Initiative for Geospatial Open Source Software GmbH
+ * Martin-Luther-King-Weg 24
+ * 48155 Muenster, Germany
+ * info@52north.org
+ *
+ * This program is free software; you can redistribute and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ *
+ * This program is distributed WITHOUT ANY WARRANTY; even without the implied
+ * WARRANTY OF MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program (see gnu-gpl v2.txt). If not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA or
+ * visit the Free Software Foundation web page, http://www.fsf.org.
+ */
+package org.n52.sensorweb.wdc.rollup;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sensorweb.wdc.csv.CsvArchiveReader;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender;
+import org.n52.sensorweb.wdc.csv.RollingCsvAppender.Durability;
+import org.n52.sensorweb.wdc.ms.MuensterwetterDataset;
+
+public class RollupEngineTest {
+
+	private static final DateTime START = new DateTime(2015, 1, 31, 0, 0, DateTimeZone.UTC);
+
+	private static final List<String> FIELDS = Arrays.asList("temperature", "windDirectionDegree", "globalRadiation");
+
+	private File folder;
+
+	private String prefix;
+
+	private RollupEngine engine;
+
+	@Before
+	public void createEngine() throws IOException {
+		folder = Files.createTempDirectory("wdc-rollup").toFile();
+		prefix = folder.getAbsolutePath() + File.separator + "test_";
+		engine = createEngine(prefix);
+	}
+
+	@After
+	public void deleteFolder() throws IOException {
+		engine.close();
+		for (final File file : folder.listFiles()) {
+			file.delete();
+		}
+		folder.delete();
+	}
+
+	@Test
+	public void shouldAggregateHoursAndDaysAcrossMonths() throws IOException {
+		// two days, one dataset every 10 minutes, crossing into February
+		for (int i = 0; i < 2 * 144; i++) {
+			engine.append(createDataset(START.plusMinutes(i * 10), i));
+		}
+
+		final List<Rollup> days = engine.query(Resolution.DAILY, START, START.plusDays(2));
+		assertThat(days.size(), is(2));
+		assertThat(days.get(1).getTime(), is(START.plusDays(1)));
+		assertThat(days.get(1).getDatasetCount(), is(144L));
+		final Aggregate temperature = days.get(0).getAggregate("temperature");
+		assertThat(temperature.getCount(), is(144L));
+		assertThat(temperature.getMin(), is(0.0));
+		assertThat(temperature.getMax(), is(143.0));
+		assertThat(temperature.getMean(), is(71.5));
+		assertThat(temperature.getSum(), is(10296.0));
+		assertThat(days.get(0).getAggregate("globalRadiation").getCount(), is(0L));
+		assertThat(days.get(0).getAggregate("globalRadiation").getMean(), is(Double.NaN));
+
+		final List<Rollup> hours = engine.query(Resolution.HOURLY, START.plusHours(23), START.plusHours(24));
+		assertThat(hours.size(), is(2));
+		assertThat(hours.get(1).getAggregate("temperature").getMean(), is(146.5));
+		assertThat(new File(prefix + "2015-02-hourly.rollup").exists(), is(true));
+	}
+
+	@Test
+	public void shouldAverageDirectionsAsVectors() throws IOException {
+		final MuensterwetterDataset north1 = createDataset(START, 0);
+		north1.setWindDirectionDegree(350);
+		final MuensterwetterDataset north2 = createDataset(START.plusMinutes(10), 0);
+		north2.setWindDirectionDegree(20);
+		engine.appendAll(Arrays.asList(north1, north2));
+
+		final Aggregate direction = engine.query(Resolution.HOURLY, START, START).get(0).getAggregate("windDirectionDegree");
+		assertThat(direction.getMean(), closeTo(5.0, 1e-9));
+		assertThat(direction.getSum(), is(Double.NaN));
+	}
+
+	@Test
+	public void shouldPersistAndSkipReplayedDatasets() throws IOException {
+		for (int i = 0; i < 6; i++) {
+			engine.append(createDataset(START.plusMinutes(i * 10), i));
+		}
+		engine.close();
+		engine = createEngine(prefix);
+		// replayed after a failed store
+		engine.append(createDataset(START.plusMinutes(50), 5));
+		engine.append(createDataset(START.plusMinutes(60), 6));
+
+		final List<Rollup> hours = engine.query(Resolution.HOURLY, START, START.plusHours(1));
+		assertThat(hours.get(0).getDatasetCount(), is(6L));
+		assertThat(hours.get(0).getAggregate("temperature").getSum(), is(15.0));
+		assertThat(hours.get(1).getDatasetCount(), is(1L));
+	}
+
+	@Test
+	public void shouldRebuildMissingRollupsFromCsvFiles() throws IOException {
+		final String csvPrefix = prefix + "csv_";
+		final CsvArchiveReader archive = new CsvArchiveReader(csvPrefix, "yyyy-MM-dd");
+		try (RollingCsvAppender appender = new RollingCsvAppender(csvPrefix,
+				"yyyy-MM-dd",
+				new MuensterwetterDataset().getCSVHeader(),
+				Durability.FLUSH,
+				1,
+				0)) {
+			for (int i = 0; i < 2 * 144; i++) {
+				final MuensterwetterDataset dataset = createDataset(START.plusMinutes(i * 10), i);
+				appender.append(dataset);
+				engine.append(dataset);
+			}
+		}
+		final List<Rollup> expected = engine.query(Resolution.HOURLY, START, START.plusDays(2));
+		engine.close();
+		new File(prefix + "2015-02-hourly.rollup").delete();
+		new File(prefix + "2015-01-daily.rollup").delete();
+		engine = createEngine(prefix);
+
+		assertThat(engine.rebuild(archive), is(2 * 144));
+		assertThat(engine.rebuild(archive), is(0));
+
+		final List<Rollup> rebuilt = engine.query(Resolution.HOURLY, START, START.plusDays(2));
+		assertThat(rebuilt.size(), is(expected.size()));
+		for (int i = 0; i < rebuilt.size(); i++) {
+			assertThat(rebuilt.get(i).toString(), is(expected.get(i).toString()));
+		}
+		assertThat(engine.query(Resolution.DAILY, START, START).get(0).getAggregate("temperature").getMean(), is(71.5));
+	}
+
+	private static RollupEngine createEngine(final String prefix) {
+		return new RollupEngine(prefix, FIELDS, Collections.singleton("windDirectionDegree"));
+	}
+
+	private static MuensterwetterDataset createDataset(final DateTime time, final double temperature) {
+		final MuensterwetterDataset dataset = new MuensterwetterDataset();
+		dataset.setTime(time);
+		dataset.setTemperature(temperature);
+		return dataset;
+	}
+
+}